@@ -43,7 +43,7 @@ public final class Meta implements AnyVar {
         if (sort.isProp()) throw new IllegalStateException("expected a non-Prop sort"); // TODO: better reporting
       }
     }
-    state.metas().put(this, t);
+    state.solve(this, t);
     return true;
   }
 
@@ -71,6 +71,20 @@ public final class Meta implements AnyVar {
     } else return new Meta(contextTele, ImmutableSeq.empty(), name, result, sourcePos);
   }
 
+  /**
+   * @param keep for each binding of {@link #contextTele}, whether it is kept
+   * @return a meta in the context without the bindings not kept,
+   * or null if the rest of the context, the telescope or the result depends on them
+   */
+  public @Nullable Meta prune(@NotNull ImmutableSeq<Boolean> keep) {
+    var kept = contextTele.zipView(keep).filter(p -> p._2).map(p -> p._1).toImmutableSeq();
+    var types = kept.view().concat(telescope).map(Term.Param::type);
+    if (result != null) types = types.appended(result);
+    for (var pruned : contextTele.zipView(keep).filterNot(p -> p._2))
+      for (var type : types) if (type.findUsages(pruned._1.ref()) > 0) return null;
+    return new Meta(kept, telescope, name, result, sourcePos);
+  }
+
   public @NotNull PiTerm asPi(
     @NotNull String domName, @NotNull String codName, boolean explicit,
     int ulift, @NotNull ImmutableSeq<Arg<Term>> contextArgs
@@ -3,6 +3,7 @@
 package org.aya.core.def;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.value.LazyValue;
 import org.aya.concrete.stmt.TeleDecl;
 import org.aya.core.pat.Pat;
 import org.aya.core.term.SortTerm;
@@ -19,7 +20,7 @@ import java.util.Objects;
 public final class CtorDef extends SubLevelDef {
   public final @NotNull DefVar<DataDef, TeleDecl.DataDecl> dataRef;
   public final @NotNull DefVar<CtorDef, TeleDecl.DataCtor> ref;
-  public final @NotNull Partial.Split<Term> clauses;
+  private final @NotNull LazyValue<Partial.Split<Term>> clauses;
   public final @NotNull ImmutableSeq<Pat> pats;
 
   /**
@@ -31,6 +32,16 @@ public final class CtorDef extends SubLevelDef {
     @NotNull ImmutableSeq<Pat> pats,
     @NotNull ImmutableSeq<Term.Param> ownerTele, @NotNull ImmutableSeq<Term.Param> selfTele,
     @NotNull Partial.Split<Term> clauses, @NotNull Term result, boolean coerce
+  ) {
+    this(dataRef, ref, pats, ownerTele, selfTele, LazyValue.of(() -> clauses), result, coerce);
+  }
+
+  /** @param clauses computed on first use, see {@link org.aya.core.serde.AyacFormat} */
+  public CtorDef(
+    @NotNull DefVar<DataDef, TeleDecl.DataDecl> dataRef, @NotNull DefVar<CtorDef, TeleDecl.DataCtor> ref,
+    @NotNull ImmutableSeq<Pat> pats,
+    @NotNull ImmutableSeq<Term.Param> ownerTele, @NotNull ImmutableSeq<Term.Param> selfTele,
+    @NotNull LazyValue<Partial.Split<Term>> clauses, @NotNull Term result, boolean coerce
   ) {
     super(ownerTele, selfTele, result, coerce);
     ref.core = this;
@@ -40,6 +51,10 @@ public final class CtorDef extends SubLevelDef {
     this.pats = pats;
   }
 
+  public @NotNull Partial.Split<Term> clauses() {
+    return clauses.get();
+  }
+
   public static @NotNull ImmutableSeq<Term.Param> conTele(@NotNull DefVar<CtorDef, TeleDecl.DataCtor> conVar) {
     if (conVar.core != null) return conVar.core.selfTele;
     else return Objects.requireNonNull(conVar.concrete.signature).param();
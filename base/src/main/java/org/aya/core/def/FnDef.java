@@ -4,11 +4,17 @@ package org.aya.core.def;
 
 import kala.collection.immutable.ImmutableSeq;
 import kala.control.Either;
+import kala.control.Option;
+import kala.value.LazyValue;
 import org.aya.concrete.stmt.TeleDecl;
+import org.aya.core.pat.DecisionTree;
+import org.aya.core.repr.ShapeRecognition;
 import org.aya.core.term.Term;
+import org.aya.core.visitor.Nameless;
 import org.aya.generic.Modifier;
 import org.aya.ref.DefVar;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.EnumSet;
 import java.util.function.BiFunction;
@@ -19,19 +25,43 @@ import java.util.function.BiFunction;
 public final class FnDef extends UserDef<Term> {
   public final @NotNull EnumSet<Modifier> modifiers;
   public final @NotNull DefVar<FnDef, TeleDecl.FnDecl> ref;
-  public final @NotNull Either<Term, ImmutableSeq<Term.Matching>> body;
+  private final @NotNull LazyValue<Either<Term, ImmutableSeq<Term.Matching>>> body;
+  private final @NotNull LazyValue<Option<DecisionTree>> decisionTree;
+  private final @NotNull LazyValue<Option<Nameless>> nameless;
+  /**
+   * The arithmetic operation it computes, if recognized.
+   *
+   * @see org.aya.core.repr.AyaShape.AyaNatOpShape
+   */
+  public @Nullable ShapeRecognition shape;
 
   public FnDef(
     @NotNull DefVar<FnDef, TeleDecl.FnDecl> ref, @NotNull ImmutableSeq<Term.Param> telescope,
     @NotNull Term result,
     @NotNull EnumSet<Modifier> modifiers,
     @NotNull Either<Term, ImmutableSeq<Term.Matching>> body
+  ) {
+    this(ref, telescope, result, modifiers, LazyValue.of(() -> body));
+  }
+
+  /** @param body computed on first use, see {@link org.aya.core.serde.AyacFormat} */
+  public FnDef(
+    @NotNull DefVar<FnDef, TeleDecl.FnDecl> ref, @NotNull ImmutableSeq<Term.Param> telescope,
+    @NotNull Term result,
+    @NotNull EnumSet<Modifier> modifiers,
+    @NotNull LazyValue<Either<Term, ImmutableSeq<Term.Matching>>> body
   ) {
     super(telescope, result);
     this.modifiers = modifiers;
     ref.core = this;
     this.ref = ref;
     this.body = body;
+    this.decisionTree = LazyValue.of(() -> body().isRight()
+      ? DecisionTree.compile(body().getRightValue(), modifiers.contains(Modifier.Overlap))
+      : Option.none());
+    this.nameless = LazyValue.of(() -> body().isLeft()
+      ? Option.some(Nameless.close(telescope.view().map(Term.Param::ref), body().getLeftValue()))
+      : Option.none());
   }
 
   public static <T> BiFunction<Term, Either<Term, ImmutableSeq<Term.Matching>>, T>
@@ -42,4 +72,18 @@ public final class FnDef extends UserDef<Term> {
   public @NotNull DefVar<FnDef, TeleDecl.FnDecl> ref() {
     return ref;
   }
+
+  public @NotNull Either<Term, ImmutableSeq<Term.Matching>> body() {
+    return body.get();
+  }
+
+  /** @return the clauses compiled on first use, or none if they cannot be compiled */
+  public @NotNull Option<DecisionTree> decisionTree() {
+    return decisionTree.get();
+  }
+
+  /** @return the body, if it is a term, in the form computed on first use to unfold the calls */
+  public @NotNull Option<Nameless> nameless() {
+    return nameless.get();
+  }
 }
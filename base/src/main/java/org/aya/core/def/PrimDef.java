@@ -80,6 +80,7 @@ public final class PrimDef extends TopLevelDef<Term> {
     }
   }
 
+  /** Synchronized, since one factory is shared by all modules of a library build. */
   public static class Factory {
     private final class Initializer {
       public final @NotNull PrimDef.PrimSeed coe = new PrimSeed(ID.COE, this::coe, ref -> {
@@ -310,7 +311,7 @@ public final class PrimDef extends TopLevelDef<Term> {
         .toImmutableMap();
     }
 
-    public @NotNull PrimDef factory(@NotNull ID name, @NotNull DefVar<PrimDef, TeleDecl.PrimDecl> ref) {
+    public synchronized @NotNull PrimDef factory(@NotNull ID name, @NotNull DefVar<PrimDef, TeleDecl.PrimDecl> ref) {
       assert !have(name);
       var rst = seeds.get(name).supply(ref);
       defs.put(name, rst);
@@ -325,11 +326,11 @@ public final class PrimDef extends TopLevelDef<Term> {
       return getCall(id, ImmutableSeq.empty());
     }
 
-    public @NotNull Option<PrimDef> getOption(@NotNull ID name) {
+    public synchronized @NotNull Option<PrimDef> getOption(@NotNull ID name) {
       return Option.ofNullable(defs.get(name));
     }
 
-    public boolean have(@NotNull ID name) {
+    public synchronized boolean have(@NotNull ID name) {
       return defs.containsKey(name);
     }
 
@@ -338,11 +339,11 @@ public final class PrimDef extends TopLevelDef<Term> {
       return false;
     }
 
-    public @NotNull PrimDef getOrCreate(@NotNull ID name, @NotNull DefVar<PrimDef, TeleDecl.PrimDecl> ref) {
+    public synchronized @NotNull PrimDef getOrCreate(@NotNull ID name, @NotNull DefVar<PrimDef, TeleDecl.PrimDecl> ref) {
       return getOption(name).getOrElse(() -> factory(name, ref));
     }
 
-    public @NotNull Option<ImmutableSeq<@NotNull ID>> checkDependency(@NotNull ID name) {
+    public synchronized @NotNull Option<ImmutableSeq<@NotNull ID>> checkDependency(@NotNull ID name) {
       return seeds.getOption(name).map(seed -> seed.dependency().filterNot(this::have));
     }
 
@@ -350,11 +351,11 @@ public final class PrimDef extends TopLevelDef<Term> {
       return seeds.get(name).unfold.apply(primCall, state);
     }
 
-    public void clear() {
+    public synchronized void clear() {
       defs.clear();
     }
 
-    public void clear(@NotNull ID name) {
+    public synchronized void clear(@NotNull ID name) {
       defs.remove(name);
     }
   }
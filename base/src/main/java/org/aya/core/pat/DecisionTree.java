@@ -0,0 +1,300 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.pat;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableLinkedHashMap;
+import kala.collection.mutable.MutableList;
+import kala.control.Option;
+import org.aya.core.term.*;
+import org.aya.core.visitor.Nameless;
+import org.aya.ref.DefVar;
+import org.aya.ref.LocalVar;
+import org.aya.util.Arg;
+import org.aya.util.error.WithPos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * The clauses of a function compiled into a decision tree, so that unfolding a call
+ * inspects each (sub)term of the arguments at most once, instead of matching every clause
+ * from scratch like {@link org.aya.core.visitor.DeltaExpander#tryUnfoldClauses}.
+ * The result is the same: the first matching clause is chosen, and, unless the clauses are
+ * order-independent, unfolding is stuck as soon as a clause before it is stuck.
+ * <p>
+ * Every subterm of the arguments being inspected is an <i>occurrence</i>, numbered at compile time.
+ * A {@link Switch} inspects an occurrence and binds the arguments of the constructor (or tuple) to new occurrences.
+ *
+ * @param bodies      the bodies of the clauses, whose parameters are the variables of the patterns from left to right
+ * @param occurrences the number of occurrences
+ */
+public record DecisionTree(
+  @NotNull ImmutableSeq<Term.Matching> clauses,
+  @NotNull ImmutableSeq<Nameless> bodies,
+  boolean orderIndependent,
+  int occurrences,
+  @Nullable Node root
+) {
+  /** Stop compiling if the tree gets too large, as it may be exponential in the number of clauses. */
+  private static final int MAX_NODES = 2048;
+
+  /** null as a node means no clause matches. */
+  public sealed interface Node {
+  }
+
+  /** @param bindings in the order of the parameters of the body */
+  public record Leaf(int clause, @NotNull ImmutableSeq<Binding> bindings) implements Node {
+  }
+
+  public record Binding(@NotNull LocalVar var, int occurrence) {
+  }
+
+  /**
+   * @param otherwise taken if the constructor is not in {@link #ctors}, or,
+   *                  if the clauses are order-independent, if the occurrence is stuck
+   */
+  public record Switch(
+    int occurrence,
+    @NotNull ImmutableMap<DefVar<?, ?>, Branch> ctors,
+    @Nullable Branch tuple,
+    @Nullable Node otherwise
+  ) implements Node {
+  }
+
+  /** @param children the occurrences of the arguments */
+  public record Branch(int @NotNull [] children, @Nullable Node then) {
+  }
+
+  /**
+   * @return none if some clause has a pattern that is not supported, like literals,
+   * or the tree is too large
+   */
+  public static @NotNull Option<DecisionTree> compile(@NotNull ImmutableSeq<Term.Matching> clauses, boolean orderIndependent) {
+    if (clauses.isEmpty()) return Option.none();
+    var arity = clauses.first().patterns().size();
+    if (clauses.anyMatch(clause -> !clause.patterns().sizeEquals(arity) || !supported(clause.patterns())))
+      return Option.none();
+    var vars = clauses.map(clause -> {
+      var buffer = MutableList.<LocalVar>create();
+      clause.patterns().forEach(pat -> bindings(pat, buffer));
+      return buffer.toImmutableSeq();
+    });
+    var compiler = new Compiler(orderIndependent, arity, vars);
+    var occurrences = ImmutableSeq.fill(arity, i -> i);
+    var rows = clauses.mapIndexed((i, clause) ->
+      Row.of(clause.patterns(), occurrences, i, ImmutableSeq.empty(), false));
+    try {
+      var root = compiler.compile(occurrences, rows);
+      var bodies = clauses.mapIndexed((i, clause) -> Nameless.close(vars.get(i), clause.body()));
+      return Option.some(new DecisionTree(clauses, bodies, orderIndependent, compiler.occurrences, root));
+    } catch (TooLarge ignored) {
+      return Option.none();
+    }
+  }
+
+  private static boolean supported(@NotNull ImmutableSeq<Pat> pats) {
+    return pats.allMatch(pat -> switch (pat) {
+      case Pat.Bind ignored -> true;
+      case Pat.Ctor ctor -> supported(ctor.params());
+      case Pat.Tuple tuple -> supported(tuple.pats());
+      default -> false;
+    });
+  }
+
+  private static void bindings(@NotNull Pat pat, @NotNull MutableList<LocalVar> buffer) {
+    switch (pat) {
+      case Pat.Bind bind -> buffer.append(bind.bind());
+      case Pat.Ctor ctor -> ctor.params().forEach(p -> bindings(p, buffer));
+      case Pat.Tuple tuple -> tuple.pats().forEach(p -> bindings(p, buffer));
+      default -> throw new IllegalStateException("unsupported pattern: " + pat);
+    }
+  }
+
+  /** @see org.aya.core.visitor.DeltaExpander#tryUnfoldClauses */
+  public @NotNull Option<WithPos<Term>> unfold(@NotNull SeqLike<Arg<Term>> args, int ulift, @NotNull UnaryOperator<Term> pre) {
+    assert args.sizeEquals(clauses.first().patterns());
+    var values = new Term[occurrences];
+    args.forEachIndexed((i, arg) -> values[i] = arg.term());
+    var node = root;
+    while (node instanceof Switch sw) {
+      var head = head(values[sw.occurrence], pre);
+      var branch = switch (head) {
+        case ConCall con -> sw.ctors.getOrNull(con.ref());
+        case TupTerm ignored -> sw.tuple;
+        case null -> {
+          if (!orderIndependent) return Option.none();
+          yield null;
+        }
+        default -> null;
+      };
+      if (branch == null) {
+        node = sw.otherwise;
+        continue;
+      }
+      var items = head instanceof ConCall call ? call.conArgs().view().map(Arg::term) : ((TupTerm) head).items().view();
+      var i = 0;
+      for (var item : items) values[branch.children[i++]] = item;
+      node = branch.then;
+    }
+    if (!(node instanceof Leaf leaf)) return Option.none();
+    var newBody = bodies.get(leaf.clause)
+      .instantiate(leaf.bindings.view().map(binding -> values[binding.occurrence]), ulift);
+    return Option.some(new WithPos<>(clauses.get(leaf.clause).sourcePos(), newBody));
+  }
+
+  /**
+   * @return a constructor call or a tuple, or null if stuck
+   * @see PatMatcher
+   */
+  private static @Nullable Term head(@NotNull Term term, @NotNull UnaryOperator<Term> pre) {
+    while (true) {
+      term = pre.apply(term);
+      switch (term) {
+        case ConCall con -> {
+          return con;
+        }
+        case TupTerm tup -> {
+          return tup;
+        }
+        case IntegerTerm lit -> term = lit.constructorForm();
+        case ListTerm lit -> term = lit.constructorForm();
+        case MetaPatTerm metaPat -> {
+          var solution = metaPat.ref().solution().get();
+          if (solution == null) return null;
+          term = solution.toTerm();
+        }
+        default -> {
+          return null;
+        }
+      }
+    }
+  }
+
+  /**
+   * @param cells  the patterns to match, null for a wildcard
+   * @param failed whether a pattern of the clause is known to fail, which drops the row
+   *               once the cells left are matched, see {@link #fail}
+   */
+  private record Row(
+    @NotNull ImmutableSeq<@Nullable Pat> cells, int clause,
+    @NotNull ImmutableSeq<Binding> bindings, boolean failed
+  ) {
+    /** Turns the variable patterns into bindings. */
+    static @NotNull Row of(
+      @NotNull ImmutableSeq<@Nullable Pat> cells, @NotNull ImmutableSeq<Integer> occurrences,
+      int clause, @NotNull ImmutableSeq<Binding> bindings, boolean failed
+    ) {
+      var newBindings = MutableList.from(bindings);
+      var newCells = cells.mapIndexed((i, cell) -> {
+        if (cell instanceof Pat.Bind bind) {
+          newBindings.append(new Binding(bind.bind(), occurrences.get(i)));
+          return null;
+        }
+        return cell;
+      });
+      return new Row(newCells, clause, newBindings.toImmutableSeq(), failed);
+    }
+
+    /** The row with the cell at the column replaced by the given cells. */
+    @NotNull Row expand(int column, @NotNull ImmutableSeq<@Nullable Pat> with, @NotNull ImmutableSeq<Integer> occurrences) {
+      var newCells = cells.take(column).appendedAll(with).appendedAll(cells.drop(column + 1));
+      return of(newCells, occurrences, clause, bindings, failed);
+    }
+
+    /**
+     * A row that fails at the column is dropped, unless it is not yet known whether
+     * the cells before the column are stuck, which make the whole unfolding stuck.
+     * Matching a clause stops at the first pattern that fails, so the cells from the column on,
+     * which is replaced by {@code arity} cells, are never tested.
+     */
+    @Nullable Row fail(int column, int arity, boolean orderIndependent) {
+      if (orderIndependent || cells.take(column).allMatch(cell -> cell == null)) return null;
+      var rest = ImmutableSeq.<Pat>fill(cells.size() - 1 - column + arity, i -> null);
+      return new Row(cells.take(column).appendedAll(rest), clause, bindings, true);
+    }
+  }
+
+  private static final class TooLarge extends Exception {
+  }
+
+  private static final class Compiler {
+    private final boolean orderIndependent;
+    /** The variables of the patterns of each clause */
+    private final @NotNull ImmutableSeq<ImmutableSeq<LocalVar>> vars;
+    private int occurrences;
+    private int nodes = 0;
+
+    private Compiler(boolean orderIndependent, int occurrences, @NotNull ImmutableSeq<ImmutableSeq<LocalVar>> vars) {
+      this.orderIndependent = orderIndependent;
+      this.occurrences = occurrences;
+      this.vars = vars;
+    }
+
+    private @Nullable Node compile(@NotNull ImmutableSeq<Integer> occs, @NotNull ImmutableSeq<Row> rows) throws TooLarge {
+      if (++nodes > MAX_NODES) throw new TooLarge();
+      if (rows.isEmpty()) return null;
+      var first = rows.first();
+      var column = first.cells.indexWhere(cell -> cell != null);
+      if (column < 0) {
+        // The first clause fails after everything before is matched
+        if (first.failed) return compile(occs, rows.drop(1));
+        return new Leaf(first.clause, vars.get(first.clause).map(var ->
+          first.bindings.find(binding -> binding.var == var).get()));
+      }
+      var occurrence = occs.get(column);
+      // The constructors in the order they appear
+      var ctors = MutableLinkedHashMap.<DefVar<?, ?>, Integer>of();
+      var tupleArity = -1;
+      for (var row : rows) {
+        var pat = row.cells.get(column);
+        if (pat != null) switch (pat) {
+          case Pat.Ctor ctor -> ctors.putIfAbsent(ctor.ref(), ctor.params().size());
+          case Pat.Tuple tuple -> tupleArity = tuple.pats().size();
+          default -> throw new IllegalStateException("unsupported pattern: " + pat);
+        }
+      }
+      var branches = MutableLinkedHashMap.<DefVar<?, ?>, Branch>of();
+      for (var ctor : ctors.toImmutableSeq()) {
+        var ref = ctor._1;
+        branches.put(ref, branch(occs, rows, column, ctor._2, pat ->
+          pat instanceof Pat.Ctor c && c.ref() == ref ? c.params() : null));
+      }
+      var tuple = tupleArity < 0 ? null : branch(occs, rows, column, tupleArity, pat ->
+        pat instanceof Pat.Tuple t ? t.pats() : null);
+      // No constructor matches, so every row testing the column fails
+      var otherwise = compile(occs, rows.mapNotNull(row -> row.cells.get(column) == null ? row
+        : row.fail(column, 1, orderIndependent)));
+      return new Switch(occurrence, branches.toImmutableMap(), tuple, otherwise);
+    }
+
+    private interface Specializer {
+      /** @return the subpatterns if the pattern matches the constructor */
+      @Nullable ImmutableSeq<Pat> apply(@NotNull Pat pat);
+    }
+
+    private @NotNull Branch branch(
+      @NotNull ImmutableSeq<Integer> occs, @NotNull ImmutableSeq<Row> rows,
+      int column, int arity, @NotNull Specializer specializer
+    ) throws TooLarge {
+      var children = new int[arity];
+      for (var i = 0; i < arity; i++) children[i] = occurrences++;
+      var childOccs = occs.take(column)
+        .appendedAll(ImmutableSeq.fill(arity, i -> children[i]))
+        .appendedAll(occs.drop(column + 1));
+      var wildcards = ImmutableSeq.<Pat>fill(arity, i -> null);
+      var specialized = rows.mapNotNull(row -> {
+        var pat = row.cells.get(column);
+        if (pat == null) return row.expand(column, wildcards, childOccs);
+        var subPats = specializer.apply(pat);
+        return subPats != null
+          ? row.expand(column, subPats, childOccs)
+          : row.fail(column, arity, orderIndependent);
+      });
+      return new Branch(children, compile(childOccs, specialized));
+    }
+  }
+}
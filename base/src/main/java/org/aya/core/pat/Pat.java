@@ -33,6 +33,8 @@ import org.jetbrains.annotations.Debug;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.math.BigInteger;
+
 /**
  * Patterns in the core syntax.
  *
@@ -182,7 +184,7 @@ public sealed interface Pat extends AyaDocile {
   }
 
   record ShapedInt(
-    @Override int repr,
+    @Override @NotNull BigInteger repr,
     @Override @NotNull ShapeRecognition recognition,
     @NotNull DataCall type,
     boolean explicit
@@ -211,7 +213,7 @@ public sealed interface Pat extends AyaDocile {
       return new Pat.Ctor(explicit, suc.ref, ImmutableSeq.of(pat.term()), type);
     }
 
-    @Override public @NotNull Pat destruct(int repr) {
+    @Override public @NotNull Pat destruct(@NotNull BigInteger repr) {
       return new Pat.ShapedInt(repr, this.recognition, this.type, true);
     }
   }
@@ -9,7 +9,9 @@ import kala.control.Option;
 import kala.tuple.Tuple;
 import kala.tuple.Tuple2;
 import org.aya.core.def.Def;
+import org.aya.core.def.FnDef;
 import org.aya.core.def.GenericDef;
+import org.aya.core.def.PrimDef;
 import org.jetbrains.annotations.NotNull;
 
 import static org.aya.core.repr.CodeShape.CtorShape;
@@ -24,6 +26,12 @@ public sealed interface AyaShape {
   @NotNull AyaShape NAT_SHAPE = new AyaIntShape();
   @NotNull AyaShape LIST_SHAPE = new AyaListShape();
   @NotNull ImmutableSeq<AyaShape> LITERAL_SHAPES = ImmutableSeq.of(NAT_SHAPE, LIST_SHAPE);
+  @NotNull AyaNatOpShape NAT_ADD_SHAPE = new AyaNatOpShape(AyaNatOpShape.Op.ADD);
+  @NotNull AyaNatOpShape NAT_MUL_SHAPE = new AyaNatOpShape(AyaNatOpShape.Op.MUL);
+  @NotNull AyaNatOpShape NAT_SUB_SHAPE = new AyaNatOpShape(AyaNatOpShape.Op.SUB);
+  @NotNull AyaNatOpShape NAT_CMP_SHAPE = new AyaNatOpShape(AyaNatOpShape.Op.CMP);
+  /** Multiplication is recognized by its use of addition, so addition comes first */
+  @NotNull ImmutableSeq<AyaNatOpShape> NAT_OP_SHAPES = ImmutableSeq.of(NAT_ADD_SHAPE, NAT_MUL_SHAPE, NAT_SUB_SHAPE, NAT_CMP_SHAPE);
 
   record AyaIntShape() implements AyaShape {
     public static final @NotNull CodeShape DATA_NAT = new DataShape(ImmutableSeq.empty(), ImmutableSeq.of(
@@ -52,20 +60,42 @@ public sealed interface AyaShape {
     }
   }
 
+  /**
+   * A binary function on a {@link #NAT_SHAPE} data that computes an arithmetic operation,
+   * which the normalizer computes directly on literals, see {@link NatOpMatcher}.
+   * The captures are {@link CodeShape.MomentId#ZERO} and {@link CodeShape.MomentId#SUC} of the data,
+   * and for {@link Op#CMP}, the constructors returned when the first argument is less than ({@link CodeShape.MomentId#LT}),
+   * equal to ({@link CodeShape.MomentId#EQ}) or greater than ({@link CodeShape.MomentId#GT}) the second.
+   */
+  record AyaNatOpShape(@NotNull Op op) implements AyaShape {
+    public static final @NotNull CodeShape FN_NAT_OP = new CodeShape.FnShape(ImmutableSeq.of(
+      CodeShape.ParamShape.anyEx(), CodeShape.ParamShape.anyEx()));
+
+    /** {@link #SUB} is truncated subtraction */
+    public enum Op {
+      ADD, MUL, SUB, CMP,
+    }
+
+    @Override public @NotNull CodeShape codeShape() {
+      return FN_NAT_OP;
+    }
+  }
+
+  /** Synchronized, as the definitions of a module may be checked in parallel. */
   class Factory {
     public @NotNull MutableMap<GenericDef, ShapeRecognition> discovered = MutableLinkedHashMap.of();
 
-    public @NotNull ImmutableSeq<Tuple2<GenericDef, ShapeRecognition>> findImpl(@NotNull AyaShape shape) {
+    public synchronized @NotNull ImmutableSeq<Tuple2<GenericDef, ShapeRecognition>> findImpl(@NotNull AyaShape shape) {
       return discovered.view().map(Tuple::of)
         .filter(t -> t._2.shape() == shape)
         .toImmutableSeq();
     }
 
-    public @NotNull Option<ShapeRecognition> find(@NotNull Def def) {
+    public synchronized @NotNull Option<ShapeRecognition> find(@NotNull Def def) {
       return discovered.getOption(def);
     }
 
-    public void bonjour(@NotNull GenericDef def, @NotNull ShapeRecognition shape) {
+    public synchronized void bonjour(@NotNull GenericDef def, @NotNull ShapeRecognition shape) {
       // TODO[literal]: what if a def has multiple shapes?
       discovered.put(def, shape);
     }
@@ -77,7 +107,21 @@ public sealed interface AyaShape {
         .forEach(shape -> bonjour(def, shape));
     }
 
-    public void importAll(@NotNull Factory other) {
+    /** Discovery of shaped literals and arithmetic operations on them */
+    public synchronized void bonjour(@NotNull GenericDef def, @NotNull PrimDef.Factory primFactory) {
+      bonjour(def);
+      if (!(def instanceof FnDef fn)) return;
+      for (var shape : AyaShape.NAT_OP_SHAPES) {
+        var recognition = NatOpMatcher.match(shape, fn, this, primFactory);
+        if (recognition.isDefined()) {
+          bonjour(def, recognition.get());
+          fn.shape = recognition.get();
+          return;
+        }
+      }
+    }
+
+    public synchronized void importAll(@NotNull Factory other) {
       discovered.putAll(other.discovered);
     }
   }
@@ -21,9 +21,12 @@ public sealed interface CodeShape {
     @NotNull MomentId name();
   }
 
-  /** Typed capture name, rather than plain strings */
+  /**
+   * Typed capture name, rather than plain strings.
+   * {@link #LT}, {@link #EQ} and {@link #GT} are the results of a comparison, see {@link AyaShape.AyaNatOpShape}.
+   */
   enum MomentId implements Serializable {
-    ZERO, SUC, NIL, CONS,
+    ZERO, SUC, NIL, CONS, LT, EQ, GT,
   }
 
   record FnShape(
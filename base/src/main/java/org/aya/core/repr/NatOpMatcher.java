@@ -0,0 +1,196 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.repr;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableLinkedHashMap;
+import kala.control.Option;
+import org.aya.core.def.CtorDef;
+import org.aya.core.def.FnDef;
+import org.aya.core.def.PrimDef;
+import org.aya.core.term.*;
+import org.aya.generic.Modifier;
+import org.aya.generic.util.NormalizeMode;
+import org.aya.ref.DefVar;
+import org.aya.ref.LocalVar;
+import org.aya.tyck.TyckState;
+import org.aya.util.Arg;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigInteger;
+import java.util.function.Predicate;
+
+/**
+ * Recognizes {@link AyaShape.AyaNatOpShape}s by what the functions compute rather than how they are written:
+ * a function of two {@link AyaShape#NAT_SHAPE} arguments is, say, addition, if its calls on variables normalize
+ * according to the recursive definition of addition, recursing on either argument.
+ * These equations determine the function on every pair of literals by induction,
+ * so the normalizer may compute such calls directly.
+ *
+ * @param zero the zero constructor of the data
+ * @param suc  the successor constructor of the data
+ */
+public record NatOpMatcher(
+  @NotNull FnDef fn,
+  @NotNull AyaShape.Factory factory,
+  @NotNull TyckState state,
+  @NotNull CtorDef zero,
+  @NotNull CtorDef suc
+) {
+  private static final @NotNull RefTerm M = new RefTerm(new LocalVar("m"));
+  private static final @NotNull RefTerm N = new RefTerm(new LocalVar("n"));
+
+  public static @NotNull Option<ShapeRecognition> match(
+    @NotNull AyaShape.AyaNatOpShape shape, @NotNull FnDef fn,
+    @NotNull AyaShape.Factory factory, @NotNull PrimDef.Factory primFactory
+  ) {
+    var tele = fn.telescope;
+    if (fn.modifiers.contains(Modifier.Opaque) || !tele.sizeEquals(2) || !tele.allMatch(Term.Param::explicit))
+      return Option.none();
+    if (!(tele.first().type() instanceof DataCall nat) || nat.ref().core == null
+      || !(tele.last().type() instanceof DataCall other) || other.ref() != nat.ref()
+      || !(fn.result instanceof DataCall result) || result.args().isNotEmpty()) return Option.none();
+    var natShape = factory.find(nat.ref().core).getOrNull();
+    if (natShape == null || natShape.shape() != AyaShape.NAT_SHAPE) return Option.none();
+    var zero = natShape.captures().get(CodeShape.MomentId.ZERO);
+    var suc = natShape.captures().get(CodeShape.MomentId.SUC);
+    var matcher = new NatOpMatcher(fn, factory, new TyckState(primFactory),
+      (CtorDef) zero.core, (CtorDef) suc.core);
+    if (shape.op() == AyaShape.AyaNatOpShape.Op.CMP) return matcher.compare().map(results -> {
+      var captures = MutableLinkedHashMap.<CodeShape.MomentId, DefVar<?, ?>>of();
+      captures.putAll(natShape.captures());
+      captures.put(CodeShape.MomentId.LT, results.get(0));
+      captures.put(CodeShape.MomentId.EQ, results.get(1));
+      captures.put(CodeShape.MomentId.GT, results.get(2));
+      return new ShapeRecognition(shape, captures.toImmutableMap());
+    });
+    if (result.ref() != nat.ref()) return Option.none();
+    var matches = switch (shape.op()) {
+      case ADD -> matcher.add();
+      case MUL -> matcher.mul();
+      case SUB -> matcher.sub();
+      case CMP -> throw new IllegalStateException();
+    };
+    return matches ? Option.some(new ShapeRecognition(shape, natShape.captures())) : Option.none();
+  }
+
+  /** {@code 0 + n = n, suc m + n = suc (m + n)}, or the same with the arguments swapped */
+  private boolean add() {
+    return isVar(N).test(nf(zero(), N)) && isSuc(isCall(M, N)).test(nf(suc(M), N))
+      || isVar(N).test(nf(N, zero())) && isSuc(isCall(N, M)).test(nf(N, suc(M)));
+  }
+
+  /** {@code 0 * n = 0, suc m * n = m * n + n}, or the same with the arguments of either swapped */
+  private boolean mul() {
+    return isZero().test(nf(zero(), N)) && isAdd(isCall(M, N), isVar(N)).test(nf(suc(M), N))
+      || isZero().test(nf(N, zero())) && isAdd(isCall(N, M), isVar(N)).test(nf(N, suc(M)));
+  }
+
+  /** {@code n - 0 = n, 0 - suc n = 0, suc m - suc n = m - n} */
+  private boolean sub() {
+    return isVar(N).test(nf(N, zero()))
+      && isZero().test(nf(zero(), suc(N)))
+      && isCall(M, N).test(nf(suc(M), suc(N)));
+  }
+
+  /**
+   * {@code cmp 0 (suc n) = lt, cmp 0 0 = eq, cmp (suc m) 0 = gt, cmp (suc m) (suc n) = cmp m n}
+   * for some constructors without arguments.
+   *
+   * @return the constructors for less than, equal and greater than
+   */
+  private @NotNull Option<ImmutableSeq<DefVar<?, ?>>> compare() {
+    if (!isCall(M, N).test(nf(suc(M), suc(N)))) return Option.none();
+    var results = ImmutableSeq.of(nf(zero(), suc(N)), nf(zero(), zero()), nf(suc(M), zero()));
+    if (!results.allMatch(t -> t instanceof ConCall con && con.args().isEmpty())) return Option.none();
+    return Option.some(results.map(t -> ((ConCall) t).ref()));
+  }
+
+  private @NotNull Term nf(@NotNull Term lhs, @NotNull Term rhs) {
+    return new FnCall(fn.ref, 0, ImmutableSeq.of(new Arg<>(lhs, true), new Arg<>(rhs, true)))
+      .normalize(state, NormalizeMode.NF);
+  }
+
+  private @NotNull Term zero() {
+    return new ConCall(zero.dataRef, zero.ref, ImmutableSeq.empty(), 0, ImmutableSeq.empty());
+  }
+
+  private @NotNull Term suc(@NotNull Term term) {
+    return new ConCall(suc.dataRef, suc.ref, ImmutableSeq.empty(), 0, ImmutableSeq.of(new Arg<>(term, true)));
+  }
+
+  private static @NotNull Term unlit(@NotNull Term term) {
+    return term instanceof IntegerTerm lit ? lit.constructorForm() : term;
+  }
+
+  private static @NotNull Predicate<Term> isVar(@NotNull RefTerm var) {
+    return term -> term instanceof RefTerm ref && ref.var() == var.var();
+  }
+
+  private @NotNull Predicate<Term> isZero() {
+    return term -> unlit(term) instanceof ConCall con && con.ref() == zero.ref;
+  }
+
+  private @NotNull Predicate<Term> isSuc(@NotNull Predicate<Term> pred) {
+    return term -> unlit(term) instanceof ConCall con && con.ref() == suc.ref
+      && pred.test(con.conArgs().first().term());
+  }
+
+  /** A call to the function itself */
+  private @NotNull Predicate<Term> isCall(@NotNull RefTerm lhs, @NotNull RefTerm rhs) {
+    return term -> term instanceof FnCall call && call.ref() == fn.ref && call.ulift() == 0
+      && isVar(lhs).test(call.args().get(0).term()) && isVar(rhs).test(call.args().get(1).term());
+  }
+
+  /** A call to an addition on the same data, whose arguments may be in any order */
+  private @NotNull Predicate<Term> isAdd(@NotNull Predicate<Term> lhs, @NotNull Predicate<Term> rhs) {
+    return term -> term instanceof FnCall call && call.ref().core != null && call.args().sizeEquals(2)
+      && factory.find(call.ref().core).getOrNull() instanceof ShapeRecognition add
+      && add.shape() == AyaShape.NAT_ADD_SHAPE
+      && add.captures().get(CodeShape.MomentId.ZERO) == zero.ref
+      && (lhs.test(call.args().get(0).term()) && rhs.test(call.args().get(1).term())
+      || rhs.test(call.args().get(0).term()) && lhs.test(call.args().get(1).term()));
+  }
+
+  /**
+   * The arguments are not evaluated here: the normalizer reduces a call after its arguments,
+   * and a call that is not computed is unfolded by its clauses, which evaluate the arguments they match on.
+   *
+   * @param shape recognized by this matcher
+   * @return the result of the call if both arguments are literals, or null
+   */
+  public static @Nullable Term compute(@NotNull ShapeRecognition shape, @NotNull FnCall call) {
+    var lhs = natValue(shape, call.args().get(0).term());
+    if (lhs == null) return null;
+    var rhs = natValue(shape, call.args().get(1).term());
+    if (rhs == null) return null;
+    var op = ((AyaShape.AyaNatOpShape) shape.shape()).op();
+    if (op == AyaShape.AyaNatOpShape.Op.CMP) {
+      var id = switch (lhs.compareTo(rhs)) {
+        case -1 -> CodeShape.MomentId.LT;
+        case 0 -> CodeShape.MomentId.EQ;
+        default -> CodeShape.MomentId.GT;
+      };
+      var result = (CtorDef) shape.captures().get(id).core;
+      return new ConCall(result.dataRef, result.ref, ImmutableSeq.empty(), call.ulift(), ImmutableSeq.empty());
+    }
+    var value = switch (op) {
+      case ADD -> lhs.add(rhs);
+      case MUL -> lhs.multiply(rhs);
+      case SUB -> lhs.subtract(rhs).max(BigInteger.ZERO);
+      case CMP -> throw new IllegalStateException();
+    };
+    var zero = (CtorDef) shape.captures().get(CodeShape.MomentId.ZERO).core;
+    // The captures of the other operations are exactly those of the data
+    var natShape = new ShapeRecognition(AyaShape.NAT_SHAPE, shape.captures());
+    return new IntegerTerm(value, natShape, new DataCall(zero.dataRef, call.ulift(), ImmutableSeq.empty()));
+  }
+
+  /** @return the value of a literal of the same data, or null */
+  private static @Nullable BigInteger natValue(@NotNull ShapeRecognition shape, @NotNull Term term) {
+    var zero = shape.captures().get(CodeShape.MomentId.ZERO);
+    return term instanceof IntegerTerm lit && lit.recognition().captures().getOrNull(CodeShape.MomentId.ZERO) == zero
+      ? lit.repr() : null;
+  }
+}
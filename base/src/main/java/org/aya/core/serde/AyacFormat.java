@@ -0,0 +1,152 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.serde;
+
+import org.aya.generic.util.InternalException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * The binary format of .ayac files, replacing Java serialization of {@link CompiledAya}.
+ * <ul>
+ *   <li>Head: the {@link #MAGIC} number, the format {@link #VERSION} and the {@link Fingerprint}.</li>
+ *   <li>String table: every string in the file, as UTF-8.</li>
+ *   <li>QName table: every {@link SerDef.QName}, as indices into the string table.</li>
+ *   <li>Index: the offset of each function body and constructor clauses into the deferred section,
+ *   keyed by the QName of the definition.</li>
+ *   <li>Deferred section: the bodies, prefixed by its length. They are decoded on first use
+ *   (see {@link SerDef.Lazy}), so loading a module only decodes the signatures.</li>
+ *   <li>Body: the {@link CompiledAya}, where strings and QNames are table indices,
+ *   and each variant of a sealed type starts with one of the tags below.</li>
+ * </ul>
+ * Integers are LEB128 varints, and signed ones are zigzag-encoded first.
+ * Natural number literals are their big-endian two's-complement bytes, prefixed by the length.
+ * Enums are stored by ordinal, so changing any enum used in core requires bumping {@link #VERSION}.
+ *
+ * @see AyacWriter
+ * @see AyacReader
+ */
+public interface AyacFormat {
+  /** {@code AYAC} in ASCII */
+  int MAGIC = 0x41594143;
+  int VERSION = 5;
+
+  int DEF_FN = 0, DEF_CTOR = 1, DEF_DATA = 2, DEF_FIELD = 3, DEF_STRUCT = 4, DEF_PRIM = 5;
+  int PAT_ABSURD = 0, PAT_TUPLE = 1, PAT_BIND = 2, PAT_CTOR = 3, PAT_SHAPED_INT = 4;
+  int TERM_PI = 0, TERM_SIGMA = 1, TERM_SORT = 2, TERM_REF = 3, TERM_LAM = 4, TERM_NEW = 5,
+    TERM_PROJ = 6, TERM_MATCH = 7, TERM_APP = 8, TERM_STRUCT = 9, TERM_FN = 10, TERM_DATA = 11,
+    TERM_PRIM = 12, TERM_CON = 13, TERM_TUP = 14, TERM_ACCESS = 15, TERM_FIELD_REF = 16,
+    TERM_INTERVAL = 17, TERM_MULA = 18, TERM_SHAPED_INT = 19, TERM_SHAPED_LIST = 20, TERM_STR = 21,
+    TERM_PART_EL = 22, TERM_PART_TY = 23, TERM_PATH = 24, TERM_PATH_LAM = 25, TERM_PATH_APP = 26,
+    TERM_COE = 27;
+  int FORMULA_CONN = 0, FORMULA_INV = 1, FORMULA_LIT = 2;
+  int PARTIAL_CONST = 0, PARTIAL_SPLIT = 1;
+  int RESTR_DISJ = 0, RESTR_CONST = 1;
+
+  /**
+   * @param sourceHash    {@link #hash} of the source file, empty if unknown
+   * @param interfaceHash {@link #hash} of the core of the module, in a canonical encoding where
+   *                      local variables are numbered per module and unnamed. Bodies are included,
+   *                      because functions unfold in users, but source positions are not,
+   *                      so edits to whitespace or comments keep it unchanged.
+   */
+  record Fingerprint(@NotNull String sourceHash, @NotNull String interfaceHash) {
+  }
+
+  static @NotNull String hash(@NotNull ByteBuffer bytes) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256");
+      digest.update(bytes.duplicate());
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new InternalException("SHA-256 is always available", e);
+    }
+  }
+
+  static @NotNull String hash(@NotNull Path file) throws IOException {
+    return hash(ByteBuffer.wrap(Files.readAllBytes(file)));
+  }
+
+  static @NotNull ByteBuffer encode(@NotNull CompiledAya compiled) {
+    return encode(compiled, "");
+  }
+
+  static @NotNull ByteBuffer encode(@NotNull CompiledAya compiled, @NotNull String sourceHash) {
+    return AyacWriter.write(compiled, sourceHash);
+  }
+
+  /** @throws SerDef.DeserializeException if the buffer is not a compatible .ayac file */
+  static @NotNull CompiledAya decode(@NotNull ByteBuffer buffer) {
+    try {
+      return new AyacReader(buffer).read();
+    } catch (BufferUnderflowException e) {
+      throw new SerDef.DeserializeException("Truncated compiled aya file");
+    }
+  }
+
+  static void write(@NotNull Path path, @NotNull CompiledAya compiled, @NotNull String sourceHash) throws IOException {
+    write(path, encode(compiled, sourceHash));
+  }
+
+  static void write(@NotNull Path path, @NotNull ByteBuffer encoded) throws IOException {
+    var buffer = encoded.duplicate();
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    try (var channel = FileChannel.open(path, StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) channel.write(buffer);
+    }
+  }
+
+  static @NotNull CompiledAya read(@NotNull Path path) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // Not memory-mapped, because a mapped file cannot be deleted on Windows until it is unmapped
+      var buffer = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+      while (buffer.hasRemaining()) if (channel.read(buffer) < 0) break;
+      return decode(buffer.flip());
+    }
+  }
+
+  /** @return null if the buffer is not a compatible .ayac file */
+  static @Nullable Fingerprint fingerprint(@NotNull ByteBuffer buffer) {
+    try {
+      return new AyacReader(buffer.duplicate()).fingerprint();
+    } catch (BufferUnderflowException | SerDef.DeserializeException e) {
+      return null;
+    }
+  }
+
+  /** @return null if the file is missing or not a compatible .ayac file */
+  static @Nullable Fingerprint fingerprint(@NotNull Path path) {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // Magic, version and two hex SHA-256 hashes with their lengths
+      var buffer = ByteBuffer.allocate(4 + 5 + 2 * (1 + 64));
+      while (buffer.hasRemaining()) if (channel.read(buffer) < 0) break;
+      return fingerprint(buffer.flip());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** @return whether the file starts with the head of the current format version */
+  static boolean isCompatible(@NotNull Path path) {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      var buffer = ByteBuffer.allocate(9);
+      while (buffer.hasRemaining()) if (channel.read(buffer) < 0) break;
+      buffer.flip();
+      return buffer.remaining() > 4 && buffer.getInt() == MAGIC && AyacReader.varint(buffer) == VERSION;
+    } catch (IOException | BufferUnderflowException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,336 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.serde;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableArrayList;
+import kala.collection.mutable.MutableMap;
+import kala.control.Either;
+import kala.control.Option;
+import kala.tuple.Tuple;
+import org.aya.core.def.PrimDef;
+import org.aya.core.repr.CodeShape;
+import org.aya.generic.Modifier;
+import org.aya.generic.SortKind;
+import org.aya.guest0x0.cubical.Formula;
+import org.aya.guest0x0.cubical.Partial;
+import org.aya.guest0x0.cubical.Restr;
+import org.aya.util.binop.Assoc;
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decoder of {@link AyacFormat}.
+ *
+ * @see AyacWriter
+ */
+final class AyacReader {
+  private static final SortKind[] SORT_KINDS = SortKind.values();
+  private static final Modifier[] MODIFIERS = Modifier.values();
+  private static final Assoc[] ASSOCS = Assoc.values();
+  private static final PrimDef.ID[] PRIM_IDS = PrimDef.ID.values();
+  private static final SerDef.SerAyaShape[] SHAPES = SerDef.SerAyaShape.values();
+  private static final CodeShape.MomentId[] MOMENTS = CodeShape.MomentId.values();
+
+  private final @NotNull ByteBuffer in;
+  private String @NotNull [] strings = new String[0];
+  private SerDef.QName @NotNull [] qnames = new SerDef.QName[0];
+  /** Offsets of deferred parts, relative to {@link #deferredStart} */
+  private @NotNull MutableMap<SerDef.QName, Integer> index = MutableMap.create();
+  private int deferredStart = 0;
+
+  AyacReader(@NotNull ByteBuffer in) {
+    this.in = in;
+  }
+
+  /** @return a reader that shares the tables with this one, but reads at another position */
+  private @NotNull AyacReader fork(int position) {
+    var reader = new AyacReader(in.duplicate().position(position));
+    reader.strings = strings;
+    reader.qnames = qnames;
+    reader.index = index;
+    reader.deferredStart = deferredStart;
+    return reader;
+  }
+
+  public @NotNull AyacFormat.Fingerprint fingerprint() {
+    if (in.remaining() < 4 || in.getInt() != AyacFormat.MAGIC)
+      throw new SerDef.DeserializeException("Not a compiled aya file");
+    var version = varint(in);
+    if (version != AyacFormat.VERSION)
+      throw new SerDef.DeserializeException("Compiled aya file of version " + version
+        + " is not supported, expected " + AyacFormat.VERSION);
+    return new AyacFormat.Fingerprint(ascii(), ascii());
+  }
+
+  public @NotNull CompiledAya read() {
+    fingerprint();
+    strings = new String[varint()];
+    for (int i = 0; i < strings.length; i++) {
+      var bytes = new byte[varint()];
+      in.get(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    qnames = new SerDef.QName[varint()];
+    for (int i = 0; i < qnames.length; i++) qnames[i] = new SerDef.QName(strings(), string());
+    for (int i = varint(); i > 0; i--) index.put(qname(), varint());
+    var deferredLength = varint();
+    deferredStart = in.position();
+    in.position(deferredStart + deferredLength);
+    return new CompiledAya(
+      seq(this::strings),
+      seq(this::qname),
+      map(this::strings, () -> new CompiledAya.SerUseHide(bool(), strings(), map(this::string, this::string))),
+      seq(this::def),
+      seq(() -> new SerDef.SerOp(qname(), ASSOCS[varint()], bind())),
+      map(this::qname, () -> new SerDef.SerRenamedOp(string(), ASSOCS[varint()], bind())));
+  }
+
+  private @NotNull SerDef.SerBind bind() {
+    return new SerDef.SerBind(seq(this::qname), seq(this::qname));
+  }
+
+  private @NotNull SerDef def() {
+    return switch (tag()) {
+      case AyacFormat.DEF_FN -> {
+        var name = qname();
+        var telescope = seq(this::param);
+        SerDef.Lazy<Either<SerTerm, ImmutableSeq<SerPat.Clause>>> body = deferred(name, reader ->
+          reader.bool() ? Either.left(reader.term()) : Either.right(reader.seq(reader::clause)));
+        yield new SerDef.Fn(name, telescope, body, modifiers(), term(), bool() ? shape() : null);
+      }
+      case AyacFormat.DEF_CTOR -> ctor();
+      case AyacFormat.DEF_DATA -> new SerDef.Data(qname(), seq(this::param), sort(), seq(this::ctor));
+      case AyacFormat.DEF_FIELD -> field();
+      case AyacFormat.DEF_STRUCT -> new SerDef.Struct(qname(), seq(this::param), sort(), seq(this::field));
+      case AyacFormat.DEF_PRIM -> new SerDef.Prim(strings(), PRIM_IDS[varint()]);
+      default -> throw badTag("definition");
+    };
+  }
+
+  private @NotNull SerDef.Ctor ctor() {
+    var data = qname();
+    var self = qname();
+    var pats = seq(this::pat);
+    var ownerTele = seq(this::param);
+    var selfTele = seq(this::param);
+    var clauses = deferred(self, reader -> new Partial.Split<>(reader.seq(reader::side)));
+    return new SerDef.Ctor(data, self, pats, ownerTele, selfTele, clauses, term(), bool());
+  }
+
+  private <T> @NotNull SerDef.Lazy<T> deferred(@NotNull SerDef.QName name, @NotNull Function<AyacReader, T> decode) {
+    var offset = index.getOrNull(name);
+    if (offset == null) throw new SerDef.DeserializeException("Missing body of " + name);
+    return SerDef.Lazy.lazy(() -> {
+      try {
+        return decode.apply(fork(deferredStart + offset));
+      } catch (BufferUnderflowException e) {
+        throw new SerDef.DeserializeException("Truncated body of " + name);
+      }
+    });
+  }
+
+  private @NotNull SerDef.Field field() {
+    return new SerDef.Field(qname(), qname(), seq(this::param), seq(this::param), term(),
+      bool() ? Option.some(term()) : Option.none(), bool());
+  }
+
+  private @NotNull EnumSet<Modifier> modifiers() {
+    var mask = varint();
+    var modifiers = EnumSet.noneOf(Modifier.class);
+    for (var modifier : MODIFIERS) if ((mask & (1 << modifier.ordinal())) != 0) modifiers.add(modifier);
+    return modifiers;
+  }
+
+  private @NotNull SerPat.Clause clause() {
+    return new SerPat.Clause(seq(this::pat), term());
+  }
+
+  private @NotNull SerPat pat() {
+    return switch (tag()) {
+      case AyacFormat.PAT_ABSURD -> new SerPat.Absurd(bool());
+      case AyacFormat.PAT_TUPLE -> new SerPat.Tuple(bool(), seq(this::pat));
+      case AyacFormat.PAT_BIND -> new SerPat.Bind(bool(), var(), term());
+      case AyacFormat.PAT_CTOR -> new SerPat.Ctor(bool(), qname(), seq(this::pat), dataCall());
+      case AyacFormat.PAT_SHAPED_INT -> new SerPat.ShapedInt(natural(), bool(), shape(), dataCall());
+      default -> throw badTag("pattern");
+    };
+  }
+
+  private @NotNull SerTerm term() {
+    return switch (tag()) {
+      case AyacFormat.TERM_PI -> new SerTerm.Pi(param(), term());
+      case AyacFormat.TERM_SIGMA -> new SerTerm.Sigma(seq(this::param));
+      case AyacFormat.TERM_SORT -> sort();
+      case AyacFormat.TERM_REF -> new SerTerm.Ref(var());
+      case AyacFormat.TERM_LAM -> new SerTerm.Lam(param(), term());
+      case AyacFormat.TERM_NEW -> new SerTerm.New(new SerTerm.Struct(qname(), callData()), map(this::qname, this::term));
+      case AyacFormat.TERM_PROJ -> new SerTerm.Proj(term(), varint());
+      case AyacFormat.TERM_MATCH -> new SerTerm.Match(seq(this::term), seq(this::clause));
+      case AyacFormat.TERM_APP -> new SerTerm.App(term(), arg());
+      case AyacFormat.TERM_STRUCT -> new SerTerm.Struct(qname(), callData());
+      case AyacFormat.TERM_FN -> new SerTerm.Fn(qname(), callData());
+      case AyacFormat.TERM_DATA -> dataCall();
+      case AyacFormat.TERM_PRIM -> new SerTerm.Prim(qname(), PRIM_IDS[varint()], callData());
+      case AyacFormat.TERM_CON -> new SerTerm.Con(qname(), qname(), callData(), seq(this::arg));
+      case AyacFormat.TERM_TUP -> new SerTerm.Tup(seq(this::term));
+      case AyacFormat.TERM_ACCESS -> new SerTerm.Access(term(), qname(), seq(this::arg), seq(this::arg));
+      case AyacFormat.TERM_FIELD_REF -> new SerTerm.FieldRef(qname());
+      case AyacFormat.TERM_INTERVAL -> new SerTerm.Interval();
+      case AyacFormat.TERM_MULA -> new SerTerm.Mula(formula());
+      case AyacFormat.TERM_SHAPED_INT -> new SerTerm.ShapedInt(natural(), shape(), dataCall());
+      case AyacFormat.TERM_SHAPED_LIST -> new SerTerm.ShapedList(seq(this::term), shape(), dataCall());
+      case AyacFormat.TERM_STR -> new SerTerm.Str(string());
+      case AyacFormat.TERM_PART_EL -> new SerTerm.PartEl(partial(), term());
+      case AyacFormat.TERM_PART_TY -> new SerTerm.PartTy(term(), restr());
+      case AyacFormat.TERM_PATH -> path();
+      case AyacFormat.TERM_PATH_LAM -> new SerTerm.PathLam(seq(this::var), term());
+      case AyacFormat.TERM_PATH_APP -> new SerTerm.PathApp(term(), seq(this::arg), path());
+      case AyacFormat.TERM_COE -> new SerTerm.Coe(term(), restr());
+      default -> throw badTag("term");
+    };
+  }
+
+  private @NotNull SerTerm.Path path() {
+    return new SerTerm.Path(seq(this::var), term(), partial());
+  }
+
+  private @NotNull SerTerm.Sort sort() {
+    return new SerTerm.Sort(SORT_KINDS[varint()], zigzag());
+  }
+
+  private @NotNull SerTerm.Data dataCall() {
+    return new SerTerm.Data(qname(), callData());
+  }
+
+  private @NotNull SerTerm.CallData callData() {
+    return new SerTerm.CallData(varint(), seq(this::arg));
+  }
+
+  private @NotNull SerTerm.SerArg arg() {
+    var explicit = bool();
+    return new SerTerm.SerArg(term(), explicit);
+  }
+
+  private @NotNull SerTerm.SerParam param() {
+    return new SerTerm.SerParam(bool(), var(), term());
+  }
+
+  private @NotNull String ascii() {
+    var bytes = new byte[varint()];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  private @NotNull SerTerm.SimpVar var() {
+    return new SerTerm.SimpVar(varint(), string());
+  }
+
+  private @NotNull SerDef.SerShapeResult shape() {
+    return new SerDef.SerShapeResult(SHAPES[varint()], map(() -> MOMENTS[varint()], this::qname));
+  }
+
+  private @NotNull Formula<SerTerm> formula() {
+    return switch (tag()) {
+      case AyacFormat.FORMULA_CONN -> new Formula.Conn<>(bool(), term(), term());
+      case AyacFormat.FORMULA_INV -> new Formula.Inv<>(term());
+      case AyacFormat.FORMULA_LIT -> new Formula.Lit<>(bool());
+      default -> throw badTag("formula");
+    };
+  }
+
+  private @NotNull Partial<SerTerm> partial() {
+    return switch (tag()) {
+      case AyacFormat.PARTIAL_CONST -> new Partial.Const<>(term());
+      case AyacFormat.PARTIAL_SPLIT -> new Partial.Split<>(seq(this::side));
+      default -> throw badTag("partial element");
+    };
+  }
+
+  private @NotNull Restr.Side<SerTerm> side() {
+    return new Restr.Side<>(conj(), term());
+  }
+
+  private @NotNull Restr<SerTerm> restr() {
+    return switch (tag()) {
+      case AyacFormat.RESTR_DISJ -> new Restr.Disj<>(seq(this::conj));
+      case AyacFormat.RESTR_CONST -> new Restr.Const<>(bool());
+      default -> throw badTag("restriction");
+    };
+  }
+
+  private @NotNull Restr.Conj<SerTerm> conj() {
+    return new Restr.Conj<>(seq(() -> new Restr.Cond<>(term(), bool())));
+  }
+
+  private @NotNull SerDef.QName qname() {
+    return qnames[varint()];
+  }
+
+  private @NotNull String string() {
+    return strings[varint()];
+  }
+
+  private @NotNull ImmutableSeq<String> strings() {
+    return seq(this::string);
+  }
+
+  private @NotNull BigInteger natural() {
+    var bytes = new byte[varint()];
+    in.get(bytes);
+    return new BigInteger(bytes);
+  }
+
+  private boolean bool() {
+    return in.get() != 0;
+  }
+
+  private int tag() {
+    return in.get();
+  }
+
+  private @NotNull SerDef.DeserializeException badTag(@NotNull String what) {
+    return new SerDef.DeserializeException("Unknown " + what + " tag at offset " + (in.position() - 1));
+  }
+
+  private int varint() {
+    return varint(in);
+  }
+
+  private int zigzag() {
+    var i = varint();
+    return (i >>> 1) ^ -(i & 1);
+  }
+
+  static int varint(@NotNull ByteBuffer in) {
+    int result = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      var b = in.get();
+      result |= (b & 0x7F) << shift;
+      if (b >= 0) return result;
+    }
+    throw new SerDef.DeserializeException("Malformed varint");
+  }
+
+  private <T> @NotNull ImmutableSeq<T> seq(@NotNull Supplier<T> element) {
+    var size = varint();
+    var list = MutableArrayList.<T>create(size);
+    for (int i = 0; i < size; i++) list.append(element.get());
+    return list.toImmutableSeq();
+  }
+
+  private <K, V> @NotNull ImmutableMap<K, V> map(@NotNull Supplier<K> key, @NotNull Supplier<V> value) {
+    return seq(() -> {
+      var k = key.get();
+      return Tuple.of(k, value.get());
+    }).toImmutableMap();
+  }
+}
@@ -0,0 +1,593 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.serde;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableLinkedHashMap;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import org.aya.generic.Modifier;
+import org.aya.guest0x0.cubical.Formula;
+import org.aya.guest0x0.cubical.Partial;
+import org.aya.guest0x0.cubical.Restr;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.function.Consumer;
+
+/**
+ * Encoder of {@link AyacFormat}. The body is encoded first, so that
+ * the interning tables are complete when the head is written.
+ *
+ * @see AyacReader
+ */
+final class AyacWriter {
+  private final @NotNull MutableMap<String, Integer> stringIds = MutableMap.create();
+  private final @NotNull MutableList<String> strings = MutableList.create();
+  private final @NotNull MutableMap<SerDef.QName, Integer> qnameIds = MutableMap.create();
+  private final @NotNull MutableList<SerDef.QName> qnames = MutableList.create();
+  private final @NotNull MutableMap<SerDef.QName, Integer> index = MutableLinkedHashMap.of();
+  private final @NotNull Output deferred = new Output();
+  private @NotNull Output out = new Output();
+  /**
+   * In canonical mode, local variables are numbered from zero in each file and their names are dropped,
+   * so that the encoding only changes when the core does, see {@link AyacFormat#interfaceHash}.
+   */
+  private final @Nullable MutableMap<Integer, Integer> canonicalVars;
+
+  private AyacWriter(boolean canonical) {
+    canonicalVars = canonical ? MutableMap.create() : null;
+  }
+
+  public static @NotNull ByteBuffer write(@NotNull CompiledAya compiled, @NotNull String sourceHash) {
+    var interfaceHash = AyacFormat.hash(encode(compiled, true, "", ""));
+    return encode(compiled, false, sourceHash, interfaceHash);
+  }
+
+  private static @NotNull ByteBuffer encode(
+    @NotNull CompiledAya compiled, boolean canonical,
+    @NotNull String sourceHash, @NotNull String interfaceHash
+  ) {
+    var writer = new AyacWriter(canonical);
+    writer.compiled(compiled);
+    var body = writer.out;
+    writer.out = new Output();
+    writer.head(sourceHash, interfaceHash);
+    return writer.out.append(body).toBuffer();
+  }
+
+  private void head(@NotNull String sourceHash, @NotNull String interfaceHash) {
+    var head = out;
+    // Encode the QName table first, because it may intern more strings
+    out = new Output();
+    out.varint(qnames.size());
+    qnames.forEach(q -> {
+      strings(q.mod());
+      string(q.name());
+    });
+    out.varint(index.size());
+    index.forEach((name, offset) -> {
+      qname(name);
+      out.varint(offset);
+    });
+    out.varint(deferred.size);
+    out.append(deferred);
+    var qnameTable = out;
+    out = head;
+    out.i32(AyacFormat.MAGIC);
+    out.varint(AyacFormat.VERSION);
+    ascii(sourceHash);
+    ascii(interfaceHash);
+    out.varint(strings.size());
+    strings.forEach(s -> {
+      var bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.varint(bytes.length);
+      out.bytes(bytes);
+    });
+    out.append(qnameTable);
+  }
+
+  private void compiled(@NotNull CompiledAya compiled) {
+    seq(compiled.imports(), this::strings);
+    seq(compiled.exports(), this::qname);
+    map(compiled.reExports(), this::strings, useHide -> {
+      bool(useHide.isUsing());
+      strings(useHide.names());
+      map(useHide.renames(), this::string, this::string);
+    });
+    seq(compiled.serDefs(), this::def);
+    seq(compiled.serOps(), op -> {
+      qname(op.name());
+      out.varint(op.assoc().ordinal());
+      bind(op.bind());
+    });
+    map(compiled.opRename(), this::qname, op -> {
+      string(op.name());
+      out.varint(op.assoc().ordinal());
+      bind(op.bind());
+    });
+  }
+
+  private void bind(@NotNull SerDef.SerBind bind) {
+    seq(bind.loosers(), this::qname);
+    seq(bind.tighters(), this::qname);
+  }
+
+  private void def(@NotNull SerDef def) {
+    switch (def) {
+      case SerDef.Fn fn -> {
+        out.u8(AyacFormat.DEF_FN);
+        qname(fn.name());
+        seq(fn.telescope(), this::param);
+        deferred(fn.name(), () -> {
+          var body = fn.body().get();
+          bool(body.isLeft());
+          if (body.isLeft()) term(body.getLeftValue());
+          else seq(body.getRightValue(), this::clause);
+        });
+        modifiers(fn.modifiers());
+        term(fn.result());
+        bool(fn.shape() != null);
+        if (fn.shape() != null) shape(fn.shape());
+      }
+      case SerDef.Ctor ctor -> {
+        out.u8(AyacFormat.DEF_CTOR);
+        ctor(ctor);
+      }
+      case SerDef.Data data -> {
+        out.u8(AyacFormat.DEF_DATA);
+        qname(data.name());
+        seq(data.telescope(), this::param);
+        sort(data.resultLift());
+        seq(data.bodies(), this::ctor);
+      }
+      case SerDef.Field field -> {
+        out.u8(AyacFormat.DEF_FIELD);
+        field(field);
+      }
+      case SerDef.Struct struct -> {
+        out.u8(AyacFormat.DEF_STRUCT);
+        qname(struct.name());
+        seq(struct.telescope(), this::param);
+        sort(struct.resultLift());
+        seq(struct.fields(), this::field);
+      }
+      case SerDef.Prim prim -> {
+        out.u8(AyacFormat.DEF_PRIM);
+        strings(prim.module());
+        out.varint(prim.name().ordinal());
+      }
+    }
+  }
+
+  private void ctor(@NotNull SerDef.Ctor ctor) {
+    qname(ctor.data());
+    qname(ctor.self());
+    seq(ctor.pats(), this::pat);
+    seq(ctor.ownerTele(), this::param);
+    seq(ctor.selfTele(), this::param);
+    deferred(ctor.self(), () -> seq(ctor.clauses().get().clauses(), this::side));
+    term(ctor.result());
+    bool(ctor.coerce());
+  }
+
+  /**
+   * Encode to the deferred section, which is only decoded on demand.
+   * A constructor is encoded both on its own and in the bodies of its data type,
+   * where both share the part encoded the first time.
+   */
+  private void deferred(@NotNull SerDef.QName name, @NotNull Runnable encode) {
+    if (index.containsKey(name)) return;
+    index.put(name, deferred.size);
+    var eager = out;
+    out = deferred;
+    encode.run();
+    out = eager;
+  }
+
+  private void field(@NotNull SerDef.Field field) {
+    qname(field.struct());
+    qname(field.self());
+    seq(field.ownerTele(), this::param);
+    seq(field.selfTele(), this::param);
+    term(field.result());
+    bool(field.body().isDefined());
+    field.body().forEach(this::term);
+    bool(field.coerce());
+  }
+
+  private void modifiers(@NotNull EnumSet<Modifier> modifiers) {
+    var mask = 0;
+    for (var modifier : modifiers) mask |= 1 << modifier.ordinal();
+    out.varint(mask);
+  }
+
+  private void clause(@NotNull SerPat.Clause clause) {
+    seq(clause.pats(), this::pat);
+    term(clause.body());
+  }
+
+  private void pat(@NotNull SerPat pat) {
+    switch (pat) {
+      case SerPat.Absurd absurd -> {
+        out.u8(AyacFormat.PAT_ABSURD);
+        bool(absurd.explicit());
+      }
+      case SerPat.Tuple tuple -> {
+        out.u8(AyacFormat.PAT_TUPLE);
+        bool(tuple.explicit());
+        seq(tuple.pats(), this::pat);
+      }
+      case SerPat.Bind bind -> {
+        out.u8(AyacFormat.PAT_BIND);
+        bool(bind.explicit());
+        var(bind.var());
+        term(bind.ty());
+      }
+      case SerPat.Ctor ctor -> {
+        out.u8(AyacFormat.PAT_CTOR);
+        bool(ctor.explicit());
+        qname(ctor.name());
+        seq(ctor.params(), this::pat);
+        dataCall(ctor.ty());
+      }
+      case SerPat.ShapedInt shaped -> {
+        out.u8(AyacFormat.PAT_SHAPED_INT);
+        natural(shaped.integer());
+        bool(shaped.explicit());
+        shape(shaped.shape());
+        dataCall(shaped.type());
+      }
+    }
+  }
+
+  private void term(@NotNull SerTerm term) {
+    switch (term) {
+      case SerTerm.Pi pi -> {
+        out.u8(AyacFormat.TERM_PI);
+        param(pi.param());
+        term(pi.body());
+      }
+      case SerTerm.Sigma sigma -> {
+        out.u8(AyacFormat.TERM_SIGMA);
+        seq(sigma.params(), this::param);
+      }
+      case SerTerm.Sort sort -> {
+        out.u8(AyacFormat.TERM_SORT);
+        sort(sort);
+      }
+      case SerTerm.Ref ref -> {
+        out.u8(AyacFormat.TERM_REF);
+        var(ref.var());
+      }
+      case SerTerm.Lam lam -> {
+        out.u8(AyacFormat.TERM_LAM);
+        param(lam.param());
+        term(lam.body());
+      }
+      case SerTerm.New neu -> {
+        out.u8(AyacFormat.TERM_NEW);
+        qname(neu.call().name());
+        callData(neu.call().data());
+        map(neu.map(), this::qname, this::term);
+      }
+      case SerTerm.Proj proj -> {
+        out.u8(AyacFormat.TERM_PROJ);
+        term(proj.of());
+        out.varint(proj.ix());
+      }
+      case SerTerm.Match match -> {
+        out.u8(AyacFormat.TERM_MATCH);
+        seq(match.of(), this::term);
+        seq(match.clauses(), this::clause);
+      }
+      case SerTerm.App app -> {
+        out.u8(AyacFormat.TERM_APP);
+        term(app.of());
+        arg(app.arg());
+      }
+      case SerTerm.Struct struct -> {
+        out.u8(AyacFormat.TERM_STRUCT);
+        qname(struct.name());
+        callData(struct.data());
+      }
+      case SerTerm.Fn fn -> {
+        out.u8(AyacFormat.TERM_FN);
+        qname(fn.name());
+        callData(fn.data());
+      }
+      case SerTerm.Data data -> {
+        out.u8(AyacFormat.TERM_DATA);
+        dataCall(data);
+      }
+      case SerTerm.Prim prim -> {
+        out.u8(AyacFormat.TERM_PRIM);
+        qname(prim.name());
+        out.varint(prim.id().ordinal());
+        callData(prim.data());
+      }
+      case SerTerm.Con con -> {
+        out.u8(AyacFormat.TERM_CON);
+        qname(con.dataRef());
+        qname(con.selfRef());
+        callData(con.dataArgs());
+        seq(con.conArgs(), this::arg);
+      }
+      case SerTerm.Tup tup -> {
+        out.u8(AyacFormat.TERM_TUP);
+        seq(tup.components(), this::term);
+      }
+      case SerTerm.Access access -> {
+        out.u8(AyacFormat.TERM_ACCESS);
+        term(access.of());
+        qname(access.ref());
+        seq(access.structArgs(), this::arg);
+        seq(access.fieldArgs(), this::arg);
+      }
+      case SerTerm.FieldRef ref -> {
+        out.u8(AyacFormat.TERM_FIELD_REF);
+        qname(ref.name());
+      }
+      case SerTerm.Interval interval -> out.u8(AyacFormat.TERM_INTERVAL);
+      case SerTerm.Mula mula -> {
+        out.u8(AyacFormat.TERM_MULA);
+        formula(mula.formula());
+      }
+      case SerTerm.ShapedInt shaped -> {
+        out.u8(AyacFormat.TERM_SHAPED_INT);
+        natural(shaped.integer());
+        shape(shaped.shape());
+        dataCall(shaped.type());
+      }
+      case SerTerm.ShapedList shaped -> {
+        out.u8(AyacFormat.TERM_SHAPED_LIST);
+        seq(shaped.repr(), this::term);
+        shape(shaped.shape());
+        dataCall(shaped.type());
+      }
+      case SerTerm.Str str -> {
+        out.u8(AyacFormat.TERM_STR);
+        string(str.string());
+      }
+      case SerTerm.PartEl el -> {
+        out.u8(AyacFormat.TERM_PART_EL);
+        partial(el.partial());
+        term(el.rhsType());
+      }
+      case SerTerm.PartTy ty -> {
+        out.u8(AyacFormat.TERM_PART_TY);
+        term(ty.type());
+        restr(ty.restr());
+      }
+      case SerTerm.Path path -> {
+        out.u8(AyacFormat.TERM_PATH);
+        path(path);
+      }
+      case SerTerm.PathLam lam -> {
+        out.u8(AyacFormat.TERM_PATH_LAM);
+        seq(lam.params(), this::var);
+        term(lam.body());
+      }
+      case SerTerm.PathApp app -> {
+        out.u8(AyacFormat.TERM_PATH_APP);
+        term(app.of());
+        seq(app.args(), this::arg);
+        path(app.cube());
+      }
+      case SerTerm.Coe coe -> {
+        out.u8(AyacFormat.TERM_COE);
+        term(coe.type());
+        restr(coe.restr());
+      }
+    }
+  }
+
+  private void path(@NotNull SerTerm.Path path) {
+    seq(path.params(), this::var);
+    term(path.type());
+    partial(path.partial());
+  }
+
+  private void sort(@NotNull SerTerm.Sort sort) {
+    out.varint(sort.kind().ordinal());
+    out.zigzag(sort.lift());
+  }
+
+  private void dataCall(@NotNull SerTerm.Data data) {
+    qname(data.name());
+    callData(data.data());
+  }
+
+  private void callData(@NotNull SerTerm.CallData data) {
+    out.varint(data.ulift());
+    seq(data.args(), this::arg);
+  }
+
+  private void arg(@NotNull SerTerm.SerArg arg) {
+    bool(arg.explicit());
+    term(arg.arg());
+  }
+
+  private void param(@NotNull SerTerm.SerParam param) {
+    bool(param.explicit());
+    var(param.var());
+    term(param.term());
+  }
+
+  private void var(@NotNull SerTerm.SimpVar var) {
+    if (canonicalVars != null) {
+      out.varint(canonicalVars.getOrPut(var.var(), canonicalVars::size));
+      return;
+    }
+    out.varint(var.var());
+    string(var.name());
+  }
+
+  private void natural(@NotNull BigInteger natural) {
+    var bytes = natural.toByteArray();
+    out.varint(bytes.length);
+    out.bytes(bytes);
+  }
+
+  /** Not interned, because it is read before the string table */
+  private void ascii(@NotNull String string) {
+    var bytes = string.getBytes(StandardCharsets.US_ASCII);
+    out.varint(bytes.length);
+    out.bytes(bytes);
+  }
+
+  private void shape(@NotNull SerDef.SerShapeResult shape) {
+    out.varint(shape.shape().ordinal());
+    map(shape.captures(), moment -> out.varint(moment.ordinal()), this::qname);
+  }
+
+  private void formula(@NotNull Formula<SerTerm> formula) {
+    switch (formula) {
+      case Formula.Conn<SerTerm> conn -> {
+        out.u8(AyacFormat.FORMULA_CONN);
+        bool(conn.isAnd());
+        term(conn.l());
+        term(conn.r());
+      }
+      case Formula.Inv<SerTerm> inv -> {
+        out.u8(AyacFormat.FORMULA_INV);
+        term(inv.i());
+      }
+      case Formula.Lit<SerTerm> lit -> {
+        out.u8(AyacFormat.FORMULA_LIT);
+        bool(lit.isOne());
+      }
+    }
+  }
+
+  private void partial(@NotNull Partial<SerTerm> partial) {
+    switch (partial) {
+      case Partial.Const<SerTerm> sad -> {
+        out.u8(AyacFormat.PARTIAL_CONST);
+        term(sad.u());
+      }
+      case Partial.Split<SerTerm> hap -> {
+        out.u8(AyacFormat.PARTIAL_SPLIT);
+        seq(hap.clauses(), this::side);
+      }
+    }
+  }
+
+  private void side(@NotNull Restr.Side<SerTerm> side) {
+    conj(side.cof());
+    term(side.u());
+  }
+
+  private void restr(@NotNull Restr<SerTerm> restr) {
+    switch (restr) {
+      case Restr.Disj<SerTerm> disj -> {
+        out.u8(AyacFormat.RESTR_DISJ);
+        seq(disj.orz(), this::conj);
+      }
+      case Restr.Const<SerTerm> c -> {
+        out.u8(AyacFormat.RESTR_CONST);
+        bool(c.isOne());
+      }
+    }
+  }
+
+  private void conj(@NotNull Restr.Conj<SerTerm> conj) {
+    seq(conj.ands(), cond -> {
+      term(cond.inst());
+      bool(cond.isOne());
+    });
+  }
+
+  private void qname(@NotNull SerDef.QName qname) {
+    out.varint(qnameIds.getOrPut(qname, () -> {
+      qnames.append(qname);
+      return qnames.size() - 1;
+    }));
+  }
+
+  private void string(@NotNull String string) {
+    out.varint(stringIds.getOrPut(string, () -> {
+      strings.append(string);
+      return strings.size() - 1;
+    }));
+  }
+
+  private void strings(@NotNull ImmutableSeq<String> strings) {
+    seq(strings, this::string);
+  }
+
+  private void bool(boolean b) {
+    out.u8(b ? 1 : 0);
+  }
+
+  private <T> void seq(@NotNull ImmutableSeq<T> seq, @NotNull Consumer<T> element) {
+    out.varint(seq.size());
+    seq.forEach(element);
+  }
+
+  private <K, V> void map(@NotNull ImmutableMap<K, V> map, @NotNull Consumer<K> key, @NotNull Consumer<V> value) {
+    out.varint(map.size());
+    map.view().forEach((k, v) -> {
+      key.accept(k);
+      value.accept(v);
+    });
+  }
+
+  /** A growable byte array, cheaper than a {@link java.io.ByteArrayOutputStream}. */
+  private static final class Output {
+    private byte @NotNull [] bytes = new byte[4096];
+    private int size = 0;
+
+    private void ensure(int more) {
+      if (size + more > bytes.length)
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+    }
+
+    public void u8(int b) {
+      ensure(1);
+      bytes[size++] = (byte) b;
+    }
+
+    public void i32(int i) {
+      ensure(4);
+      for (int shift = 24; shift >= 0; shift -= 8) bytes[size++] = (byte) (i >>> shift);
+    }
+
+    /** Unsigned LEB128 */
+    public void varint(int i) {
+      ensure(5);
+      while ((i & ~0x7F) != 0) {
+        bytes[size++] = (byte) ((i & 0x7F) | 0x80);
+        i >>>= 7;
+      }
+      bytes[size++] = (byte) i;
+    }
+
+    public void zigzag(int i) {
+      varint((i << 1) ^ (i >> 31));
+    }
+
+    public void bytes(byte @NotNull [] b) {
+      ensure(b.length);
+      System.arraycopy(b, 0, bytes, size, b.length);
+      size += b.length;
+    }
+
+    public @NotNull Output append(@NotNull Output other) {
+      ensure(other.size);
+      System.arraycopy(other.bytes, 0, bytes, size, other.size);
+      size += other.size;
+      return this;
+    }
+
+    public @NotNull ByteBuffer toBuffer() {
+      return ByteBuffer.wrap(bytes, 0, size);
+    }
+  }
+}
@@ -12,6 +12,7 @@ import org.aya.concrete.stmt.BindBlock;
 import org.aya.concrete.stmt.Stmt;
 import org.aya.concrete.stmt.UseHide;
 import org.aya.core.def.DataDef;
+import org.aya.core.def.FnDef;
 import org.aya.core.def.GenericDef;
 import org.aya.core.def.StructDef;
 import org.aya.core.repr.AyaShape;
@@ -241,6 +242,7 @@ public record CompiledAya(
     var def = serDef.de(state);
     assert def.ref().core != null;
     shapeFactory.bonjour(def);
+    if (def instanceof FnDef fn && fn.shape != null) shapeFactory.bonjour(def, fn.shape);
     switch (serDef) {
       case SerDef.Fn fn -> {
         if (isExported(fn.name())) {
@@ -7,6 +7,7 @@ import kala.collection.immutable.ImmutableSeq;
 import kala.control.Either;
 import kala.control.Option;
 import kala.tuple.Tuple;
+import kala.value.LazyValue;
 import org.aya.concrete.stmt.TeleDecl;
 import org.aya.core.def.*;
 import org.aya.core.repr.AyaShape;
@@ -20,9 +21,12 @@ import org.aya.ref.DefVar;
 import org.aya.util.binop.Assoc;
 import org.aya.util.binop.OpDecl;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.EnumSet;
+import java.util.function.Supplier;
 
 /**
  * @author ice1000
@@ -39,15 +43,19 @@ public sealed interface SerDef extends Serializable {
   record Fn(
     @NotNull QName name,
     @NotNull ImmutableSeq<SerTerm.SerParam> telescope,
-    @NotNull Either<SerTerm, ImmutableSeq<SerPat.Clause>> body,
+    @NotNull Lazy<Either<SerTerm, ImmutableSeq<SerPat.Clause>>> body,
     @NotNull EnumSet<Modifier> modifiers,
-    @NotNull SerTerm result
+    @NotNull SerTerm result,
+    @Nullable SerShapeResult shape
   ) implements SerDef {
     @Override public @NotNull Def de(SerTerm.@NotNull DeState state) {
-      return new FnDef(
+      var fn = new FnDef(
         state.def(name), telescope.map(tele -> tele.de(state)),
-        result.de(state), modifiers,
-        body.map(term -> term.de(state), mischa -> mischa.map(clause -> clause.de(state))));
+        state.intern(result.de(state)), modifiers,
+        LazyValue.of(() -> body.get().map(term -> state.intern(term.de(state)), mischa -> mischa.map(clause -> clause.de(state)))));
+      // Recognized when it is type checked, as recognizing it normalizes the body
+      if (shape != null) fn.shape = shape.de(state);
+      return fn;
     }
   }
 
@@ -56,15 +64,15 @@ public sealed interface SerDef extends Serializable {
     @NotNull ImmutableSeq<SerPat> pats,
     @NotNull ImmutableSeq<SerTerm.SerParam> ownerTele,
     @NotNull ImmutableSeq<SerTerm.SerParam> selfTele,
-    @NotNull Partial.Split<SerTerm> clauses,
+    @NotNull Lazy<Partial.Split<SerTerm>> clauses,
     @NotNull SerTerm result, boolean coerce
   ) implements SerDef {
     @Override public @NotNull CtorDef de(SerTerm.@NotNull DeState state) {
       return new CtorDef(
         state.resolve(data), state.def(self), pats.map(pat -> pat.de(state)),
         ownerTele.map(tele -> tele.de(state)), selfTele.map(tele -> tele.de(state)),
-        clauses.fmap(t -> t.de(state)),
-        result.de(state), coerce);
+        LazyValue.of(() -> clauses.get().fmap(t -> t.de(state))),
+        state.intern(result.de(state)), coerce);
     }
   }
 
@@ -97,7 +105,7 @@ public sealed interface SerDef extends Serializable {
         state.def(self),
         ownerTele.map(tele -> tele.de(state)),
         selfTele.map(tele -> tele.de(state)),
-        result.de(state),
+        state.intern(result.de(state)),
         body.map(serTerm -> serTerm.de(state)),
         coerce
       );
@@ -133,6 +141,54 @@ public sealed interface SerDef extends Serializable {
     }
   }
 
+  /**
+   * A part of a definition that may be decoded on first use, see {@link AyacFormat}.
+   * Equality is defined on the decoded value.
+   */
+  final class Lazy<T> implements Serializable {
+    private transient @Nullable Supplier<T> supplier;
+    private @Nullable T value;
+
+    private Lazy(@Nullable Supplier<T> supplier, @Nullable T value) {
+      this.supplier = supplier;
+      this.value = value;
+    }
+
+    public static <T> @NotNull Lazy<T> of(@NotNull T value) {
+      return new Lazy<>(null, value);
+    }
+
+    public static <T> @NotNull Lazy<T> lazy(@NotNull Supplier<T> supplier) {
+      return new Lazy<>(supplier, null);
+    }
+
+    public synchronized @NotNull T get() {
+      if (supplier != null) {
+        value = supplier.get();
+        supplier = null;
+      }
+      assert value != null;
+      return value;
+    }
+
+    @Serial private @NotNull Object writeReplace() {
+      get();
+      return this;
+    }
+
+    @Override public boolean equals(Object o) {
+      return this == o || o instanceof Lazy<?> lazy && get().equals(lazy.get());
+    }
+
+    @Override public int hashCode() {
+      return get().hashCode();
+    }
+
+    @Override public String toString() {
+      return supplier != null ? "Lazy[?]" : "Lazy[" + value + "]";
+    }
+  }
+
   /** To use serialized operators in {@link org.aya.concrete.desugar.AyaBinOpSet} */
   record SerOpDecl(@NotNull OpInfo opInfo) implements OpDecl {
   }
@@ -168,18 +224,28 @@ public sealed interface SerDef extends Serializable {
 
   /** serialized {@link AyaShape} */
   enum SerAyaShape implements Serializable {
-    NAT, LIST;
+    NAT, LIST, NAT_ADD, NAT_MUL, NAT_SUB, NAT_CMP;
 
     public @NotNull AyaShape de() {
       return switch (this) {
         case NAT -> AyaShape.NAT_SHAPE;
         case LIST -> AyaShape.LIST_SHAPE;
+        case NAT_ADD -> AyaShape.NAT_ADD_SHAPE;
+        case NAT_MUL -> AyaShape.NAT_MUL_SHAPE;
+        case NAT_SUB -> AyaShape.NAT_SUB_SHAPE;
+        case NAT_CMP -> AyaShape.NAT_CMP_SHAPE;
       };
     }
 
     public static @NotNull SerAyaShape serialize(@NotNull AyaShape shape) {
       if (shape == AyaShape.NAT_SHAPE) return NAT;
       if (shape == AyaShape.LIST_SHAPE) return LIST;
+      if (shape instanceof AyaShape.AyaNatOpShape op) return switch (op.op()) {
+        case ADD -> NAT_ADD;
+        case MUL -> NAT_MUL;
+        case SUB -> NAT_SUB;
+        case CMP -> NAT_CMP;
+      };
       throw new InternalException("unexpected shape: " + shape.getClass());
     }
   }
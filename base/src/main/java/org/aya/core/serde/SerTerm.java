@@ -8,8 +8,12 @@ import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableHashMap;
 import kala.collection.mutable.MutableMap;
 import kala.tuple.Tuple;
+import org.aya.core.def.DataDef;
+import org.aya.core.def.GenericDef;
 import org.aya.core.def.PrimDef;
+import org.aya.core.def.StructDef;
 import org.aya.core.term.*;
+import org.aya.core.visitor.TermInterner;
 import org.aya.generic.SortKind;
 import org.aya.guest0x0.cubical.Formula;
 import org.aya.guest0x0.cubical.Partial;
@@ -18,27 +22,40 @@ import org.aya.ref.DefVar;
 import org.aya.ref.LocalVar;
 import org.aya.util.Arg;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.Serializable;
+import java.math.BigInteger;
 
 /**
  * @author ice1000
  */
 public sealed interface SerTerm extends Serializable, Restr.TermLike<SerTerm> {
+  /** Shared by all modules in a library build, possibly from several threads. */
   record DeState(
     @NotNull MutableMap<Seq<String>, MutableMap<String, DefVar<?, ?>>> defCache,
     @NotNull MutableMap<Integer, LocalVar> localCache,
-    @NotNull PrimDef.Factory primFactory
+    @NotNull PrimDef.Factory primFactory,
+    @Nullable TermInterner interner
   ) {
     public DeState(@NotNull PrimDef.Factory primFactory) {
-      this(MutableMap.create(), MutableMap.create(), primFactory);
+      this(primFactory, null);
     }
 
-    public @NotNull LocalVar var(@NotNull SimpVar var) {
+    /** @param interner shares the types of definitions, see {@link TermInterner} */
+    public DeState(@NotNull PrimDef.Factory primFactory, @Nullable TermInterner interner) {
+      this(MutableMap.create(), MutableMap.create(), primFactory, interner);
+    }
+
+    public @NotNull Term intern(@NotNull Term term) {
+      return interner == null ? term : interner.apply(term);
+    }
+
+    public synchronized @NotNull LocalVar var(@NotNull SimpVar var) {
       return localCache.getOrPut(var.var, () -> new LocalVar(var.name));
     }
 
-    @SuppressWarnings("unchecked") public <V extends DefVar<?, ?>>
+    @SuppressWarnings("unchecked") public synchronized <V extends DefVar<?, ?>>
     @NotNull V resolve(@NotNull SerDef.QName name) {
       return (V) defCache
         .getOrPut(name.mod(), MutableHashMap::new)
@@ -53,7 +70,30 @@ public sealed interface SerTerm extends Serializable, Restr.TermLike<SerTerm> {
       return resolve(name);
     }
 
-    public void putPrim(
+    /**
+     * Makes a definition type checked from source visible to modules loaded from compiled cores later,
+     * which happens when they are skipped by early cutoff.
+     */
+    public synchronized void register(@NotNull GenericDef def) {
+      switch (def) {
+        case PrimDef prim -> {}
+        case DataDef data -> {
+          put(data.ref());
+          data.body.forEach(ctor -> put(ctor.ref()));
+        }
+        case StructDef struct -> {
+          put(struct.ref());
+          struct.fields.forEach(field -> put(field.ref()));
+        }
+        default -> put(def.ref());
+      }
+    }
+
+    private void put(@NotNull DefVar<?, ?> var) {
+      if (var.module != null) defCache.getOrPut(var.module, MutableHashMap::new).put(var.name(), var);
+    }
+
+    public synchronized void putPrim(
       @NotNull ImmutableSeq<String> mod,
       @NotNull PrimDef.ID id,
       @NotNull DefVar<?, ?> defVar
@@ -74,7 +114,7 @@ public sealed interface SerTerm extends Serializable, Restr.TermLike<SerTerm> {
 
   record SerParam(boolean explicit, @NotNull SimpVar var, @NotNull SerTerm term) implements Serializable {
     public @NotNull Term.Param de(@NotNull DeState state) {
-      return new Term.Param(var.de(state), term.de(state), explicit);
+      return new Term.Param(var.de(state), state.intern(term.de(state)), explicit);
     }
   }
 
@@ -221,7 +261,7 @@ public sealed interface SerTerm extends Serializable, Restr.TermLike<SerTerm> {
   }
 
   record ShapedInt(
-    int integer,
+    @NotNull BigInteger integer,
     @NotNull SerDef.SerShapeResult shape,
     @NotNull SerTerm.Data type
   ) implements SerTerm {
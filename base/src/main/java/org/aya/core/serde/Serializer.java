@@ -16,6 +16,7 @@ import org.aya.ref.LocalVar;
 import org.aya.util.Arg;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * @author ice1000
@@ -27,9 +28,10 @@ public record Serializer(@NotNull Serializer.State state) {
       case FnDef fn -> new SerDef.Fn(
         state.def(fn.ref),
         serializeParams(fn.telescope),
-        fn.body.map(this::serialize, matchings -> matchings.map(this::serialize)),
+        SerDef.Lazy.of(fn.body().map(this::serialize, matchings -> matchings.map(this::serialize))),
         fn.modifiers,
-        serialize(fn.result)
+        serialize(fn.result),
+        fn.shape == null ? null : SerDef.SerShapeResult.serialize(state, fn.shape)
       );
       case FieldDef field -> new SerDef.Field(
         state.def(field.structRef),
@@ -62,7 +64,7 @@ public record Serializer(@NotNull Serializer.State state) {
         serializePats(ctor.pats),
         serializeParams(ctor.ownerTele),
         serializeParams(ctor.selfTele),
-        ctor.clauses.fmap(this::serialize),
+        SerDef.Lazy.of(ctor.clauses().fmap(this::serialize)),
         serialize(ctor.result),
         ctor.coerce
       );
@@ -181,18 +183,31 @@ public record Serializer(@NotNull Serializer.State state) {
     return new SerTerm.SerArg(serialize(termArg.term()), termArg.explicit());
   }
 
-  public record State(@NotNull MutableMap<LocalVar, Integer> localCache) {
+  /**
+   * Shared by all modules in a library build, possibly from several threads.
+   *
+   * @param seenDefs if not null, records the definitions referred to by serialized terms,
+   *                 see {@link org.aya.tyck.order.ReusableDefs}
+   */
+  public record State(
+    @NotNull MutableMap<LocalVar, Integer> localCache,
+    @Nullable MutableMap<SerDef.QName, DefVar<?, ?>> seenDefs
+  ) {
     public State() {
-      this(MutableMap.create());
+      this(MutableMap.create(), null);
     }
 
-    public @NotNull SerTerm.SimpVar local(@NotNull LocalVar var) {
+    public synchronized @NotNull SerTerm.SimpVar local(@NotNull LocalVar var) {
       return new SerTerm.SimpVar(localCache.getOrPut(var, localCache::size), var.name());
     }
 
     public @NotNull SerDef.QName def(@NotNull DefVar<?, ?> var) {
       assert var.module != null;
-      return new SerDef.QName(var.module, var.name());
+      var name = new SerDef.QName(var.module, var.name());
+      if (seenDefs != null) synchronized (this) {
+        seenDefs.put(name, var);
+      }
+      return name;
     }
   }
 
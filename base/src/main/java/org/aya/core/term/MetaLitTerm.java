@@ -11,6 +11,8 @@ import org.aya.core.repr.ShapeRecognition;
 import org.aya.util.error.SourcePos;
 import org.jetbrains.annotations.NotNull;
 
+import java.math.BigInteger;
+
 public record MetaLitTerm(
   @NotNull SourcePos sourcePos,
   @NotNull Object repr,
@@ -21,7 +23,7 @@ public record MetaLitTerm(
     if (!(type instanceof DataCall dataCall)) return this;
     return candidates.find(t -> t._1.ref() == dataCall.ref()).flatMap(t -> {
       var shape = t._2.shape();
-      if (shape == AyaShape.NAT_SHAPE) return Option.some(new IntegerTerm((int) repr, t._2, dataCall));
+      if (shape == AyaShape.NAT_SHAPE) return Option.some(new IntegerTerm((BigInteger) repr, t._2, dataCall));
       if (shape == AyaShape.LIST_SHAPE) return Option.some(new ListTerm((ImmutableSeq<Term>) repr, t._2, dataCall));
       return Option.<Term>none();
     }).getOrDefault(this);
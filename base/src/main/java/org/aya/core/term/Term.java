@@ -235,6 +235,7 @@ public sealed interface Term extends AyaDocile, Restr.TermLike<Term>
       case NULL -> this;
       case NF -> new Expander.Normalizer(state).apply(this);
       case WHNF -> new Expander.WHNFer(state).apply(this);
+      case NBE -> new Evaluator(state).normalize(this);
     };
   }
 
@@ -8,6 +8,7 @@ import org.aya.guest0x0.cubical.Restr;
 import org.aya.ref.LocalVar;
 import org.aya.util.Arg;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.function.UnaryOperator;
 
@@ -28,26 +29,15 @@ public interface BetaExpander extends EndoTerm {
       case PartialTyTerm ty -> ty.normalizeRestr();
       case MetaPatTerm metaPat -> metaPat.inline(this);
       case MetaLitTerm lit -> lit.inline();
-      case AppTerm app -> {
-        var result = AppTerm.make(app);
-        yield result == term ? result : apply(result);
-      }
       case ProjTerm proj -> ProjTerm.proj(proj);
       case MatchTerm match -> {
         var result = match.tryMatch();
         yield result.isDefined() ? result.get() : match;
       }
-      case PAppTerm(var of, var args, PathTerm(var xi, var type, var partial)) -> {
-        if (of instanceof PLamTerm lam) {
-          var ui = args.map(Arg::term);
-          var subst = new Subst(lam.params(), ui);
-          yield apply(lam.body().subst(subst));
-        }
-        yield switch (partial(partial)) {
-          case Partial.Split<Term> hap -> new PAppTerm(of, args, new PathTerm(xi, type, hap));
-          case Partial.Const<Term> sad -> sad.u();
-        };
-      }
+      case PAppTerm(var of, var args, PathTerm(var xi, var type, var partial)) -> switch (partial(partial)) {
+        case Partial.Split<Term> hap -> new PAppTerm(of, args, new PathTerm(xi, type, hap));
+        case Partial.Const<Term> sad -> sad.u();
+      };
       case PartialTerm partial -> new PartialTerm(partial(partial.partial()), partial.rhsType());
       case CoeTerm coe -> {
         if (coe.restr() instanceof Restr.Const<Term> c && c.isOne()) {
@@ -72,6 +62,20 @@ public interface BetaExpander extends EndoTerm {
       default -> term;
     };
   }
+  @Override default @Nullable Term reduce(@NotNull Term term) {
+    return switch (term) {
+      case AppTerm app -> {
+        var result = AppTerm.make(app);
+        yield result == app ? null : result;
+      }
+      case PAppTerm(PLamTerm lam, var args, var cube) -> {
+        var ui = args.map(Arg::term);
+        yield lam.body().subst(new Subst(lam.params(), ui));
+      }
+      default -> null;
+    };
+  }
+
   @NotNull static Term.Param coeDom(LocalVar u0Var, Term type) {
     return new Term.Param(u0Var, AppTerm.make(type, new Arg<>(FormulaTerm.LEFT, true)), true);
   }
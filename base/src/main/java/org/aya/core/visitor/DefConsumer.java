@@ -36,7 +36,7 @@ public interface DefConsumer extends TermConsumer {
     switch (def) {
       case FnDef fn -> {
         visitDef(fn);
-        fn.body.forEach(
+        fn.body().forEach(
           this,
           matchings -> matchings.forEach(this::visitMatching));
       }
@@ -52,7 +52,7 @@ public interface DefConsumer extends TermConsumer {
         ctor.pats.forEach(this::visitPat);
         tele(ctor.selfTele);
         accept(ctor.result);
-        partial(ctor.clauses);
+        partial(ctor.clauses());
       }
       case FieldDef field -> {
         tele(field.selfTele);
@@ -8,6 +8,7 @@ import kala.collection.mutable.MutableMap;
 import kala.control.Option;
 import kala.tuple.Tuple;
 import org.aya.core.pat.PatMatcher;
+import org.aya.core.repr.NatOpMatcher;
 import org.aya.core.term.*;
 import org.aya.generic.Modifier;
 import org.aya.guest0x0.cubical.Partial;
@@ -15,6 +16,7 @@ import org.aya.tyck.TyckState;
 import org.aya.util.Arg;
 import org.aya.util.error.WithPos;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * @author wsx
@@ -30,39 +32,51 @@ public interface DeltaExpander extends EndoTerm {
   }
 
   @Override default @NotNull Term post(@NotNull Term term) {
+    return switch (term) {
+      case PrimCall prim -> state().primFactory().unfold(prim.id(), prim, state());
+      default -> term;
+    };
+  }
+
+  @Override default @Nullable Term reduce(@NotNull Term term) {
     return switch (term) {
       case ConCall con -> {
         var def = con.ref().core;
-        if (def == null) yield con;
-        var sat = AyaRestrSimplifier.INSTANCE.mapSplit(def.clauses, t ->
+        if (def == null) yield null;
+        var sat = AyaRestrSimplifier.INSTANCE.mapSplit(def.clauses(), t ->
           t.subst(buildSubst(def.fullTelescope(), con.args())));
-        if (sat instanceof Partial.Const<Term> c) yield apply(c.u());
-        yield con;
+        if (sat instanceof Partial.Const<Term> c) yield c.u();
+        yield null;
       }
       case FnCall fn -> {
         var def = fn.ref().core;
-        if (def == null || def.modifiers.contains(Modifier.Opaque)) yield fn;
-        yield def.body.fold(
-          lamBody -> apply(lamBody.rename().lift(fn.ulift()).subst(buildSubst(def.telescope(), fn.args()))),
-          clauses -> tryUnfoldClauses(def.modifiers.contains(Modifier.Overlap), fn.args(), fn.ulift(), clauses)
-            .map(unfolded -> apply(unfolded.data())).getOrDefault(fn));
+        if (def == null || def.modifiers.contains(Modifier.Opaque)) yield null;
+        if (def.shape != null) {
+          var computed = NatOpMatcher.compute(def.shape, fn);
+          if (computed != null) yield computed;
+        }
+        var unfolded = def.body().<Option<Term>>fold(
+          ignored -> def.nameless().map(body -> body.instantiate(fn.args().view().map(Arg::term), fn.ulift())),
+          clauses -> def.decisionTree()
+            .map(tree -> tree.unfold(fn.args(), fn.ulift(), this))
+            .getOrElse(() -> tryUnfoldClauses(def.modifiers.contains(Modifier.Overlap), fn.args(), fn.ulift(), clauses))
+            .map(WithPos::data));
+        if (unfolded.isEmpty()) yield null;
+        state().counters().unfold(fn.ref());
+        yield unfolded.get();
       }
-      case PrimCall prim -> state().primFactory().unfold(prim.id(), prim, state());
       case MetaTerm hole -> {
         var def = hole.ref();
         yield state().metas().getOption(def)
-          .map(body -> apply(body.subst(buildSubst(def.fullTelescope(), hole.fullArgs()))))
-          .getOrDefault(hole);
+          .map(body -> body.subst(buildSubst(def.fullTelescope(), hole.fullArgs())))
+          .getOrNull();
       }
-      case FieldTerm access -> {
+      case FieldTerm access when access.of() instanceof NewTerm n -> {
         var fieldDef = access.ref().core;
-        if (access.of() instanceof NewTerm n) {
-          var fieldBody = access.fieldArgs().foldLeft(n.params().get(access.ref()), AppTerm::make);
-          yield apply(fieldBody.subst(buildSubst(fieldDef.ownerTele, access.structArgs())));
-        }
-        yield access;
+        var fieldBody = access.fieldArgs().foldLeft(n.params().get(access.ref()), AppTerm::make);
+        yield fieldBody.subst(buildSubst(fieldDef.ownerTele, access.structArgs()));
       }
-      default -> term;
+      default -> null;
     };
   }
 
@@ -8,6 +8,7 @@ import org.aya.generic.util.InternalException;
 import org.aya.ref.AnyVar;
 import org.aya.ref.LocalVar;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.function.UnaryOperator;
 
@@ -18,6 +19,10 @@ import java.util.function.UnaryOperator;
  * The overall operation is obtained by recursively transforming the term in pre-order followed by a post-order transformation.
  * Note that the derived `accept` attempts to preserve object identity when possible,
  * hence the implementation of `pre` and `post` can take advantage of this behavior.
+ * What happens around the traversal of every subterm is specified by `enter` and `exit`,
+ * rather than by overriding `apply`, which is only called on the whole term.
+ * A term that reduces to another one, which has to be traversed as well, is specified by `reduce`,
+ * rather than by calling `apply` in `post`.
  *
  * @author wsx
  */
@@ -30,8 +35,39 @@ public interface EndoTerm extends UnaryOperator<Term> {
     return term;
   }
 
+  /**
+   * Called on every subterm before it is traversed.
+   *
+   * @return a replacement of the subterm, which is then not traversed, or null to traverse it
+   */
+  default @Nullable Term enter(@NotNull Term term) {
+    return null;
+  }
+
+  /**
+   * Called on every subterm after its subterms are traversed, before {@link #post}.
+   *
+   * @return a term it reduces to, which is then traversed in place of it, or null to call {@link #post} on it
+   * @see TermWalker
+   */
+  default @Nullable Term reduce(@NotNull Term term) {
+    return null;
+  }
+
+  /** The step of a traversal after the subterms are traversed, for a term outside a traversal. */
+  default @NotNull Term reduceOrPost(@NotNull Term term) {
+    var reduct = reduce(term);
+    return reduct == null ? post(term) : apply(reduct);
+  }
+
+  /** Called on every subterm traversed, with its result. */
+  default @NotNull Term exit(@NotNull Term term, @NotNull Term result) {
+    return result;
+  }
+
+  /** @see TermWalker */
   default @NotNull Term apply(@NotNull Term term) {
-    return post(pre(term).descent(this));
+    return TermWalker.apply(this, term);
   }
 
   /** Not an IntelliJ Renamer. */
@@ -92,9 +128,8 @@ public interface EndoTerm extends UnaryOperator<Term> {
 
   /** A lift but in American English. */
   record Elevator(int lift) implements EndoTerm {
-    @Override public @NotNull Term apply(@NotNull Term term) {
-      if (lift == 0) return term;
-      return EndoTerm.super.apply(term);
+    @Override public @Nullable Term enter(@NotNull Term term) {
+      return lift == 0 ? term : null;
     }
 
     @Override public @NotNull Term post(@NotNull Term term) {
@@ -0,0 +1,167 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.visitor;
+
+import org.aya.core.pat.Pat;
+import org.aya.core.term.*;
+import org.aya.generic.Modifier;
+import org.aya.ref.LocalVar;
+import org.aya.tyck.TyckState;
+import org.aya.util.Arg;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Normalization by evaluation, an alternative to {@link Expander.Normalizer}
+ * that computes the same normal forms.
+ * Instead of substituting arguments into a copy of the body of a lambda or a function,
+ * the body is evaluated in an {@link Env} that binds its parameters to lazily evaluated arguments,
+ * and the value is read back into a {@link Term} at the end.
+ * <p>
+ * Only lambdas, applications, variables and functions defined by an expression are evaluated this way;
+ * every other term is normalized with its subterms evaluated first and then reduced by {@link Expander}.
+ * The body of a definition is evaluated once per call, and the values of the calls may be nested,
+ * so the binders are renamed as they are evaluated, like {@link EndoTerm.Renamer} does when a definition is unfolded:
+ * the parameter of a closure is renamed by {@link #quote}, and the binders of other terms by {@link #rebind},
+ * both by binding the old variable to a fresh one in the {@link Env}.
+ *
+ * @see org.aya.generic.util.NormalizeMode#NBE
+ */
+public record Evaluator(@NotNull TyckState state, @NotNull Expander.Normalizer normalizer) {
+  public Evaluator(@NotNull TyckState state) {
+    this(state, new Expander.Normalizer(state));
+  }
+
+  /** A value is either a closure or a term in normal form. */
+  public sealed interface Value {
+  }
+
+  public record Closure(@NotNull Term.Param param, @NotNull Term body, @Nullable Env env) implements Value {
+  }
+
+  public record Normal(@NotNull Term term) implements Value {
+  }
+
+  /** A persistent list of bindings. Definitions have a few parameters, so a list is good enough. */
+  public record Env(@NotNull LocalVar var, @NotNull Thunk value, @Nullable Env next) {
+    public static @Nullable Thunk lookup(@Nullable Env env, @NotNull LocalVar var) {
+      for (; env != null; env = env.next)
+        if (env.var == var) return env.value;
+      return null;
+    }
+  }
+
+  /** An argument, evaluated on first use. */
+  public static final class Thunk {
+    private @Nullable Term term;
+    private @Nullable Env env;
+    private @Nullable Value value;
+
+    private Thunk(@NotNull Value value) {
+      this.value = value;
+    }
+
+    private Thunk(@NotNull Term term, @Nullable Env env) {
+      this.term = term;
+      this.env = env;
+    }
+
+    private @NotNull Value force(@NotNull Evaluator evaluator) {
+      if (value == null) {
+        assert term != null;
+        value = evaluator.eval(term, env);
+        // Release the environment
+        term = null;
+        env = null;
+      }
+      return value;
+    }
+  }
+
+  public @NotNull Term normalize(@NotNull Term term) {
+    return quote(eval(term, null));
+  }
+
+  public @NotNull Value eval(@NotNull Term term, @Nullable Env env) {
+    return switch (term) {
+      case RefTerm ref -> {
+        var value = Env.lookup(env, ref.var());
+        yield value != null ? value.force(this) : new Normal(ref);
+      }
+      case LamTerm lam -> new Closure(lam.param(), lam.body(), env);
+      case AppTerm app -> apply(eval(app.of(), env), new Thunk(app.arg().term(), env), app.arg().explicit());
+      case FnCall fn when fn.ulift() == 0 && fn.ref().core != null
+        && !fn.ref().core.modifiers.contains(Modifier.Opaque)
+        && fn.ref().core.body().isLeft() -> {
+        var def = fn.ref().core;
+        // The body only refers to the telescope
+        Env body = null;
+        for (var i = 0; i < fn.args().size(); i++)
+          body = new Env(def.telescope().get(i).ref(), new Thunk(fn.args().get(i).term(), env), body);
+        yield eval(def.body().getLeftValue(), body);
+      }
+      default -> {
+        var scope = new Env[]{env};
+        var node = rebind(term, scope);
+        var inner = scope[0];
+        yield new Normal(normalizer.reduceOrPost(node.descent(t -> quote(eval(t, inner)))));
+      }
+    };
+  }
+
+  /**
+   * Renames the binders of the term itself, not those of its subterms.
+   *
+   * @param scope the environment, extended with the binders renamed
+   */
+  private static @NotNull Term rebind(@NotNull Term term, @Nullable Env @NotNull [] scope) {
+    return switch (term) {
+      case PiTerm pi -> new PiTerm(rebind(pi.param(), scope), pi.body());
+      case SigmaTerm sigma -> new SigmaTerm(sigma.params().map(param -> rebind(param, scope)));
+      case PathTerm path -> new PathTerm(path.params().map(var -> rebind(var, scope)), path.type(), path.partial());
+      case PLamTerm lam -> new PLamTerm(lam.params().map(var -> rebind(var, scope)), lam.body());
+      case MatchTerm match -> new MatchTerm(match.discriminant(), match.clauses().map(clause ->
+        new Term.Matching(clause.sourcePos(), clause.patterns().map(pat -> rebind(pat, scope)), clause.body())));
+      default -> term;
+    };
+  }
+
+  private static @NotNull Term.Param rebind(@NotNull Term.Param param, @Nullable Env @NotNull [] scope) {
+    return new Term.Param(rebind(param.ref(), scope), param.type(), param.explicit());
+  }
+
+  private static @NotNull Pat rebind(@NotNull Pat pat, @Nullable Env @NotNull [] scope) {
+    return switch (pat) {
+      case Pat.Bind bind -> new Pat.Bind(bind.explicit(), rebind(bind.bind(), scope), bind.type());
+      case Pat.Tuple tuple -> new Pat.Tuple(tuple.explicit(), tuple.pats().map(p -> rebind(p, scope)));
+      case Pat.Ctor ctor -> new Pat.Ctor(ctor.explicit(), ctor.ref(), ctor.params().map(p -> rebind(p, scope)), ctor.type());
+      default -> pat;
+    };
+  }
+
+  private static @NotNull LocalVar rebind(@NotNull LocalVar var, @Nullable Env @NotNull [] scope) {
+    var fresh = var.rename();
+    scope[0] = new Env(var, new Thunk(new Normal(new RefTerm(fresh))), scope[0]);
+    return fresh;
+  }
+
+  private @NotNull Value apply(@NotNull Value f, @NotNull Thunk arg, boolean explicit) {
+    return switch (f) {
+      case Closure closure -> eval(closure.body, new Env(closure.param.ref(), arg, closure.env));
+      case Normal(LamTerm lam) -> eval(lam.body(), new Env(lam.param().ref(), arg, null));
+      case Normal(var head) -> new Normal(AppTerm.make(head, new Arg<>(quote(arg.force(this)), explicit)));
+    };
+  }
+
+  public @NotNull Term quote(@NotNull Value value) {
+    return switch (value) {
+      case Normal normal -> normal.term;
+      case Closure(var param, var body, var env) -> {
+        var fresh = param.renameVar();
+        var type = quote(eval(param.type(), env));
+        var bound = new Env(param.ref(), new Thunk(new Normal(new RefTerm(fresh))), env);
+        yield new LamTerm(new Term.Param(fresh, type, param.explicit()), quote(eval(body, bound)));
+      }
+    };
+  }
+}
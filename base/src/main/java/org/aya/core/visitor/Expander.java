@@ -9,22 +9,35 @@ import org.aya.core.term.*;
 import org.aya.ref.AnyVar;
 import org.aya.tyck.TyckState;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public interface Expander extends DeltaExpander, BetaExpander {
   @Override @NotNull default Term post(@NotNull Term term) {
-    return BetaExpander.super.post(DeltaExpander.super.post(term));
+    var delta = DeltaExpander.super.post(term);
+    // A primitive may unfold to a redex
+    return delta == term ? BetaExpander.super.post(term) : reduceOrPost(delta);
+  }
+
+  @Override default @Nullable Term reduce(@NotNull Term term) {
+    var reduct = DeltaExpander.super.reduce(term);
+    return reduct != null ? reduct : BetaExpander.super.reduce(term);
   }
 
   record Normalizer(@Override @NotNull TyckState state) implements Expander {}
 
   record WHNFer(@Override @NotNull TyckState state) implements Expander {
-    @Override public @NotNull Term apply(@NotNull Term term) {
+    @Override public @Nullable Term enter(@NotNull Term term) {
       return switch (term) {
         case StableWHNF whnf -> whnf;
-        case ConCall con when (con.ref().core == null || con.ref().core.clauses.clauses().isEmpty()) -> con;
-        default -> Expander.super.apply(term);
+        case ConCall con when (con.ref().core == null || con.ref().core.clauses().clauses().isEmpty()) -> con;
+        default -> state.whnfCache().get(term);
       };
     }
+
+    @Override public @NotNull Term exit(@NotNull Term term, @NotNull Term whnf) {
+      state.whnfCache().put(term, whnf);
+      return whnf;
+    }
   }
 
   record Tracked(
@@ -33,20 +46,20 @@ public interface Expander extends DeltaExpander, BetaExpander {
     @Override @NotNull TyckState state,
     @NotNull PrimDef.Factory factory
   ) implements Expander {
-    @Override public @NotNull Term apply(@NotNull Term term) {
+    @Override public @Nullable Term enter(@NotNull Term term) {
       return switch (term) {
         case FnCall fn -> {
           if (!unfolding.contains(fn.ref())) yield fn;
           unfolded.add(fn.ref());
-          yield Expander.super.apply(fn);
+          yield null;
         }
         case ConCall con -> {
           if (!unfolding.contains(con.ref())) yield con;
           unfolded.add(con.ref());
-          yield Expander.super.apply(con);
+          yield null;
         }
         case PrimCall prim -> factory.unfold(prim.id(), prim, state);
-        default -> Expander.super.apply(term);
+        default -> null;
       };
     }
   }
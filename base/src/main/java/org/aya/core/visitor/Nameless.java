@@ -0,0 +1,121 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import org.aya.core.term.*;
+import org.aya.ref.GenerateKind;
+import org.aya.ref.LocalVar;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The body of a definition in a locally nameless form, used by {@link DeltaExpander} to unfold calls.
+ * The parameters of the body and the variables bound in it are replaced by variables numbered
+ * by {@link GenerateKind.Nameless}, while the other free variables keep their names.
+ * Instantiating the body renames the binders and substitutes the arguments in a single traversal,
+ * finding the variables in an array, instead of {@code body.rename().subst(subst)},
+ * which copies the body twice and looks every variable up in a map.
+ * <p>
+ * Only the binders renamed by {@link EndoTerm.Renamer} are numbered, so the results are the same.
+ * The numbered variables never escape: they are all replaced when the body is instantiated.
+ *
+ * @param body   with the numbered variables
+ * @param vars   the variables replaced, the parameters first, indexed by their numbers
+ * @param params the number of parameters
+ */
+public record Nameless(@NotNull Term body, @NotNull ImmutableSeq<LocalVar> vars, int params) {
+  public static @NotNull Nameless close(@NotNull SeqLike<LocalVar> params, @NotNull Term body) {
+    var closer = new Closer(MutableMap.create(), MutableList.create());
+    params.forEach(closer::bind);
+    var closed = closer.apply(body);
+    return new Nameless(closed, closer.vars.toImmutableSeq(), params.size());
+  }
+
+  /**
+   * Equivalent to {@code body.rename().lift(ulift).subst(subst)},
+   * where {@code subst} maps the parameters to the arguments.
+   */
+  public @NotNull Term instantiate(@NotNull SeqLike<Term> args, int ulift) {
+    assert args.sizeEquals(params);
+    var env = new Term[vars.size()];
+    args.forEachIndexed((i, arg) -> env[i] = arg);
+    return new Instantiator(vars, params, env).apply(ulift == 0 ? body : body.lift(ulift));
+  }
+
+  private static int index(@NotNull LocalVar var) {
+    return var.generateKind() instanceof GenerateKind.Nameless nameless ? nameless.index() : -1;
+  }
+
+  private record Closer(@NotNull MutableMap<LocalVar, RefTerm> subst, @NotNull MutableList<LocalVar> vars) implements EndoTerm {
+    private @NotNull LocalVar bind(@NotNull LocalVar var) {
+      var v = new LocalVar(var.name(), var.definition(), new GenerateKind.Nameless(vars.size()));
+      vars.append(var);
+      subst.put(var, new RefTerm(v));
+      return v;
+    }
+
+    private @NotNull Term.Param bind(@NotNull Term.Param param) {
+      return new Term.Param(bind(param.ref()), param.type(), param.explicit());
+    }
+
+    @Override public @NotNull Term pre(@NotNull Term term) {
+      return switch (term) {
+        case LamTerm lambda -> new LamTerm(bind(lambda.param()), lambda.body());
+        case PiTerm pi -> new PiTerm(bind(pi.param()), pi.body());
+        case SigmaTerm sigma -> new SigmaTerm(sigma.params().map(this::bind));
+        case RefTerm ref -> subst.getOrDefault(ref.var(), ref);
+        case PathTerm path -> new PathTerm(path.params().map(this::bind), path.type(), path.partial());
+        case PLamTerm lam -> new PLamTerm(lam.params().map(this::bind), lam.body());
+        case Term misc -> misc;
+      };
+    }
+  }
+
+  /**
+   * Like {@link EndoTerm.Substituter}, the arguments are renamed where they are inserted,
+   * and the redexes created by the substitution are reduced.
+   *
+   * @param env the arguments, then the renamed binders as they are visited
+   */
+  private record Instantiator(
+    @NotNull ImmutableSeq<LocalVar> vars, int params,
+    @NotNull Term @NotNull [] env
+  ) implements BetaExpander {
+    private @NotNull LocalVar bind(@NotNull LocalVar var) {
+      var index = index(var);
+      if (index < 0) return var;
+      var v = vars.get(index).rename();
+      env[index] = new RefTerm(v);
+      return v;
+    }
+
+    private @NotNull Term.Param bind(@NotNull Term.Param param) {
+      var v = bind(param.ref());
+      return v == param.ref() ? param : new Term.Param(v, param.type(), param.explicit());
+    }
+
+    /** The variables are replaced without being traversed */
+    @Override public @Nullable Term enter(@NotNull Term term) {
+      if (!(term instanceof RefTerm ref)) return null;
+      var index = index(ref.var());
+      if (index < 0) return ref;
+      var replacement = env[index];
+      return index < params && !(replacement instanceof RefTerm) ? replacement.rename() : replacement;
+    }
+
+    @Override public @NotNull Term pre(@NotNull Term term) {
+      return switch (term) {
+        case LamTerm lambda -> new LamTerm(bind(lambda.param()), lambda.body());
+        case PiTerm pi -> new PiTerm(bind(pi.param()), pi.body());
+        case SigmaTerm sigma -> new SigmaTerm(sigma.params().map(this::bind));
+        case PathTerm path -> new PathTerm(path.params().map(this::bind), path.type(), path.partial());
+        case PLamTerm lam -> new PLamTerm(lam.params().map(this::bind), lam.body());
+        case Term misc -> misc;
+      };
+    }
+  }
+}
@@ -20,12 +20,8 @@ public interface TermConsumer extends Consumer<Term> {
 
   default void post(@NotNull Term term) {}
 
+  /** @see TermWalker */
   default void accept(@NotNull Term term) {
-    pre(term);
-    term.descent(t -> {
-      accept(t);
-      return t;
-    });
-    post(term);
+    TermWalker.accept(this, term);
   }
 }
@@ -84,10 +84,10 @@ public interface TermFolder<R> extends Function<Term, R> {
         case FnDef fn -> tele(fn.telescope)
           .concat(apply(fn.result))
           .concat(withBody
-            ? fn.body.fold(this, clauses -> clauses.view().flatMap(this::matchy))
+            ? fn.body().fold(this, clauses -> clauses.view().flatMap(this::matchy))
             : SeqView.empty());
         case CtorDef ctor ->
-          tele(ctor.selfTele).concat(withBody ? ctor.clauses.termsView().flatMap(this) : SeqView.empty());
+          tele(ctor.selfTele).concat(withBody ? ctor.clauses().termsView().flatMap(this) : SeqView.empty());
         case StructDef struct ->
           tele(struct.telescope).concat(withBody ? struct.fields.flatMap(this::apply) : SeqView.empty());
         case FieldDef field -> tele(field.telescope())
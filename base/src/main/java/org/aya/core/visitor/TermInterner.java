@@ -0,0 +1,138 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.visitor;
+
+import org.aya.core.term.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Hash-consing of terms: {@link #apply} returns a term equal to the given one,
+ * sharing every subterm with the terms interned before, so that equal terms
+ * (for instance the same type appearing in many definitions of a library)
+ * are stored once and {@link org.aya.tyck.unify.TermComparator} finds them identical.
+ * <p>
+ * Terms are interned bottom-up, so the children of a term being interned are already shared,
+ * which makes both the hash (computed from the identity of the children) and the equality
+ * (records compare their components with {@link java.util.Objects#equals}, which checks identity first) shallow.
+ * Variables are compared by identity, so only closed terms are shared between definitions,
+ * and terms with binders are rarely shared at all.
+ * Metas and error terms are never interned, nor is anything containing them.
+ * <p>
+ * The table holds the terms weakly, so a term is dropped once nothing else refers to it.
+ */
+public final class TermInterner implements EndoTerm {
+  private static final class Entry extends WeakReference<Term> {
+    private final int hash;
+    private @Nullable Entry next;
+
+    private Entry(@NotNull Term term, int hash, @Nullable Entry next, @NotNull ReferenceQueue<Term> queue) {
+      super(term, queue);
+      this.hash = hash;
+      this.next = next;
+    }
+  }
+
+  private final @NotNull ReferenceQueue<Term> queue = new ReferenceQueue<>();
+  private @Nullable Entry @NotNull [] table = new Entry[1 << 10];
+  private int size = 0;
+  private long hits = 0;
+  private long misses = 0;
+  /** The terms returned by {@link #post} in this traversal which are not shared */
+  private final @NotNull Set<Term> unshared = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  /** Traversed by {@link TermWalker}, so that deep terms do not overflow the Java stack */
+  @Override public synchronized @NotNull Term apply(@NotNull Term term) {
+    expunge();
+    try {
+      return EndoTerm.super.apply(term);
+    } finally {
+      unshared.clear();
+    }
+  }
+
+  /** @param node whose children are interned already */
+  @Override public @NotNull Term post(@NotNull Term node) {
+    var allShared = new boolean[]{true};
+    var children = new int[]{0, node.getClass().hashCode()};
+    node.descent(child -> {
+      allShared[0] &= !unshared.contains(child);
+      children[0]++;
+      children[1] = 31 * children[1] + System.identityHashCode(child);
+      return child;
+    });
+    if (!allShared[0] || !internable(node)) {
+      unshared.add(node);
+      return node;
+    }
+    // The structural hash of a leaf is cheap, and a call is distinguished by the definition
+    var h = children[0] == 0 ? node.hashCode()
+      : node instanceof Callable call ? 31 * children[1] + call.ref().hashCode() : children[1];
+    var index = h & (table.length - 1);
+    for (var entry = table[index]; entry != null; entry = entry.next) {
+      if (entry.hash != h) continue;
+      var existing = entry.get();
+      if (existing != null && existing.getClass() == node.getClass() && existing.equals(node)) {
+        hits++;
+        return existing;
+      }
+    }
+    misses++;
+    table[index] = new Entry(node, h, table[index], queue);
+    if (++size > table.length * 3 / 4) resize();
+    return node;
+  }
+
+  private static boolean internable(@NotNull Term term) {
+    return !(term instanceof MetaTerm || term instanceof MetaPatTerm
+      || term instanceof MetaLitTerm || term instanceof ErrorTerm);
+  }
+
+  private void resize() {
+    var old = table;
+    table = new Entry[old.length * 2];
+    for (var head : old) {
+      for (var entry = head; entry != null; ) {
+        var next = entry.next;
+        var index = entry.hash & (table.length - 1);
+        entry.next = table[index];
+        table[index] = entry;
+        entry = next;
+      }
+    }
+  }
+
+  /** Removes the entries whose terms are collected. */
+  private void expunge() {
+    for (Object ref; (ref = queue.poll()) != null; ) {
+      var dead = (Entry) ref;
+      var index = dead.hash & (table.length - 1);
+      Entry prev = null;
+      for (var entry = table[index]; entry != null; prev = entry, entry = entry.next) {
+        if (entry != dead) continue;
+        if (prev == null) table[index] = entry.next;
+        else prev.next = entry.next;
+        size--;
+        break;
+      }
+    }
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+}
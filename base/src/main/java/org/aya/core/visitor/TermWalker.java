@@ -0,0 +1,203 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core.visitor;
+
+import org.aya.core.term.Term;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * The traversals of {@link EndoTerm} and {@link TermConsumer}, which do not overflow the Java stack on deep terms,
+ * like long lists unfolded into constructors, unary numerals, or large normal forms.
+ * <p>
+ * The first {@link #MAX_DEPTH} levels of a term are traversed recursively, as most terms are shallow
+ * and recursion is the fastest. Deeper subterms are traversed with a stack on the heap:
+ * the subterms of a term are found by a {@link Term#descent} that returns them unchanged,
+ * and after they are traversed, the term is rebuilt by another {@link Term#descent} that returns the results.
+ * Both visit the subterms in the same order, and the latter preserves the identity of the term
+ * if the results are the same subterms, so the two ways compute the same result,
+ * calling {@link EndoTerm#pre} and {@link EndoTerm#post} on the same terms in the same order.
+ * <p>
+ * When a term has a {@link EndoTerm#reduce reduct}, like an unfolded function call,
+ * the reduct is traversed in place of it in a loop, at the same depth and on the same stack,
+ * so that a chain of reductions does not nest Java frames.
+ * The {@link EndoTerm#exit} of each term reduced is called after the traversal of its reduct,
+ * innermost first, as if the reduct were traversed in the {@link EndoTerm#post} of the term.
+ * A traversal started by {@link EndoTerm#apply} elsewhere starts over at depth zero.
+ */
+public final class TermWalker {
+  public static final int MAX_DEPTH = 256;
+
+  private TermWalker() {
+  }
+
+  public static @NotNull Term apply(@NotNull EndoTerm endo, @NotNull Term term) {
+    return apply(endo, term, 0);
+  }
+
+  private static @NotNull Term apply(@NotNull EndoTerm endo, @NotNull Term term, int depth) {
+    if (depth >= MAX_DEPTH) return iterate(endo, term);
+    var entered = endo.enter(term);
+    if (entered != null) return entered;
+    var node = endo.pre(term).descent(t -> apply(endo, t, depth + 1));
+    var reduct = endo.reduce(node);
+    if (reduct != null) return reduce(endo, term, reduct, depth);
+    return endo.exit(term, endo.post(node));
+  }
+
+  private static @NotNull Term reduce(@NotNull EndoTerm endo, @NotNull Term term, @NotNull Term reduct, int depth) {
+    var reduced = new ArrayList<Term>();
+    reduced.add(term);
+    Term result;
+    while (true) {
+      var entered = endo.enter(reduct);
+      if (entered != null) {
+        result = entered;
+        break;
+      }
+      var node = endo.pre(reduct).descent(t -> apply(endo, t, depth + 1));
+      var next = endo.reduce(node);
+      if (next == null) {
+        result = endo.exit(reduct, endo.post(node));
+        break;
+      }
+      reduced.add(reduct);
+      reduct = next;
+    }
+    return exit(endo, reduced, result);
+  }
+
+  /** @param reduced the terms reduced to the one traversed, whose {@link EndoTerm#exit} is pending */
+  private static @NotNull Term exit(@NotNull EndoTerm endo, @Nullable ArrayList<Term> reduced, @NotNull Term result) {
+    if (reduced != null) for (var i = reduced.size() - 1; i >= 0; i--) result = endo.exit(reduced.get(i), result);
+    return result;
+  }
+
+  public static void accept(@NotNull TermConsumer consumer, @NotNull Term term) {
+    accept(consumer, term, 0);
+  }
+
+  private static void accept(@NotNull TermConsumer consumer, @NotNull Term term, int depth) {
+    if (depth >= MAX_DEPTH) {
+      iterate(consumer, term);
+      return;
+    }
+    consumer.pre(term);
+    term.descent(t -> {
+      accept(consumer, t, depth + 1);
+      return t;
+    });
+    consumer.post(term);
+  }
+
+  private static @NotNull Term @NotNull [] children(@NotNull Term term) {
+    var children = new ArrayList<Term>();
+    term.descent(child -> {
+      children.add(child);
+      return child;
+    });
+    return children.toArray(new Term[0]);
+  }
+
+  /**
+   * @param term     before {@link EndoTerm#pre}
+   * @param node     after {@link EndoTerm#pre}
+   * @param children of the node
+   * @param results  of the children traversed so far
+   * @param reduced  the terms reduced to the term, whose {@link EndoTerm#exit} is pending
+   */
+  private record Frame(
+    @NotNull Term term, @NotNull Term node,
+    @NotNull Term @NotNull [] children, @Nullable Term @NotNull [] results,
+    int @NotNull [] next, @Nullable ArrayList<Term> reduced
+  ) {
+    private Frame(@NotNull Term term, @NotNull Term node, @NotNull Term @NotNull [] children, @Nullable ArrayList<Term> reduced) {
+      this(term, node, children, new Term[children.length], new int[1], reduced);
+    }
+  }
+
+  private static @NotNull Term iterate(@NotNull EndoTerm endo, @NotNull Term term) {
+    var stack = new ArrayDeque<Frame>();
+    var result = start(endo, term, stack, null);
+    while (!stack.isEmpty()) {
+      var top = stack.peek();
+      var next = top.next;
+      if (result != null) {
+        top.results[next[0]++] = result;
+        result = null;
+      }
+      if (next[0] < top.children.length) {
+        result = start(endo, top.children[next[0]], stack, null);
+        continue;
+      }
+      stack.pop();
+      var i = new int[1];
+      var rebuilt = top.node.descent(child -> {
+        assert child == top.children[i[0]];
+        return top.results[i[0]++];
+      });
+      var reduct = endo.reduce(rebuilt);
+      if (reduct == null) result = exit(endo, top.reduced, endo.exit(top.term, endo.post(rebuilt)));
+      else {
+        var reduced = top.reduced != null ? top.reduced : new ArrayList<Term>();
+        reduced.add(top.term);
+        result = start(endo, reduct, stack, reduced);
+      }
+    }
+    assert result != null;
+    return result;
+  }
+
+  /**
+   * @param reduced the terms reduced to the term, whose {@link EndoTerm#exit} is pending
+   * @return the result, or null if the term or a reduct of it has subterms to traverse, whose frame is pushed
+   */
+  private static @Nullable Term start(
+    @NotNull EndoTerm endo, @NotNull Term term,
+    @NotNull ArrayDeque<Frame> stack, @Nullable ArrayList<Term> reduced
+  ) {
+    while (true) {
+      var entered = endo.enter(term);
+      if (entered != null) return exit(endo, reduced, entered);
+      var node = endo.pre(term);
+      var children = children(node);
+      if (children.length > 0) {
+        stack.push(new Frame(term, node, children, reduced));
+        return null;
+      }
+      var reduct = endo.reduce(node);
+      if (reduct == null) return exit(endo, reduced, endo.exit(term, endo.post(node)));
+      if (reduced == null) reduced = new ArrayList<>();
+      reduced.add(term);
+      term = reduct;
+    }
+  }
+
+  private static void iterate(@NotNull TermConsumer consumer, @NotNull Term term) {
+    var terms = new ArrayDeque<Term>();
+    var children = new ArrayDeque<Term[]>();
+    var next = new ArrayDeque<int[]>();
+    consumer.pre(term);
+    terms.push(term);
+    children.push(children(term));
+    next.push(new int[1]);
+    while (!terms.isEmpty()) {
+      var index = next.peek();
+      var subterms = children.peek();
+      if (index[0] < subterms.length) {
+        var child = subterms[index[0]++];
+        consumer.pre(child);
+        terms.push(child);
+        children.push(children(child));
+        next.push(new int[1]);
+        continue;
+      }
+      consumer.post(terms.pop());
+      children.pop();
+      next.pop();
+    }
+  }
+}
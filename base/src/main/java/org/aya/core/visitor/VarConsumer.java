@@ -15,7 +15,7 @@ import org.jetbrains.annotations.VisibleForTesting;
 public interface VarConsumer extends TermConsumer {
   void var(@NotNull AnyVar var);
 
-  @Override default void accept(@NotNull Term term) {
+  @Override default void pre(@NotNull Term term) {
     switch (term) {
       case RefTerm ref -> var(ref.var());
       case RefTerm.Field field -> var(field.ref());
@@ -27,9 +27,12 @@ public interface VarConsumer extends TermConsumer {
       case StructCall struct -> var(struct.ref());
       default -> {}
     }
-    TermConsumer.super.accept(term);
   }
 
+  /**
+   * Keeps track of the variables bound in the subterms, in {@link #pre} and {@link #post},
+   * so that it is traversed by {@link TermWalker} like other consumers.
+   */
   abstract class Scoped implements VarConsumer {
     protected final @NotNull MutableList<LocalVar> bound = MutableList.create();
 
@@ -37,41 +40,26 @@ public interface VarConsumer extends TermConsumer {
       return bound.isEmpty();
     }
 
-    @Override public void accept(@NotNull Term term) {
-      switch (term) {
-        case LamTerm lambda -> {
-          bound.append(lambda.param().ref());
-          VarConsumer.super.accept(lambda);
-          bound.removeLast();
-        }
-        case PiTerm pi -> {
-          bound.append(pi.param().ref());
-          VarConsumer.super.accept(pi);
-          bound.removeLast();
-        }
-        case SigmaTerm(var params) -> {
-          var start = bound.size();
-          params.forEach(param -> {
-            bound.append(param.ref());
-            accept(param.type());
-          });
-          bound.removeInRange(start, start + params.size());
-        }
-        case PathTerm cube -> {
-          var start = bound.size();
-          cube.params().forEach(bound::append);
-          accept(cube.type());
-          cube.partial().termsView().forEach(this);
-          bound.removeInRange(start, start + cube.params().size());
-        }
-        case PLamTerm(var params, var body) -> {
-          var start = bound.size();
-          params.forEach(bound::append);
-          accept(body);
-          bound.removeInRange(start, start + params.size());
-        }
-        default -> VarConsumer.super.accept(term);
-      }
+    /** @return the variables the term binds in its subterms */
+    private static @NotNull ImmutableSeq<LocalVar> binders(@NotNull Term term) {
+      return switch (term) {
+        case LamTerm lambda -> ImmutableSeq.of(lambda.param().ref());
+        case PiTerm pi -> ImmutableSeq.of(pi.param().ref());
+        case SigmaTerm(var params) -> params.map(Term.Param::ref);
+        case PathTerm cube -> cube.params();
+        case PLamTerm(var params, var body) -> params;
+        default -> ImmutableSeq.empty();
+      };
+    }
+
+    @Override public void pre(@NotNull Term term) {
+      VarConsumer.super.pre(term);
+      bound.appendAll(binders(term));
+    }
+
+    @Override public void post(@NotNull Term term) {
+      var size = binders(term).size();
+      bound.removeInRange(bound.size() - size, bound.size());
     }
   }
 
@@ -84,13 +72,12 @@ public interface VarConsumer extends TermConsumer {
       this(allowed, MutableList.create(), MutableList.create());
     }
 
-    @Override public void accept(@NotNull Term term) {
+    @Override public void pre(@NotNull Term term) {
       if (term instanceof MetaTerm hole) {
         var checker = new ScopeChecker(allowed.appendedAll(bound), confused, confused);
         hole.contextArgs().forEach(arg -> checker.accept(arg.term()));
-        hole.args().forEach(arg -> accept(arg.term()));
       }
-      super.accept(term);
+      super.pre(term);
     }
 
     @Contract(pure = true)
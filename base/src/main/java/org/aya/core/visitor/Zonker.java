@@ -12,6 +12,7 @@ import org.aya.util.distill.DistillerOptions;
 import org.aya.util.error.SourcePos;
 import org.aya.util.reporter.Problem;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Instantiates holes (assuming all holes are solved).
@@ -63,9 +64,12 @@ public record Zonker(
     };
   }
 
-  @Override public @NotNull Term apply(@NotNull Term term) {
+  @Override public @Nullable Term enter(@NotNull Term term) {
     stack.push(term);
-    var result = EndoTerm.super.apply(term);
+    return null;
+  }
+
+  @Override public @NotNull Term exit(@NotNull Term term, @NotNull Term result) {
     stack.pop();
     return result;
   }
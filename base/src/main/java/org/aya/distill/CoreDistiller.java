@@ -23,6 +23,7 @@ import org.aya.util.distill.DistillerOptions;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.math.BigInteger;
 import java.util.function.UnaryOperator;
 
 /**
@@ -187,8 +188,8 @@ public class CoreDistiller extends BaseDistiller<Term> {
       }
       case StructCall structCall -> visitArgsCalls(structCall.ref(), STRUCT_CALL, structCall.args(), outer);
       case DataCall dataCall -> visitArgsCalls(dataCall.ref(), DATA_CALL, dataCall.args(), outer);
-      case IntegerTerm shaped -> shaped.repr() == 0
-        ? linkLit(0, shaped.ctorRef(CodeShape.MomentId.ZERO), CON_CALL)
+      case IntegerTerm shaped -> shaped.repr().signum() == 0
+        ? linkLit(BigInteger.ZERO, shaped.ctorRef(CodeShape.MomentId.ZERO), CON_CALL)
         : linkLit(shaped.repr(), shaped.ctorRef(CodeShape.MomentId.SUC), CON_CALL);
       case ListTerm shaped -> {
         var subterms = shaped.repr().map(x -> term(Outer.Free, x));
@@ -274,8 +275,8 @@ public class CoreDistiller extends BaseDistiller<Term> {
       case Pat.Absurd absurd -> Doc.bracedUnless(Doc.styled(KEYWORD, "()"), absurd.explicit());
       case Pat.Tuple tuple -> Doc.licit(tuple.explicit(),
         Doc.commaList(tuple.pats().view().map(sub -> pat(sub, Outer.Free))));
-      case Pat.ShapedInt lit -> Doc.bracedUnless(lit.repr() == 0
-          ? linkLit(0, lit.ctorRef(CodeShape.MomentId.ZERO), CON_CALL)
+      case Pat.ShapedInt lit -> Doc.bracedUnless(lit.repr().signum() == 0
+          ? linkLit(BigInteger.ZERO, lit.ctorRef(CodeShape.MomentId.ZERO), CON_CALL)
           : linkLit(lit.repr(), lit.ctorRef(CodeShape.MomentId.SUC), CON_CALL),
         lit.explicit());
     };
@@ -293,7 +294,7 @@ public class CoreDistiller extends BaseDistiller<Term> {
           Doc.symbol(":"),
           term(Outer.Free, def.result())
         });
-        yield def.body.fold(
+        yield def.body().fold(
           term -> Doc.sep(Doc.sepNonEmpty(line1), Doc.symbol("=>"), term(Outer.Free, term)),
           clauses -> Doc.vcat(Doc.sepNonEmpty(line1), Doc.nest(2, visitClauses(clauses))));
       }
@@ -313,7 +314,7 @@ public class CoreDistiller extends BaseDistiller<Term> {
           var pats = Doc.commaList(ctor.pats.view().map(pat -> pat(pat, Outer.Free)));
           line1 = Doc.sep(Doc.symbol("|"), pats, Doc.symbol("=>"), doc);
         } else line1 = Doc.sep(Doc.symbol("|"), doc);
-        yield Doc.cblock(line1, 2, partial(options, ctor.clauses, false, "{", "}"));
+        yield Doc.cblock(line1, 2, partial(options, ctor.clauses(), false, "{", "}"));
       }
       case StructDef def -> Doc.vcat(Doc.sepNonEmpty(Doc.styled(KEYWORD, "struct"),
         linkDef(def.ref(), STRUCT_CALL),
@@ -18,4 +18,10 @@ public enum NormalizeMode {
    * Normalize until the head is canonical.
    */
   WHNF,
+  /**
+   * Fully normalize by evaluation, same as {@link #NF}.
+   *
+   * @see org.aya.core.visitor.Evaluator
+   */
+  NBE,
 }
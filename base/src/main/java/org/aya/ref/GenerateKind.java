@@ -23,4 +23,8 @@ public sealed interface GenerateKind {
 
   record Generalized(@NotNull GeneralizedVar origin) implements GenerateKind {
   }
+
+  /** A numbered variable of a term in the locally nameless form, see {@link org.aya.core.visitor.Nameless} */
+  record Nameless(int index) implements GenerateKind {
+  }
 }
@@ -3,19 +3,25 @@
 package org.aya.resolve.module;
 
 import kala.collection.immutable.ImmutableSeq;
-import kala.collection.mutable.MutableMap;
-import kala.collection.mutable.MutableTreeMap;
+import kala.control.Option;
 import org.aya.concrete.stmt.QualifiedID;
 import org.aya.resolve.ResolveInfo;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
+ * Safe for concurrent use: a module is loaded at most once, even if several threads
+ * ask for it at the same time. Loading different modules does not block each other.
+ *
  * @author re-xyr
  */
 public class CachedModuleLoader<ML extends ModuleLoader> implements ModuleLoader {
-  private final @NotNull MutableMap<@NotNull String, ResolveInfo> cache = MutableTreeMap.of();
+  private final @NotNull ConcurrentHashMap<@NotNull String, Option<ResolveInfo>> cache;
+  private final @NotNull ConcurrentHashMap<@NotNull String, ReentrantLock> locks;
   public final @NotNull ML loader;
 
   @Override public @NotNull Reporter reporter() {
@@ -23,12 +29,40 @@ public class CachedModuleLoader<ML extends ModuleLoader> implements ModuleLoader
   }
 
   public CachedModuleLoader(@NotNull ML loader) {
+    this(loader, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+  }
+
+  private CachedModuleLoader(
+    @NotNull ML loader,
+    @NotNull ConcurrentHashMap<@NotNull String, Option<ResolveInfo>> cache,
+    @NotNull ConcurrentHashMap<@NotNull String, ReentrantLock> locks
+  ) {
+    this.cache = cache;
+    this.locks = locks;
     this.loader = loader;
   }
 
+  /** @return a loader that shares the cache with this one, but loads modules with another loader */
+  public @NotNull CachedModuleLoader<ML> fork(@NotNull ML loader) {
+    return new CachedModuleLoader<>(loader, cache, locks);
+  }
+
   @Override public @Nullable ResolveInfo
   load(@NotNull ImmutableSeq<String> path, @NotNull ModuleLoader recurseLoader) {
     var qualified = QualifiedID.join(path);
-    return cache.getOrPut(qualified, () -> loader.load(path, recurseLoader));
+    var cached = cache.get(qualified);
+    if (cached != null) return cached.getOrNull();
+    // Reentrant, because a module may (erroneously) import itself
+    var lock = locks.computeIfAbsent(qualified, k -> new ReentrantLock());
+    lock.lock();
+    try {
+      cached = cache.get(qualified);
+      if (cached != null) return cached.getOrNull();
+      var loaded = loader.load(path, recurseLoader);
+      cache.put(qualified, Option.ofNullable(loaded));
+      return loaded;
+    } finally {
+      lock.unlock();
+    }
   }
 }
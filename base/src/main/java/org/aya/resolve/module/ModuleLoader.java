@@ -4,6 +4,7 @@ package org.aya.resolve.module;
 
 import kala.collection.immutable.ImmutableSeq;
 import org.aya.concrete.desugar.AyaBinOpSet;
+import org.aya.concrete.stmt.QualifiedID;
 import org.aya.concrete.stmt.Stmt;
 import org.aya.core.def.PrimDef;
 import org.aya.core.repr.AyaShape;
@@ -12,6 +13,9 @@ import org.aya.resolve.ResolveInfo;
 import org.aya.resolve.context.ModuleContext;
 import org.aya.tyck.order.AyaOrgaTycker;
 import org.aya.tyck.order.AyaSccTycker;
+import org.aya.tyck.order.ParallelOrgaTycker;
+import org.aya.tyck.order.ReusableDefs;
+import org.aya.tyck.trace.Profiler;
 import org.aya.tyck.trace.Trace;
 import org.aya.util.reporter.DelayedReporter;
 import org.aya.util.reporter.Reporter;
@@ -32,15 +36,47 @@ public interface ModuleLoader {
     return tyckModule(builder, resolveModule(primFactory, context, program, this), onTycked);
   }
 
+  /**
+   * @param reusable definitions of the previous version of the module, see {@link ReusableDefs}
+   * @param profiler records the time spent on the module and on each of its definitions
+   * @param jobs     the number of definitions to check in parallel, see {@link ParallelOrgaTycker},
+   *                 ignored when tracing
+   */
+  record TyckOptions(@NotNull ReusableDefs reusable, @Nullable Profiler profiler, int jobs) {
+    public static final @NotNull TyckOptions DEFAULT = new TyckOptions(ReusableDefs.EMPTY, null, 1);
+  }
+
   default <E extends Exception> @NotNull ResolveInfo
   tyckModule(Trace.Builder builder, ResolveInfo resolveInfo, ModuleCallback<E> onTycked) throws E {
+    return tyckModule(builder, resolveInfo, TyckOptions.DEFAULT, onTycked);
+  }
+
+  default <E extends Exception> @NotNull ResolveInfo tyckModule(
+    Trace.Builder builder, ResolveInfo resolveInfo,
+    @NotNull TyckOptions options, ModuleCallback<E> onTycked
+  ) throws E {
     var SCCs = resolveInfo.depGraph().topologicalOrder();
     var delayedReporter = new DelayedReporter(reporter());
-    var sccTycker = new AyaOrgaTycker(AyaSccTycker.create(resolveInfo, builder, delayedReporter), resolveInfo);
+    var profiler = options.profiler();
+    var span = profiler == null ? null
+      : profiler.start(QualifiedID.join(resolveInfo.thisModule().moduleName()), "module");
+    if (options.jobs() > 1 && builder == null) {
+      var parallelTycker = new ParallelOrgaTycker(resolveInfo, options.reusable(), span, delayedReporter, SCCs);
+      try (delayedReporter) {
+        parallelTycker.tyck(options.jobs());
+      } finally {
+        if (span != null) span.end();
+        if (onTycked != null) onTycked.onModuleTycked(resolveInfo, parallelTycker.wellTyped());
+      }
+      return resolveInfo;
+    }
+    var sccTycker = new AyaOrgaTycker(AyaSccTycker.create(resolveInfo, builder, delayedReporter,
+      options.reusable().start(resolveInfo), span), resolveInfo);
     // in case we have un-messaged TyckException
     try (delayedReporter) {
       SCCs.forEach(sccTycker::tyckSCC);
     } finally {
+      if (span != null) span.end();
       if (onTycked != null) onTycked.onModuleTycked(
         resolveInfo, sccTycker.sccTycker().wellTyped().toImmutableSeq());
     }
@@ -109,7 +109,7 @@ public record CallResolver(
         case IntegerTerm intTerm -> {
           // TODO: compareShape
           if (intTerm.recognition().shape() != intPat.recognition().shape()) yield Relation.unk();
-          yield Relation.fromCompare(Integer.compare(intTerm.repr(), intPat.repr()));
+          yield Relation.fromCompare(intTerm.repr().compareTo(intPat.repr()));
         }
         // TODO[literal]: We may convert constructor call to literals to avoid possible stack overflow?
         case ConCall con -> compare(con, intPat.constructorForm());
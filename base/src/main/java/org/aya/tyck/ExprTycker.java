@@ -53,6 +53,7 @@ import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.math.BigInteger;
 import java.util.Comparator;
 import java.util.Objects;
 import java.util.function.IntPredicate;
@@ -313,13 +314,13 @@ public final class ExprTycker extends Tycker {
       case Expr.Hole hole -> inherit(hole, localCtx.freshHole(null, Constants.randomName(hole), hole.sourcePos())._2);
       case Expr.Error err -> TermResult.error(err.description());
       case Expr.LitInt lit -> {
-        int integer = lit.integer();
+        var integer = BigInteger.valueOf(lit.integer());
         // TODO[literal]: int literals. Currently the parser does not allow negative literals.
         var defs = shapeFactory.findImpl(AyaShape.NAT_SHAPE);
         if (defs.isEmpty()) yield fail(expr, new NoRuleError(expr, null));
         if (defs.sizeGreaterThan(1)) {
           var type = localCtx.freshHole(null, "_ty" + lit.integer() + "'", lit.sourcePos());
-          yield new TermResult(new MetaLitTerm(lit.sourcePos(), lit.integer(), defs, type._1), type._1);
+          yield new TermResult(new MetaLitTerm(lit.sourcePos(), integer, defs, type._1), type._1);
         }
         var match = defs.first();
         var type = new DataCall(((DataDef) match._1).ref, 0, ImmutableSeq.empty());
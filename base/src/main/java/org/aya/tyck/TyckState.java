@@ -2,6 +2,9 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.tyck;
 
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableLinkedHashMap;
 import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableMap;
 import kala.collection.mutable.MutableSet;
@@ -10,9 +13,9 @@ import org.aya.core.def.PrimDef;
 import org.aya.core.term.MetaTerm;
 import org.aya.core.term.Term;
 import org.aya.core.visitor.TermConsumer;
-import org.aya.core.visitor.TermFolder;
 import org.aya.generic.AyaDocile;
 import org.aya.pretty.doc.Doc;
+import org.aya.ref.DefVar;
 import org.aya.tyck.env.LocalCtx;
 import org.aya.tyck.error.HoleProblem;
 import org.aya.tyck.trace.Trace;
@@ -20,23 +23,68 @@ import org.aya.tyck.unify.Unifier;
 import org.aya.util.Ordering;
 import org.aya.util.distill.DistillerOptions;
 import org.aya.util.error.SourcePos;
-import org.aya.util.error.WithPos;
 import org.aya.util.reporter.Reporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.LinkedHashSet;
+
 /**
  * Currently we only deal with ambiguous equations (so no 'stuck' equations).
+ *
+ * @param eqns     the unsolved equations in the order they are postponed, with the metas blocking them
+ * @param blocked  the unsolved equations indexed by the metas they mention, which block them
+ * @param woken    metas solved since the last {@link #simplify}, whose equations are to be retried
+ * @param counters the work done by the tycker, see {@link org.aya.tyck.trace.Profiler}
  */
 public record TyckState(
-  @NotNull MutableList<Eqn> eqns,
-  @NotNull MutableList<WithPos<Meta>> activeMetas,
+  @NotNull MutableLinkedHashMap<Eqn, ImmutableSeq<Meta>> eqns,
+  @NotNull MutableMap<@NotNull Meta, @NotNull LinkedHashSet<Eqn>> blocked,
+  @NotNull MutableList<Meta> woken,
   @NotNull MutableMap<@NotNull Meta, @NotNull Term> metas,
   @NotNull MutableSet<@NotNull Meta> metaNotProps,
-  @NotNull PrimDef.Factory primFactory
+  @NotNull PrimDef.Factory primFactory,
+  @NotNull WhnfCache whnfCache,
+  @NotNull Counters counters
 ) {
   public TyckState(@NotNull PrimDef.Factory primFactory) {
-    this(MutableList.create(), MutableList.create(), MutableMap.create(), MutableSet.create(), primFactory);
+    this(MutableLinkedHashMap.of(), MutableMap.create(), MutableList.create(), MutableMap.create(),
+      MutableSet.create(), primFactory, new WhnfCache(), new Counters());
+  }
+
+  /**
+   * @return a copy of the equations and the solutions, to check something on its own,
+   * whose changes are not seen by this state, see {@link #changedSince}
+   */
+  public @NotNull TyckState fork() {
+    var blocked = MutableMap.<Meta, LinkedHashSet<Eqn>>create();
+    this.blocked.forEach((meta, eqns) -> blocked.put(meta, new LinkedHashSet<>(eqns)));
+    var eqns = MutableLinkedHashMap.<Eqn, ImmutableSeq<Meta>>of();
+    eqns.putAll(this.eqns);
+    return new TyckState(eqns, blocked, MutableList.from(woken), MutableMap.from(metas),
+      MutableSet.from(metaNotProps), primFactory, new WhnfCache(), new Counters());
+  }
+
+  /**
+   * A fork counts from zero, and retrying an equation solves a meta first,
+   * so the counters tell even if an equation is postponed and another is retried.
+   * Metas are only marked not to be props, so the size of those tells.
+   *
+   * @param origin this state is forked from
+   * @return whether a meta is solved or marked, or an equation is postponed, in this state
+   */
+  public boolean changedSince(@NotNull TyckState origin) {
+    return counters.metas != 0
+      || counters.postponed != 0
+      || metaNotProps.size() != origin.metaNotProps.size();
+  }
+
+  public void solve(@NotNull Meta meta, @NotNull Term solution) {
+    metas.put(meta, solution);
+    counters.metas++;
+    // Terms stuck on the meta may reduce further now
+    whnfCache.invalidate();
+    if (blocked.containsKey(meta)) woken.append(meta);
   }
 
   /**
@@ -49,25 +97,31 @@ public record TyckState(
     new Unifier(eqn.cmp, reporter, !trying, trying, tracer, this, eqn.pos, eqn.localCtx).checkEqn(eqn);
   }
 
-  /** @return true if <code>this.eqns</code> and <code>this.activeMetas</code> are mutated. */
+  /** @return true if the equations blocked by some solved metas are retried. */
   public boolean simplify(
     @NotNull Reporter reporter, @Nullable Trace.Builder tracer
   ) {
-    var removingMetas = MutableList.<WithPos<Meta>>create();
-    for (var activeMeta : activeMetas) {
-      if (metas.containsKey(activeMeta.data())) {
-        var usageCounter = new TermFolder.Usages(activeMeta.data());
-        eqns.retainIf(eqn -> {
-          if (usageCounter.apply(eqn.lhs) + usageCounter.apply(eqn.rhs) > 0) {
-            solveEqn(reporter, tracer, eqn, true);
-            return false;
-          } else return true;
-        });
-        removingMetas.append(activeMeta);
+    if (woken.isEmpty()) return false;
+    var solved = woken.toImmutableSeq();
+    woken.clear();
+    for (var meta : solved) {
+      var wakeUp = blocked.remove(meta);
+      if (wakeUp.isEmpty()) continue;
+      for (var eqn : wakeUp.get()) {
+        var blocking = eqns.remove(eqn);
+        if (blocking.isEmpty()) continue;
+        // Also indexed by the other metas it mentions, where it is no longer to be retried
+        for (var other : blocking.get()) {
+          var others = blocked.getOrNull(other);
+          if (others == null) continue;
+          others.remove(eqn);
+          if (others.isEmpty()) blocked.remove(other);
+        }
+        counters.retried++;
+        solveEqn(reporter, tracer, eqn, true);
       }
     }
-    activeMetas.removeIf(removingMetas::contains);
-    return removingMetas.isNotEmpty();
+    return true;
   }
 
   public void solveMetas(@NotNull Reporter reporter, @Nullable Trace.Builder traceBuilder) {
@@ -75,7 +129,7 @@ public record TyckState(
       //noinspection StatementWithEmptyBody
       while (simplify(reporter, traceBuilder)) ;
       // If the standard 'pattern' fragment cannot solve all equations, try to use a nonstandard method
-      var eqns = this.eqns.toImmutableSeq();
+      var eqns = this.eqns.keysView().toImmutableSeq();
       if (eqns.isNotEmpty()) {
         for (var eqn : eqns) solveEqn(reporter, traceBuilder, eqn, false);
         reporter.report(new HoleProblem.CannotFindGeneralSolution(eqns));
@@ -84,18 +138,158 @@ public record TyckState(
   }
 
   public void addEqn(@NotNull Eqn eqn) {
-    eqns.append(eqn);
-    var currentActiveMetas = activeMetas.size();
+    counters.postponed++;
+    var blocking = MutableList.<Meta>create();
     var consumer = new TermConsumer() {
       @Override public void pre(@NotNull Term tm) {
-        if (tm instanceof MetaTerm hole && !metas.containsKey(hole.ref()))
-            activeMetas.append(new WithPos<>(eqn.pos, hole.ref()));
+        if (tm instanceof MetaTerm hole && !metas.containsKey(hole.ref()) && !blocking.contains(hole.ref())) {
+          blocking.append(hole.ref());
+          blocked.getOrPut(hole.ref(), LinkedHashSet::new).add(eqn);
+        }
         TermConsumer.super.pre(tm);
       }
     };
     consumer.accept(eqn.lhs);
     consumer.accept(eqn.rhs);
-    assert activeMetas.sizeGreaterThan(currentActiveMetas) : "Adding a bad equation";
+    assert blocking.isNotEmpty() : "Adding a bad equation";
+    eqns.put(eqn, blocking.toImmutableSeq());
+  }
+
+  /**
+   * How many unifications are started, how many metas are solved, how many equations are postponed
+   * and how many of them are retried when a meta blocking them is solved, and, when profiling,
+   * how many times each definition is unfolded. Counting the unfoldings is off by default,
+   * as it costs a map update per unfolding.
+   */
+  public static final class Counters {
+    private long unifications = 0;
+    private long metas = 0;
+    private long postponed = 0;
+    private long retried = 0;
+    private @Nullable MutableMap<DefVar<?, ?>, Long> unfolds = null;
+
+    public void unify() {
+      unifications++;
+    }
+
+    public void unfold(@NotNull DefVar<?, ?> def) {
+      if (unfolds != null) unfolds.put(def, unfolds.getOrDefault(def, 0L) + 1);
+    }
+
+    /** Starts counting from zero, including the unfoldings. */
+    public void restart() {
+      unifications = 0;
+      metas = 0;
+      postponed = 0;
+      retried = 0;
+      if (unfolds == null) unfolds = MutableLinkedHashMap.of();
+      else unfolds.clear();
+    }
+
+    public long unifications() {
+      return unifications;
+    }
+
+    public long metas() {
+      return metas;
+    }
+
+    public long postponed() {
+      return postponed;
+    }
+
+    public long retried() {
+      return retried;
+    }
+
+    public @NotNull ImmutableMap<DefVar<?, ?>, Long> unfolds() {
+      return unfolds == null ? ImmutableMap.empty() : unfolds.toImmutableMap();
+    }
+  }
+
+  /**
+   * Weak head normal forms of terms, keyed by identity, see {@link org.aya.core.visitor.Expander.WHNFer}.
+   * Terms are immutable, so a result stays valid until a meta is solved.
+   * This is a direct-mapped cache, so a miss costs no allocation. It is allocated on the first result,
+   * as most states normalize a few terms at most, and grows while the results of a generation fill it.
+   * Solving a meta starts a new generation, and the slots filled in an older one are empty.
+   */
+  public static final class WhnfCache {
+    private static final int INITIAL = 64;
+    private static final int MAX = 4096;
+    private @Nullable Term @Nullable [] keys = null;
+    private @Nullable Term @Nullable [] values = null;
+    private int @Nullable [] generations = null;
+    private int generation = 0;
+    /** The results put in this generation since the cache last grew */
+    private int filled = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    private static int slot(@NotNull Term term, int size) {
+      return System.identityHashCode(term) & (size - 1);
+    }
+
+    public @Nullable Term get(@NotNull Term term) {
+      if (keys != null) {
+        var slot = slot(term, keys.length);
+        if (keys[slot] == term && generations[slot] == generation) {
+          hits++;
+          return values[slot];
+        }
+      }
+      misses++;
+      return null;
+    }
+
+    public void put(@NotNull Term term, @NotNull Term whnf) {
+      if (keys == null) allocate(INITIAL);
+      else if (filled >= keys.length && keys.length < MAX) grow();
+      var slot = slot(term, keys.length);
+      keys[slot] = term;
+      values[slot] = whnf;
+      generations[slot] = generation;
+      filled++;
+    }
+
+    private void allocate(int size) {
+      keys = new Term[size];
+      values = new Term[size];
+      generations = new int[size];
+      filled = 0;
+    }
+
+    /** Moves the results of this generation to a cache twice as large */
+    private void grow() {
+      var oldKeys = keys;
+      var oldValues = values;
+      var oldGenerations = generations;
+      assert oldKeys != null && oldValues != null && oldGenerations != null;
+      allocate(oldKeys.length * 2);
+      for (int i = 0; i < oldKeys.length; i++) {
+        var key = oldKeys[i];
+        if (key == null || oldGenerations[i] != generation) continue;
+        var slot = slot(key, keys.length);
+        keys[slot] = key;
+        values[slot] = oldValues[i];
+        generations[slot] = generation;
+      }
+    }
+
+    /** Empties the cache in constant time, by starting a new generation */
+    public void invalidate() {
+      filled = 0;
+      // Wrapped around, so the slots of the oldest generations are to be emptied
+      if (++generation == 0 && keys != null) allocate(keys.length);
+    }
+
+    public long hits() {
+      return hits;
+    }
+
+    public long misses() {
+      return misses;
+    }
   }
 
   public record Eqn(
@@ -104,6 +298,15 @@ public record TyckState(
     @NotNull LocalCtx localCtx,
     @NotNull Unifier.Sub lr, @NotNull Unifier.Sub rl
   ) implements AyaDocile {
+    /** Compared by identity, as equal equations postponed twice are retried on their own */
+    @Override public boolean equals(Object obj) {
+      return this == obj;
+    }
+
+    @Override public int hashCode() {
+      return System.identityHashCode(this);
+    }
+
     public @NotNull Doc toDoc(@NotNull DistillerOptions options) {
       return Doc.stickySep(lhs.toDoc(options), Doc.symbol(cmp.symbol), rhs.toDoc(options));
     }
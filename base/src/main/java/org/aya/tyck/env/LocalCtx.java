@@ -4,6 +4,7 @@ package org.aya.tyck.env;
 
 import kala.collection.Seq;
 import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableLinkedSeq;
 import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableLinkedHashMap;
 import kala.collection.mutable.MutableList;
@@ -20,6 +21,7 @@ import org.aya.generic.util.InternalException;
 import org.aya.ref.AnyVar;
 import org.aya.ref.LocalVar;
 import org.aya.tyck.TyckState;
+import org.aya.util.Arg;
 import org.aya.util.error.SourcePos;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.Debug;
@@ -36,9 +38,9 @@ public sealed interface LocalCtx permits MapLocalCtx, SeqLocalCtx {
   }
   default @NotNull Tuple2<MetaTerm, Term>
   freshHole(@Nullable Term type, @NotNull String name, @NotNull SourcePos sourcePos) {
-    var ctxTele = extract();
-    var meta = Meta.from(ctxTele, name, type, sourcePos);
-    var hole = new MetaTerm(meta, ctxTele.map(Term.Param::toArg), meta.telescope.map(Term.Param::toArg));
+    var snapshot = snapshot();
+    var meta = Meta.from(snapshot.tele(), name, type, sourcePos);
+    var hole = new MetaTerm(meta, snapshot.args(), meta.telescope.map(Term.Param::toArg));
     return Tuple.of(hole, LamTerm.make(meta.telescope, hole));
   }
   default <T> T with(@NotNull Term.Param param, @NotNull Supplier<T> action) {
@@ -88,15 +90,64 @@ public sealed interface LocalCtx permits MapLocalCtx, SeqLocalCtx {
       remove(param.map(Term.Param::ref));
     }
   }
+  /**
+   * The bindings of this context, the innermost level first and each level in the order they are added,
+   * where a binding shadowed by an inner one with the same variable is left out.
+   */
   default @NotNull ImmutableSeq<Term.Param> extract() {
     var ctx = MutableList.<Term.Param>create();
-    var map = this;
-    while (map != null) {
-      map.extractToLocal(ctx);
-      map = map.parent();
-    }
+    extractToLocal(ctx);
+    var parent = parent();
+    if (parent != null) parent.extract().forEach(param -> {
+      if (getLocal(param.ref()) == null) ctx.append(param);
+    });
     return ctx.toImmutableSeq();
   }
+  /**
+   * The bindings of this context in the order of {@link #extract()}, as the context telescope of a fresh meta.
+   * A binding shadowed by an inner one with the same variable is left out,
+   * as the meta could never refer to it.
+   * <p>
+   * The telescope is a persistent list sharing the one of the parent level as its tail,
+   * so taking the snapshot only checks each level.
+   * A level is only rebuilt, in the size of the level, when it is modified or its parent has a new snapshot,
+   * and the parent is copied only if a binding shadows one of it.
+   * The holes created in the same context share one telescope and one list of arguments,
+   * and a context derived with nothing in it shares those of its parent.
+   */
+  default @NotNull Snapshot snapshot() {
+    var parent = parent();
+    var parentSnapshot = parent == null ? null : parent.snapshot();
+    var cache = cache();
+    var cached = cache.snapshot;
+    if (cached != null && cached.parent == parentSnapshot) return cached;
+    var tele = parentSnapshot == null ? ImmutableLinkedSeq.<Term.Param>empty() : parentSnapshot.tele;
+    var args = parentSnapshot == null ? ImmutableLinkedSeq.<Arg<Term>>empty() : parentSnapshot.args;
+    var mine = MutableList.<Term.Param>create();
+    extractToLocal(mine);
+    if (mine.anyMatch(param -> parent != null && parent.contains(param.ref()))) {
+      var kept = tele.filter(param -> getLocal(param.ref()) == null);
+      tele = ImmutableLinkedSeq.from(kept);
+      args = ImmutableLinkedSeq.from(kept.map(Term.Param::toArg));
+    }
+    // Prepended from the last one, so the level is in the order the bindings are added
+    for (var i = mine.size() - 1; i >= 0; i--) {
+      tele = tele.prepended(mine.get(i));
+      args = args.prepended(mine.get(i).toArg());
+    }
+    var snapshot = new Snapshot(parentSnapshot, tele, args);
+    cache.snapshot = snapshot;
+    return snapshot;
+  }
+  /** @return whether the variable is bound in this context or a parent of it */
+  @Contract(pure = true) default boolean contains(@NotNull LocalVar var) {
+    var ctx = this;
+    while (ctx != null) {
+      if (ctx.getLocal(var) != null) return true;
+      ctx = ctx.parent();
+    }
+    return false;
+  }
   @Contract(mutates = "param1") void extractToLocal(@NotNull MutableList<Term.Param> dest);
   @Contract(pure = true) default @NotNull Term get(@NotNull LocalVar var) {
     var ctx = this;
@@ -123,11 +174,35 @@ public sealed interface LocalCtx permits MapLocalCtx, SeqLocalCtx {
   }
   boolean isMeEmpty();
   @Contract(" -> new") default @NotNull MapLocalCtx deriveMap() {
-    return new MapLocalCtx(MutableLinkedHashMap.of(), this);
+    return new MapLocalCtx(MutableLinkedHashMap.of(), this, new SnapshotCache());
   }
   @Contract(" -> new") default @NotNull SeqLocalCtx deriveSeq() {
-    return new SeqLocalCtx(MutableList.create(), this);
+    return new SeqLocalCtx(MutableList.create(), this, new SnapshotCache());
   }
   @Nullable LocalCtx parent();
   @Contract(mutates = "this") void modifyMyTerms(@NotNull UnaryOperator<Term> u);
+  /** Invalidated by the implementations whenever the bindings of this level change. */
+  @NotNull SnapshotCache cache();
+
+  /**
+   * @param parent the snapshot of the parent context this one is built upon
+   * @param tele   ends with the telescope of {@link #parent}, which it shares
+   * @param args   the references to the variables of {@link #tele}
+   * @see #snapshot()
+   */
+  record Snapshot(
+    @Nullable Snapshot parent,
+    @NotNull ImmutableLinkedSeq<Term.Param> tele,
+    @NotNull ImmutableLinkedSeq<Arg<Term>> args
+  ) {
+  }
+
+  /** The snapshot of a level, invalidated by the implementations whenever the bindings of the level change. */
+  final class SnapshotCache {
+    private @Nullable Snapshot snapshot;
+
+    public void invalidate() {
+      snapshot = null;
+    }
+  }
 }
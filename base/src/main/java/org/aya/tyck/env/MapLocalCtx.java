@@ -18,13 +18,15 @@ import java.util.function.UnaryOperator;
  */
 public record MapLocalCtx(
   @NotNull MutableMap<LocalVar, Term> localMap,
-  @Override @Nullable LocalCtx parent
+  @Override @Nullable LocalCtx parent,
+  @Override @NotNull LocalCtx.SnapshotCache cache
 ) implements LocalCtx {
   public MapLocalCtx() {
-    this(MutableLinkedHashMap.of(), null);
+    this(MutableLinkedHashMap.of(), null, new SnapshotCache());
   }
 
   @Override public void remove(@NotNull SeqView<LocalVar> vars) {
+    if (vars.anyMatch(localMap::containsKey)) cache.invalidate();
     localMap.removeAll(vars);
   }
 
@@ -33,6 +35,7 @@ public record MapLocalCtx(
   }
 
   @Override public void put(@NotNull LocalVar var, @NotNull Term term) {
+    cache.invalidate();
     localMap.put(var, term);
   }
 
@@ -42,6 +45,7 @@ public record MapLocalCtx(
 
   @Override public void modifyMyTerms(@NotNull UnaryOperator<Term> u) {
     localMap.edit().replaceAll((__, term) -> u.apply(term));
+    cache.invalidate();
   }
 
   @Override public void extractToLocal(@NotNull MutableList<Term.Param> dest) {
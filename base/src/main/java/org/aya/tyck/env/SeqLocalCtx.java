@@ -13,16 +13,18 @@ import java.util.function.UnaryOperator;
 
 public record SeqLocalCtx(
   @NotNull MutableList<P> localSeq,
-  @Override @Nullable LocalCtx parent
+  @Override @Nullable LocalCtx parent,
+  @Override @NotNull LocalCtx.SnapshotCache cache
 ) implements LocalCtx {
   public SeqLocalCtx() {
-    this(MutableList.create(), null);
+    this(MutableList.create(), null, new SnapshotCache());
   }
 
   public record P(@NotNull LocalVar var, @NotNull Term type) {
   }
 
   @Override public void remove(@NotNull SeqView<LocalVar> vars) {
+    if (localSeq.anyMatch(p -> vars.contains(p.var))) cache.invalidate();
     localSeq.removeIf(p -> vars.contains(p.var));
   }
 
@@ -35,6 +37,7 @@ public record SeqLocalCtx(
   }
 
   @Override public void put(@NotNull LocalVar var, @NotNull Term term) {
+    cache.invalidate();
     localSeq.append(new P(var, term));
   }
 
@@ -44,5 +47,6 @@ public record SeqLocalCtx(
 
   @Override public void modifyMyTerms(@NotNull UnaryOperator<Term> u) {
     localSeq.replaceAll(p -> new P(p.var, u.apply(p.type)));
+    cache.invalidate();
   }
 }
@@ -24,6 +24,7 @@ import org.aya.tyck.ExprTycker;
 import org.aya.tyck.StmtTycker;
 import org.aya.tyck.error.CounterexampleError;
 import org.aya.tyck.error.TyckOrderError;
+import org.aya.tyck.trace.Profiler;
 import org.aya.tyck.trace.Trace;
 import org.aya.util.reporter.BufferReporter;
 import org.aya.util.reporter.CollectingReporter;
@@ -35,12 +36,14 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Comparator;
+import java.util.Objects;
 import java.util.function.Function;
 
 /**
  * Tyck statements in SCC.
  *
  * @param tyckerReuse headers and bodies should be checked using the same tycker.
+ * @param profile     the span of the module when profiling, see {@link Profiler}
  * @author kiva
  * @see ExprTycker
  */
@@ -50,16 +53,29 @@ public record AyaSccTycker(
   @NotNull ResolveInfo resolveInfo,
   @NotNull MutableList<@NotNull GenericDef> wellTyped,
   @NotNull MutableMap<Decl.TopLevel, ExprTycker> tyckerReuse,
-  @NotNull MutableMap<Decl.TopLevel, CollectingReporter> sampleReporters
+  @NotNull MutableMap<Decl.TopLevel, CollectingReporter> sampleReporters,
+  @NotNull ReusableDefs.Reuse reusable,
+  @Nullable Profiler.Span profile
 ) implements SCCTycker<TyckOrder, AyaSccTycker.SCCTyckingFailed> {
   public static @NotNull AyaSccTycker create(ResolveInfo resolveInfo, @Nullable Trace.Builder builder, @NotNull Reporter outReporter) {
+    return create(resolveInfo, builder, outReporter, ReusableDefs.EMPTY.start(resolveInfo), null);
+  }
+
+  /** @param reusable shared by the tyckers of a module checked in parallel, see {@link ParallelOrgaTycker} */
+  public static @NotNull AyaSccTycker create(
+    ResolveInfo resolveInfo, @Nullable Trace.Builder builder,
+    @NotNull Reporter outReporter, @NotNull ReusableDefs.Reuse reusable,
+    @Nullable Profiler.Span profile
+  ) {
     var counting = CountingReporter.delegate(outReporter);
-    return new AyaSccTycker(new StmtTycker(counting, builder), counting, resolveInfo, MutableList.create(), MutableMap.create(), MutableMap.create());
+    return new AyaSccTycker(new StmtTycker(counting, builder), counting, resolveInfo,
+      MutableList.create(), MutableMap.create(), MutableMap.create(), reusable, profile);
   }
 
   public @NotNull ImmutableSeq<TyckOrder> tyckSCC(@NotNull ImmutableSeq<TyckOrder> scc) {
     try {
       if (scc.isEmpty()) return ImmutableSeq.empty();
+      if (reuseSCC(scc)) return ImmutableSeq.empty();
       if (scc.sizeEquals(1)) checkUnit(scc.first());
       else checkMutual(scc);
       return ImmutableSeq.empty();
@@ -69,6 +85,15 @@ public record AyaSccTycker(
     }
   }
 
+  /** @return whether every definition in the SCC is reused from the previous version of the module */
+  private boolean reuseSCC(@NotNull ImmutableSeq<TyckOrder> scc) {
+    var decls = scc.view().map(order -> ReusableDefs.topLevel(order.unit()))
+      .filter(Objects::nonNull).distinct().toImmutableSeq();
+    if (decls.isEmpty() || !decls.allMatch(reusable::reusable)) return false;
+    decls.forEach(decl -> reusable.materialize(decl).forEach(def -> decideTyckResult((Decl) decl, decl, def)));
+    return true;
+  }
+
   private void checkMutual(@NotNull ImmutableSeq<TyckOrder> scc) {
     var unit = scc.view().map(TyckOrder::unit).distinct().toImmutableSeq();
     // the flattened dependency graph (FDG) lose information about header order, in other words,
@@ -150,7 +175,15 @@ public record AyaSccTycker(
       reporter.report(new BadRecursion(fn.sourcePos, fn.ref, null));
       throw new SCCTyckingFailed(ImmutableSeq.of(order));
     }
-    decideTyckResult(fn, fn, tycker.simpleFn(reuseTopLevel(fn), fn));
+    var exprTycker = reuseTopLevel(fn);
+    var span = startProfile(order, fn, exprTycker);
+    FnDef def;
+    try {
+      def = tycker.simpleFn(exprTycker, fn);
+    } finally {
+      if (span != null) span.end();
+    }
+    decideTyckResult(fn, fn, def);
     if (reporter.anyError()) throw new SCCTyckingFailed(ImmutableSeq.of(order));
   }
 
@@ -162,24 +195,45 @@ public record AyaSccTycker(
   }
 
   private void checkHeader(@NotNull TyckOrder order, @NotNull TyckUnit stmt) {
-    if (stmt instanceof Decl decl) tycker.tyckHeader(decl, reuse(decl));
+    if (stmt instanceof Decl decl) {
+      var exprTycker = reuse(decl);
+      var span = startProfile(order, decl, exprTycker);
+      try {
+        tycker.tyckHeader(decl, exprTycker);
+      } finally {
+        if (span != null) span.end();
+      }
+    }
     if (reporter.anyError()) throw new SCCTyckingFailed(ImmutableSeq.of(order));
   }
 
   private void checkBody(@NotNull TyckOrder order, @NotNull TyckUnit stmt) {
     if (stmt instanceof Decl decl) {
-      var def = tycker.tyck(decl, reuse(decl));
+      var exprTycker = reuse(decl);
+      var span = startProfile(order, decl, exprTycker);
+      GenericDef def;
+      try {
+        def = tycker.tyck(decl, exprTycker);
+      } finally {
+        if (span != null) span.end();
+      }
       if (decl instanceof Decl.TopLevel topLevel) decideTyckResult(decl, topLevel, def);
     }
     if (reporter.anyError()) throw new SCCTyckingFailed(ImmutableSeq.of(order));
   }
 
+  private @Nullable Profiler.Span startProfile(@NotNull TyckOrder order, @NotNull Decl decl, @NotNull ExprTycker exprTycker) {
+    if (profile == null) return null;
+    var category = order instanceof TyckOrder.Head ? "head" : "body";
+    return profile.child(decl.ref().name(), category, exprTycker.state.counters());
+  }
+
   private void decideTyckResult(@NotNull Decl decl, @NotNull Decl.TopLevel proof, @NotNull GenericDef def) {
     assert decl == proof;
     switch (proof.personality()) {
       case NORMAL -> {
         wellTyped.append(def);
-        resolveInfo.shapeFactory().bonjour(def);
+        resolveInfo.shapeFactory().bonjour(def, resolveInfo.primFactory());
       }
       case COUNTEREXAMPLE -> {
         var sampleReporter = sampleReporters.getOrPut(proof, BufferReporter::new);
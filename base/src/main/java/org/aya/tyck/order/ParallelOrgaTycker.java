@@ -0,0 +1,142 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck.order;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import kala.collection.mutable.MutableSet;
+import org.aya.concrete.stmt.Decl;
+import org.aya.core.def.GenericDef;
+import org.aya.generic.util.InternalException;
+import org.aya.resolve.ResolveInfo;
+import org.aya.tyck.ExprTycker;
+import org.aya.tyck.trace.Profiler;
+import org.aya.util.reporter.BufferReporter;
+import org.aya.util.reporter.CountingReporter;
+import org.aya.util.reporter.Problem;
+import org.aya.util.reporter.Reporter;
+import org.aya.util.terck.MutableGraph;
+import org.aya.util.tyck.ParallelSccTycker;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Checks the SCCs of a module like {@link AyaOrgaTycker}, but on a fork-join pool,
+ * where an SCC is checked as soon as the SCCs it depends on are done, see {@link ParallelSccTycker}.
+ * <p>
+ * The header and the body of a definition are checked by the same {@link ExprTycker},
+ * so the SCCs sharing a definition are checked one after another by a job,
+ * which has its own {@link AyaSccTycker} and {@link CountingReporter},
+ * while each definition has its own {@link org.aya.tyck.TyckState} as usual.
+ * The problems and the well-typed definitions of each SCC are kept apart,
+ * and are reported in the order of the SCCs, the same as if they were checked one after another.
+ * <p>
+ * A {@link org.aya.tyck.trace.Trace.Builder} is not safe for concurrent use, so it is not supported.
+ */
+public final class ParallelOrgaTycker {
+  private final @NotNull ResolveInfo resolveInfo;
+  private final @NotNull ReusableDefs.Reuse reusable;
+  private final @Nullable Profiler.Span profile;
+  private final @NotNull Reporter outReporter;
+  private final @NotNull ImmutableSeq<ImmutableSeq<TyckOrder>> SCCs;
+  private final @NotNull MutableGraph<TyckOrder> usageGraph;
+  /** Guards itself, as it is shared by the jobs. */
+  private final @NotNull MutableSet<TyckOrder> skippedSet = MutableSet.create();
+  private final @NotNull AtomicReferenceArray<ImmutableSeq<Problem>> problems;
+  private final @NotNull AtomicReferenceArray<ImmutableSeq<GenericDef>> wellTyped;
+
+  /** @param SCCs in topological order, see {@link ResolveInfo#depGraph()} */
+  public ParallelOrgaTycker(
+    @NotNull ResolveInfo resolveInfo, @NotNull ReusableDefs reusable, @Nullable Profiler.Span profile,
+    @NotNull Reporter outReporter, @NotNull ImmutableSeq<ImmutableSeq<TyckOrder>> SCCs
+  ) {
+    this.resolveInfo = resolveInfo;
+    this.reusable = reusable.start(resolveInfo);
+    this.profile = profile;
+    this.outReporter = outReporter;
+    this.SCCs = SCCs;
+    usageGraph = resolveInfo.depGraph().transpose();
+    problems = new AtomicReferenceArray<>(SCCs.size());
+    wellTyped = new AtomicReferenceArray<>(SCCs.size());
+  }
+
+  /** Every problem is reported to the out reporter, even if checking is interrupted by an exception. */
+  public void tyck(int jobs) {
+    try {
+      var graph = jobGraph();
+      var jobSCCs = graph.topologicalOrder().map(job -> job.sorted());
+      ParallelSccTycker.<Integer, RuntimeException>create(jobs, jobSCCs, graph.transpose(), this::tyckJob).run();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InternalException("Interrupted while checking definitions in parallel", e);
+    } finally {
+      for (int i = 0; i < SCCs.size(); i++) {
+        var reported = problems.get(i);
+        if (reported != null) reported.forEach(outReporter::report);
+      }
+    }
+  }
+
+  /** @return the well-typed definitions in the order of the SCCs */
+  public @NotNull ImmutableSeq<GenericDef> wellTyped() {
+    return ImmutableSeq.fill(SCCs.size(), wellTyped::get)
+      .filterNotNull()
+      .flatMap(defs -> defs);
+  }
+
+  /**
+   * The graph of the indices of the SCCs, whose edge (i, j) means SCC i depends on SCC j,
+   * with edges in both ways between the SCCs sharing a definition,
+   * whose SCCs are the jobs.
+   */
+  private @NotNull MutableGraph<Integer> jobGraph() {
+    var depGraph = resolveInfo.depGraph();
+    var sccOf = MutableMap.<TyckOrder, Integer>create();
+    SCCs.forEachIndexed((i, scc) -> scc.forEach(order -> sccOf.put(order, i)));
+    var firstSCC = MutableMap.<Decl.TopLevel, Integer>create();
+    var graph = MutableGraph.<Integer>create();
+    SCCs.forEachIndexed((i, scc) -> {
+      var deps = graph.sucMut(i);
+      scc.forEach(order -> {
+        depGraph.suc(order).forEach(dep -> {
+          var j = sccOf.getOrNull(dep);
+          if (j != null && j != i) deps.append(j);
+        });
+        var decl = ReusableDefs.topLevel(order.unit());
+        if (decl == null) return;
+        var first = firstSCC.getOrPut(decl, () -> i);
+        if (first != i) {
+          deps.append(first);
+          graph.sucMut(first).append(i);
+        }
+      });
+    });
+    return graph;
+  }
+
+  /** @param job the indices of the SCCs, in topological order */
+  private void tyckJob(@NotNull ImmutableSeq<Integer> job) {
+    var buffer = new BufferReporter();
+    var sccTycker = AyaSccTycker.create(resolveInfo, null, buffer, reusable, profile);
+    var orgaTycker = new AyaOrgaTycker(sccTycker, usageGraph, skippedSet);
+    for (var i : job) {
+      var problemsBefore = buffer.problems().size();
+      var defsBefore = sccTycker.wellTyped().size();
+      try {
+        ImmutableSeq<TyckOrder> todo;
+        synchronized (skippedSet) {
+          todo = SCCs.get(i).filterNot(skippedSet::contains);
+        }
+        var failed = sccTycker.tyckSCC(todo);
+        synchronized (skippedSet) {
+          orgaTycker.skip(failed);
+        }
+      } finally {
+        problems.set(i, buffer.problems().view().drop(problemsBefore).toImmutableSeq());
+        wellTyped.set(i, sccTycker.wellTyped().view().drop(defsBefore).toImmutableSeq());
+      }
+    }
+  }
+}
@@ -0,0 +1,215 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck.order;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableHashMap;
+import kala.collection.mutable.MutableMap;
+import kala.control.Option;
+import kala.tuple.Tuple;
+import org.aya.concrete.stmt.*;
+import org.aya.core.def.GenericDef;
+import org.aya.core.def.PrimDef;
+import org.aya.core.serde.AyacFormat;
+import org.aya.core.serde.SerDef;
+import org.aya.core.serde.SerTerm;
+import org.aya.core.serde.Serializer;
+import org.aya.ref.DefVar;
+import org.aya.resolve.ResolveInfo;
+import org.aya.util.error.SourcePos;
+import org.aya.util.terck.MutableGraph;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Definitions type checked in a previous version of a module.
+ * {@link AyaSccTycker} reuses a top-level definition instead of checking it again
+ * if neither its source text nor the text of anything it depends on in the module changed,
+ * see {@link #fingerprints}. The commands of the module (imports and opens) must be unchanged,
+ * and the caller must make sure that no imported module was checked again since.
+ * <p>
+ * A reused definition is copied to the new {@link DefVar}s by serializing and deserializing it.
+ *
+ * @param header hash of the commands of the module
+ */
+public record ReusableDefs(@NotNull String header, @NotNull ImmutableMap<SerDef.QName, Entry> defs) {
+  public static final @NotNull ReusableDefs EMPTY = new ReusableDefs("", ImmutableMap.empty());
+
+  record Entry(@NotNull String fingerprint, @NotNull GenericDef def) {
+  }
+
+  public static @NotNull ReusableDefs capture(@NotNull ResolveInfo resolveInfo, @NotNull ImmutableSeq<GenericDef> tycked) {
+    var fingerprints = fingerprints(resolveInfo);
+    var defs = tycked.view()
+      .filter(def -> def.ref().concrete instanceof Decl.TopLevel top && reusable(top))
+      .filter(def -> fingerprints.containsKey(def.ref().concrete))
+      .map(def -> Tuple.of(qname(def.ref()), new Entry(fingerprints.get(def.ref().concrete), def)))
+      .toImmutableMap();
+    return new ReusableDefs(header(resolveInfo.program()), defs);
+  }
+
+  public @NotNull Reuse start(@NotNull ResolveInfo resolveInfo) {
+    return new Reuse(resolveInfo);
+  }
+
+  /**
+   * Reuses definitions for one type checking of the new version of the module.
+   * Synchronized, as the definitions of a module may be checked in parallel.
+   */
+  public final class Reuse {
+    private final @NotNull ResolveInfo resolveInfo;
+    private final boolean sameHeader;
+    private @Nullable MutableMap<TyckUnit, String> fingerprints;
+    private @Nullable SerTerm.DeState deState;
+    private final @NotNull Serializer.State serState = new Serializer.State(MutableMap.create(), MutableMap.create());
+    private final @NotNull MutableMap<Decl.TopLevel, GenericDef> reused = MutableMap.create();
+
+    private Reuse(@NotNull ResolveInfo resolveInfo) {
+      this.resolveInfo = resolveInfo;
+      sameHeader = defs.isNotEmpty() && header.equals(header(resolveInfo.program()));
+    }
+
+    public synchronized boolean reusable(@NotNull Decl.TopLevel decl) {
+      if (!sameHeader || !ReusableDefs.reusable(decl)) return false;
+      if (reused.containsKey(decl)) return true;
+      var entry = defs.getOrNull(qname(((Decl) decl).ref()));
+      if (entry == null) return false;
+      if (fingerprints == null) fingerprints = fingerprints(resolveInfo);
+      return entry.fingerprint.equals(fingerprints.getOrNull(decl));
+    }
+
+    /**
+     * @param decl must be {@link #reusable}
+     * @return the reused definition the first time it is asked for
+     */
+    public synchronized @NotNull Option<GenericDef> materialize(@NotNull Decl.TopLevel decl) {
+      if (reused.containsKey(decl)) return Option.none();
+      var old = defs.get(qname(((Decl) decl).ref())).def;
+      var serDef = new Serializer(serState).serialize(old);
+      var state = deState();
+      // Definitions of other modules are the same objects as before, while those of this module are new
+      assert serState.seenDefs() != null;
+      serState.seenDefs().forEach((name, var) -> state.defCache()
+        .getOrPut(name.mod(), MutableHashMap::new)
+        .getOrPut(name.name(), () -> var));
+      var def = serDef.de(state);
+      reused.put(decl, def);
+      return Option.some(def);
+    }
+
+    private @NotNull SerTerm.DeState deState() {
+      if (deState != null) return deState;
+      var state = new SerTerm.DeState(resolveInfo.primFactory());
+      ownDefs(resolveInfo.program(), var -> state.defCache()
+        .getOrPut(var.module, MutableHashMap::new)
+        .put(var.name(), var));
+      return deState = state;
+    }
+  }
+
+  private static boolean reusable(@NotNull Decl.TopLevel decl) {
+    // Counterexamples report their problems when checked
+    return decl.personality() == Decl.Personality.NORMAL && !(decl instanceof TeleDecl.PrimDecl);
+  }
+
+  private static @NotNull SerDef.QName qname(@NotNull DefVar<?, ?> var) {
+    assert var.module != null;
+    return new SerDef.QName(var.module, var.name());
+  }
+
+  /** @return the top-level definition that is checked together with the unit */
+  static @Nullable Decl.TopLevel topLevel(@NotNull TyckUnit unit) {
+    return switch (unit) {
+      case TeleDecl.DataCtor ctor -> ctor.dataRef.concrete;
+      case TeleDecl.StructField field -> field.structRef.concrete;
+      case Decl.TopLevel top -> top;
+      default -> null;
+    };
+  }
+
+  private static void ownDefs(@NotNull ImmutableSeq<Stmt> stmts, @NotNull Consumer<DefVar<?, ?>> consumer) {
+    stmts.forEach(stmt -> {
+      switch (stmt) {
+        case Command.Module mod -> ownDefs(mod.contents(), consumer);
+        case TeleDecl.DataDecl data -> {
+          consumer.accept(data.ref);
+          data.body.forEach(ctor -> consumer.accept(ctor.ref));
+        }
+        case TeleDecl.StructDecl struct -> {
+          consumer.accept(struct.ref);
+          struct.fields.forEach(field -> consumer.accept(field.ref));
+        }
+        case Decl decl -> consumer.accept(decl.ref());
+        default -> {}
+      }
+    });
+  }
+
+  /**
+   * The fingerprint of a unit is the hash of its source text and the fingerprints of
+   * the units it depends on, where units in a cycle share one fingerprint.
+   */
+  static @NotNull MutableMap<TyckUnit, String> fingerprints(@NotNull ResolveInfo resolveInfo) {
+    var graph = MutableGraph.<TyckUnit>create();
+    resolveInfo.depGraph().E().forEach((order, sucs) -> {
+      var edges = graph.sucMut(order.unit());
+      sucs.forEach(suc -> {
+        if (suc.unit() != order.unit() && !edges.contains(suc.unit())) edges.append(suc.unit());
+      });
+    });
+    var fingerprints = MutableMap.<TyckUnit, String>create();
+    // Dependencies come first in topological order
+    graph.topologicalOrder().forEach(scc -> {
+      var builder = new StringBuilder();
+      scc.view().map(unit -> text(sourcePos(unit))).sorted().forEach(text -> builder.append(text).append('\0'));
+      scc.view().flatMap(graph::suc).filterNot(scc::contains)
+        .map(fingerprints::get).distinct().sorted()
+        .forEach(fingerprint -> builder.append(fingerprint).append('\0'));
+      var fingerprint = hash(builder);
+      scc.forEach(unit -> fingerprints.put(unit, fingerprint));
+    });
+    return fingerprints;
+  }
+
+  private static @NotNull String header(@NotNull ImmutableSeq<Stmt> program) {
+    var builder = new StringBuilder();
+    header(program, builder);
+    return hash(builder);
+  }
+
+  private static void header(@NotNull ImmutableSeq<Stmt> stmts, @NotNull StringBuilder builder) {
+    stmts.forEach(stmt -> {
+      switch (stmt) {
+        case Command.Module mod -> {
+          builder.append("module ").append(mod.name()).append('{');
+          header(mod.contents(), builder);
+          builder.append('}');
+        }
+        case Command command -> builder.append(text(command.sourcePos())).append('\0');
+        default -> {}
+      }
+    });
+  }
+
+  private static @NotNull SourcePos sourcePos(@NotNull TyckUnit unit) {
+    return unit instanceof Decl decl ? decl.entireSourcePos() : unit.sourcePos();
+  }
+
+  private static @NotNull String text(@NotNull SourcePos pos) {
+    var code = pos.file().sourceCode();
+    var start = pos.tokenStartIndex();
+    var end = pos.tokenEndIndex() + 1;
+    // Unknown text is never equal to anything
+    if (start < 0 || end > code.length()) return String.valueOf(System.identityHashCode(pos));
+    return code.substring(start, end);
+  }
+
+  private static @NotNull String hash(@NotNull StringBuilder builder) {
+    return AyacFormat.hash(ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+}
@@ -58,7 +58,7 @@ public record Conquer(
         );
         // The split, but typed under current context
         var clauses = (Partial.Split<Term>) AyaRestrSimplifier.INSTANCE
-          .mapSplit(ctorDef.clauses, t -> t.subst(subst));
+          .mapSplit(ctorDef.clauses(), t -> t.subst(subst));
         var faces = clauses.clauses();
         for (int i = 0, size = faces.size(); i < size; i++) {
           checkConditions(nth, i + 1, faces.get(i), subst);
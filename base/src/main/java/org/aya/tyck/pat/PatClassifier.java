@@ -22,15 +22,18 @@ import org.aya.tyck.ExprTycker;
 import org.aya.tyck.TyckState;
 import org.aya.tyck.Tycker;
 import org.aya.tyck.error.TyckOrderError;
+import org.aya.tyck.unify.Unifier;
 import org.aya.util.Arg;
 import org.aya.util.Ordering;
 import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.BufferReporter;
 import org.aya.util.reporter.Reporter;
 import org.aya.util.tyck.MCT;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.VisibleForTesting;
 
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
@@ -89,40 +92,85 @@ public record PatClassifier(
     return numbers;
   }
 
+  /**
+   * Checks that overlapping clauses agree, class by class.
+   * The classes are checked in parallel, each on a {@link TyckState#fork()} of the state,
+   * and the results are applied in the order of the classes.
+   * A class that solves a meta or postpones an equation on its fork, and every class after it,
+   * is checked again on the state itself, so the result is the same as checking one after another.
+   * The classes are checked on the pool checking the definitions or the modules, whose parallelism
+   * is the number of jobs configured, and one after another when tracing, outside such a pool,
+   * with only one job, or if there are not enough of them.
+   */
   public static void confluence(
     @NotNull PatTycker.PatResult clauses,
     @NotNull ExprTycker tycker, @NotNull SourcePos pos,
     @NotNull MCT<Term, PatErr> mct
   ) {
-    var result = clauses.result();
-    mct.forEach(results -> {
-      var contents = results.contents()
+    var classes = mct.toSeq().view()
+      .map(results -> results.contents()
         .flatMap(i -> Pat.Preclause.lift(clauses.clauses().get(i))
-          .map(matching -> IntObjTuple2.of(i, matching)));
-      for (int i = 1, size = contents.size(); i < size; i++) {
-        var lhsInfo = contents.get(i - 1);
-        var rhsInfo = contents.get(i);
-        var lhsSubst = new Subst(MutableMap.create());
-        var rhsSubst = new Subst(MutableMap.create());
-        var ctx = PatUnify.unifyPat(lhsInfo._2.patterns(), rhsInfo._2.patterns(),
-          lhsSubst, rhsSubst, tycker.localCtx.deriveMap());
-        domination(rhsSubst, tycker.reporter, lhsInfo._1, rhsInfo._1, rhsInfo._2);
-        domination(lhsSubst, tycker.reporter, rhsInfo._1, lhsInfo._1, lhsInfo._2);
-        var lhsTerm = lhsInfo._2.body().subst(lhsSubst);
-        var rhsTerm = rhsInfo._2.body().subst(rhsSubst);
-        // TODO: Currently all holes at this point are in an ErrorTerm
-        if (lhsTerm instanceof ErrorTerm error && error.description() instanceof MetaTerm hole) {
-          hole.ref().conditions.append(Tuple.of(lhsSubst, rhsTerm));
-        } else if (rhsTerm instanceof ErrorTerm error && error.description() instanceof MetaTerm hole) {
-          hole.ref().conditions.append(Tuple.of(rhsSubst, lhsTerm));
-        }
-        var unification = tycker.unifier(pos, Ordering.Eq, ctx).compare(lhsTerm, rhsTerm, result);
-        if (!unification) {
-          tycker.reporter.report(new ClausesProblem.Confluence(pos, lhsInfo._1 + 1, rhsInfo._1 + 1,
-            lhsTerm, rhsTerm, lhsInfo._2.sourcePos(), rhsInfo._2.sourcePos()));
-        }
+          .map(matching -> IntObjTuple2.of(i, matching))))
+      .filter(contents -> contents.sizeGreaterThan(1))
+      .toImmutableSeq();
+    var pool = ForkJoinTask.getPool();
+    if (tycker.traceBuilder != null || classes.sizeLessThan(2) || pool == null || pool.getParallelism() < 2) {
+      classes.forEach(contents -> confluence(clauses.result(), tycker, tycker.state, tycker.reporter, pos, contents)
+        .forEach(Runnable::run));
+      return;
+    }
+    var forks = classes.map(contents -> tycker.state.fork());
+    var reporters = classes.map(contents -> new BufferReporter());
+    var tasks = classes.mapIndexed((i, contents) -> ForkJoinTask.adapt(() ->
+      confluence(clauses.result(), tycker, forks.get(i), reporters.get(i), pos, contents)));
+    // Runs on the pool of this thread, which joins the tasks by running them as well
+    ForkJoinTask.invokeAll(tasks.asJava());
+    var conditions = tasks.map(ForkJoinTask::join);
+    var changed = false;
+    for (int i = 0; i < classes.size(); i++) {
+      changed = changed || forks.get(i).changedSince(tycker.state);
+      if (changed) {
+        confluence(clauses.result(), tycker, tycker.state, tycker.reporter, pos, classes.get(i))
+          .forEach(Runnable::run);
+      } else {
+        reporters.get(i).problems().forEach(tycker.reporter::report);
+        conditions.get(i).forEach(Runnable::run);
       }
-    });
+    }
+  }
+
+  /** @return the conditions to add to the holes, which are shared by the classes */
+  private static @NotNull ImmutableSeq<Runnable> confluence(
+    @NotNull Term result, @NotNull ExprTycker tycker,
+    @NotNull TyckState state, @NotNull Reporter reporter, @NotNull SourcePos pos,
+    @NotNull ImmutableSeq<IntObjTuple2<Term.Matching>> contents
+  ) {
+    var conditions = MutableList.<Runnable>create();
+    for (int i = 1, size = contents.size(); i < size; i++) {
+      var lhsInfo = contents.get(i - 1);
+      var rhsInfo = contents.get(i);
+      var lhsSubst = new Subst(MutableMap.create());
+      var rhsSubst = new Subst(MutableMap.create());
+      var ctx = PatUnify.unifyPat(lhsInfo._2.patterns(), rhsInfo._2.patterns(),
+        lhsSubst, rhsSubst, tycker.localCtx.deriveMap());
+      domination(rhsSubst, reporter, lhsInfo._1, rhsInfo._1, rhsInfo._2);
+      domination(lhsSubst, reporter, rhsInfo._1, lhsInfo._1, lhsInfo._2);
+      var lhsTerm = lhsInfo._2.body().subst(lhsSubst);
+      var rhsTerm = rhsInfo._2.body().subst(rhsSubst);
+      // TODO: Currently all holes at this point are in an ErrorTerm
+      if (lhsTerm instanceof ErrorTerm error && error.description() instanceof MetaTerm hole) {
+        conditions.append(() -> hole.ref().conditions.append(Tuple.of(lhsSubst, rhsTerm)));
+      } else if (rhsTerm instanceof ErrorTerm error && error.description() instanceof MetaTerm hole) {
+        conditions.append(() -> hole.ref().conditions.append(Tuple.of(rhsSubst, lhsTerm)));
+      }
+      var unifier = new Unifier(Ordering.Eq, reporter, false, true, tycker.traceBuilder, state, pos, ctx);
+      var unification = unifier.compare(lhsTerm, rhsTerm, result);
+      if (!unification) {
+        reporter.report(new ClausesProblem.Confluence(pos, lhsInfo._1 + 1, rhsInfo._1 + 1,
+          lhsTerm, rhsTerm, lhsInfo._2.sourcePos(), rhsInfo._2.sourcePos()));
+      }
+    }
+    return conditions.toImmutableSeq();
   }
 
   private static void domination(Subst rhsSubst, Reporter reporter, int lhsIx, int rhsIx, Term.Matching matching) {
@@ -42,6 +42,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.UnknownNullability;
 
+import java.math.BigInteger;
+
 /**
  * @author ice1000
  */
@@ -300,7 +302,7 @@ public final class PatTycker {
           var data = dataCall.ref().core;
           var shape = exprTycker.shapeFactory.find(data);
           if (shape.isDefined() && shape.get().shape() == AyaShape.NAT_SHAPE)
-            yield new Pat.ShapedInt(number, shape.get(), dataCall, licit);
+            yield new Pat.ShapedInt(BigInteger.valueOf(number), shape.get(), dataCall, licit);
         }
         yield withError(new PatternProblem.BadLitPattern(pattern, term), licit, term);
       }
@@ -0,0 +1,182 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck.trace;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableLinkedHashMap;
+import kala.collection.mutable.MutableList;
+import org.aya.concrete.stmt.QualifiedID;
+import org.aya.ref.DefVar;
+import org.aya.tyck.TyckState;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * A profile of type checking: the time spent on each module and on each {@link org.aya.tyck.order.TyckOrder},
+ * with the work done by the tycker meanwhile, see {@link TyckState.Counters}.
+ * The profile is written in the Chrome trace event format by {@link #chromeTrace()}
+ * (for chrome://tracing, Perfetto or speedscope), and as collapsed stacks by {@link #collapsedStacks()}
+ * (for flamegraph.pl or speedscope).
+ * <p>
+ * A span reads the clock twice and records one event, and the counters are updated in place,
+ * except that every unfolding is counted in a map of the definitions unfolded.
+ * A span is ended even if checking the definition throws, so a failed definition is profiled as well.
+ * Modules, and the definitions of a module, may be checked in parallel, so spans are recorded from several threads.
+ */
+public final class Profiler {
+  private final long origin = System.nanoTime();
+  private final @NotNull MutableList<Event> events = MutableList.create();
+
+  /**
+   * @param stack    the names of the enclosing spans, outermost first, ending with the name of this span
+   * @param start    nanoseconds since the profiler is created
+   * @param self     the duration minus those of the children, in nanoseconds
+   * @param counters the work done by the tycker of a definition, or null for a module
+   */
+  public record Event(
+    @NotNull ImmutableSeq<String> stack, @NotNull String category, long thread,
+    long start, long duration, long self, @Nullable Counted counters
+  ) {
+  }
+
+  public record Counted(
+    long unifications, long metas, long postponed, long retried,
+    @NotNull ImmutableMap<DefVar<?, ?>, Long> unfolds
+  ) {
+  }
+
+  public final class Span {
+    private final @NotNull ImmutableSeq<String> stack;
+    private final @NotNull String category;
+    private final @Nullable Span parent;
+    private final @Nullable TyckState.Counters counters;
+    private final long start;
+    private long children = 0;
+
+    private Span(
+      @NotNull ImmutableSeq<String> stack, @NotNull String category,
+      @Nullable Span parent, @Nullable TyckState.Counters counters
+    ) {
+      this.stack = stack;
+      this.category = category;
+      this.parent = parent;
+      this.counters = counters;
+      if (counters != null) counters.restart();
+      start = System.nanoTime();
+    }
+
+    /** @param counters of the tycker doing the work of the span, which are restarted */
+    public @NotNull Span child(@NotNull String name, @NotNull String category, @NotNull TyckState.Counters counters) {
+      return new Span(stack.appended(name), category, this, counters);
+    }
+
+    private synchronized void addChild(long duration) {
+      children += duration;
+    }
+
+    public void end() {
+      var duration = System.nanoTime() - start;
+      if (parent != null) parent.addChild(duration);
+      var counted = counters == null ? null
+        : new Counted(counters.unifications(), counters.metas(), counters.postponed(), counters.retried(), counters.unfolds());
+      long self;
+      synchronized (this) {
+        // The children of a span run in parallel if its definitions are checked in parallel
+        self = Math.max(0, duration - children);
+      }
+      var event = new Event(stack, category, Thread.currentThread().threadId(),
+        start - origin, duration, self, counted);
+      synchronized (events) {
+        events.append(event);
+      }
+    }
+  }
+
+  public @NotNull Span start(@NotNull String name, @NotNull String category) {
+    return new Span(ImmutableSeq.of(name), category, null, null);
+  }
+
+  public @NotNull ImmutableSeq<Event> events() {
+    synchronized (events) {
+      return events.toImmutableSeq();
+    }
+  }
+
+  /** @return the events in the Chrome trace event format, as complete events */
+  public @NotNull String chromeTrace() {
+    var json = new StringBuilder("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+    events().forEachIndexed((i, event) -> {
+      json.append(i == 0 ? "\n" : ",\n");
+      json.append("{\"name\":").append(quote(event.stack.last()))
+        .append(",\"cat\":").append(quote(event.category))
+        .append(",\"ph\":\"X\",\"pid\":1,\"tid\":").append(event.thread)
+        .append(",\"ts\":").append(micros(event.start))
+        .append(",\"dur\":").append(micros(event.duration))
+        .append(",\"args\":{\"self\":").append(micros(event.self));
+      var counted = event.counters;
+      if (counted != null) {
+        json.append(",\"unifications\":").append(counted.unifications)
+          .append(",\"metas\":").append(counted.metas)
+          .append(",\"postponed\":").append(counted.postponed)
+          .append(",\"retried\":").append(counted.retried)
+          .append(",\"unfolds\":{");
+        var first = true;
+        for (var unfold : unfoldsByName(counted).toImmutableSeq()) {
+          if (!first) json.append(',');
+          first = false;
+          json.append(quote(unfold._1)).append(':').append(unfold._2);
+        }
+        json.append('}');
+      }
+      json.append("}}");
+    });
+    return json.append("\n]}\n").toString();
+  }
+
+  /** @return the self time of each stack in microseconds, one stack per line, with frames separated by ';' */
+  public @NotNull String collapsedStacks() {
+    var stacks = MutableLinkedHashMap.<String, Long>of();
+    for (var event : events()) {
+      var key = event.stack.view().map(frame -> frame.replace(';', ',')).joinToString(";");
+      stacks.put(key, stacks.getOrDefault(key, 0L) + event.self);
+    }
+    var lines = new StringBuilder();
+    stacks.forEach((stack, self) -> {
+      var micros = self / 1000;
+      if (micros > 0) lines.append(stack).append(' ').append(micros).append('\n');
+    });
+    return lines.toString();
+  }
+
+  /** Different definitions may have the same name, whose counts are added. */
+  private static @NotNull MutableLinkedHashMap<String, Long> unfoldsByName(@NotNull Counted counted) {
+    var byName = MutableLinkedHashMap.<String, Long>of();
+    counted.unfolds.forEach((def, count) -> {
+      var name = QualifiedID.join(def.qualifiedName());
+      byName.put(name, byName.getOrDefault(name, 0L) + count);
+    });
+    return byName;
+  }
+
+  private static @NotNull String micros(long nanos) {
+    return String.format(Locale.ROOT, "%d.%03d", nanos / 1000, nanos % 1000);
+  }
+
+  private static @NotNull String quote(@NotNull String string) {
+    var quoted = new StringBuilder("\"");
+    string.chars().forEach(c -> {
+      switch (c) {
+        case '"' -> quoted.append("\\\"");
+        case '\\' -> quoted.append("\\\\");
+        default -> {
+          if (c < 0x20) quoted.append(String.format(Locale.ROOT, "\\u%04x", c));
+          else quoted.append((char) c);
+        }
+      }
+    });
+    return quoted.append('"').toString();
+  }
+}
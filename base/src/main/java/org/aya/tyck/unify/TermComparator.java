@@ -127,6 +127,7 @@ public sealed abstract class TermComparator permits Unifier {
   }
 
   public boolean compare(@NotNull Term lhs, @NotNull Term rhs, @Nullable Term type) {
+    state.counters().unify();
     return compare(lhs, rhs, new Sub(), new Sub(), type);
   }
 
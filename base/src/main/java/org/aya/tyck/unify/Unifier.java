@@ -3,12 +3,17 @@
 package org.aya.tyck.unify;
 
 import kala.collection.Seq;
+import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableArrayList;
+import kala.collection.mutable.MutableMap;
 import kala.control.Option;
+import kala.tuple.Tuple;
+import kala.tuple.Tuple2;
 import org.aya.core.Meta;
 import org.aya.core.ops.Eta;
 import org.aya.core.term.*;
 import org.aya.core.visitor.DeltaExpander;
+import org.aya.core.visitor.EndoTerm;
 import org.aya.core.visitor.Subst;
 import org.aya.generic.util.InternalException;
 import org.aya.generic.util.NormalizeMode;
@@ -130,6 +135,14 @@ public final class Unifier extends TermComparator {
       solved = solved.normalize(state, NormalizeMode.NF);
       scopeCheck = solved.scopeCheck(allowedVars);
     }
+    if (scopeCheck.invalid.isNotEmpty() || scopeCheck.confused.isNotEmpty()) {
+      // The holes in the solution may not depend on the variables they are given out of scope
+      var pruned = prune(meta, solved, scopeCheck.invalid.view().concat(scopeCheck.confused).toImmutableSeq());
+      if (pruned != solved) {
+        solved = pruned;
+        scopeCheck = solved.scopeCheck(allowedVars);
+      }
+    }
     if (scopeCheck.invalid.isNotEmpty()) {
       reporter.report(new HoleProblem.BadlyScopedError(lhs, solved, scopeCheck.invalid, pos));
       return new ErrorTerm(solved);
@@ -149,6 +162,44 @@ public final class Unifier extends TermComparator {
     return resultTy;
   }
 
+  /**
+   * Prunes the context of the unsolved holes in a solution, removing the bindings that are given
+   * a variable out of scope of the solution and that nothing else in the context of the hole depends on.
+   * Each such hole is solved by a fresh one in the smaller context, which replaces it in the solution,
+   * so that e.g. {@code ?a x =? ?b x y} is solved by {@code ?b x y := ?c x}.
+   *
+   * @param meta     the hole being solved, which is not pruned
+   * @param escaped  the variables out of scope of the solution
+   * @return the solution with the holes pruned, or the same one if none is
+   */
+  private @NotNull Term prune(@NotNull Meta meta, @NotNull Term solved, @NotNull Seq<LocalVar> escaped) {
+    var pruned = MutableMap.<Meta, Tuple2<Meta, ImmutableSeq<Boolean>>>create();
+    return new EndoTerm() {
+      @Override public @NotNull Term post(@NotNull Term term) {
+        if (!(term instanceof MetaTerm hole)) return term;
+        var other = hole.ref();
+        var done = pruned.getOrNull(other);
+        if (done == null) {
+          if (other == meta || state.metas().containsKey(other) || other.conditions.isNotEmpty()) return term;
+          var mask = hole.contextArgs().map(arg -> !(arg.term() instanceof RefTerm ref && escaped.contains(ref.var())));
+          if (mask.allMatch(b -> b)) return term;
+          var smaller = other.prune(mask);
+          if (smaller == null) return term;
+          if (state.metaNotProps().contains(other)) state.metaNotProps().add(smaller);
+          state.solve(other, new MetaTerm(smaller,
+            other.contextTele.zipView(mask).filter(p -> p._2).map(p -> p._1.toArg()).toImmutableSeq(),
+            other.telescope.map(Term.Param::toArg)));
+          done = Tuple.of(smaller, mask);
+          pruned.put(other, done);
+        }
+        var keep = done._2;
+        return new MetaTerm(done._1,
+          hole.contextArgs().zipView(keep).filter(p -> p._2).map(p -> p._1).toImmutableSeq(),
+          hole.args());
+      }
+    }.apply(solved);
+  }
+
   /**
    * @return none if not the same meta, some(null) if return null directly
    */
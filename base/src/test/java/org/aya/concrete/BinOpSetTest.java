@@ -0,0 +1,105 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.concrete;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.concrete.desugar.AyaBinOpSet;
+import org.aya.resolve.context.Context;
+import org.aya.util.binop.Assoc;
+import org.aya.util.binop.BinOpSet;
+import org.aya.util.binop.OpDecl;
+import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.BufferReporter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinOpSetTest {
+  private static @NotNull OpDecl op(@NotNull String name) {
+    var info = new OpDecl.OpInfo(name, Assoc.InfixL);
+    return () -> info;
+  }
+
+  private static @NotNull ImmutableSeq<OpDecl> ops(int size) {
+    return ImmutableSeq.fill(size, i -> op("op" + i));
+  }
+
+  @Test public void closure() {
+    var set = new AyaBinOpSet(new BufferReporter());
+    var ops = ops(6);
+    // 0 > 1 > 2 and 3 > 4, then 2 > 3 joins them, and 5 < 0 is added last
+    set.bind(ops.get(0), OpDecl.BindPred.Tighter, ops.get(1), SourcePos.NONE);
+    set.bind(ops.get(2), OpDecl.BindPred.Looser, ops.get(1), SourcePos.NONE);
+    set.bind(ops.get(3), OpDecl.BindPred.Tighter, ops.get(4), SourcePos.NONE);
+    assertEquals(BinOpSet.PredCmp.Undefined, compare(set, ops, 0, 4));
+    set.bind(ops.get(2), OpDecl.BindPred.Tighter, ops.get(3), SourcePos.NONE);
+    set.bind(ops.get(5), OpDecl.BindPred.Looser, ops.get(0), SourcePos.NONE);
+    assertEquals(BinOpSet.PredCmp.Tighter, compare(set, ops, 0, 4));
+    assertEquals(BinOpSet.PredCmp.Looser, compare(set, ops, 4, 0));
+    assertEquals(BinOpSet.PredCmp.Tighter, compare(set, ops, 1, 3));
+    assertEquals(BinOpSet.PredCmp.Looser, compare(set, ops, 5, 4));
+    assertEquals(BinOpSet.PredCmp.Equal, compare(set, ops, 3, 3));
+    var unrelated = set.ensureHasElem(op("unrelated"));
+    assertEquals(BinOpSet.PredCmp.Undefined, set.compare(unrelated, set.ensureHasElem(ops.get(0))));
+    assertEquals(BinOpSet.PredCmp.Tighter, set.compare(BinOpSet.APP_ELEM, unrelated));
+  }
+
+  /** The closure agrees with a search in the graph, whatever order the edges are added in */
+  @Test public void closureAgreesWithGraph() {
+    var random = new Random(42);
+    var set = new AyaBinOpSet(new BufferReporter());
+    var ops = ops(40);
+    for (var k = 0; k < 80; k++) {
+      var i = random.nextInt(ops.size() - 1);
+      var j = i + 1 + random.nextInt(ops.size() - i - 1);
+      // Edges go from lower to higher indices, so the graph is acyclic
+      set.bind(ops.get(i), OpDecl.BindPred.Tighter, ops.get(j), SourcePos.NONE);
+    }
+    for (var i = 0; i < ops.size(); i++) {
+      for (var j = 0; j < ops.size(); j++) {
+        if (i == j) continue;
+        var lhs = set.ensureHasElem(ops.get(i));
+        var rhs = set.ensureHasElem(ops.get(j));
+        var expected = set.tighterGraph.hasPath(lhs, rhs) ? BinOpSet.PredCmp.Tighter
+          : set.tighterGraph.hasPath(rhs, lhs) ? BinOpSet.PredCmp.Looser
+          : BinOpSet.PredCmp.Undefined;
+        assertEquals(expected, set.compare(lhs, rhs), lhs + " and " + rhs);
+      }
+    }
+  }
+
+  @Test public void importBind() {
+    var ops = ops(4);
+    var imported = new AyaBinOpSet(new BufferReporter());
+    imported.bind(ops.get(0), OpDecl.BindPred.Tighter, ops.get(1), SourcePos.NONE);
+    imported.bind(ops.get(1), OpDecl.BindPred.Tighter, ops.get(2), SourcePos.NONE);
+    var set = new AyaBinOpSet(new BufferReporter());
+    set.bind(ops.get(2), OpDecl.BindPred.Tighter, ops.get(3), SourcePos.NONE);
+    set.importBind(imported, SourcePos.NONE);
+    // The imported operators are the same as the ones bound here, as they are the same declarations
+    assertEquals(BinOpSet.PredCmp.Tighter, compare(set, ops, 0, 3));
+    assertEquals(BinOpSet.PredCmp.Looser, compare(set, ops, 3, 1));
+    // The imported set is left alone
+    assertEquals(BinOpSet.PredCmp.Undefined, compare(imported, ops, 0, 3));
+    set.reportIfCyclic();
+  }
+
+  @Test public void importCycle() {
+    var ops = ops(2);
+    var imported = new AyaBinOpSet(new BufferReporter());
+    imported.bind(ops.get(0), OpDecl.BindPred.Tighter, ops.get(1), SourcePos.NONE);
+    var reporter = new BufferReporter();
+    var set = new AyaBinOpSet(reporter);
+    set.bind(ops.get(1), OpDecl.BindPred.Tighter, ops.get(0), SourcePos.NONE);
+    set.importBind(imported, SourcePos.NONE);
+    assertThrows(Context.ResolvingInterruptedException.class, set::reportIfCyclic);
+    assertFalse(reporter.problems().isEmpty());
+  }
+
+  private static @NotNull BinOpSet.PredCmp compare(@NotNull BinOpSet set, @NotNull ImmutableSeq<OpDecl> ops, int lhs, int rhs) {
+    return set.compare(set.ensureHasElem(ops.get(lhs)), set.ensureHasElem(ops.get(rhs)));
+  }
+}
@@ -94,9 +94,9 @@ public class DistillerTest {
       def infix ?= : Type -> Type -> Type => \\ (A B : Type) => A
       def use (A B : Type) => A ?= B
       """)._2;
-    var test1 = ((FnDef) decls.get(3)).body.getLeftValue();
-    var test2 = ((FnDef) decls.get(4)).body.getLeftValue();
-    var use = ((FnDef) decls.get(6)).body.getLeftValue();
+    var test1 = ((FnDef) decls.get(3)).body().getLeftValue();
+    var test2 = ((FnDef) decls.get(4)).body().getLeftValue();
+    var use = ((FnDef) decls.get(6)).body().getLeftValue();
     assertNotNull(decls.get(1).ref().concrete.toDoc(DistillerOptions.informative()));
     assertNotNull(decls.get(2).ref().concrete.toDoc(DistillerOptions.informative()));
     assertEquals("Pi (A : Type 0) -> A = X", test1.toDoc(DistillerOptions.informative()).debugRender());
@@ -112,7 +112,7 @@ public class DistillerTest {
       def g (h : Nat -> D) : Nat => zero
       def t (n : Nat) => g (n ·)
       """)._2;
-    var t = ((FnDef) decls.get(3)).body.getLeftValue();
+    var t = ((FnDef) decls.get(3)).body().getLeftValue();
     assertEquals("g (n ·)", t.toDoc(DistillerOptions.informative()).debugRender());
   }
 
@@ -125,7 +125,7 @@ public class DistillerTest {
       def elim {A : Type} False : A | ()
       def NonEmpty (A : Type) => ¬ ¬ A
       """)._2;
-    var t = ((FnDef) decls.get(3)).body.getLeftValue();
+    var t = ((FnDef) decls.get(3)).body().getLeftValue();
     assertEquals("¬ (¬ A)", t.toDoc(DistillerOptions.informative()).debugRender());
   }
 
@@ -139,7 +139,7 @@ public class DistillerTest {
       open data Nat | zero | suc Nat
       def test => zero = zero
       """)._2;
-    var t = ((FnDef) decls.get(6)).body.getLeftValue();
+    var t = ((FnDef) decls.get(6)).body().getLeftValue();
     assertEquals("(=) {Nat} zero zero", t.toDoc(DistillerOptions.informative()).debugRender());
     assertEquals("zero = zero", t.toDoc(DistillerOptions.pretty()).debugRender());
   }
@@ -158,8 +158,8 @@ public class DistillerTest {
       def test1 {A : Type} {a : A} (p : a = a) (i j k : I) => p ((i ∨ j ∨ k) ∧ (k ∨ j ∨ i))
       def test2 {A : Type} {a : A} (p : a = a) (i j k : I) => p ((i ∧ j ∧ k) ∨ (k ∧ j ∧ i))
       """)._2;
-    var t1 = ((FnDef) decls.get(9)).body.getLeftValue();
-    var t2 = ((FnDef) decls.get(10)).body.getLeftValue();
+    var t1 = ((FnDef) decls.get(9)).body().getLeftValue();
+    var t2 = ((FnDef) decls.get(10)).body().getLeftValue();
     assertEquals("p ((i ∨ j ∨ k) ∧ (k ∨ j ∨ i))", t1.toDoc(DistillerOptions.informative()).commonRender());
     assertEquals("p (i ∧ j ∧ k ∨ k ∧ j ∧ i)", t2.toDoc(DistillerOptions.informative()).commonRender());
   }
@@ -181,7 +181,7 @@ public class DistillerTest {
       def idp {A : Type} {a : A} : a = a => \\i => a
       def test {A : Type} {a b : A} (p : a = b) : a = b => \\i => p i
       """)._2;
-    var t = ((FnDef) decls.get(5)).body.getLeftValue();
+    var t = ((FnDef) decls.get(5)).body().getLeftValue();
     assertEquals("\\ i => p i", t.toDoc(DistillerOptions.informative()).debugRender());
   }
 
@@ -195,8 +195,8 @@ public class DistillerTest {
         | 1 => 2
         | a => suc a
       """)._2;
-    var t1 = ((FnDef) decls.get(1)).body.getLeftValue();
-    var t2 = ((FnDef) decls.get(2)).body.getLeftValue();
+    var t1 = ((FnDef) decls.get(1)).body().getLeftValue();
+    var t2 = ((FnDef) decls.get(2)).body().getLeftValue();
     var t3 = ((FnDef) decls.get(3));
     assertEquals("0", t1.toDoc(DistillerOptions.informative()).debugRender());
     assertEquals("114514", t2.toDoc(DistillerOptions.informative()).debugRender());
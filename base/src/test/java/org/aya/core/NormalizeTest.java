@@ -2,20 +2,31 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.core;
 
+import kala.collection.immutable.ImmutableSeq;
 import org.aya.core.def.FnDef;
+import org.aya.core.repr.AyaShape;
 import org.aya.core.term.ConCall;
+import org.aya.core.term.FnCall;
+import org.aya.core.term.IntegerTerm;
+import org.aya.core.term.LamTerm;
+import org.aya.core.term.PiTerm;
 import org.aya.core.term.RefTerm;
 import org.aya.core.term.Term;
+import org.aya.core.visitor.Expander;
 import org.aya.generic.util.NormalizeMode;
+import org.aya.ref.GenerateKind;
 import org.aya.tyck.TyckDeclTest;
 import org.aya.tyck.TyckState;
 import org.aya.util.distill.DistillerOptions;
+import org.aya.util.error.WithPos;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigInteger;
 import java.util.Objects;
 import java.util.function.IntFunction;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class NormalizeTest {
@@ -33,7 +44,7 @@ public class NormalizeTest {
       def overlap2 (a : Nat) : Nat => tracy zero a""");
     var defs = res._2;
     var state = new TyckState(res._1);
-    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body.getLeftValue().normalize(state, NormalizeMode.NF);
+    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body().getLeftValue().normalize(state, NormalizeMode.NF);
     assertTrue(normalizer.apply(2) instanceof ConCall conCall
       && Objects.equals(conCall.ref().name(), "suc"));
     assertTrue(normalizer.apply(3) instanceof ConCall conCall
@@ -44,6 +55,147 @@ public class NormalizeTest {
       && Objects.equals(ref.var().name(), "a"));
   }
 
+  @Test public void whnfCache() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def id (a : Nat) : Nat => a
+      def one : Nat => id (suc zero)""");
+    var state = new TyckState(res._1);
+    var body = ((FnDef) res._2.get(2)).body().getLeftValue();
+    var whnf = body.normalize(state, NormalizeMode.WHNF);
+    var misses = state.whnfCache().misses();
+    assertTrue(whnf instanceof ConCall);
+    assertEquals(whnf, body.normalize(state, NormalizeMode.WHNF));
+    assertEquals(misses, state.whnfCache().misses());
+    assertTrue(state.whnfCache().hits() > 0);
+    // As if a meta is solved, so the results are computed again
+    state.whnfCache().invalidate();
+    assertEquals(whnf, body.normalize(state, NormalizeMode.WHNF));
+    assertTrue(state.whnfCache().misses() > misses);
+  }
+
+  @Test public void decisionTree() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      open data Bool : Type | true | false
+      def lt (a b : Nat) : Bool
+       | zero, suc b => true
+       | suc a, suc b => lt a b
+       | a, zero => false
+      def t1 => lt (suc zero) (suc (suc zero))
+      def t2 => lt (suc (suc zero)) (suc zero)
+      def t3 (n : Nat) => lt n zero
+      def t4 (n : Nat) => lt zero (suc n)""");
+    var state = new TyckState(res._1);
+    var defs = res._2;
+    assertTrue(((FnDef) defs.get(2)).decisionTree().isDefined());
+    IntFunction<String> normalizer = i -> ((FnDef) defs.get(i)).body().getLeftValue()
+      .normalize(state, NormalizeMode.NF).toDoc(DistillerOptions.debug()).debugRender();
+    assertEquals("true", normalizer.apply(3));
+    assertEquals("false", normalizer.apply(4));
+    // Stuck on the first clause, even though the last one matches
+    assertEquals("lt n zero", normalizer.apply(5));
+    assertEquals("true", normalizer.apply(6));
+  }
+
+  /** A row refuted by a constructor without arguments must not match later on */
+  @Test public void decisionTreeNullary() {
+    var values = ImmutableSeq.of("true", "false", "x");
+    var calls = values.flatMap(a -> values.flatMap(b -> values.map(c -> a + " " + b + " " + c)));
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Bool : Type | true | false
+      open data Res : Type | A | B | C
+      def f (a b c : Bool) : Res
+       | _, true, true => A
+       | true, false, _ => B
+       | _, _, _ => C
+      """ + calls.mapIndexed((i, call) -> "def t" + i + " (x : Bool) => f " + call).joinToString("\n"));
+    var state = new TyckState(res._1);
+    var defs = res._2;
+    var f = (FnDef) defs.get(2);
+    assertTrue(f.decisionTree().isDefined());
+    var tree = f.decisionTree().get();
+    var expander = new Expander.Normalizer(state);
+    calls.forEachIndexed((i, call) -> {
+      var args = ((FnCall) ((FnDef) defs.get(3 + i)).body().getLeftValue()).args();
+      var byTree = tree.unfold(args, 0, expander).map(WithPos::data);
+      var byClauses = expander.tryUnfoldClauses(false, args, 0, f.body().getRightValue()).map(WithPos::data);
+      assertEquals(byClauses.map(t -> t.toDoc(DistillerOptions.debug()).debugRender()),
+        byTree.map(t -> t.toDoc(DistillerOptions.debug()).debugRender()), call);
+    });
+    var index = calls.indexOf("true true false");
+    assertEquals("C", ((FnDef) defs.get(3 + index)).body().getLeftValue()
+      .normalize(state, NormalizeMode.NF).toDoc(DistillerOptions.debug()).debugRender());
+  }
+
+  @Test public void nameless() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def const (A : Type) : A -> A -> A => \\ a b => a
+      def pick (n : Nat) : Nat -> Nat
+       | zero => \\ m => m
+       | suc n => \\ m => n
+      def t1 : Nat -> Nat -> Nat => const Nat
+      def t2 : Nat -> Nat => pick zero
+      def t3 : Nat -> Nat => pick (suc zero)""");
+    var state = new TyckState(res._1);
+    var defs = res._2;
+    assertTrue(((FnDef) defs.get(1)).nameless().isDefined());
+    assertTrue(((FnDef) defs.get(2)).decisionTree().isDefined());
+    IntFunction<LamTerm> normalizer = i -> (LamTerm) ((FnDef) defs.get(i)).body().getLeftValue()
+      .normalize(state, NormalizeMode.NF);
+    var t1 = normalizer.apply(3);
+    assertTrue(t1.body() instanceof LamTerm inner && inner.body() instanceof RefTerm ref
+      && ref.var() == t1.param().ref());
+    var t2 = normalizer.apply(4);
+    assertTrue(t2.body() instanceof RefTerm ref && ref.var() == t2.param().ref());
+    var t3 = normalizer.apply(5);
+    assertTrue(t3.body() instanceof ConCall con && Objects.equals(con.ref().name(), "zero"));
+    // The binders are renamed on every unfolding, and are ordinary variables again
+    for (var i = 3; i <= 5; i++) {
+      var lam = normalizer.apply(i);
+      assertNotSame(lam.param().ref(), normalizer.apply(i).param().ref());
+      assertEquals(GenerateKind.None.INSTANCE, lam.param().ref().generateKind());
+    }
+  }
+
+  @Test public void natOps() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      open data Bool : Type | true | false
+      def add (a b : Nat) : Nat
+       | zero, b => b
+       | suc a, b => suc (add a b)
+      def mul (a b : Nat) : Nat
+       | zero, b => zero
+       | suc a, b => add b (mul a b)
+      def sub (a b : Nat) : Nat
+       | a, zero => a
+       | zero, suc b => zero
+       | suc a, suc b => sub a b
+      def le (a b : Nat) : Bool
+       | zero, b => true
+       | suc a, zero => false
+       | suc a, suc b => le a b
+      def big : Nat => mul 100000 (add 99999 1)
+      def t1 : Nat => sub 3 5
+      def t2 : Bool => le 100000 99999
+      def t3 (n : Nat) : Nat => add (suc n) 1""");
+    var state = new TyckState(res._1);
+    var defs = res._2;
+    assertEquals(AyaShape.NAT_ADD_SHAPE, Objects.requireNonNull(((FnDef) defs.get(2)).shape).shape());
+    assertEquals(AyaShape.NAT_MUL_SHAPE, Objects.requireNonNull(((FnDef) defs.get(3)).shape).shape());
+    assertEquals(AyaShape.NAT_SUB_SHAPE, Objects.requireNonNull(((FnDef) defs.get(4)).shape).shape());
+    assertEquals(AyaShape.NAT_CMP_SHAPE, Objects.requireNonNull(((FnDef) defs.get(5)).shape).shape());
+    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body().getLeftValue().normalize(state, NormalizeMode.NF);
+    assertTrue(normalizer.apply(6) instanceof IntegerTerm lit
+      && lit.repr().equals(BigInteger.valueOf(10_000_000_000L)));
+    assertTrue(normalizer.apply(7) instanceof IntegerTerm lit && lit.repr().signum() == 0);
+    assertTrue(normalizer.apply(8) instanceof ConCall con && Objects.equals(con.ref().name(), "false"));
+    // Not a literal, so unfolded as usual
+    assertTrue(normalizer.apply(9) instanceof ConCall con && Objects.equals(con.ref().name(), "suc"));
+  }
+
   @Test public void unfoldPrim() {
     var res = TyckDeclTest.successTyckDecls("""
       prim I
@@ -53,7 +205,7 @@ public class NormalizeTest {
       def kiva : Nat => (\\ i => Nat).coe (suc zero) freeze 1""");
     var state = new TyckState(res._1);
     var defs = res._2;
-    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body.getLeftValue().normalize(state, NormalizeMode.NF);
+    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body().getLeftValue().normalize(state, NormalizeMode.NF);
     assertTrue(normalizer.apply(3) instanceof ConCall conCall
       && Objects.equals(conCall.ref().name(), "zero")
       && conCall.conArgs().isEmpty());
@@ -94,8 +246,49 @@ public class NormalizeTest {
       """);
     var state = new TyckState(res._1);
     var defs = res._2;
-    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body.getLeftValue().normalize(state, NormalizeMode.NF);
+    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body().getLeftValue().normalize(state, NormalizeMode.NF);
     assertEquals("suc zero :< nil", normalizer.apply(defs.size() - 2).toDoc(DistillerOptions.debug()).debugRender());
     assertEquals("suc zero :< nil", normalizer.apply(defs.size() - 1).toDoc(DistillerOptions.debug()).debugRender());
   }
+
+  @Test public void nbeAgreesWithNormalizer() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat | zero | suc Nat
+      def overlap infixl + (a b : Nat) : Nat
+        | zero, a => a
+        | a, zero => a
+        | suc a, b => suc (a + b)
+        | a, suc b => suc (a + b)
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def czero : Num => \\ A f x => x
+      def csuc (a : Num) : Num => \\ A f x => a A f (f x)
+      def cmul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def #2 : Num => csuc (csuc czero)
+      def #4 : Num => cmul #2 #2
+      def toNat (a : Num) : Nat => a Nat suc zero
+      def four => toNat #4 + toNat #2
+      def open-lam (n : Nat) : Nat -> Nat => \\ m => #2 Nat (\\ k => k + n) m
+      open data Box (n : Nat) | box
+      def dep (A : Type) (k : Nat -> Type) : Type => Pi (y : Nat) -> A -> k y
+      def dep-in-dep : Type => dep Nat (\\ x => dep (Box x) (\\ _ => Nat))
+      """);
+    var state = new TyckState(res._1);
+    res._2.forEach(def -> {
+      if (!(def instanceof FnDef fn) || !fn.body().isLeft()) return;
+      var body = fn.body().getLeftValue();
+      assertEquals(
+        body.normalize(state, NormalizeMode.NF).toDoc(DistillerOptions.debug()).debugRender(),
+        body.normalize(state, NormalizeMode.NBE).toDoc(DistillerOptions.debug()).debugRender());
+    });
+    // Pi (y : Nat) -> Nat -> Pi (y' : Nat) -> Box y -> Nat, where the names look the same
+    var depInDep = ((FnDef) res._2.last()).body().getLeftValue();
+    for (var mode : ImmutableSeq.of(NormalizeMode.NF, NormalizeMode.NBE)) {
+      var outer = (PiTerm) depInDep.normalize(state, mode);
+      var inner = (PiTerm) ((PiTerm) outer.body()).body();
+      assertNotSame(outer.param().ref(), inner.param().ref(), mode.name());
+      var box = ((PiTerm) inner.body()).param().type();
+      assertEquals(1, box.findUsages(outer.param().ref()), mode.name());
+      assertEquals(0, box.findUsages(inner.param().ref()), mode.name());
+    }
+  }
 }
@@ -2,6 +2,13 @@
 // Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
 package org.aya.core;
 
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.def.FnDef;
+import org.aya.core.repr.AyaShape;
+import org.aya.core.serde.AyacFormat;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.SerDef;
 import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
 import org.aya.tyck.TyckDeclTest;
@@ -21,6 +28,23 @@ public class SuedeTest {
       def test (a : Nat) => \\x => add a (add x zero)""");
   }
 
+  /** The shape is stored, as recognizing it again on every load normalizes the body */
+  @Test public void natOpShape() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def add (a b : Nat) : Nat
+       | zero, a => a
+       | suc a, b => suc (add a b)""");
+    var ser = (SerDef.Fn) new Serializer(new Serializer.State()).serialize(res._2.get(1));
+    Assertions.assertNotNull(ser.shape());
+    var fn = (FnDef) ser.de(new SerTerm.DeState(res._1));
+    Assertions.assertNotNull(fn.shape);
+    Assertions.assertEquals(AyaShape.NAT_ADD_SHAPE, fn.shape.shape());
+    var compiled = new CompiledAya(ImmutableSeq.empty(), ImmutableSeq.empty(), ImmutableMap.empty(),
+      ImmutableSeq.of(ser), ImmutableSeq.empty(), ImmutableMap.empty());
+    Assertions.assertEquals(compiled, AyacFormat.decode(AyacFormat.encode(compiled)));
+  }
+
   @Test public void piSig() {
     suedeAll("def test (y : Type 0) : Type 3 => Pi (x : Type 0 -> Type 2) -> Sig (x y) ** x y");
   }
@@ -74,9 +98,12 @@ public class SuedeTest {
     var res = TyckDeclTest.successTyckDecls(code);
     var state = new SerTerm.DeState(res._1);
     var serializer = new Serializer(new Serializer.State());
-    res._2.view()
-      .map(serializer::serialize)
+    var serDefs = res._2.map(serializer::serialize);
+    serDefs.view()
       .map(ser -> ser.de(state))
       .forEach(Assertions::assertNotNull);
+    var compiled = new CompiledAya(ImmutableSeq.empty(), ImmutableSeq.empty(), ImmutableMap.empty(),
+      serDefs, ImmutableSeq.empty(), ImmutableMap.empty());
+    Assertions.assertEquals(compiled, AyacFormat.decode(AyacFormat.encode(compiled)));
   }
 }
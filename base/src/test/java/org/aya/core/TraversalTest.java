@@ -0,0 +1,105 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.core;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.def.FnDef;
+import org.aya.core.def.PrimDef;
+import org.aya.core.repr.AyaShape;
+import org.aya.core.term.*;
+import org.aya.core.visitor.TermInterner;
+import org.aya.core.visitor.Zonker;
+import org.aya.generic.util.NormalizeMode;
+import org.aya.ref.LocalVar;
+import org.aya.tyck.ExprTycker;
+import org.aya.tyck.TyckDeclTest;
+import org.aya.tyck.TyckState;
+import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.ThrowingReporter;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraversalTest {
+  private static final int DEPTH = 100_000;
+
+  @Test public void deep() {
+    var x = new LocalVar("x");
+    var y = new LocalVar("y");
+    Term deep = new RefTerm(x);
+    for (var i = 0; i < DEPTH; i++) deep = new TupTerm(ImmutableSeq.of(deep));
+    // Nothing to rename, so nothing is rebuilt
+    assertSame(deep, deep.rename());
+    assertEquals(1, deep.findUsages(x));
+    var subst = deep.subst(x, new RefTerm(y));
+    var depth = 0;
+    while (subst instanceof TupTerm tup) {
+      subst = tup.items().first();
+      depth++;
+    }
+    assertEquals(DEPTH, depth);
+    assertTrue(subst instanceof RefTerm ref && ref.var() == y);
+  }
+
+  /** Each unfolding reduces to another call, which used to nest a traversal in the previous one */
+  @Test public void deepUnfold() {
+    var res = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def count (n : Nat) : Nat
+       | zero => zero
+       | suc n => count n
+      def big : Nat => count 100000""");
+    var state = new TyckState(res._1);
+    var body = ((FnDef) res._2.get(2)).body().getLeftValue();
+    var nf = body.normalize(state, NormalizeMode.NF);
+    assertTrue(nf instanceof IntegerTerm integer && integer.repr().equals(BigInteger.ZERO)
+      || nf instanceof ConCall con && con.ref().name().equals("zero"), nf.toString());
+  }
+
+  @Test public void deepZonk() {
+    var tycker = new ExprTycker(new PrimDef.Factory(), new AyaShape.Factory(), ThrowingReporter.INSTANCE, null);
+    var x = new LocalVar("x");
+    var meta = Meta.from(ImmutableSeq.empty(), "hole", null, SourcePos.NONE);
+    tycker.state.solve(meta, new RefTerm(x));
+    Term deep = new MetaTerm(meta, ImmutableSeq.empty(), ImmutableSeq.empty());
+    for (var i = 0; i < DEPTH; i++) deep = new TupTerm(ImmutableSeq.of(deep));
+    var zonker = Zonker.make(tycker);
+    var zonked = zonker.apply(deep);
+    assertTrue(zonker.stack().isEmpty());
+    var depth = 0;
+    while (zonked instanceof TupTerm tup) {
+      zonked = tup.items().first();
+      depth++;
+    }
+    assertEquals(DEPTH, depth);
+    assertTrue(zonked instanceof RefTerm ref && ref.var() == x);
+  }
+
+  @Test public void deepIntern() {
+    var interner = new TermInterner();
+    Term a = SortTerm.Type0, b = SortTerm.Type0;
+    for (var i = 0; i < DEPTH; i++) {
+      a = new TupTerm(ImmutableSeq.of(a));
+      b = new TupTerm(ImmutableSeq.of(b));
+    }
+    var interned = interner.apply(a);
+    assertSame(interned, interner.apply(b));
+    // The leaf is shared as well
+    assertEquals(DEPTH + 1, interner.hits());
+  }
+
+  @Test public void deepScopeCheck() {
+    var outer = new LocalVar("outer");
+    Term deep = new RefTerm(outer);
+    for (var i = 0; i < DEPTH; i++) deep = new LamTerm(new Term.Param(new LocalVar("y"), SortTerm.Type0, true), deep);
+    deep = new LamTerm(new Term.Param(outer, SortTerm.Type0, true), deep);
+    var bound = deep.scopeCheck(ImmutableSeq.empty());
+    assertTrue(bound.invalid.isEmpty());
+    assertTrue(bound.isCleared());
+    var free = ((LamTerm) deep).body().scopeCheck(ImmutableSeq.empty());
+    assertEquals(ImmutableSeq.of(outer), free.invalid.toImmutableSeq());
+    assertTrue(free.isCleared());
+  }
+}
@@ -31,8 +31,8 @@ public class UsagesTest {
       var of = TermFolder.RefFinder.HEADER_ONLY.apply(def);
       if (Seq.of("Nat", "Int", "I").contains(def.ref().name())) assertTrue(of.isEmpty());
       else assertFalse(of.isEmpty());
-      if (def instanceof FnDef fn && fn.body.isLeft())
-        assertEquals(0, fn.body.getLeftValue().findUsages(new LocalVar("233")));
+      if (def instanceof FnDef fn && fn.body().isLeft())
+        assertEquals(0, fn.body().getLeftValue().findUsages(new LocalVar("233")));
     });
   }
 }
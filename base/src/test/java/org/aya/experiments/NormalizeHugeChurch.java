@@ -31,12 +31,15 @@ public class NormalizeHugeChurch {
       """);
     var state = new TyckState(res._1);
     var decls = res._2;
-    var last = ((FnDef) decls.last()).body.getLeftValue();
+    var last = ((FnDef) decls.last()).body().getLeftValue();
     println("Tyck: " + (System.currentTimeMillis() - startup));
     startup = System.currentTimeMillis();
     var nf = last.normalize(state, NormalizeMode.NF);
     println("Normalize: " + (System.currentTimeMillis() - startup));
     startup = System.currentTimeMillis();
+    last.normalize(state, NormalizeMode.NBE);
+    println("Normalize by evaluation: " + (System.currentTimeMillis() - startup));
+    startup = System.currentTimeMillis();
     var doc = nf.toDoc(DistillerOptions.informative());
     println("Docify: " + (System.currentTimeMillis() - startup));
     startup = System.currentTimeMillis();
@@ -124,7 +124,7 @@ public class AyaMdParserTest {
     var compiler = new SingleFileCompiler(ThrowingReporter.INSTANCE, null, null);
     compiler.compile(oneCase.mdFile(), new CompilerFlags(
       CompilerFlags.Message.ASCII, false, false, null, SeqView.empty(),
-      oneCase.outMdFile()
+      oneCase.outMdFile(), CompilerFlags.Build.DEFAULT
     ), null);
     var actualMd = Files.readString(oneCase.outMdFile());
     assertLinesMatch(trim(expectedMd).lines(), trim(actualMd).lines());
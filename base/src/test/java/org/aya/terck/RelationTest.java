@@ -10,6 +10,7 @@ import org.aya.util.terck.Relation;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class RelationTest {
   @Test public void ring() {
@@ -31,6 +32,40 @@ public class RelationTest {
     assertEquals(Relation.decr(false, 1), Relation.decr(false, 3).mul(Relation.decr(false, -2)));
   }
 
+  @Test public void packed() {
+    ImmutableSeq.of(Relation.unk(), Relation.eq(), Relation.lt(), Relation.decr(true, -2), Relation.decr(false, 3))
+      .forEach(relation -> assertEquals(relation, Relation.unpack(Relation.pack(relation))));
+  }
+
+  @Test public void packedRange() {
+    var max = Relation.decr(true, Relation.MAX_SIZE);
+    var min = Relation.decr(false, -Relation.MAX_SIZE);
+    assertEquals(max, Relation.unpack(Relation.pack(max)));
+    assertEquals(min, Relation.unpack(Relation.pack(min)));
+    // Would be packed into the same int as unknown
+    assertThrows(IllegalArgumentException.class, () -> Relation.pack(Relation.decr(false, -Relation.MAX_SIZE - 1)));
+    assertThrows(IllegalArgumentException.class, () -> Relation.pack(Relation.decr(true, Relation.MAX_SIZE + 1)));
+    // Out of range after multiplying
+    assertEquals(max, max.mul(Relation.lt()));
+    assertEquals(Relation.unk(), min.mul(Relation.decr(true, -1)));
+  }
+
+  @Test public void combine() {
+    var dummy = new FnCall(DefVar.empty("f"), 0, ImmutableSeq.empty());
+    var tele = ImmutableSeq.of("a", "b");
+    var fg = new CallMatrix<>(dummy, "f", "g", tele, tele);
+    fg.set("a", "b", Relation.lt());
+    fg.set("b", "a", Relation.eq());
+    var gf = new CallMatrix<>(dummy, "g", "f", tele, tele);
+    gf.set("a", "a", Relation.lt());
+    gf.set("b", "b", Relation.lt());
+    var ff = CallMatrix.combine(fg, gf);
+    assertEquals(Relation.unk(), ff.get(0, 0));
+    assertEquals(Relation.decr(true, 2), ff.get(1, 0));
+    assertEquals(Relation.lt(), ff.get(0, 1));
+    assertEquals(Relation.unk(), ff.get(1, 1));
+  }
+
   @Test public void pretty() {
     var dummy = new FnCall(DefVar.empty("f"), 0, ImmutableSeq.empty());
     // only used for error reporting, so it's fine to mock it.
@@ -8,12 +8,21 @@ import org.aya.cli.library.LibraryCompiler;
 import org.aya.cli.library.incremental.CompilerAdvisor;
 import org.aya.cli.library.incremental.DelegateCompilerAdvisor;
 import org.aya.cli.library.incremental.InMemoryCompilerAdvisor;
+import org.aya.cli.library.incremental.LibraryCache;
 import org.aya.cli.library.json.LibraryConfigData;
 import org.aya.cli.library.source.DiskLibraryOwner;
 import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.core.def.GenericDef;
 import org.aya.core.def.PrimDef;
+import org.aya.core.serde.Serializer;
 import org.aya.lsp.prim.LspPrimFactory;
+import org.aya.resolve.ResolveInfo;
 import org.aya.util.FileUtil;
+import org.aya.util.distill.DistillerOptions;
+import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.BufferReporter;
 import org.aya.util.reporter.ThrowingReporter;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
@@ -23,10 +32,13 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class LibraryTest {
   @Test public void testOnDisk() throws IOException {
@@ -40,6 +52,198 @@ public class LibraryTest {
     assertEquals(0, compile());
   }
 
+  @Test public void testParallel() throws IOException {
+    FileUtil.deleteRecursively(DIR.resolve("build"));
+    var flags = flags(new CompilerFlags.Build(4, 1, false, null));
+    assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, flags, CompilerAdvisor.onDisk(), DIR));
+    // The second time should load the cache of 'common' in parallel.
+    FileUtil.deleteRecursively(DIR.resolve("build").resolve("out"));
+    assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, flags, CompilerAdvisor.onDisk(), DIR));
+  }
+
+  @Test public void testParallelDefs() throws IOException {
+    FileUtil.deleteRecursively(DIR.resolve("build"));
+    var flags = flags(new CompilerFlags.Build(1, 4, false, null));
+    assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, flags, CompilerAdvisor.onDisk(), DIR));
+  }
+
+  private static @NotNull ImmutableSeq<String> diagnostics(@NotNull Path root, int defJobs) throws IOException {
+    FileUtil.deleteRecursively(root.resolve("build"));
+    var flags = flags(new CompilerFlags.Build(1, defJobs, false, null));
+    var reporter = new BufferReporter();
+    assertNotEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), reporter, flags, CompilerAdvisor.onDisk(), root));
+    // Without the messages of the compiler, which have the time taken
+    return reporter.problems().view()
+      .filter(problem -> problem.sourcePos() != SourcePos.NONE)
+      .map(problem -> problem.sourcePos() + ": " + problem.describe(DistillerOptions.debug()).debugRender())
+      .toImmutableSeq();
+  }
+
+  /** The problems are reported in the same order, no matter how many definitions are checked at once */
+  @Test public void testParallelDefsDiagnostics() throws IOException {
+    var root = Files.createTempDirectory("aya-def-jobs");
+    try {
+      var src = root.resolve("src");
+      Files.createDirectories(src);
+      Files.writeString(root.resolve("aya.json"), """
+        {
+          "ayaVersion": "0.23",
+          "group": "org.aya-prover",
+          "name": "def-jobs",
+          "version": "0.1.0"
+        }
+        """);
+      Files.writeString(src.resolve("Errors.aya"), """
+        open data Nat | zero | suc Nat
+        def one : Nat => suc zero zero
+        def two : Nat => suc one
+        def pred (n : Nat) : Nat
+          | suc n => n
+        def three : Nat => suc {? suc one ?}
+        def four : Nat => suc Nat
+        def five : Nat => suc four
+        def six : Type => zero
+        """);
+      var sequential = diagnostics(root, 1);
+      assertFalse(sequential.isEmpty());
+      assertEquals(sequential, diagnostics(root, 1));
+      assertEquals(sequential, diagnostics(root, 4));
+      assertEquals(sequential, diagnostics(root, 4));
+    } finally {
+      FileUtil.deleteRecursively(root);
+    }
+  }
+
+  @Test public void testHashCons() throws IOException {
+    FileUtil.deleteRecursively(DIR.resolve("build"));
+    var flags = flags(new CompilerFlags.Build(1, 1, true, null));
+    assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, flags, CompilerAdvisor.onDisk(), DIR));
+    // The second time should intern the types loaded from the cache of 'common'.
+    FileUtil.deleteRecursively(DIR.resolve("build").resolve("out"));
+    var compiler = LibraryCompiler.newCompiler(new PrimDef.Factory(), ThrowingReporter.INSTANCE, flags, CompilerAdvisor.onDisk(), DIR);
+    assertEquals(0, compiler.start());
+    var interner = compiler.interner();
+    assertNotNull(interner);
+    // Equal types loaded from different modules are shared
+    assertTrue(interner.hits() > 0);
+    assertTrue(interner.size() > 0);
+  }
+
+  @Test public void testProfile() throws IOException {
+    FileUtil.deleteRecursively(DIR.resolve("build"));
+    var profileDir = DIR.resolve("build").resolve("profile");
+    var flags = flags(new CompilerFlags.Build(1, 1, false, profileDir));
+    assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, flags, CompilerAdvisor.onDisk(), DIR));
+    var trace = Files.readString(profileDir.resolve("tyck-trace.json"));
+    assertTrue(trace.startsWith("{\"displayTimeUnit\""));
+    assertTrue(trace.contains("\"cat\":\"module\""));
+    assertTrue(trace.contains("\"cat\":\"body\""));
+    assertTrue(Files.exists(profileDir.resolve("tyck-stacks.folded")));
+  }
+
+  @Test public void testMapped() throws IOException {
+    FileUtil.deleteRecursively(DIR.resolve("build"));
+    var mapped = CompilerAdvisor.mapped(CompilerAdvisor.onDisk());
+    assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, TestRunner.flags(), mapped, DIR));
+    // A fresh process should find everything in the library caches.
+    var fresh = CompilerAdvisor.mapped(CompilerAdvisor.inMemory());
+    assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, TestRunner.flags(), fresh, DIR));
+    assertEquals(0, compile());
+  }
+
+  @Test public void testCacheCompaction() throws IOException {
+    var outDir = DIR.resolve("build").resolve("cache-compaction");
+    var cache = LibraryCache.of(outDir);
+    cache.clear();
+    var mod = ImmutableSeq.of("Compacted");
+    var ayac = new byte[64 * 1024];
+    for (int i = 0; i < 64; i++) {
+      ayac[0] = (byte) i;
+      cache.append(mod, i, ByteBuffer.wrap(ayac));
+    }
+    // The superseded records are dropped once they take more than the live ones
+    assertTrue(Files.size(outDir.resolve(LibraryCache.FILE_NAME)) < 2 * 1024 * 1024);
+    var cached = cache.lookup(mod);
+    assertNotNull(cached);
+    assertEquals(63, cached.stamp());
+    assertEquals(63, cached.ayac().get(0));
+    cache.remove(mod);
+    assertNull(cache.lookup(mod));
+    cache.clear();
+    // Looked up buffers are copies, so they outlive the file
+    assertEquals(63, cached.ayac().get(0));
+  }
+
+  @Test public void testTouchedButUnchanged() throws IOException {
+    FileUtil.deleteRecursively(DIR.resolve("build"));
+    assertEquals(0, compile());
+    var source = DIR.resolve("src").resolve("SimpleModule.aya");
+    var lastModified = Files.getLastModifiedTime(source);
+    Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+    try {
+      var saved = new AtomicInteger();
+      var advisor = new DelegateCompilerAdvisor(CompilerAdvisor.onDisk()) {
+        @Override public void doSaveCompiledCore(Serializer.@NotNull State serState, @NotNull LibrarySource file, @NotNull ResolveInfo resolveInfo, @NotNull ImmutableSeq<GenericDef> defs) throws IOException {
+          saved.incrementAndGet();
+          super.doSaveCompiledCore(serState, file, resolveInfo, defs);
+        }
+      };
+      assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, TestRunner.flags(), advisor, DIR));
+      assertEquals(0, saved.get());
+    } finally {
+      Files.setLastModifiedTime(source, lastModified);
+    }
+  }
+
+  /** A imports B imports C, where a change to C keeps the interface of B but not the meaning of A */
+  @Test public void testTransitiveCutoff() throws IOException {
+    var root = Files.createTempDirectory("aya-cutoff");
+    try {
+      var src = root.resolve("src");
+      Files.createDirectories(src);
+      Files.writeString(root.resolve("aya.json"), """
+        {
+          "ayaVersion": "0.23",
+          "group": "org.aya-prover",
+          "name": "cutoff",
+          "version": "0.1.0"
+        }
+        """);
+      Files.writeString(src.resolve("C.aya"), """
+        public open data Nat | zero | suc Nat
+        def two : Nat => suc (suc zero)
+        """);
+      Files.writeString(src.resolve("B.aya"), """
+        public open import C
+        def twice : Nat => two
+        """);
+      Files.writeString(src.resolve("A.aya"), """
+        open import B
+        def thrice : Nat => suc twice
+        """);
+      var saved = MutableSet.<String>create();
+      var advisor = new DelegateCompilerAdvisor(CompilerAdvisor.onDisk()) {
+        @Override public void doSaveCompiledCore(Serializer.@NotNull State serState, @NotNull LibrarySource file, @NotNull ResolveInfo resolveInfo, @NotNull ImmutableSeq<GenericDef> defs) throws IOException {
+          saved.add(file.moduleName().joinToString("::"));
+          super.doSaveCompiledCore(serState, file, resolveInfo, defs);
+        }
+      };
+      assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, TestRunner.flags(), advisor, root));
+      assertEquals(MutableSet.of("A", "B", "C"), saved);
+      saved.clear();
+      Files.writeString(src.resolve("C.aya"), """
+        public open data Nat | zero | suc Nat
+        def two : Nat => suc zero
+        """);
+      Files.setLastModifiedTime(src.resolve("C.aya"), FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+      assertEquals(0, LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, TestRunner.flags(), advisor, root));
+      // The interface of B is the same, but A unfolds to the new definition in C
+      assertTrue(saved.contains("A"));
+    } finally {
+      FileUtil.deleteRecursively(root);
+    }
+  }
+
   @Test public void testInMemoryAndPrim() throws IOException {
     var factory = new LspPrimFactory();
     var advisor = new TestAdvisor();
@@ -106,6 +310,12 @@ public class LibraryTest {
 
   public static final Path DIR = TestRunner.DEFAULT_TEST_DIR.resolve("success");
 
+  private static @NotNull CompilerFlags flags(@NotNull CompilerFlags.Build build) {
+    var flags = TestRunner.flags();
+    return new CompilerFlags(flags.message(), flags.interruptedTrace(), flags.remake(),
+      flags.distillInfo(), flags.modulePaths(), flags.outputFile(), build);
+  }
+
   private static int compile() throws IOException {
     return LibraryCompiler.compile(new PrimDef.Factory(), ThrowingReporter.INSTANCE, TestRunner.flags(), CompilerAdvisor.onDisk(), DIR);
   }
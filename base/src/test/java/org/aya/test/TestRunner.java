@@ -90,7 +90,7 @@ public class TestRunner {
   public static @NotNull CompilerFlags flags() {
     var modulePaths = ImmutableSeq.of(
       DEFAULT_TEST_DIR.resolve("success/common/src"));
-    return new CompilerFlags(CompilerFlags.Message.ASCII, false, false, null, modulePaths, null);
+    return new CompilerFlags(CompilerFlags.Message.ASCII, false, false, null, modulePaths, null, CompilerFlags.Build.DEFAULT);
   }
 
   private void postRun(@NotNull Path file, boolean expectSuccess, String output, CountingReporter reporter) {
@@ -0,0 +1,88 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.def.PrimDef;
+import org.aya.core.term.MetaTerm;
+import org.aya.core.term.PiTerm;
+import org.aya.core.term.SortTerm;
+import org.aya.core.term.Term;
+import org.aya.ref.LocalVar;
+import org.aya.tyck.env.MapLocalCtx;
+import org.aya.tyck.unify.Unifier;
+import org.aya.util.Ordering;
+import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.ThrowingReporter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalCtxTest {
+  @Test public void sharedSnapshot() {
+    var x = new LocalVar("x");
+    var y = new LocalVar("y");
+    var ctx = new MapLocalCtx();
+    ctx.put(x, SortTerm.Type0);
+    var first = ctx.freshHole(SortTerm.Type0, SourcePos.NONE)._1;
+    var second = ctx.freshHole(SortTerm.Type0, SourcePos.NONE)._1;
+    assertSame(first.ref().contextTele, second.ref().contextTele);
+    assertSame(first.contextArgs(), second.contextArgs());
+    // A context with nothing in it shares the snapshot of its parent
+    var derived = ctx.deriveMap();
+    assertSame(first.ref().contextTele, derived.freshHole(SortTerm.Type0, SourcePos.NONE)._1.ref().contextTele);
+    derived.put(y, SortTerm.Type0);
+    var inner = derived.freshHole(SortTerm.Type0, SourcePos.NONE)._1;
+    assertEquals(ImmutableSeq.of(y, x), inner.ref().contextTele.map(Term.Param::ref));
+    // The telescope of the parent is shared, not copied
+    assertSame(first.ref().contextTele, derived.snapshot().tele().tail());
+    derived.remove(SeqView.of(y));
+    assertSame(first.ref().contextTele, derived.snapshot().tele());
+    ctx.remove(SeqView.of(x));
+    assertTrue(derived.freshHole(SortTerm.Type0, SourcePos.NONE)._1.ref().contextTele.isEmpty());
+  }
+
+  @Test public void order() {
+    var x = new LocalVar("x");
+    var y = new LocalVar("y");
+    var z = new LocalVar("z");
+    var ctx = new MapLocalCtx();
+    ctx.put(x, SortTerm.Type0);
+    ctx.put(y, SortTerm.Type0);
+    var derived = ctx.deriveSeq();
+    derived.put(z, SortTerm.Type0);
+    var hole = derived.freshHole(SortTerm.Type0, SourcePos.NONE)._1;
+    assertEquals(ImmutableSeq.of(z, x, y), hole.ref().contextTele.map(Term.Param::ref));
+    assertEquals(derived.extract().map(Term.Param::ref), hole.ref().contextTele.map(Term.Param::ref));
+  }
+
+  @Test public void shadowed() {
+    var x = new LocalVar("x");
+    var ctx = new MapLocalCtx();
+    ctx.put(x, SortTerm.Type0);
+    var derived = ctx.deriveSeq();
+    derived.put(x, SortTerm.Set0);
+    var tele = derived.extract();
+    assertEquals(1, tele.size());
+    assertSame(SortTerm.Set0, tele.first().type());
+  }
+
+  @Test public void pruned() {
+    var x = new LocalVar("x");
+    var y = new LocalVar("y");
+    var ctx = new MapLocalCtx();
+    ctx.put(x, SortTerm.Type0);
+    var lhs = ctx.freshHole(SortTerm.Type0, SourcePos.NONE)._1;
+    ctx.put(y, SortTerm.Type0);
+    var rhs = ctx.freshHole(SortTerm.Type0, SourcePos.NONE)._1;
+    var state = new TyckState(new PrimDef.Factory());
+    var unifier = new Unifier(Ordering.Eq, ThrowingReporter.INSTANCE, false, true, null, state, SourcePos.NONE, ctx);
+    // ?lhs x =? (?rhs y x -> ?rhs y x), where ?rhs does not depend on y
+    var pi = new PiTerm(new Term.Param(new LocalVar("_"), rhs, true), rhs);
+    assertTrue(unifier.compare(lhs, pi, SortTerm.Type0));
+    assertTrue(state.metas().get(rhs.ref()) instanceof MetaTerm hole
+      && hole.ref().contextTele.map(Term.Param::ref).equals(ImmutableSeq.of(x)));
+    assertTrue(state.metas().get(lhs.ref()).scopeCheck(ImmutableSeq.of(x)).invalid.isEmpty());
+  }
+}
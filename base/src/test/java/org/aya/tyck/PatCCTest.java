@@ -3,25 +3,32 @@
 package org.aya.tyck;
 
 import kala.collection.immutable.ImmutableSeq;
+import org.aya.concrete.stmt.TeleDecl;
 import org.aya.core.def.FnDef;
 import org.aya.core.def.PrimDef;
 import org.aya.core.pat.Pat;
+import org.aya.core.repr.AyaShape;
 import org.aya.core.term.Term;
 import org.aya.tyck.pat.PatClassifier;
+import org.aya.util.distill.DistillerOptions;
 import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.BufferReporter;
 import org.aya.util.reporter.ThrowingReporter;
 import org.aya.util.tyck.MCT;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 /**
  * CC = coverage and confluence
  */
 public class PatCCTest {
   public static @NotNull ImmutableSeq<MCT.PatClass<Term, PatClassifier.PatErr>> testClassify(@NotNull PrimDef.Factory factory, @NotNull FnDef fnDef) {
-    var clauses = fnDef.body.getRightValue().map(Pat.Preclause::weaken);
+    var clauses = fnDef.body().getRightValue().map(Pat.Preclause::weaken);
     return PatClassifier.classify(clauses, fnDef.telescope, new TyckState(factory), ThrowingReporter.INSTANCE, SourcePos.NONE).toSeq();
   }
 
@@ -68,4 +75,35 @@ public class PatCCTest {
     assertEquals(3, classified.filter(patClass -> patClass.contents().sizeEquals(1)).size());
     assertEquals(1, classified.filter(patClass -> patClass.contents().sizeEquals(2)).size());
   }
+
+  private static @NotNull ImmutableSeq<String> confluenceProblems() {
+    var res = TyckDeclTest.successDesugarDecls("""
+      open data Nat : Type | zero | suc Nat
+      def overlap f (a b : Nat) : Nat
+       | zero, b => zero
+       | a, zero => suc zero
+       | suc a, b => b
+       | a, suc b => a""");
+    var reporter = new BufferReporter();
+    var shapes = new AyaShape.Factory();
+    var tycker = new StmtTycker(reporter, null);
+    res._2.forEach(stmt -> {
+      if (stmt instanceof TeleDecl<?> decl) shapes.bonjour(tycker.tyck(decl, tycker.newTycker(res._1, shapes)), res._1);
+    });
+    return reporter.problems().view()
+      .map(problem -> problem.describe(DistillerOptions.debug()).debugRender())
+      .toImmutableSeq();
+  }
+
+  /** The classes are checked in parallel on a pool, and the problems are reported as if they were not */
+  @Test public void parallelConfluence() throws Exception {
+    var sequential = confluenceProblems();
+    assertFalse(sequential.isEmpty());
+    var pool = new ForkJoinPool(4);
+    try {
+      assertEquals(sequential, pool.submit(PatCCTest::confluenceProblems).get());
+    } finally {
+      pool.shutdown();
+    }
+  }
 }
@@ -31,7 +31,7 @@ public class TyckDeclTest {
   public static GenericDef tyck(@NotNull PrimDef.Factory factory, @NotNull TeleDecl<?> decl, Trace.@Nullable Builder builder, @NotNull AyaShape.Factory shapes) {
     var tycker = new StmtTycker(ThrowingReporter.INSTANCE, builder);
     var def = tycker.tyck(decl, tycker.newTycker(factory, shapes));
-    shapes.bonjour(def);
+    shapes.bonjour(def, factory);
     return def;
   }
 
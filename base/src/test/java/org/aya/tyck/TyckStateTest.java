@@ -0,0 +1,37 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.tyck;
+
+import org.aya.core.def.PrimDef;
+import org.aya.core.term.SortTerm;
+import org.aya.tyck.env.MapLocalCtx;
+import org.aya.tyck.unify.Unifier;
+import org.aya.util.Ordering;
+import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.ThrowingReporter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TyckStateTest {
+  @Test public void wakeUp() {
+    var ctx = new MapLocalCtx();
+    var a = ctx.freshHole(SortTerm.Type0, SourcePos.NONE)._1;
+    var b = ctx.freshHole(SortTerm.Type0, SourcePos.NONE)._1;
+    var state = new TyckState(new PrimDef.Factory());
+    // ?a =? ?b, blocked by both
+    var eqn = new TyckState.Eqn(a, b, Ordering.Eq, SourcePos.NONE, ctx, new Unifier.Sub(), new Unifier.Sub());
+    state.addEqn(eqn);
+    assertTrue(state.blocked().containsKey(a.ref()));
+    assertTrue(state.blocked().containsKey(b.ref()));
+    assertFalse(state.simplify(ThrowingReporter.INSTANCE, null));
+    // ?b =? ?b after solving ?a, which holds
+    state.solve(a.ref(), b);
+    assertTrue(state.simplify(ThrowingReporter.INSTANCE, null));
+    assertTrue(state.eqns().isEmpty());
+    // Not left to be retried again when ?b is solved
+    assertTrue(state.blocked().isEmpty());
+    assertEquals(1, state.counters().postponed());
+    assertEquals(1, state.counters().retried());
+  }
+}
@@ -0,0 +1,28 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+dependencies {
+  val deps: java.util.Properties by rootProject.ext
+  implementation(project(":cli"))
+  val jmhVersion = deps.getProperty("version.jmh")
+  implementation("org.openjdk.jmh", "jmh-core", version = jmhVersion)
+  annotationProcessor("org.openjdk.jmh", "jmh-generator-annprocess", version = jmhVersion)
+}
+
+// Benchmarks are never published
+tasks.withType<AbstractPublishToMaven>().configureEach { enabled = false }
+
+/**
+ * Usage: `./gradlew :benchmarks:jmh -Pjmh=Normalize` where `-Pjmh` is
+ * an optional regex selecting the benchmarks to run.
+ * Results are written to `benchmarks/build/jmh-result.json`.
+ */
+tasks.register<JavaExec>("jmh") {
+  group = "benchmark"
+  description = "Run the JMH benchmarks"
+  classpath = sourceSets.main.get().runtimeClasspath
+  mainClass.set("org.openjdk.jmh.Main")
+  val resultFile = buildDir.resolve("jmh-result.json")
+  doFirst { resultFile.parentFile.mkdirs() }
+  args("-rf", "json", "-rff", resultFile.absolutePath)
+  if (project.hasProperty("jmh")) args(project.property("jmh").toString())
+}
@@ -0,0 +1,86 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.bench;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.control.Option;
+import kala.value.MutableValue;
+import org.aya.cli.parse.AyaParserImpl;
+import org.aya.core.def.FnDef;
+import org.aya.core.def.GenericDef;
+import org.aya.core.def.PrimDef;
+import org.aya.resolve.context.EmptyContext;
+import org.aya.resolve.module.EmptyModuleLoader;
+import org.aya.tyck.TyckState;
+import org.aya.util.error.SourceFile;
+import org.aya.util.reporter.CountingReporter;
+import org.aya.util.reporter.Reporter;
+import org.aya.util.reporter.ThrowingReporter;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+
+/**
+ * Shared setup code for benchmarks. Everything here is meant to be
+ * called from {@code @Setup} methods, never from the measured code.
+ */
+public interface BenchUtil {
+  /** Drops every problem on the floor, but still counts them. */
+  static @NotNull CountingReporter silent() {
+    return CountingReporter.delegate(problem -> {});
+  }
+
+  /**
+   * Parse, resolve and tyck a single module from source code.
+   * Errors are thrown as {@link AssertionError}s.
+   */
+  static @NotNull Tycked tyck(@NotNull String code) {
+    Reporter reporter = ThrowingReporter.INSTANCE;
+    var file = new SourceFile("bench.aya", Option.none(), code);
+    var program = new AyaParserImpl(reporter).program(file);
+    var primFactory = new PrimDef.Factory();
+    var context = new EmptyContext(reporter, Path.of("bench.aya")).derive("bench");
+    var defs = MutableValue.<ImmutableSeq<GenericDef>>create();
+    EmptyModuleLoader.INSTANCE.tyckModule(primFactory, context, program, null,
+      (resolveInfo, tycked) -> defs.set(tycked));
+    return new Tycked(primFactory, defs.get());
+  }
+
+  record Tycked(@NotNull PrimDef.Factory primFactory, @NotNull ImmutableSeq<GenericDef> defs) {
+    public @NotNull TyckState state() {
+      return new TyckState(primFactory);
+    }
+
+    public @NotNull FnDef fn(@NotNull String name) {
+      return (FnDef) defs.find(def -> def.ref().name().equals(name)).get();
+    }
+  }
+
+  /** The church numerals from {@code NormalizeHugeChurch}. */
+  String CHURCH = """
+    def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+    def zero : Num => \\ A f x => x
+    def suc (a : Num) : Num => \\ A f x => a A f (f x)
+    def add (a b : Num) : Num => \\A f x => a A f (b A f x)
+    def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+    def #2 : Num => suc (suc zero)
+    def #4 : Num => mul #2 #2
+    def #16 : Num => mul #4 #4
+    def #256 : Num => add #16 #16
+    def #512 : Num => add #256 #256
+    def #512x : Num => mul #2 #256
+    """;
+
+  /** Unary naturals with recursive arithmetic, unfolded through clauses. */
+  String NAT = """
+    open data Nat : Type | zero | suc Nat
+    def add (a b : Nat) : Nat
+     | zero, b => b
+     | suc a, b => suc (add a b)
+    def mul (a b : Nat) : Nat
+     | zero, b => zero
+     | suc a, b => add b (mul a b)
+    def lhs : Nat => mul 12 13
+    def rhs : Nat => mul 13 12
+    """;
+}
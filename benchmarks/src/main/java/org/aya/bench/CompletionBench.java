@@ -0,0 +1,53 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.bench;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.util.NameIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups in the {@link NameIndex} behind completion, on a synthetic workspace of 100k names
+ * made of a few common words, which share prefixes and trigrams like the names of a real library do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class CompletionBench {
+  private static final String[] WORDS = {
+    "add", "sub", "mul", "nat", "int", "list", "vec", "path", "trans", "sym",
+    "cong", "funExt", "assoc", "comm", "zero", "suc", "map", "fold", "length", "append",
+  };
+
+  @Param({"100000"}) public int size;
+  @Param({"a", "nat-add", "natadd-ass"}) public String query;
+
+  private NameIndex<Integer> index;
+
+  @Setup public void setup() {
+    var random = new Random(42);
+    index = NameIndex.of(ImmutableSeq.fill(size, i -> {
+      var name = new StringBuilder();
+      var words = 2 + random.nextInt(3);
+      for (var w = 0; w < words; w++) {
+        if (w > 0) name.append('-');
+        name.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      return new NameIndex.Entry<>(name.append(i % 10).toString(), i);
+    }));
+  }
+
+  @Benchmark public int prefix() {
+    return index.withPrefix(query).take(200).size();
+  }
+
+  @Benchmark public int fuzzy() {
+    return index.fuzzy(query).size();
+  }
+}
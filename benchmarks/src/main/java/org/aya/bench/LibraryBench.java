@@ -0,0 +1,97 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.bench;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.cli.library.LibraryCompiler;
+import org.aya.cli.library.incremental.CompilerAdvisor;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.core.def.PrimDef;
+import org.aya.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-library builds of a generated library of {@link #modules} modules on {@link #jobs} threads,
+ * see {@link #generate(Path, int)}. A cold build starts from an empty build
+ * directory, a warm build runs on a library that is already up-to-date.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class LibraryBench {
+  @Param({"16", "64"}) public int modules;
+  @Param({"1", "4"}) public int jobs;
+
+  private Path root;
+
+  /**
+   * Module {@code Mod<i>} defines its own unary naturals and imports
+   * {@code Mod<i-1>} and {@code Mod<i/2>}, converting their naturals into its own.
+   * The dependency graph is thus a DAG with both long chains and wide layers.
+   */
+  public static void generate(@NotNull Path root, int modules) throws IOException {
+    FileUtil.writeString(root.resolve("aya.json"), """
+      {
+        "ayaVersion": "0.23",
+        "group": "org.aya-prover",
+        "name": "bench",
+        "version": "0.1"
+      }
+      """);
+    for (int i = 0; i < modules; i++) {
+      var code = new StringBuilder();
+      var deps = i == 0 ? ImmutableSeq.<Integer>empty()
+        : ImmutableSeq.of(i - 1, i / 2).distinct();
+      deps.forEach(j -> code.append("open import Mod").append(j).append('\n'));
+      code.append("""
+        open data N%1$d : Type | z%1$d | s%1$d N%1$d
+        def add%1$d (a b : N%1$d) : N%1$d
+         | z%1$d, b => b
+         | s%1$d a, b => s%1$d (add%1$d a b)
+        def mul%1$d (a b : N%1$d) : N%1$d
+         | z%1$d, b => z%1$d
+         | s%1$d a, b => add%1$d b (mul%1$d a b)
+        """.formatted(i));
+      deps.forEach(j -> code.append("""
+        def conv%1$d_%2$d (a : N%2$d) : N%1$d
+         | z%2$d => z%1$d
+         | s%2$d a => s%1$d (conv%1$d_%2$d a)
+        """.formatted(i, j)));
+      FileUtil.writeString(root.resolve("src").resolve("Mod" + i + ".aya"), code.toString());
+    }
+  }
+
+  public static int build(@NotNull Path root, int jobs) throws IOException {
+    var flags = new CompilerFlags(CompilerFlags.Message.ASCII, false, false, null, ImmutableSeq.empty(), null,
+      new CompilerFlags.Build(jobs, 1, false, null));
+    return LibraryCompiler.compile(new PrimDef.Factory(), BenchUtil.silent(), flags, CompilerAdvisor.onDisk(), root);
+  }
+
+  @Setup(Level.Trial) public void setup() throws IOException {
+    root = Files.createTempDirectory("aya-bench");
+    generate(root, modules);
+    if (build(root, jobs) != 0) throw new IllegalStateException("Generated library does not compile");
+  }
+
+  @TearDown(Level.Trial) public void tearDown() throws IOException {
+    FileUtil.deleteRecursively(root);
+  }
+
+  @Benchmark public int cold() throws IOException {
+    FileUtil.deleteRecursively(root.resolve("build"));
+    return build(root, jobs);
+  }
+
+  @Benchmark public int warm() throws IOException {
+    return build(root, jobs);
+  }
+}
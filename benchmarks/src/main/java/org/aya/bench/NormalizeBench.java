@@ -0,0 +1,43 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.bench;
+
+import org.aya.core.term.Term;
+import org.aya.generic.util.NormalizeMode;
+import org.aya.tyck.TyckState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Term#normalize} on the church numerals and on clause-based unary naturals,
+ * in both {@link NormalizeMode#WHNF} and {@link NormalizeMode#NF}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class NormalizeBench {
+  @Param({"WHNF", "NF"}) public NormalizeMode mode;
+  @Param({"church", "nat"}) public String program;
+
+  private BenchUtil.Tycked tycked;
+  private TyckState state;
+  private Term term;
+
+  @Setup public void setup() {
+    tycked = BenchUtil.tyck(program.equals("church") ? BenchUtil.CHURCH : BenchUtil.NAT);
+    term = tycked.fn(program.equals("church") ? "#512" : "lhs").body().getLeftValue();
+  }
+
+  /** A fresh state for every invocation, so the cached normal forms of the previous one are not reused */
+  @Setup(Level.Invocation) public void reset() {
+    state = tycked.state();
+  }
+
+  @Benchmark public Term normalize() {
+    return term.normalize(state, mode);
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.bench;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.def.FnDef;
+import org.aya.core.pat.Pat;
+import org.aya.tyck.TyckState;
+import org.aya.tyck.pat.PatClassifier;
+import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.ThrowingReporter;
+import org.aya.util.tyck.MCT;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PatClassifier#classify} on a generated function that matches two arguments
+ * of a data type with {@link #ctors} constructors: one clause per diagonal
+ * entry and a catch-all clause at the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class PatClassifyBench {
+  @Param({"8", "32"}) public int ctors;
+
+  private BenchUtil.Tycked tycked;
+  private FnDef diag;
+  private ImmutableSeq<Pat.Preclause<?>> clauses;
+
+  @Setup public void setup() {
+    var code = new StringBuilder("open data D : Type");
+    for (int i = 0; i < ctors; i++) code.append(" | c").append(i);
+    code.append("\ndef diag (a b : D) : D\n");
+    for (int i = 0; i < ctors; i++)
+      code.append(" | c").append(i).append(", c").append(i).append(" => c").append(i).append('\n');
+    code.append(" | _, _ => c0\n");
+    tycked = BenchUtil.tyck(code.toString());
+    diag = tycked.fn("diag");
+    clauses = diag.body().getRightValue().map(Pat.Preclause::weaken);
+  }
+
+  @Benchmark public MCT<?, ?> classify() {
+    return PatClassifier.classify(clauses, diag.telescope,
+      new TyckState(tycked.primFactory()), ThrowingReporter.INSTANCE, SourcePos.NONE);
+  }
+}
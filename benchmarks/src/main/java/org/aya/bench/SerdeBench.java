@@ -0,0 +1,100 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.bench;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.def.GenericDef;
+import org.aya.core.def.PrimDef;
+import org.aya.core.serde.AyacFormat;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.SerDef;
+import org.aya.core.serde.SerTerm;
+import org.aya.core.serde.Serializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Core serialization: {@link Serializer} to {@link SerDef}, {@link SerDef#de} back,
+ * and the encoding of {@code .ayac} files, both in {@link AyacFormat} and in
+ * the Java serialization it replaced. The write benchmarks report the size of the file
+ * as the secondary result {@code bytes}, see {@link Written}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class SerdeBench {
+  @Param({"church", "nat"}) public String program;
+
+  private ImmutableSeq<GenericDef> defs;
+  private ImmutableSeq<SerDef> serDefs;
+  private CompiledAya compiled;
+  private byte[] javaBytes;
+  private ByteBuffer ayacBytes;
+
+  @Setup public void setup() throws IOException {
+    defs = BenchUtil.tyck(program.equals("church") ? BenchUtil.CHURCH : BenchUtil.NAT).defs();
+    serDefs = serialize();
+    compiled = new CompiledAya(ImmutableSeq.empty(), ImmutableSeq.empty(), ImmutableMap.empty(),
+      serDefs, ImmutableSeq.empty(), ImmutableMap.empty());
+    javaBytes = javaEncode();
+    ayacBytes = AyacFormat.encode(compiled);
+  }
+
+  /** Set, not added, by every invocation, so the sum of an iteration is the size of one file */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Written {
+    public long bytes;
+
+    @Setup(Level.Iteration) public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @Benchmark public ImmutableSeq<SerDef> serialize() {
+    var serializer = new Serializer(new Serializer.State());
+    return defs.map(serializer::serialize);
+  }
+
+  @Benchmark public ImmutableSeq<GenericDef> deserialize() {
+    var state = new SerTerm.DeState(new PrimDef.Factory());
+    return serDefs.map(serDef -> serDef.de(state));
+  }
+
+  @Benchmark public byte[] javaWrite(Written written) throws IOException {
+    var bytes = javaEncode();
+    written.bytes = bytes.length;
+    return bytes;
+  }
+
+  private byte[] javaEncode() throws IOException {
+    var out = new ByteArrayOutputStream();
+    try (var oos = new ObjectOutputStream(out)) {
+      oos.writeObject(compiled);
+    }
+    return out.toByteArray();
+  }
+
+  @Benchmark public Object javaRead() throws IOException, ClassNotFoundException {
+    try (var ois = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+      return ois.readObject();
+    }
+  }
+
+  @Benchmark public ByteBuffer ayacWrite(Written written) {
+    var buffer = AyacFormat.encode(compiled);
+    written.bytes = buffer.remaining();
+    return buffer;
+  }
+
+  @Benchmark public CompiledAya ayacRead() {
+    return AyacFormat.decode(ayacBytes.duplicate());
+  }
+}
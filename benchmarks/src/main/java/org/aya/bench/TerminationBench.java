@@ -0,0 +1,57 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.bench;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.util.terck.CallGraph;
+import org.aya.util.terck.CallMatrix;
+import org.aya.util.terck.Diagonal;
+import org.aya.util.terck.Relation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CallGraph#findBadRecursion()} on a synthetic mutual block of {@link #size}
+ * functions, each calling the next one (a ring) and every third one calling back
+ * two steps, all with {@link #arity} parameters. Every call decreases its first
+ * argument and permutes the rest, so the closure has to find a lot of matrices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class TerminationBench {
+  @Param({"8", "16"}) public int size;
+  @Param({"3"}) public int arity;
+
+  private ImmutableSeq<CallMatrix<String, String, Integer>> matrices;
+
+  @Setup public void setup() {
+    var tele = ImmutableSeq.fill(arity, i -> i);
+    matrices = ImmutableSeq.fill(size, i -> i).flatMap(i -> {
+      var caller = "f" + i;
+      var next = matrix(caller, "f" + (i + 1) % size, tele);
+      if (i % 3 != 0) return ImmutableSeq.of(next);
+      return ImmutableSeq.of(next, matrix(caller, "f" + (i + size - 2) % size, tele));
+    });
+  }
+
+  private static CallMatrix<String, String, Integer> matrix(
+    String caller, String callee, ImmutableSeq<Integer> tele
+  ) {
+    var matrix = new CallMatrix<>(caller + "->" + callee, caller, callee, tele, tele);
+    matrix.set(0, 0, Relation.lt());
+    for (int i = 1; i < tele.size(); i++)
+      matrix.set(i, i % (tele.size() - 1) + 1, Relation.eq());
+    return matrix;
+  }
+
+  @Benchmark public ImmutableSeq<Diagonal<String, String, Integer>> findBadRecursion() {
+    var graph = CallGraph.<String, String, Integer>create();
+    matrices.forEach(graph::put);
+    return graph.findBadRecursion();
+  }
+}
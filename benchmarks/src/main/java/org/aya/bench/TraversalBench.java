@@ -0,0 +1,72 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.bench;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.core.term.RefTerm;
+import org.aya.core.term.Term;
+import org.aya.core.term.TupTerm;
+import org.aya.core.visitor.EndoTerm;
+import org.aya.core.visitor.Subst;
+import org.aya.core.visitor.TermWalker;
+import org.aya.ref.LocalVar;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Substitution by {@link TermWalker} against the recursive traversal it replaces,
+ * on a chain of nested tuples, which is as deep as it is large,
+ * and on a balanced tree of tuples, which is traversed recursively by both.
+ * The variable to substitute is at the leaves, so every tuple is rebuilt.
+ * The recursive traversal needs a large stack for the deep chains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xss512m"})
+public class TraversalBench {
+  @Param({"chain", "tree"}) public String shape;
+  @Param({"64", "4096", "65536"}) public int size;
+
+  private Term term;
+  private EndoTerm substituter;
+
+  @Setup public void setup() {
+    var x = new LocalVar("x");
+    var leaf = new RefTerm(x);
+    term = shape.equals("chain") ? chain(leaf, size) : tree(leaf, size);
+    substituter = new EndoTerm.Substituter(new Subst(x, new RefTerm(new LocalVar("y"))));
+  }
+
+  private static @NotNull Term chain(@NotNull Term leaf, int size) {
+    var term = leaf;
+    for (var i = 0; i < size; i++) term = new TupTerm(ImmutableSeq.of(term));
+    return term;
+  }
+
+  private static @NotNull Term tree(@NotNull Term leaf, int size) {
+    if (size <= 1) return leaf;
+    return new TupTerm(ImmutableSeq.of(tree(leaf, size / 2), tree(leaf, size - size / 2)));
+  }
+
+  /** What {@link EndoTerm#apply} did before {@link TermWalker}. */
+  private static @NotNull Term recursive(@NotNull EndoTerm endo, @NotNull Term term) {
+    var entered = endo.enter(term);
+    if (entered != null) return entered;
+    var node = endo.pre(term).descent(t -> recursive(endo, t));
+    var reduct = endo.reduce(node);
+    return endo.exit(term, reduct == null ? endo.post(node) : recursive(endo, reduct));
+  }
+
+  @Benchmark public Term walker() {
+    return substituter.apply(term);
+  }
+
+  @Benchmark public Term recursive() {
+    return recursive(substituter, term);
+  }
+}
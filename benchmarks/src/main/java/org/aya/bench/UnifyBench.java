@@ -0,0 +1,52 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.bench;
+
+import org.aya.core.term.Term;
+import org.aya.tyck.TyckState;
+import org.aya.tyck.env.MapLocalCtx;
+import org.aya.tyck.unify.Unifier;
+import org.aya.util.Ordering;
+import org.aya.util.error.SourcePos;
+import org.aya.util.reporter.ThrowingReporter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Unifier#compare} on two convertible but syntactically different terms,
+ * so that the comparison has to unfold definitions on both sides.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class UnifyBench {
+  @Param({"church", "nat"}) public String program;
+
+  private BenchUtil.Tycked tycked;
+  private TyckState state;
+  private Term lhs, rhs, type;
+
+  @Setup public void setup() {
+    var church = program.equals("church");
+    tycked = BenchUtil.tyck(church ? BenchUtil.CHURCH : BenchUtil.NAT);
+    var lhsDef = tycked.fn(church ? "#512" : "lhs");
+    lhs = lhsDef.body().getLeftValue();
+    rhs = tycked.fn(church ? "#512x" : "rhs").body().getLeftValue();
+    type = lhsDef.result;
+  }
+
+  /** A fresh state for every invocation, so the cached normal forms of the previous one are not reused */
+  @Setup(Level.Invocation) public void reset() {
+    state = tycked.state();
+  }
+
+  @Benchmark public boolean compare() {
+    var unifier = new Unifier(Ordering.Eq, ThrowingReporter.INSTANCE, false, false,
+      null, state, SourcePos.NONE, new MapLocalCtx());
+    return unifier.compare(lhs, rhs, type);
+  }
+}
@@ -76,11 +76,12 @@ public class Main extends MainArgs implements Callable<Integer> {
     var flags = new CompilerFlags(message, interruptedTrace,
       compile.isRemake, distillation,
       modulePaths().view().map(Paths::get),
-      outputPath);
+      outputPath, new CompilerFlags.Build(compile.jobs, compile.defJobs, compile.hashCons,
+        compile.profileDir == null ? null : Paths.get(compile.profileDir)));
 
     if (compile.isLibrary || compile.isRemake || compile.isNoCode) {
       // TODO: move to a new tool
-      var advisor = compile.isNoCode ? CompilerAdvisor.inMemory() : CompilerAdvisor.onDisk();
+      var advisor = compile.isNoCode ? CompilerAdvisor.inMemory() : CompilerAdvisor.mapped(CompilerAdvisor.onDisk());
       return LibraryCompiler.compile(new PrimDef.Factory(), reporter, flags, advisor, filePath);
     }
     var traceBuilder = enableTrace ? new Trace.Builder() : null;
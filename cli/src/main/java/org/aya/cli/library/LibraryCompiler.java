@@ -16,24 +16,32 @@ import org.aya.concrete.stmt.QualifiedID;
 import org.aya.concrete.stmt.Stmt;
 import org.aya.concrete.stmt.TeleDecl;
 import org.aya.core.def.PrimDef;
+import org.aya.core.visitor.TermInterner;
 import org.aya.generic.util.InternalException;
 import org.aya.generic.util.InterruptException;
 import org.aya.resolve.context.Context;
 import org.aya.resolve.error.NameProblem;
 import org.aya.resolve.module.CachedModuleLoader;
 import org.aya.resolve.module.ModuleLoader;
+import org.aya.tyck.order.ReusableDefs;
+import org.aya.tyck.trace.Profiler;
 import org.aya.util.StringUtil;
 import org.aya.util.reporter.CountingReporter;
+import org.aya.util.reporter.DelayedReporter;
 import org.aya.util.reporter.Reporter;
 import org.aya.util.terck.MutableGraph;
 import org.aya.util.tyck.OrgaTycker;
+import org.aya.util.tyck.ParallelSccTycker;
 import org.aya.util.tyck.SCCTycker;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author kiva
@@ -61,7 +69,10 @@ public class LibraryCompiler {
     @NotNull CompilerAdvisor advisor,
     @NotNull LibraryOwner owner
   ) {
-    return new LibraryCompiler(reporter, flags, owner, advisor, new LibraryModuleLoader.United(primFactory));
+    var interner = flags.build().hashCons() ? new TermInterner() : null;
+    var profiler = flags.build().profileDir() != null ? new Profiler() : null;
+    return new LibraryCompiler(reporter, flags, owner, advisor,
+      new LibraryModuleLoader.United(primFactory, interner, profiler, flags.build().defJobs()));
   }
 
   public static @NotNull LibraryCompiler newCompiler(
@@ -140,12 +151,32 @@ public class LibraryCompiler {
     return depGraph;
   }
 
+  /** @return the interner shared by the libraries being compiled, null if not hash-consing */
+  public @Nullable TermInterner interner() {
+    return moduleLoader.loader.states().de().interner();
+  }
+
   public int start() throws IOException {
     if (flags.modulePaths().isNotEmpty()) reporter.reportString(
       "Warning: command-line specified module path is ignored when compiling libraries.");
     if (flags.distillInfo() != null) reporter.reportString(
       "Warning: command-line specified distill info is ignored when compiling libraries.");
-    return AyaCompiler.catching(reporter, flags, this::make);
+    var status = AyaCompiler.catching(reporter, flags, this::make);
+    var profiler = moduleLoader.loader.states().profiler();
+    if (profiler != null) writeProfile(profiler);
+    return status;
+  }
+
+  /** Writes the profile, see {@link Profiler}, which covers the dependencies as well. */
+  private void writeProfile(@NotNull Profiler profiler) throws IOException {
+    var dir = flags.build().profileDir();
+    assert dir != null;
+    Files.createDirectories(dir);
+    var trace = dir.resolve("tyck-trace.json");
+    var stacks = dir.resolve("tyck-stacks.folded");
+    Files.writeString(trace, profiler.chromeTrace());
+    Files.writeString(stacks, profiler.collapsedStacks());
+    reporter.reportString("Profile written to " + trace + " and " + stacks);
   }
 
   /**
@@ -190,7 +221,8 @@ public class LibraryCompiler {
    * @return whether the library is up-to-date.
    */
   private boolean make(@NotNull ImmutableSeq<LibrarySource> modified) throws IOException {
-    // modified sources need reparse
+    // modified sources need reparse, but definitions whose source is unchanged can be reused
+    modified.forEach(this::captureReusable);
     modified.forEach(this::clearModified);
     var depGraph = resolveImports();
     var affected = collectAffected(modified, depGraph);
@@ -209,8 +241,17 @@ public class LibraryCompiler {
     advisor.prepareLibraryOutput(owner);
     advisor.notifyIncrementalJob(modified, SCCs);
 
-    var tycker = new LibraryOrgaTycker(new LibrarySccTycker(reporter, moduleLoader, advisor), affected);
-    SCCs.forEachChecked(tycker::tyckSCC);
+    var cutoff = new EarlyCutoff(modified, ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet());
+    var tycker = new LibraryOrgaTycker(new LibrarySccTycker(reporter, moduleLoader, advisor, cutoff), affected);
+    if (flags.build().jobs() > 1) {
+      try {
+        ParallelSccTycker.<LibrarySource, IOException>create(flags.build().jobs(), SCCs, affected,
+          scc -> tyckSCCInParallel(tycker, scc)).run();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for modules to compile");
+      }
+    } else SCCs.forEachChecked(tycker::tyckSCC);
     if (tycker.skippedSet.isNotEmpty()) {
       reporter.reportString("I dislike the following module(s):");
       tycker.skippedSet.forEach(f ->
@@ -223,6 +264,37 @@ public class LibraryCompiler {
     return false;
   }
 
+  /**
+   * Same as {@link LibraryOrgaTycker#tyckSCC}, but safe to call from several threads.
+   * Each call uses its own reporter, whose problems are reported together at the end,
+   * and its own module loader, which shares the cache with {@link #moduleLoader}.
+   */
+  private void tyckSCCInParallel(
+    @NotNull LibraryOrgaTycker tycker,
+    @NotNull ImmutableSeq<LibrarySource> scc
+  ) throws IOException {
+    ImmutableSeq<LibrarySource> todo;
+    synchronized (tycker) {
+      todo = scc.filterNot(tycker.skippedSet()::contains);
+    }
+    if (todo.isEmpty()) return;
+    var delayed = new DelayedReporter(reporter);
+    var counting = CountingReporter.delegate(delayed);
+    var loader = moduleLoader.fork(new LibraryModuleLoader(counting, owner, advisor, moduleLoader.loader.states()));
+    var failed = ImmutableSeq.<LibrarySource>empty();
+    try {
+      failed = new LibrarySccTycker(counting, loader, advisor, tycker.sccTycker().cutoff()).tyckSCC(todo);
+      synchronized (tycker) {
+        tycker.skip(failed);
+      }
+    } finally {
+      synchronized (reporter) {
+        delayed.reportNow();
+        if (failed.isNotEmpty()) reporter.clear();
+      }
+    }
+  }
+
   private void reparseAffected(@NotNull LibrarySource src) throws IOException {
     if (src.tycked().get() == null) return;
     src.tycked().set(null);
@@ -231,11 +303,19 @@ public class LibraryCompiler {
     parse(src);
   }
 
+  private void captureReusable(@NotNull LibrarySource src) {
+    var resolveInfo = src.resolveInfo().get();
+    var tycked = src.tycked().get();
+    src.reusable().set(resolveInfo != null && tycked != null ? ReusableDefs.capture(resolveInfo, tycked) : null);
+  }
+
   private void clearModified(@NotNull LibrarySource src) {
     clearPrimitives(src.program().get());
     src.program().set(null);
     src.tycked().set(null);
     src.resolveInfo().set(null);
+    src.clearIndices();
+    src.owner().defIndex().set(null);
     src.imports().clear();
   }
 
@@ -299,24 +379,69 @@ public class LibraryCompiler {
     }
   }
 
+  /**
+   * Affected sources are only recompiled if some of their imports, direct or transitive,
+   * changed their interface in this build, see {@link CompilerAdvisor#interfaceHash}.
+   * The interface hash of a module does not cover the ones of its imports,
+   * whose definitions its own definitions may unfold to.
+   *
+   * @param modified   sources modified by the user, always recompiled
+   * @param changed    recompiled sources whose interface hash changed
+   * @param recompiled sources recompiled in this build, whose definitions are new
+   */
+  record EarlyCutoff(
+    @NotNull ImmutableSeq<LibrarySource> modified,
+    @NotNull Set<LibrarySource> changed,
+    @NotNull Set<LibrarySource> recompiled
+  ) {
+    public boolean canSkip(@NotNull ImmutableSeq<LibrarySource> scc, @NotNull CompilerAdvisor advisor) {
+      return scc.allMatch(f -> !modified.contains(f)
+        && !importsChanged(f, MutableSet.create())
+        && advisor.interfaceHash(f) != null);
+    }
+
+    private boolean importsChanged(@NotNull LibrarySource file, @NotNull MutableSet<LibrarySource> visited) {
+      return file.imports().anyMatch(i -> visited.add(i)
+        && (changed.contains(i) || importsChanged(i, visited)));
+    }
+  }
+
   record LibrarySccTycker(
     @NotNull CountingReporter reporter,
     @NotNull ModuleLoader moduleLoader,
-    @NotNull CompilerAdvisor advisor
+    @NotNull CompilerAdvisor advisor,
+    @NotNull EarlyCutoff cutoff
   ) implements SCCTycker<LibrarySource, IOException> {
     @Override
     public @NotNull ImmutableSeq<LibrarySource> tyckSCC(@NotNull ImmutableSeq<LibrarySource> order) throws IOException {
+      if (cutoff.canSkip(order, advisor)) {
+        for (var f : order) reporter.reportNest("[Skip] %s (interfaces of imports unchanged)"
+          .formatted(QualifiedID.join(f.moduleName())), LibraryOwner.DEFAULT_INDENT);
+        return ImmutableSeq.empty();
+      }
+      var before = order.map(advisor::interfaceHash);
       for (var f : order) advisor.clearModuleOutput(f);
+      cutoff.recompiled.addAll(order.asJava());
       for (var f : order) {
+        // Reused definitions refer to definitions of imports, which must be the same as before
+        if (importsRecompiled(f, MutableSet.create())) f.reusable().set(null);
         tyckOne(f);
         if (reporter.anyError()) {
           reporter.clear();
           return ImmutableSeq.of(f);
         }
       }
+      order.forEachWith(before, (f, hash) -> {
+        if (hash == null || !hash.equals(advisor.interfaceHash(f))) cutoff.changed.add(f);
+      });
       return ImmutableSeq.empty();
     }
 
+    private boolean importsRecompiled(@NotNull LibrarySource file, @NotNull MutableSet<LibrarySource> visited) {
+      return file.imports().anyMatch(i -> visited.add(i)
+        && (cutoff.recompiled.contains(i) || importsRecompiled(i, visited)));
+    }
+
     private void tyckOne(@NotNull LibrarySource file) {
       var moduleName = file.moduleName();
       reporter.reportNest("[Tyck] %s (%s)".formatted(
@@ -10,11 +10,14 @@ import org.aya.core.def.GenericDef;
 import org.aya.core.def.PrimDef;
 import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
+import org.aya.core.visitor.TermInterner;
 import org.aya.generic.util.AyaFiles;
 import org.aya.resolve.ResolveInfo;
 import org.aya.resolve.context.EmptyContext;
 import org.aya.resolve.module.FileModuleLoader;
 import org.aya.resolve.module.ModuleLoader;
+import org.aya.tyck.order.ReusableDefs;
+import org.aya.tyck.trace.Profiler;
 import org.aya.util.reporter.CountingReporter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -67,6 +70,7 @@ record LibraryModuleLoader(
     if (tryCore != null) {
       // the core file was found and up-to-date.
       source.resolveInfo().set(tryCore);
+      source.clearIndices();
       return tryCore;
     }
 
@@ -76,8 +80,14 @@ record LibraryModuleLoader(
     var context = new EmptyContext(reporter(), sourcePath).derive(mod);
     var resolveInfo = resolveModule(states.primFactory, context, program, recurseLoader);
     source.resolveInfo().set(resolveInfo);
-    return tyckModule(null, resolveInfo, (moduleResolve, defs) -> {
+    source.clearIndices();
+    var reusable = source.reusable().get();
+    source.reusable().set(null);
+    var options = new TyckOptions(reusable == null ? ReusableDefs.EMPTY : reusable, states.profiler, states.defJobs);
+    return tyckModule(null, resolveInfo, options, (moduleResolve, defs) -> {
       source.tycked().set(defs);
+      source.owner().defIndex().set(null);
+      defs.forEach(states.de::register);
       if (reporter().noError()) saveCompiledCore(source, moduleResolve, defs);
     });
   }
@@ -97,9 +107,21 @@ record LibraryModuleLoader(
     advisor.saveCompiledCore(states.ser, file, resolveInfo, defs);
   }
 
-  record United(@NotNull SerTerm.DeState de, @NotNull Serializer.State ser, @NotNull PrimDef.Factory primFactory) {
-    public United(@NotNull PrimDef.Factory primFactory) {
-      this(new SerTerm.DeState(primFactory), new Serializer.State(), primFactory);
+  /**
+   * Every component is safe for concurrent use, see {@link LibraryCompiler}'s parallel build.
+   *
+   * @param profiler shared by the libraries being compiled, null if not profiling
+   * @param defJobs  the number of definitions of a module to check in parallel
+   */
+  record United(
+    @NotNull SerTerm.DeState de, @NotNull Serializer.State ser,
+    @NotNull PrimDef.Factory primFactory, @Nullable Profiler profiler, int defJobs
+  ) {
+    public United(
+      @NotNull PrimDef.Factory primFactory, @Nullable TermInterner interner,
+      @Nullable Profiler profiler, int defJobs
+    ) {
+      this(new SerTerm.DeState(primFactory, interner), new Serializer.State(), primFactory, profiler, defJobs);
     }
   }
 }
@@ -35,10 +35,25 @@ public interface CompilerAdvisor {
   static @NotNull CompilerAdvisor inMemory() {
     return new InMemoryCompilerAdvisor();
   }
+  /** @see MappedCompilerAdvisor */
+  static @NotNull CompilerAdvisor mapped(@NotNull CompilerAdvisor delegate) {
+    return new MappedCompilerAdvisor(delegate);
+  }
 
   boolean isSourceModified(@NotNull LibrarySource source);
   void updateLastModified(@NotNull LibrarySource source);
 
+  /**
+   * Used for early cutoff: users of a recompiled module are not recompiled
+   * if the interface hash of its compiled core is unchanged.
+   *
+   * @return the interface hash of the compiled core, null if unknown
+   * @see org.aya.core.serde.AyacFormat.Fingerprint
+   */
+  default @Nullable String interfaceHash(@NotNull LibrarySource source) {
+    return null;
+  }
+
   void prepareLibraryOutput(@NotNull LibraryOwner owner) throws IOException;
   void clearLibraryOutput(@NotNull LibraryOwner owner) throws IOException;
   void clearModuleOutput(@NotNull LibrarySource source) throws IOException;
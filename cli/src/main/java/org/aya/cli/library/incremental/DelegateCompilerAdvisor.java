@@ -38,6 +38,10 @@ public class DelegateCompilerAdvisor implements CompilerAdvisor {
     delegate.updateLastModified(source);
   }
 
+  @Override public @Nullable String interfaceHash(@NotNull LibrarySource source) {
+    return delegate.interfaceHash(source);
+  }
+
   @Override public void prepareLibraryOutput(@NotNull LibraryOwner owner) throws IOException {
     delegate.prepareLibraryOutput(owner);
   }
@@ -7,7 +7,7 @@ import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
 import org.aya.cli.utils.AyaCompiler;
 import org.aya.core.def.GenericDef;
-import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.AyacFormat;
 import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
 import org.aya.resolve.ResolveInfo;
@@ -19,6 +19,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
@@ -27,13 +28,25 @@ public class DiskCompilerAdvisor implements CompilerAdvisor {
     try {
       var core = source.compiledCorePath();
       if (!Files.exists(core)) return true;
-      return Files.getLastModifiedTime(source.underlyingFile())
-        .compareTo(Files.getLastModifiedTime(core)) > 0;
+      // Written by an older version of Aya
+      var fingerprint = AyacFormat.fingerprint(core);
+      if (fingerprint == null) return true;
+      if (Files.getLastModifiedTime(source.underlyingFile())
+        .compareTo(Files.getLastModifiedTime(core)) <= 0) return false;
+      // Touched but not changed, e.g. by a `git checkout`
+      if (!fingerprint.sourceHash().equals(AyacFormat.hash(source.underlyingFile()))) return true;
+      updateLastModified(source);
+      return false;
     } catch (IOException ignore) {
       return true;
     }
   }
 
+  @Override public @Nullable String interfaceHash(@NotNull LibrarySource source) {
+    var fingerprint = AyacFormat.fingerprint(source.compiledCorePath());
+    return fingerprint == null ? null : fingerprint.interfaceHash();
+  }
+
   @Override public void updateLastModified(@NotNull LibrarySource source) {
     try {
       var core = source.compiledCorePath();
@@ -61,15 +74,13 @@ public class DiskCompilerAdvisor implements CompilerAdvisor {
     @Nullable Path sourcePath,
     @Nullable Path corePath,
     @NotNull ModuleLoader recurseLoader
-  ) throws IOException, ClassNotFoundException {
+  ) throws IOException {
     if (corePath == null || sourcePath == null) return null;
     if (!Files.exists(corePath)) return null;
 
     var context = new EmptyContext(reporter, sourcePath).derive(mod);
-    try (var inputStream = FileUtil.ois(corePath)) {
-      var compiledAya = (CompiledAya) inputStream.readObject();
-      return compiledAya.toResolveInfo(recurseLoader, context, deState);
-    }
+    var compiledAya = AyacFormat.read(corePath);
+    return compiledAya.toResolveInfo(recurseLoader, context, deState);
   }
 
   @Override public void doSaveCompiledCore(
@@ -79,6 +90,11 @@ public class DiskCompilerAdvisor implements CompilerAdvisor {
     @NotNull ImmutableSeq<GenericDef> defs
   ) throws IOException {
     var coreFile = file.compiledCorePath();
-    AyaCompiler.saveCompiledCore(coreFile, resolveInfo, defs, serState);
+    AyaCompiler.saveCompiledCore(coreFile, file.underlyingFile(), resolveInfo, defs, serState);
+  }
+
+  /** Writes a core already encoded, see {@link MappedCompilerAdvisor#doSaveCompiledCore} */
+  void writeCompiledCore(@NotNull LibrarySource file, @NotNull ByteBuffer ayac) throws IOException {
+    AyacFormat.write(file.compiledCorePath(), ayac);
   }
 }
@@ -0,0 +1,245 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.cli.library.incremental;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableArrayList;
+import kala.collection.mutable.MutableMap;
+import org.aya.core.serde.AyacFormat;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of the compiled modules of one library (that is, one out dir),
+ * see {@link MappedCompilerAdvisor}.
+ * The file is memory-mapped read-only, so any number of processes can read it at once,
+ * and appending to it is guarded by a file lock.
+ * <pre>
+ * file    ::= MAGIC version:i32 epoch:i64 record*
+ * record  ::= length:i32 crc32:i32 payload
+ * payload ::= stamp:i64 count:i32 (length:i32 utf8)* ayac
+ * </pre>
+ * The last record of a module wins, and a record with {@link #TOMBSTONE} as stamp removes it.
+ * A torn record at the end (e.g. the writer is killed) fails the checksum and is ignored,
+ * then overwritten by the next append.
+ * <p>
+ * The file never shrinks in place, because reading the pages of a mapped file past its end
+ * faults in every process mapping it. Instead, when most of it is superseded records,
+ * the live ones are compacted into a new file with another epoch, which atomically replaces it.
+ * Processes still mapping the old file keep reading it until they see the new epoch.
+ */
+public final class LibraryCache {
+  public static final @NotNull String FILE_NAME = "library.ayal";
+  /** {@code AYAL} in ASCII */
+  private static final int MAGIC = 0x4159414C;
+  private static final int HEADER = 16;
+  private static final long TOMBSTONE = -1;
+  /** The superseded records are compacted when they take more than this and more than the live ones */
+  private static final long COMPACT_THRESHOLD = 1 << 20;
+  private static final @NotNull ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+  /** One instance per file, because file locks are held by the whole JVM */
+  private static final @NotNull ConcurrentHashMap<Path, LibraryCache> OPENED = new ConcurrentHashMap<>();
+
+  /** @param start of the record, @param end of the record, @param offset of the ayac in the record */
+  private record Entry(long stamp, long start, long end, long offset) {}
+
+  /** @param stamp the last modified time of the source, when the module was compiled */
+  public record Cached(long stamp, @NotNull ByteBuffer ayac) {}
+
+  private final @NotNull Path file;
+  private final @NotNull MutableMap<ImmutableSeq<String>, Entry> index = MutableMap.create();
+  private @Nullable MemorySession session;
+  private @Nullable MemorySegment mapped;
+  /** The epoch of the file indexed, or 0 if none is */
+  private long epoch = 0;
+  /** End of the last valid record, or 0 if the header is not checked yet */
+  private long scanned = 0;
+
+  private LibraryCache(@NotNull Path file) {
+    this.file = file;
+  }
+
+  public static @NotNull LibraryCache of(@NotNull Path outDir) {
+    var file = outDir.toAbsolutePath().normalize().resolve(FILE_NAME);
+    return OPENED.computeIfAbsent(file, LibraryCache::new);
+  }
+
+  /**
+   * @return the .ayac content of the module, no matter when it was compiled,
+   * copied out of the mapped file, so that it stays valid after the file is unmapped
+   */
+  public synchronized @Nullable Cached lookup(@NotNull ImmutableSeq<String> mod) throws IOException {
+    refresh();
+    var entry = index.getOrNull(mod);
+    if (entry == null || mapped == null) return null;
+    var ayac = mapped.asSlice(entry.offset, entry.end - entry.offset).toArray(ValueLayout.JAVA_BYTE);
+    return new Cached(entry.stamp, ByteBuffer.wrap(ayac));
+  }
+
+  public void append(@NotNull ImmutableSeq<String> mod, long stamp, @NotNull ByteBuffer ayac) throws IOException {
+    var names = mod.map(name -> name.getBytes(StandardCharsets.UTF_8));
+    var payload = ByteBuffer.allocate(12 + names.foldLeft(0, (size, name) -> size + 4 + name.length) + ayac.remaining());
+    payload.putLong(stamp).putInt(names.size());
+    names.forEach(name -> payload.putInt(name.length).put(name));
+    payload.put(ayac.duplicate()).flip();
+    var crc = new CRC32();
+    crc.update(payload.duplicate());
+    var record = ByteBuffer.allocate(8 + payload.remaining())
+      .putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload).flip();
+    synchronized (this) {
+      Files.createDirectories(file.getParent());
+      while (true) {
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             var ignored = channel.lock()) {
+          // Replaced by another process while waiting for the lock
+          if (replaced(channel)) continue;
+          refresh();
+          if (scanned == 0) {
+            // Missing or incompatible header, so there are no valid records to keep
+            replace(ImmutableSeq.empty());
+            continue;
+          }
+          write(channel, record.duplicate(), scanned);
+          refresh();
+          if (shouldCompact()) replace(index.valuesView().toImmutableSeq());
+          return;
+        }
+      }
+    }
+  }
+
+  public void remove(@NotNull ImmutableSeq<String> mod) throws IOException {
+    if (has(mod)) append(mod, TOMBSTONE, ByteBuffer.allocate(0));
+  }
+
+  private synchronized boolean has(@NotNull ImmutableSeq<String> mod) throws IOException {
+    refresh();
+    return index.containsKey(mod);
+  }
+
+  /**
+   * Unmaps the file before deleting it, which fails on some platforms while it is mapped.
+   * Buffers already returned by {@link #lookup} are copies, so they stay valid.
+   */
+  public synchronized void clear() throws IOException {
+    reset(0);
+    Files.deleteIfExists(file);
+  }
+
+  private static long write(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) position += channel.write(buffer, position);
+    return position;
+  }
+
+  /** @return the epoch in the header of the file, or 0 if it is missing or incompatible */
+  private static long epoch(@NotNull FileChannel channel) throws IOException {
+    var header = ByteBuffer.allocate(HEADER);
+    while (header.hasRemaining()) if (channel.read(header, header.position()) < 0) break;
+    header.flip();
+    if (header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != AyacFormat.VERSION) return 0;
+    return header.getLong();
+  }
+
+  /** @return whether the file is no longer the one opened as the channel */
+  private boolean replaced(@NotNull FileChannel channel) throws IOException {
+    try (var current = FileChannel.open(file, StandardOpenOption.READ)) {
+      return epoch(channel) != epoch(current);
+    } catch (NoSuchFileException e) {
+      return true;
+    }
+  }
+
+  private boolean shouldCompact() {
+    var live = index.valuesView().foldLeft(0L, (size, entry) -> size + entry.end - entry.start);
+    var superseded = scanned - HEADER - live;
+    return superseded > COMPACT_THRESHOLD && superseded > live;
+  }
+
+  /**
+   * Writes the records of the entries to a new file with a new epoch, which atomically replaces the file.
+   * Must be called holding the lock of the file.
+   */
+  private void replace(@NotNull ImmutableSeq<Entry> entries) throws IOException {
+    var temp = file.resolveSibling(FILE_NAME + ".tmp");
+    try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      var epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+      var position = write(channel, ByteBuffer.allocate(HEADER)
+        .putInt(MAGIC).putInt(AyacFormat.VERSION).putLong(epoch).flip(), 0);
+      for (var entry : entries) {
+        assert mapped != null;
+        position = write(channel, mapped.asSlice(entry.start, entry.end - entry.start).asByteBuffer(), position);
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    refresh();
+  }
+
+  /** Unmaps the file, and forgets the records of it unless it has the given epoch. */
+  private void reset(long epoch) {
+    if (session != null) session.close();
+    session = null;
+    mapped = null;
+    if (epoch != this.epoch) {
+      this.epoch = epoch;
+      scanned = 0;
+      index.clear();
+    }
+  }
+
+  /** Maps the file again if it has grown or been replaced, and indexes the new records. */
+  private void refresh() throws IOException {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      var size = channel.size();
+      var epoch = epoch(channel);
+      if (mapped != null && epoch == this.epoch && size == mapped.byteSize()) return;
+      reset(epoch);
+      if (epoch == 0) return;
+      session = MemorySession.openShared();
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, session);
+    } catch (NoSuchFileException e) {
+      reset(0);
+      return;
+    }
+    if (scanned == 0) scanned = HEADER;
+    var size = mapped.byteSize();
+    while (scanned + 8 <= size) {
+      var length = mapped.get(INT, scanned);
+      var end = scanned + 8 + length;
+      if (length < 12 || end > size) break;
+      var payload = mapped.asSlice(scanned + 8, length).asByteBuffer();
+      var crc = new CRC32();
+      crc.update(payload.duplicate());
+      if ((int) crc.getValue() != mapped.get(INT, scanned + 4)) break;
+      var stamp = payload.getLong();
+      var count = payload.getInt();
+      var mod = MutableArrayList.<String>create(count);
+      for (int i = 0; i < count; i++) {
+        var name = new byte[payload.getInt()];
+        payload.get(name);
+        mod.append(new String(name, StandardCharsets.UTF_8));
+      }
+      var key = mod.toImmutableSeq();
+      if (stamp == TOMBSTONE) index.remove(key);
+      else index.put(key, new Entry(stamp, scanned, end, scanned + 8 + payload.position()));
+      scanned = end;
+    }
+  }
+}
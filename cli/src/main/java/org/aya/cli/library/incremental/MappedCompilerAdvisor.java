@@ -0,0 +1,167 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.cli.library.incremental;
+
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.core.def.GenericDef;
+import org.aya.core.serde.AyacFormat;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.SerTerm;
+import org.aya.core.serde.Serializer;
+import org.aya.resolve.ResolveInfo;
+import org.aya.resolve.context.EmptyContext;
+import org.aya.resolve.module.ModuleLoader;
+import org.aya.util.reporter.Reporter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Looks up compiled cores in the {@link LibraryCache} of each library before asking the delegate,
+ * so that processes loading the same libraries (the CLI and the language server)
+ * share one memory-mapped file per library instead of reading every .ayac file.
+ * The REPL remakes the libraries it loads, which would clear the cache, so it does not use this.
+ * A cached module is up-to-date if the last modified time of its source is the one it is cached with,
+ * or else the content hash of the source is the one in its core, as files may be touched but not changed.
+ * Cores saved, and cores loaded by the delegate, are appended to the cache, so that the next process can use them.
+ */
+public class MappedCompilerAdvisor extends DelegateCompilerAdvisor {
+  /**
+   * Sources found up-to-date in the cache, used when the loader cannot find the core file
+   * of a dependency, as the delegate may keep cores in memory.
+   */
+  private final @NotNull ConcurrentHashMap<ImmutableSeq<String>, Cached> upToDate = new ConcurrentHashMap<>();
+
+  private record Cached(@NotNull Path outDir, @NotNull Path source) {}
+
+  public MappedCompilerAdvisor(@NotNull CompilerAdvisor delegate) {
+    super(delegate);
+  }
+
+  private static long stamp(@NotNull Path source) throws IOException {
+    return Files.getLastModifiedTime(source).toMillis();
+  }
+
+  /** @return the library out dir of a core file */
+  private static @NotNull Path outDir(@NotNull ImmutableSeq<String> mod, @NotNull Path corePath) {
+    var outDir = corePath.toAbsolutePath();
+    for (int i = 0; i < mod.size(); i++) outDir = outDir.getParent();
+    return outDir;
+  }
+
+  /** @return the core of the module in the cache, if it is up-to-date with the source */
+  private static @Nullable ByteBuffer upToDate(
+    @NotNull LibraryCache cache, @NotNull ImmutableSeq<String> mod, @NotNull Path source
+  ) throws IOException {
+    var cached = cache.lookup(mod);
+    if (cached == null) return null;
+    if (cached.stamp() == stamp(source)) return cached.ayac();
+    var fingerprint = AyacFormat.fingerprint(cached.ayac());
+    // Touched but not changed, e.g. by a `git checkout`
+    if (fingerprint == null || !fingerprint.sourceHash().equals(AyacFormat.hash(source))) return null;
+    return cached.ayac();
+  }
+
+  @Override public boolean isSourceModified(@NotNull LibrarySource source) {
+    try {
+      var outDir = source.owner().outDir();
+      var mod = source.moduleName();
+      if (upToDate(LibraryCache.of(outDir), mod, source.underlyingFile()) != null) {
+        upToDate.put(mod, new Cached(outDir, source.underlyingFile()));
+        return false;
+      }
+    } catch (IOException ignore) {
+    }
+    return super.isSourceModified(source);
+  }
+
+  @Override public @Nullable String interfaceHash(@NotNull LibrarySource source) {
+    var hash = super.interfaceHash(source);
+    if (hash != null) return hash;
+    try {
+      var cached = LibraryCache.of(source.owner().outDir()).lookup(source.moduleName());
+      if (cached == null) return null;
+      var fingerprint = AyacFormat.fingerprint(cached.ayac());
+      return fingerprint == null ? null : fingerprint.interfaceHash();
+    } catch (IOException ignore) {
+      return null;
+    }
+  }
+
+  @Override public void clearLibraryOutput(@NotNull LibraryOwner owner) throws IOException {
+    owner.librarySources().forEach(source -> upToDate.remove(source.moduleName()));
+    LibraryCache.of(owner.outDir()).clear();
+    super.clearLibraryOutput(owner);
+  }
+
+  @Override public void clearModuleOutput(@NotNull LibrarySource source) throws IOException {
+    upToDate.remove(source.moduleName());
+    LibraryCache.of(source.owner().outDir()).remove(source.moduleName());
+    super.clearModuleOutput(source);
+  }
+
+  @Override public @Nullable ResolveInfo doLoadCompiledCore(
+    @NotNull SerTerm.DeState deState,
+    @NotNull Reporter reporter,
+    @NotNull ImmutableSeq<String> mod,
+    @Nullable Path sourcePath,
+    @Nullable Path corePath,
+    @NotNull ModuleLoader recurseLoader
+  ) throws IOException, ClassNotFoundException {
+    if (corePath == null || sourcePath == null) {
+      var known = upToDate.get(mod);
+      if (known != null) {
+        var resolveInfo = loadCached(deState, reporter, mod, known.source, LibraryCache.of(known.outDir), recurseLoader);
+        if (resolveInfo != null) return resolveInfo;
+      }
+      return super.doLoadCompiledCore(deState, reporter, mod, sourcePath, corePath, recurseLoader);
+    }
+    if (!Files.exists(sourcePath))
+      return super.doLoadCompiledCore(deState, reporter, mod, sourcePath, corePath, recurseLoader);
+    var cache = LibraryCache.of(outDir(mod, corePath));
+    var cached = loadCached(deState, reporter, mod, sourcePath, cache, recurseLoader);
+    if (cached != null) return cached;
+    var stamp = stamp(sourcePath);
+    var resolveInfo = super.doLoadCompiledCore(deState, reporter, mod, sourcePath, corePath, recurseLoader);
+    // Written by a process that does not use the cache, e.g. dependencies built by an older Aya
+    if (resolveInfo != null && AyacFormat.isCompatible(corePath))
+      cache.append(mod, stamp, ByteBuffer.wrap(Files.readAllBytes(corePath)));
+    return resolveInfo;
+  }
+
+  private static @Nullable ResolveInfo loadCached(
+    @NotNull SerTerm.DeState deState,
+    @NotNull Reporter reporter,
+    @NotNull ImmutableSeq<String> mod,
+    @NotNull Path sourcePath,
+    @NotNull LibraryCache cache,
+    @NotNull ModuleLoader recurseLoader
+  ) throws IOException {
+    var cached = upToDate(cache, mod, sourcePath);
+    if (cached == null) return null;
+    var context = new EmptyContext(reporter, sourcePath).derive(mod);
+    return AyacFormat.decode(cached).toResolveInfo(recurseLoader, context, deState);
+  }
+
+  /** Encodes the core once, for both the cache and the core file if the delegate writes one. */
+  @Override public void doSaveCompiledCore(
+    @NotNull Serializer.State serState,
+    @NotNull LibrarySource file,
+    @NotNull ResolveInfo resolveInfo,
+    @NotNull ImmutableSeq<GenericDef> defs
+  ) throws IOException {
+    var source = file.underlyingFile();
+    var stamp = stamp(source);
+    var ayac = AyacFormat.encode(CompiledAya.from(resolveInfo, defs, serState), AyacFormat.hash(source));
+    if (delegate instanceof DiskCompilerAdvisor disk) disk.writeCompiledCore(file, ayac);
+    else super.doSaveCompiledCore(serState, file, resolveInfo, defs);
+    LibraryCache.of(file.owner().outDir()).append(file.moduleName(), stamp, ayac);
+  }
+}
@@ -3,10 +3,14 @@
 package org.aya.cli.library.source;
 
 import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableList;
+import kala.value.MutableValue;
 import org.aya.cli.library.json.LibraryConfig;
 import org.aya.cli.library.json.LibraryConfigData;
 import org.aya.cli.library.json.LibraryDependency;
+import org.aya.core.def.GenericDef;
 import org.aya.generic.util.AyaFiles;
 import org.aya.util.error.SourceFileLocator;
 import org.jetbrains.annotations.NotNull;
@@ -25,7 +29,8 @@ public record DiskLibraryOwner(
   @NotNull MutableList<Path> modulePathMut,
   @NotNull MutableList<LibraryOwner> libraryDepsMut,
   @NotNull MutableList<LibrarySource> librarySourcesMut,
-  @NotNull LibraryConfig underlyingLibrary
+  @NotNull LibraryConfig underlyingLibrary,
+  @NotNull MutableValue<ImmutableMap<ImmutableSeq<String>, GenericDef>> defIndex
 ) implements MutableLibraryOwner {
   private static @Nullable LibraryConfig depConfig(@NotNull LibraryConfig config, @NotNull LibraryDependency dep) throws IOException {
     // TODO: test only: dependency resolving should be done in package manager
@@ -42,7 +47,7 @@ public record DiskLibraryOwner(
     var srcRoot = config.librarySrcRoot();
     var locator = new SourceFileLocator.Module(SeqView.of(srcRoot));
     var owner = new DiskLibraryOwner(locator, MutableList.create(),
-      MutableList.create(), MutableList.create(), config);
+      MutableList.create(), MutableList.create(), config, MutableValue.create());
     owner.librarySourcesMut.appendAll(AyaFiles.collectAyaSourceFiles(srcRoot)
       .map(p -> new LibrarySource(owner, p)));
     for (var dep : config.deps()) {
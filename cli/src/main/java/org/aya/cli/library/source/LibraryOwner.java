@@ -3,8 +3,11 @@
 package org.aya.cli.library.source;
 
 import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableMap;
 import kala.collection.immutable.ImmutableSeq;
+import kala.value.MutableValue;
 import org.aya.cli.library.json.LibraryConfig;
+import org.aya.core.def.GenericDef;
 import org.aya.util.error.SourceFileLocator;
 import org.jetbrains.annotations.Debug;
 import org.jetbrains.annotations.NotNull;
@@ -29,6 +32,11 @@ public interface LibraryOwner {
   @NotNull SeqView<LibraryOwner> libraryDeps();
   @NotNull SourceFileLocator locator();
   @NotNull LibraryConfig underlyingLibrary();
+  /**
+   * @return the tycked definitions of the sources and their children,
+   * by the module name of their source followed by their name, built on demand after tyck
+   */
+  @NotNull MutableValue<ImmutableMap<ImmutableSeq<String>, GenericDef>> defIndex();
 
   void addModulePath(@NotNull Path newPath);
 
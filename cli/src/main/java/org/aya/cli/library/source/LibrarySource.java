@@ -10,8 +10,12 @@ import org.aya.concrete.GenericAyaParser;
 import org.aya.concrete.stmt.Stmt;
 import org.aya.core.def.GenericDef;
 import org.aya.generic.util.AyaFiles;
+import org.aya.ref.AnyVar;
 import org.aya.resolve.ResolveInfo;
+import org.aya.tyck.order.ReusableDefs;
 import org.aya.util.FileUtil;
+import org.aya.util.NameIndex;
+import org.aya.util.error.PosIndex;
 import org.aya.util.error.SourceFile;
 import org.jetbrains.annotations.Debug;
 import org.jetbrains.annotations.NotNull;
@@ -28,6 +32,10 @@ import java.util.stream.IntStream;
  * @param program     initialized after parse
  * @param resolveInfo initialized after resolve
  * @param tycked      initialized after tyck
+ * @param reusable    definitions of the previous version, see {@link ReusableDefs}
+ * @param varIndex    the variables of the program by their positions, built on demand after resolve
+ * @param refIndex    the references in the program, built on demand after resolve
+ * @param nameIndex   the names in scope of the module, built on demand after resolve
  */
 @Debug.Renderer(text = "file")
 public record LibrarySource(
@@ -36,10 +44,15 @@ public record LibrarySource(
   @NotNull MutableList<LibrarySource> imports,
   @NotNull MutableValue<ImmutableSeq<Stmt>> program,
   @NotNull MutableValue<ImmutableSeq<GenericDef>> tycked,
-  @NotNull MutableValue<ResolveInfo> resolveInfo
+  @NotNull MutableValue<ResolveInfo> resolveInfo,
+  @NotNull MutableValue<ReusableDefs> reusable,
+  @NotNull MutableValue<PosIndex<AnyVar>> varIndex,
+  @NotNull MutableValue<RefIndex> refIndex,
+  @NotNull MutableValue<NameIndex<AnyVar>> nameIndex
 ) implements GenericAyaFile {
   public LibrarySource(@NotNull LibraryOwner owner, @NotNull Path file) {
-    this(owner, FileUtil.canonicalize(file), MutableList.create(), MutableValue.create(), MutableValue.create(), MutableValue.create());
+    this(owner, FileUtil.canonicalize(file), MutableList.create(), MutableValue.create(), MutableValue.create(),
+      MutableValue.create(), MutableValue.create(), MutableValue.create(), MutableValue.create(), MutableValue.create());
   }
 
   public @NotNull ImmutableSeq<String> moduleName() {
@@ -63,9 +76,17 @@ public record LibrarySource(
   @Override public @NotNull ImmutableSeq<Stmt> parseMe(@NotNull GenericAyaParser parser) throws IOException {
     var stmts = GenericAyaFile.super.parseMe(parser);
     program.set(stmts);
+    clearIndices();
     return stmts;
   }
 
+  /** Called when the program is parsed or resolved again, so the indices built on demand are outdated */
+  public void clearIndices() {
+    varIndex.set(null);
+    refIndex.set(null);
+    nameIndex.set(null);
+  }
+
   @Override public @NotNull SourceFile originalFile() throws IOException {
     return toSourceFile(Files.readString(underlyingFile));
   }
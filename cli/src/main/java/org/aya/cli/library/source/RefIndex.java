@@ -0,0 +1,70 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.cli.library.source;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import kala.tuple.Unit;
+import kala.value.LazyValue;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.concrete.visitor.StmtFolder;
+import org.aya.core.term.Term;
+import org.aya.ref.AnyVar;
+import org.aya.ref.DefVar;
+import org.aya.util.error.SourcePos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.IdentityHashMap;
+
+/**
+ * The references in a program by the variables they refer to, built once for every parse of a source,
+ * so that finding the usages of a variable is a lookup in each source.
+ * A {@link DefVar} is looked up by its module and name, so the references to a definition
+ * and to its serialized counterpart in other modules are the same,
+ * and other variables are looked up by identity.
+ *
+ * @see LibrarySource#refIndex()
+ */
+public final class RefIndex {
+  private record QName(@Nullable ImmutableSeq<String> module, @NotNull String name) {
+  }
+
+  private final @NotNull MutableMap<QName, MutableList<SourcePos>> defs = MutableMap.create();
+  private final @NotNull IdentityHashMap<AnyVar, MutableList<SourcePos>> vars = new IdentityHashMap<>();
+
+  private RefIndex() {
+  }
+
+  public static @NotNull RefIndex build(@NotNull ImmutableSeq<Stmt> program) {
+    var index = new RefIndex();
+    var collector = new Collector(index);
+    program.forEach(collector::apply);
+    return index;
+  }
+
+  /** @return the references to the variable, in the order they appear in the program */
+  public @NotNull SeqView<SourcePos> usages(@NotNull AnyVar var) {
+    var usages = var instanceof DefVar<?, ?> def
+      ? defs.getOrNull(new QName(def.module, def.name()))
+      : vars.get(var);
+    return usages == null ? SeqView.empty() : usages.view();
+  }
+
+  private record Collector(@NotNull RefIndex index) implements StmtFolder<Unit> {
+    @Override public @NotNull Unit init() {
+      return Unit.unit();
+    }
+
+    @Override public @NotNull Unit
+    foldVarRef(@NotNull Unit acc, @NotNull AnyVar var, @NotNull SourcePos pos, @NotNull LazyValue<Term> type) {
+      var usages = var instanceof DefVar<?, ?> def
+        ? index.defs.getOrPut(new QName(def.module, def.name()), MutableList::create)
+        : index.vars.computeIfAbsent(var, __ -> MutableList.create());
+      usages.append(pos);
+      return acc;
+    }
+  }
+}
@@ -96,8 +96,10 @@ public class ReplCompiler {
   }
 
   private void loadLibrary(@NotNull Path libraryRoot) throws IOException {
-    var flags = new CompilerFlags(CompilerFlags.Message.EMOJI, false, true, null, modulePaths.view(), null);
+    var flags = new CompilerFlags(CompilerFlags.Message.EMOJI, false, true, null, modulePaths.view(), null,
+      CompilerFlags.Build.DEFAULT);
     try {
+      // Remaking clears the outputs, which would clear the mapped cache shared with other processes
       var compiler = LibraryCompiler.newCompiler(primFactory, reporter, flags, CompilerAdvisor.onDisk(), libraryRoot);
       compiler.start();
       var owner = compiler.libraryOwner();
@@ -180,7 +182,7 @@ public class ReplCompiler {
     if (parseTree.resolveLax(context) instanceof Expr.Ref ref
       && ref.resolvedVar() instanceof DefVar<?, ?> defVar
       && defVar.core instanceof FnDef fn
-      && fn.body.isLeft()) {
+      && fn.body().isLeft()) {
       return fn;
     }
     System.out.println(parseTree);
@@ -17,8 +17,21 @@ public record CompilerFlags(
   boolean remake,
   @Nullable DistillInfo distillInfo,
   @NotNull SeqLike<Path> modulePaths,
-  @Nullable Path outputFile
+  @Nullable Path outputFile,
+  @NotNull Build build
 ) {
+  /**
+   * The options of building a library, ignored by the single file compiler except for {@link #defJobs}.
+   *
+   * @param jobs       the number of modules to check in parallel
+   * @param defJobs    the number of definitions of a module to check in parallel
+   * @param hashCons   whether to share the equal types of the definitions loaded from compiled cores
+   * @param profileDir where to write the profile of type checking, null if not profiling
+   */
+  public record Build(int jobs, int defJobs, boolean hashCons, @Nullable Path profileDir) {
+    public static final @NotNull Build DEFAULT = new Build(1, 1, false, null);
+  }
+
   public record DistillInfo(
     boolean ascii,
     boolean prettyNoCodeStyle,
@@ -13,6 +13,8 @@ import org.aya.resolve.context.ModuleContext;
 import org.aya.resolve.module.CachedModuleLoader;
 import org.aya.resolve.module.FileModuleLoader;
 import org.aya.resolve.module.ModuleListLoader;
+import org.aya.resolve.module.ModuleLoader;
+import org.aya.tyck.order.ReusableDefs;
 import org.aya.tyck.trace.Trace;
 import org.aya.util.error.SourceFileLocator;
 import org.aya.util.reporter.CountingReporter;
@@ -55,7 +57,9 @@ public record SingleFileCompiler(
       ayaFile.distill(flags, program, MainArgs.DistillStage.raw);
       var loader = new CachedModuleLoader<>(new ModuleListLoader(reporter, flags.modulePaths().view().map(path ->
         new FileModuleLoader(locator, path, reporter, ayaParser, fileManager, primFactory, builder)).toImmutableSeq()));
-      loader.tyckModule(primFactory, ctx, program, builder, (moduleResolve, defs) -> {
+      var resolveInfo = loader.resolveModule(primFactory, ctx, program, loader);
+      var options = new ModuleLoader.TyckOptions(ReusableDefs.EMPTY, null, flags.build().defJobs());
+      loader.tyckModule(builder, resolveInfo, options, (moduleResolve, defs) -> {
         ayaFile.tyckAdditional(moduleResolve);
         ayaFile.distill(flags, program, MainArgs.DistillStage.scoped);
         ayaFile.distill(flags, defs, MainArgs.DistillStage.typed);
@@ -6,6 +6,7 @@ import kala.collection.immutable.ImmutableSeq;
 import kala.function.CheckedRunnable;
 import org.aya.cli.single.CompilerFlags;
 import org.aya.core.def.GenericDef;
+import org.aya.core.serde.AyacFormat;
 import org.aya.core.serde.CompiledAya;
 import org.aya.core.serde.Serializer;
 import org.aya.generic.util.InternalException;
@@ -16,8 +17,6 @@ import org.aya.util.reporter.CountingReporter;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 
 public class AyaCompiler {
@@ -48,18 +47,11 @@ public class AyaCompiler {
 
   public static void saveCompiledCore(
     @NotNull Path coreFile,
+    @NotNull Path sourceFile,
     @NotNull ResolveInfo resolveInfo,
     @NotNull ImmutableSeq<GenericDef> defs,
     @NotNull Serializer.State state
   ) throws IOException {
-    var compiledAya = CompiledAya.from(resolveInfo, defs, state);
-    try (var outputStream = coreWriter(coreFile)) {
-      outputStream.writeObject(compiledAya);
-    }
-  }
-
-  private static @NotNull ObjectOutputStream coreWriter(@NotNull Path coreFile) throws IOException {
-    Files.createDirectories(coreFile.toAbsolutePath().getParent());
-    return new ObjectOutputStream(Files.newOutputStream(coreFile));
+    AyacFormat.write(coreFile, CompiledAya.from(resolveInfo, defs, state), AyacFormat.hash(sourceFile));
   }
 }
@@ -43,6 +43,18 @@ public class MainArgs {
     public String inputFile;
     @Option(names = {"-o", "--output"}, description = "Set literate output file")
     public String outputFile;
+    @Option(names = {"-j", "--jobs"}, description =
+      "Number of modules to compile in parallel when compiling a library", defaultValue = "1")
+    public int jobs;
+    @Option(names = {"--hash-cons"}, description =
+      "Share equal types of the definitions loaded from compiled cores")
+    public boolean hashCons;
+    @Option(names = {"--profile"}, paramLabel = "<dir>", description =
+      "Write a Chrome trace and collapsed stacks of the time spent on each definition to this directory when compiling a library")
+    public String profileDir;
+    @Option(names = {"--def-jobs"}, description =
+      "Number of definitions to check in parallel within a module (not with --trace)", defaultValue = "1")
+    public int defJobs;
   }
 
   public static class PlctAction {
@@ -172,7 +172,7 @@ public class ImGuiTrace {
     var sourceFile = Paths.get("test.aya");
     compiler.compile(sourceFile,
       new CompilerFlags(CompilerFlags.Message.EMOJI,
-        true, true, null, Seq.of(), null
+        true, true, null, Seq.of(), null, CompilerFlags.Build.DEFAULT
       ), null);
     new ImGuiTrace(Files.readString(sourceFile), DistillerOptions.informative())
       .mainLoop(traceBuilder.root());
@@ -3,11 +3,15 @@
 package org.aya.ide;
 
 import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableMap;
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableHashMap;
+import kala.collection.mutable.MutableList;
 import kala.control.Option;
 import kala.value.LazyValue;
 import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
+import org.aya.cli.library.source.RefIndex;
 import org.aya.concrete.stmt.Decl;
 import org.aya.concrete.stmt.GeneralizedVar;
 import org.aya.concrete.stmt.QualifiedID;
@@ -22,33 +26,92 @@ import org.aya.ide.util.XY;
 import org.aya.ref.AnyVar;
 import org.aya.ref.DefVar;
 import org.aya.ref.LocalVar;
+import org.aya.resolve.ResolveInfo;
+import org.aya.util.error.PosIndex;
 import org.aya.util.error.SourcePos;
 import org.aya.util.error.WithPos;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Objects;
+import java.util.function.Predicate;
 
 public interface Resolver {
-  /** resolve a symbol by its qualified name in the whole library */
+  /**
+   * resolve a symbol by its qualified name in the whole library,
+   * where the module may be a submodule of the one the symbol is found in
+   */
   static @NotNull Option<@NotNull GenericDef> resolveDef(
     @NotNull LibraryOwner owner,
     @NotNull ImmutableSeq<String> module,
     @NotNull String name
   ) {
-    var mod = resolveModule(owner, module);
-    return mod.mapNotNull(m -> m.tycked().get())
-      .map(defs -> defs.flatMap(Resolver::withChildren))
-      .flatMap(defs -> defs.find(def -> def.ref().name().equals(name)));
+    var index = defIndex(owner);
+    for (var mod = module; mod.isNotEmpty(); mod = mod.dropLast(1)) {
+      var def = index.getOrNull(mod.appended(name));
+      if (def != null) return Option.some(def);
+    }
+    for (var dep : owner.libraryDeps()) {
+      var def = resolveDef(dep, module, name);
+      if (def.isDefined()) return def;
+    }
+    return Option.none();
+  }
+
+  /** @see LibraryOwner#defIndex() */
+  private static @NotNull ImmutableMap<ImmutableSeq<String>, GenericDef> defIndex(@NotNull LibraryOwner owner) {
+    var index = owner.defIndex().get();
+    if (index != null) return index;
+    var defs = MutableHashMap.<ImmutableSeq<String>, GenericDef>create();
+    owner.librarySources().forEach(source -> {
+      var tycked = source.tycked().get();
+      if (tycked == null) return;
+      var module = source.moduleName();
+      tycked.view().flatMap(Resolver::withChildren)
+        .forEach(def -> defs.putIfAbsent(module.appended(def.ref().name()), def));
+    });
+    index = ImmutableMap.from(defs);
+    owner.defIndex().set(index);
+    return index;
+  }
+
+  /**
+   * The variables in a program are filled in by resolving it, which does not replace the program,
+   * so the indices of it are kept for the {@link ResolveInfo} they are built after.
+   *
+   * @return the variables of the program by their positions, see {@link XYResolver}
+   */
+  private static @Nullable PosIndex<AnyVar> varIndex(@NotNull LibrarySource source) {
+    var index = source.varIndex().get();
+    if (index != null) return index;
+    var program = source.program().get();
+    var info = source.resolveInfo().get();
+    if (program == null || info == null) return null;
+    var resolver = new XYResolver(pos -> true, MutableList.create());
+    program.forEach(resolver::apply);
+    index = PosIndex.of(resolver.targets().toImmutableSeq());
+    if (source.program().get() == program && source.resolveInfo().get() == info) source.varIndex().set(index);
+    return index;
+  }
+
+  /** @return the references in the program, see {@link RefIndex} and {@link #varIndex} */
+  static @Nullable RefIndex refIndex(@NotNull LibrarySource source) {
+    var index = source.refIndex().get();
+    if (index != null) return index;
+    var program = source.program().get();
+    var info = source.resolveInfo().get();
+    if (program == null || info == null) return null;
+    index = RefIndex.build(program);
+    if (source.program().get() == program && source.resolveInfo().get() == info) source.refIndex().set(index);
+    return index;
   }
 
   /** resolve the position to its referring target */
   static @NotNull SeqView<WithPos<@NotNull AnyVar>> resolveVar(
     @NotNull LibrarySource source, XY xy
   ) {
-    var program = source.program().get();
-    if (program == null) return SeqView.empty();
-    return program.view().flatMap(new XYResolver(xy)).mapNotNull(pos -> switch (pos.data()) {
+    var index = varIndex(source);
+    if (index == null) return SeqView.empty();
+    return index.find(xy.x(), xy.y()).view().mapNotNull(pos -> switch (pos.data()) {
       case DefVar<?, ?> defVar -> {
         if (defVar.concrete != null) yield new WithPos<>(pos.sourcePos(), defVar);
         else if (defVar.module != null) {
@@ -111,55 +174,44 @@ public interface Resolver {
    * The rationale is that users may place the cursor at the name part of a function,
    * a tele, an import command, etc. And we are expected to find the correct {@link AnyVar}
    * no matter if it is a declaration or a reference.
+   * <p>
+   * The positions of the whole program are collected into a {@link PosIndex} once,
+   * which is then queried for every cursor position.
    *
    * @author ice1000, kiva, wsx
    */
-  record XYResolver(XY xy) implements StmtFolder<SeqView<WithPos<AnyVar>>> {
-    @Override public @NotNull SeqView<WithPos<AnyVar>> init() {
-      return SeqView.empty();
+  record XYResolver(
+    @NotNull Predicate<SourcePos> filter,
+    @NotNull MutableList<WithPos<AnyVar>> targets
+  ) implements StmtFolder<MutableList<WithPos<AnyVar>>> {
+    public XYResolver(@NotNull XY xy) {
+      this(xy::inside, MutableList.create());
     }
 
-    @Override public @NotNull SeqView<WithPos<AnyVar>>
-    foldVar(@NotNull SeqView<WithPos<AnyVar>> targets, @NotNull AnyVar var, @NotNull SourcePos pos, @NotNull LazyValue<Term> type) {
-      return xy.inside(pos) ? targets.appended(new WithPos<>(pos, var)) : targets;
+    @Override public @NotNull MutableList<WithPos<AnyVar>> init() {
+      return targets;
     }
 
-    @Override public @NotNull SeqView<WithPos<AnyVar>>
-    foldVarDecl(@NotNull SeqView<WithPos<AnyVar>> acc, @NotNull AnyVar var, @NotNull SourcePos pos, @NotNull LazyValue<@Nullable Term> type) {
+    @Override public @NotNull MutableList<WithPos<AnyVar>>
+    foldVar(@NotNull MutableList<WithPos<AnyVar>> acc, @NotNull AnyVar var, @NotNull SourcePos pos, @NotNull LazyValue<Term> type) {
+      if (filter.test(pos)) acc.append(new WithPos<>(pos, var));
+      return acc;
+    }
+
+    @Override public @NotNull MutableList<WithPos<AnyVar>>
+    foldVarDecl(@NotNull MutableList<WithPos<AnyVar>> acc, @NotNull AnyVar var, @NotNull SourcePos pos, @NotNull LazyValue<@Nullable Term> type) {
       if (var instanceof LocalVar v && v.isGenerated()) return acc;
       return StmtFolder.super.foldVarDecl(acc, var, pos, type);
     }
 
     @Override
-    public @NotNull SeqView<WithPos<AnyVar>> foldModuleRef(@NotNull SeqView<WithPos<AnyVar>> acc, @NotNull QualifiedID mod) {
+    public @NotNull MutableList<WithPos<AnyVar>> foldModuleRef(@NotNull MutableList<WithPos<AnyVar>> acc, @NotNull QualifiedID mod) {
       return foldVarRef(acc, new ModuleVar(mod), mod.sourcePos(), noType());
     }
 
     @Override
-    public @NotNull SeqView<WithPos<AnyVar>> foldModuleDecl(@NotNull SeqView<WithPos<AnyVar>> acc, @NotNull QualifiedID mod) {
+    public @NotNull MutableList<WithPos<AnyVar>> foldModuleDecl(@NotNull MutableList<WithPos<AnyVar>> acc, @NotNull QualifiedID mod) {
       return foldVarDecl(acc, new ModuleVar(mod), mod.sourcePos(), noType());
     }
   }
-
-  /**
-   * This class finds usages of a variable. So we only traverse variable references.
-   *
-   * @author kiva, wsx
-   */
-  record UsageResolver(@NotNull AnyVar target) implements StmtFolder<SeqView<SourcePos>> {
-    @Override public @NotNull SeqView<SourcePos> init() {
-      return SeqView.empty();
-    }
-
-    @Override public @NotNull SeqView<SourcePos>
-    foldVarRef(@NotNull SeqView<SourcePos> refs, @NotNull AnyVar var, @NotNull SourcePos pos, @NotNull LazyValue<Term> type) {
-      // for imported serialized definitions, let's compare by qualified name
-      var usage = (target == var)
-        || var instanceof DefVar<?, ?> def
-        && target instanceof DefVar<?, ?> targetDef
-        && Objects.equals(def.module, targetDef.module)
-        && def.name().equals(targetDef.name());
-      return usage ? refs.appended(pos) : refs;
-    }
-  }
 }
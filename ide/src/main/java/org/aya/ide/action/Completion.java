@@ -0,0 +1,199 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.ide.action;
+
+import kala.collection.Seq;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableSet;
+import kala.value.LazyValue;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.concrete.Expr;
+import org.aya.concrete.Pattern;
+import org.aya.concrete.stmt.Decl;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.concrete.stmt.TeleDecl;
+import org.aya.concrete.visitor.StmtFolder;
+import org.aya.core.term.Term;
+import org.aya.ide.util.XY;
+import org.aya.ref.AnyVar;
+import org.aya.ref.DefVar;
+import org.aya.ref.LocalVar;
+import org.aya.util.NameIndex;
+import org.aya.util.error.SourcePos;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Comparator;
+
+/**
+ * Completes the name before the cursor with the names in scope of the module,
+ * looked up in a {@link NameIndex} built once for every resolve of the module,
+ * and the local variables whose binders scope over the cursor.
+ * The names starting with the prefix come first, then the names close to it,
+ * each ranked by the proximity of their scope.
+ * <p>
+ * A module is resolved again only when it or a module it imports is changed,
+ * so the indices of the other modules are kept across compilations.
+ */
+public interface Completion {
+  int LIMIT = 200;
+
+  enum Scope {
+    Local,
+    Module,
+    Imported,
+  }
+
+  record Item(@NotNull String label, @NotNull AnyVar var, @NotNull Scope scope, boolean exact) {
+  }
+
+  /**
+   * @param prefix the name before the cursor, where an empty one completes only the local variables,
+   *               as every name in scope would be a candidate
+   * @return at most {@link #LIMIT} items with distinct labels
+   */
+  static @NotNull ImmutableSeq<Item> complete(@NotNull LibrarySource source, @NotNull XY xy, @NotNull String prefix) {
+    var index = nameIndex(source);
+    var info = source.resolveInfo().get();
+    var moduleName = info == null ? ImmutableSeq.<String>empty() : info.thisModule().moduleName();
+    var items = MutableList.<Item>create();
+    locals(source, xy).forEach(local -> {
+      if (local.name().startsWith(prefix)) items.append(new Item(local.name(), local, Scope.Local, true));
+    });
+    if (index != null && !prefix.isEmpty()) {
+      index.withPrefix(prefix).forEach(entry -> items.append(item(entry, moduleName, true)));
+      if (items.size() < LIMIT) index.fuzzy(prefix).forEach(entry -> items.append(item(entry, moduleName, false)));
+    }
+    var labels = MutableSet.<String>create();
+    return items.view()
+      .sorted(Comparator.<Item, Boolean>comparing(item -> !item.exact)
+        .thenComparing(Item::scope)
+        .thenComparing(Item::label))
+      .filter(item -> labels.add(item.label))
+      .take(LIMIT)
+      .toImmutableSeq();
+  }
+
+  private static @NotNull Item item(@NotNull NameIndex.Entry<AnyVar> entry, @NotNull ImmutableSeq<String> moduleName, boolean exact) {
+    var scope = entry.data() instanceof DefVar<?, ?> defVar && defVar.isInModule(moduleName)
+      ? Scope.Module : Scope.Imported;
+    return new Item(entry.name(), entry.data(), scope, exact);
+  }
+
+  /** @return the names in scope of the module, qualified by the modules they are imported from */
+  static @Nullable NameIndex<AnyVar> nameIndex(@NotNull LibrarySource source) {
+    var index = source.nameIndex().get();
+    if (index != null) return index;
+    var info = source.resolveInfo().get();
+    if (info == null) return null;
+    var entries = MutableList.<NameIndex.Entry<AnyVar>>create();
+    info.thisModule().definitions().forEach((name, candidates) -> candidates.forEach((module, var) -> {
+      var label = module.isEmpty() ? name : module.joinToString("::") + "::" + name;
+      entries.append(new NameIndex.Entry<>(label, var));
+    }));
+    index = NameIndex.of(entries.toImmutableSeq());
+    if (source.resolveInfo().get() == info) source.nameIndex().set(index);
+    return index;
+  }
+
+  /** @return the local variables in scope at the cursor, in the definition whose lines contain it */
+  static @NotNull Seq<LocalVar> locals(@NotNull LibrarySource source, @NotNull XY xy) {
+    var program = source.program().get();
+    if (program == null) return ImmutableSeq.empty();
+    var decl = program.view().filterIsInstance(Decl.class).find(d -> {
+      var pos = d.entireSourcePos();
+      return pos.startLine() <= xy.x() && xy.x() <= pos.endLine();
+    });
+    if (decl.isEmpty()) return ImmutableSeq.empty();
+    var collector = new LocalCollector();
+    return collector.apply(decl.get()).view()
+      .map(bind -> bind.pattern() ? collector.clauseScope(bind) : bind)
+      .filter(bind -> starts(bind.pos(), xy) && starts(bind.scope(), xy) && !ends(bind.scope(), xy))
+      .map(Binding::var)
+      .toImmutableSeq();
+  }
+
+  /** @return whether the position starts before the cursor */
+  private static boolean starts(@NotNull SourcePos pos, @NotNull XY xy) {
+    return pos.startLine() < xy.x() || pos.startLine() == xy.x() && pos.startColumn() - 1 <= xy.y();
+  }
+
+  /** @return whether the position ends before the cursor */
+  private static boolean ends(@NotNull SourcePos pos, @NotNull XY xy) {
+    return pos.endLine() < xy.x() || pos.endLine() == xy.x() && pos.endColumn() < xy.y();
+  }
+
+  /** @return the name before the cursor, which ends at a space or a delimiter */
+  static @NotNull String prefix(@NotNull String text, @NotNull XY xy) {
+    if (xy.x() < 1) return "";
+    var lines = text.lines().skip(xy.x() - 1).findFirst();
+    if (lines.isEmpty()) return "";
+    var line = lines.get();
+    var end = Math.max(0, Math.min(line.length(), xy.y() + 1));
+    var start = end;
+    while (start > 0 && !Character.isWhitespace(line.charAt(start - 1)) && "(){}[],".indexOf(line.charAt(start - 1)) < 0)
+      start--;
+    return line.substring(start, end);
+  }
+
+  /**
+   * @param pos     the binder
+   * @param scope   the expression or the definition binding it, or for a pattern, the definition it is in
+   * @param pattern whether it is bound by a pattern, whose scope is the clause it is in
+   */
+  record Binding(@NotNull LocalVar var, @NotNull SourcePos pos, @NotNull SourcePos scope, boolean pattern) {
+  }
+
+  final class LocalCollector implements StmtFolder<MutableList<Binding>> {
+    private final @NotNull MutableList<Binding> binds = MutableList.create();
+    private final @NotNull MutableList<SourcePos> clauses = MutableList.create();
+    private @NotNull SourcePos decl = SourcePos.NONE;
+    private @Nullable SourcePos expr = null;
+    private boolean pattern = false;
+
+    @Override public @NotNull MutableList<Binding> init() {
+      return binds;
+    }
+
+    @Override public @NotNull MutableList<Binding> fold(@NotNull MutableList<Binding> acc, @NotNull Stmt stmt) {
+      if (stmt instanceof Decl d) {
+        decl = d.entireSourcePos();
+        if (d instanceof TeleDecl.FnDecl fn && fn.body.isRight())
+          fn.body.getRightValue().forEach(clause -> clauses.append(clause.sourcePos));
+      }
+      return StmtFolder.super.fold(acc, stmt);
+    }
+
+    @Override public @NotNull MutableList<Binding> fold(@NotNull MutableList<Binding> acc, @NotNull Expr e) {
+      if (e instanceof Expr.Match match) match.clauses().forEach(clause -> clauses.append(clause.sourcePos));
+      expr = e.sourcePos();
+      acc = StmtFolder.super.fold(acc, e);
+      expr = null;
+      return acc;
+    }
+
+    @Override public @NotNull MutableList<Binding> fold(@NotNull MutableList<Binding> acc, @NotNull Pattern pat) {
+      pattern = true;
+      acc = StmtFolder.super.fold(acc, pat);
+      pattern = false;
+      return acc;
+    }
+
+    @Override public @NotNull MutableList<Binding>
+    foldVarDecl(@NotNull MutableList<Binding> acc, @NotNull AnyVar var, @NotNull SourcePos pos, @NotNull LazyValue<@Nullable Term> type) {
+      if (var instanceof LocalVar local && !local.isGenerated())
+        acc.append(new Binding(local, pos, pattern || expr == null ? decl : expr, pattern));
+      return acc;
+    }
+
+    /** @return the binding scoped over the innermost clause containing it, if any */
+    private @NotNull Binding clauseScope(@NotNull Binding bind) {
+      var pos = bind.pos();
+      return clauses.view()
+        .filter(clause -> clause.containsIndex(pos))
+        .foldLeft(bind, (inner, clause) -> inner.scope().containsIndex(clause)
+          ? new Binding(inner.var(), pos, clause, true) : inner);
+    }
+  }
+}
@@ -25,10 +25,7 @@ public interface FindReferences {
     @NotNull SeqView<AnyVar> vars,
     @NotNull SeqView<LibraryOwner> libraries
   ) {
-    return vars.flatMap(var -> {
-      var resolver = new Resolver.UsageResolver(var);
-      return libraries.flatMap(lib -> resolve(resolver, lib));
-    });
+    return vars.flatMap(var -> libraries.flatMap(lib -> resolve(var, lib)));
   }
 
   static @NotNull SeqView<SourcePos> findOccurrences(
@@ -40,9 +37,9 @@ public interface FindReferences {
     return defs.concat(refs);
   }
 
-  private static @NotNull SeqView<SourcePos> resolve(@NotNull Resolver.UsageResolver resolver, @NotNull LibraryOwner owner) {
-    return owner.librarySources().map(src -> src.program().get()).filterNotNull()
-      .flatMap(prog -> prog.view().flatMap(resolver))
-      .concat(owner.libraryDeps().flatMap(dep -> resolve(resolver, dep)));
+  private static @NotNull SeqView<SourcePos> resolve(@NotNull AnyVar var, @NotNull LibraryOwner owner) {
+    return owner.librarySources().map(Resolver::refIndex).filterNotNull()
+      .flatMap(index -> index.usages(var))
+      .concat(owner.libraryDeps().flatMap(dep -> resolve(var, dep)));
   }
 }
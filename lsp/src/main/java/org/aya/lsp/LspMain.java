@@ -34,7 +34,9 @@ public class LspMain extends LspArgs implements Callable<Integer> {
 
     LSP.connect(
       AyaLanguageClient.class,
-      client -> new AyaLanguageServer(CompilerAdvisor.inMemory(), client),
+      client -> new AyaLanguageServer(sharedCache
+        ? CompilerAdvisor.mapped(CompilerAdvisor.inMemory())
+        : CompilerAdvisor.inMemory(), client),
       startup.in,
       startup.out
     );
@@ -0,0 +1,32 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.actions;
+
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.ide.action.Completion;
+import org.aya.ide.util.XY;
+import org.aya.ref.DefVar;
+import org.javacs.lsp.CompletionItem;
+import org.javacs.lsp.CompletionItemKind;
+import org.javacs.lsp.CompletionList;
+import org.jetbrains.annotations.NotNull;
+
+public interface CompletionMaker {
+  /**
+   * @param text the text of the file in the editor, which may not be saved yet,
+   *             and the list is incomplete, so the client asks again as the name is typed
+   */
+  static @NotNull CompletionList invoke(@NotNull LibrarySource source, @NotNull XY xy, @NotNull String text) {
+    var prefix = Completion.prefix(text, xy);
+    var items = Completion.complete(source, xy, prefix);
+    return new CompletionList(true, items.mapIndexed((i, item) -> {
+      var completion = new CompletionItem();
+      completion.label = item.label();
+      completion.kind = item.var() instanceof DefVar<?, ?> ? CompletionItemKind.Function : CompletionItemKind.Variable;
+      completion.detail = item.scope().name();
+      // Keep the order of the ranking
+      completion.sortText = "%05d".formatted(i);
+      return completion;
+    }).asJava());
+  }
+}
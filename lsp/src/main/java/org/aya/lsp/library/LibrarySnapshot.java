@@ -0,0 +1,88 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.library;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import kala.value.MutableValue;
+import org.aya.cli.library.json.LibraryConfig;
+import org.aya.cli.library.source.LibraryOwner;
+import org.aya.cli.library.source.LibrarySource;
+import org.aya.core.def.GenericDef;
+import org.aya.util.error.SourceFileLocator;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+
+/**
+ * A copy of a library as it was after a compilation, which the requests read
+ * while the library is compiled again.
+ * <p>
+ * The sources are copied with the values they had, so the compilation never changes them,
+ * and the indices built on demand are built into the copies.
+ * Recompiling a module parses it again, so the programs and definitions of a snapshot are not shared
+ * with the ones being compiled.
+ */
+public record LibrarySnapshot(
+  @NotNull SourceFileLocator locator,
+  @NotNull ImmutableSeq<Path> paths,
+  @NotNull MutableList<LibrarySource> sources,
+  @NotNull MutableList<LibraryOwner> deps,
+  @NotNull LibraryConfig underlyingLibrary,
+  @NotNull MutableValue<ImmutableMap<ImmutableSeq<String>, GenericDef>> defIndex
+) implements LibraryOwner {
+  /** Must be called when the library is not being compiled */
+  public static @NotNull ImmutableSeq<LibraryOwner> of(@NotNull ImmutableSeq<LibraryOwner> owners) {
+    var copied = MutableMap.<LibraryConfig, LibrarySnapshot>create();
+    var sources = MutableMap.<LibrarySource, LibrarySource>create();
+    var snapshots = owners.<LibraryOwner>map(owner -> copy(owner, copied, sources));
+    // The imports may be in other libraries, so they are linked after every source is copied
+    sources.forEach((source, copy) -> source.imports().forEach(dep -> {
+      var found = sources.getOrNull(dep);
+      if (found != null) copy.imports().append(found);
+    }));
+    return snapshots;
+  }
+
+  private static @NotNull LibrarySnapshot copy(
+    @NotNull LibraryOwner owner,
+    @NotNull MutableMap<LibraryConfig, LibrarySnapshot> copied,
+    @NotNull MutableMap<LibrarySource, LibrarySource> sources
+  ) {
+    var done = copied.getOrNull(owner.underlyingLibrary());
+    if (done != null) return done;
+    var snapshot = new LibrarySnapshot(owner.locator(), owner.modulePath().toImmutableSeq(),
+      MutableList.create(), MutableList.create(), owner.underlyingLibrary(), MutableValue.create(owner.defIndex().get()));
+    copied.put(owner.underlyingLibrary(), snapshot);
+    owner.librarySources().forEach(source -> {
+      var copy = new LibrarySource(snapshot, source.underlyingFile(), MutableList.create(),
+        MutableValue.create(source.program().get()), MutableValue.create(source.tycked().get()),
+        MutableValue.create(source.resolveInfo().get()), MutableValue.create(),
+        MutableValue.create(source.varIndex().get()), MutableValue.create(source.refIndex().get()),
+        MutableValue.create(source.nameIndex().get()));
+      snapshot.sources.append(copy);
+      sources.put(source, copy);
+    });
+    owner.libraryDeps().forEach(dep -> snapshot.deps.append(copy(dep, copied, sources)));
+    return snapshot;
+  }
+
+  @Override public @NotNull SeqView<Path> modulePath() {
+    return paths.view();
+  }
+
+  @Override public @NotNull SeqView<LibrarySource> librarySources() {
+    return sources.view();
+  }
+
+  @Override public @NotNull SeqView<LibraryOwner> libraryDeps() {
+    return deps.view();
+  }
+
+  @Override public void addModulePath(@NotNull Path newPath) {
+    // do nothing, a snapshot is never compiled
+  }
+}
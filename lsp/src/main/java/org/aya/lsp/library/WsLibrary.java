@@ -3,11 +3,14 @@
 package org.aya.lsp.library;
 
 import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableMap;
 import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableList;
+import kala.value.MutableValue;
 import org.aya.cli.library.json.LibraryConfig;
 import org.aya.cli.library.source.LibraryOwner;
 import org.aya.cli.library.source.LibrarySource;
+import org.aya.core.def.GenericDef;
 import org.aya.prelude.GeneratedVersion;
 import org.aya.util.FileUtil;
 import org.aya.util.error.SourceFileLocator;
@@ -24,14 +27,15 @@ public record WsLibrary(
   @NotNull SourceFileLocator locator,
   @NotNull MutableList<LibrarySource> sources,
   @NotNull LibraryConfig mockConfig,
-  @NotNull Path workspace
+  @NotNull Path workspace,
+  @NotNull MutableValue<ImmutableMap<ImmutableSeq<String>, GenericDef>> defIndex
 ) implements LibraryOwner {
   public static @NotNull WsLibrary mock(@NotNull Path ayaSource) {
     var canonicalPath = FileUtil.canonicalize(ayaSource);
     var parent = canonicalPath.getParent();
     var mockConfig = mockConfig(parent);
     var locator = new SourceFileLocator.Module(SeqView.of(parent));
-    var owner = new WsLibrary(locator, MutableList.create(), mockConfig, parent);
+    var owner = new WsLibrary(locator, MutableList.create(), mockConfig, parent, MutableValue.create());
     owner.sources.append(new LibrarySource(owner, canonicalPath));
     return owner;
   }
@@ -5,7 +5,6 @@ package org.aya.lsp.server;
 import kala.collection.SeqView;
 import kala.collection.immutable.ImmutableMap;
 import kala.collection.immutable.ImmutableSeq;
-import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableMap;
 import kala.collection.mutable.MutableSet;
 import kala.control.Option;
@@ -28,6 +27,7 @@ import org.aya.ide.action.FindReferences;
 import org.aya.ide.action.GotoDefinition;
 import org.aya.ide.util.XY;
 import org.aya.lsp.actions.*;
+import org.aya.lsp.library.LibrarySnapshot;
 import org.aya.lsp.library.WsLibrary;
 import org.aya.lsp.models.ComputeTermResult;
 import org.aya.lsp.models.HighlightResult;
@@ -54,14 +54,25 @@ import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class AyaLanguageServer implements LanguageServer {
-  private static final @NotNull CompilerFlags FLAGS = new CompilerFlags(CompilerFlags.Message.EMOJI, false, false, null, SeqView.empty(), null);
+  private static final @NotNull CompilerFlags FLAGS = new CompilerFlags(CompilerFlags.Message.EMOJI, false, false, null, SeqView.empty(), null,
+    CompilerFlags.Build.DEFAULT);
 
   private final BufferReporter reporter = new BufferReporter();
-  private final @NotNull MutableList<LibraryOwner> libraries = MutableList.create();
+  /**
+   * Replaced as a whole when a library is added or removed,
+   * so a request reads the libraries as they were when it started.
+   */
+  private volatile @NotNull ImmutableSeq<LibraryOwner> libraries = ImmutableSeq.empty();
+  /** The libraries as they were after the last compilation, see {@link LibrarySnapshot} */
+  private volatile @NotNull ImmutableSeq<LibraryOwner> snapshot = ImmutableSeq.empty();
+  /** The highlights of the last compilation of all the libraries */
+  private volatile @NotNull ImmutableSeq<HighlightResult> highlights = ImmutableSeq.empty();
   /**
    * When working with LSP, we need to track all previously created Primitives.
    * This is shared per library.
@@ -69,6 +80,11 @@ public class AyaLanguageServer implements LanguageServer {
   protected final @NotNull MutableMap<LibraryConfig, LspPrimFactory> primFactories = MutableMap.create();
   private final @NotNull CompilerAdvisor advisor;
   private final @NotNull AyaLanguageClient client;
+  /** Compiles the libraries off the request thread, so requests are served while a file change is compiled */
+  private final @NotNull CompileScheduler<ImmutableSeq<HighlightResult>> scheduler = new CompileScheduler<>(this::compileAll);
+  private final @NotNull RequestExecutor requests = new RequestExecutor(RequestExecutor.TIMEOUT_MILLIS);
+  /** The text of the files opened in the editor, which is newer than the one on the disk until they are saved */
+  private final @NotNull ConcurrentHashMap<Path, String> documents = new ConcurrentHashMap<>();
 
   public AyaLanguageServer(@NotNull CompilerAdvisor advisor, @NotNull AyaLanguageClient client) {
     this.advisor = new CallbackAdvisor(this, advisor);
@@ -80,6 +96,22 @@ public class AyaLanguageServer implements LanguageServer {
     return libraries.view();
   }
 
+  /**
+   * @return the libraries as they were after the last compilation, which the requests read,
+   * so they are never read while being compiled
+   */
+  public @NotNull SeqView<LibraryOwner> snapshot() {
+    return snapshot.view();
+  }
+
+  private synchronized void addLibraries(@NotNull Iterable<? extends LibraryOwner> owners) {
+    libraries = libraries.appendedAll(owners);
+  }
+
+  private synchronized void removeLibrary(@NotNull LibraryOwner owner) {
+    libraries = libraries.filterNot(o -> o == owner);
+  }
+
   public void registerLibrary(@NotNull Path path) {
     Log.i("Adding library path %s", path);
     if (!tryAyaLibrary(path)) mockLibraries(path);
@@ -92,7 +124,7 @@ public class AyaLanguageServer implements LanguageServer {
     try {
       var config = LibraryConfigData.fromLibraryRoot(path);
       var owner = DiskLibraryOwner.from(config);
-      libraries.append(owner);
+      addLibraries(SeqView.of(owner));
     } catch (IOException e) {
       var s = new StringWriter();
       e.printStackTrace(new PrintWriter(s));
@@ -105,7 +137,7 @@ public class AyaLanguageServer implements LanguageServer {
   }
 
   private void mockLibraries(@NotNull Path path) {
-    libraries.appendAll(AyaFiles.collectAyaSourceFiles(path, 1)
+    addLibraries(AyaFiles.collectAyaSourceFiles(path, 1)
       .map(WsLibrary::mock));
   }
 
@@ -120,7 +152,8 @@ public class AyaLanguageServer implements LanguageServer {
 
   @Override public InitializeResult initialize(InitializeParams params) {
     var cap = new ServerCapabilities();
-    cap.textDocumentSync = 0;
+    // Full, the whole text of a file is sent on every change
+    cap.textDocumentSync = 1;
     var workOps = new ServerCapabilities.WorkspaceFoldersOptions(true, true);
     var workCap = new ServerCapabilities.WorkspaceServerCapabilities(workOps);
     cap.completionProvider = new ServerCapabilities.CompletionOptions(
@@ -180,6 +213,10 @@ public class AyaLanguageServer implements LanguageServer {
   }
 
   public @Nullable LibrarySource find(@NotNull Path moduleFile) {
+    return find(libraries(), moduleFile);
+  }
+
+  private @Nullable LibrarySource find(@NotNull SeqView<LibraryOwner> libraries, @NotNull Path moduleFile) {
     for (var lib : libraries) {
       var found = find(lib, moduleFile);
       if (found != null) return found;
@@ -191,12 +228,24 @@ public class AyaLanguageServer implements LanguageServer {
     return find(toPath(uri));
   }
 
+  /** @return the source in the snapshot, see {@link #snapshot()} */
+  private @Nullable LibrarySource read(@NotNull URI uri) {
+    return find(snapshot(), toPath(uri));
+  }
+
   @NotNull private Path toPath(@NotNull URI uri) {
     return FileUtil.canonicalize(Path.of(uri));
   }
 
-  public @NotNull ImmutableSeq<HighlightResult> reload() {
-    return libraries().flatMap(this::loadLibrary).toImmutableSeq();
+  /** Compiles the libraries now, together with the compilations requested but not started yet */
+  public @NotNull CompletableFuture<ImmutableSeq<HighlightResult>> reload() {
+    return scheduler.schedule(0);
+  }
+
+  private @NotNull ImmutableSeq<HighlightResult> compileAll() {
+    var results = libraries().flatMap(this::loadLibrary).toImmutableSeq();
+    highlights = results;
+    return results;
   }
 
   public @NotNull ImmutableSeq<HighlightResult> loadLibrary(@NotNull LibraryOwner owner) {
@@ -212,7 +261,9 @@ public class AyaLanguageServer implements LanguageServer {
       Log.e("IOException occurred when running the compiler. Stack trace:\n%s", s.toString());
     }
     publishProblems(reporter, DistillerOptions.pretty());
-    return SemanticHighlight.invoke(owner);
+    var highlights = SemanticHighlight.invoke(owner);
+    snapshot = LibrarySnapshot.of(libraries);
+    return highlights;
   }
 
   public void publishProblems(@NotNull BufferReporter reporter, @NotNull DistillerOptions options) {
@@ -234,7 +285,16 @@ public class AyaLanguageServer implements LanguageServer {
     client.clearAyaProblems(files);
   }
 
+  /**
+   * The libraries are changed on the compilation thread, after the compilations running or requested,
+   * and are compiled after the changes settle, see {@link CompileScheduler}.
+   */
   @Override public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
+    scheduler.execute(() -> applyChanges(params));
+    scheduler.schedule(CompileScheduler.DEBOUNCE_MILLIS);
+  }
+
+  private void applyChanges(@NotNull DidChangeWatchedFilesParams params) {
     params.changes.forEach(change -> {
       switch (change.type) {
         case FileChangeType.Created -> {
@@ -247,7 +307,7 @@ public class AyaLanguageServer implements LanguageServer {
             case null -> {
               var mock = WsLibrary.mock(newSrc);
               Log.d("Created new file: %s, mocked a library %s for it", newSrc, mock.mockConfig().name());
-              libraries.append(mock);
+              addLibraries(SeqView.of(mock));
             }
             default -> {}
           }
@@ -258,7 +318,7 @@ public class AyaLanguageServer implements LanguageServer {
           Log.d("Deleted file: %s, removed from owner: %s", src.underlyingFile(), src.owner().underlyingLibrary().name());
           switch (src.owner()) {
             case MutableLibraryOwner owner -> owner.removeLibrarySource(src);
-            case WsLibrary owner -> libraries.removeIf(o -> o == owner);
+            case WsLibrary owner -> removeLibrary(owner);
             default -> {}
           }
         }
@@ -266,8 +326,36 @@ public class AyaLanguageServer implements LanguageServer {
     });
   }
 
+  @Override public void didOpenTextDocument(DidOpenTextDocumentParams params) {
+    documents.put(toPath(params.textDocument.uri), params.textDocument.text);
+  }
+
+  @Override public void didChangeTextDocument(DidChangeTextDocumentParams params) {
+    if (params.contentChanges.isEmpty()) return;
+    documents.put(toPath(params.textDocument.uri), params.contentChanges.get(params.contentChanges.size() - 1).text);
+  }
+
+  @Override public void didCloseTextDocument(DidCloseTextDocumentParams params) {
+    documents.remove(toPath(params.textDocument.uri));
+  }
+
+  /** @return the text of the file in the editor, or on the disk if it is not opened */
+  public @NotNull String text(@NotNull LibrarySource source) throws IOException {
+    var text = documents.get(source.underlyingFile());
+    return text != null ? text : Files.readString(source.underlyingFile());
+  }
+
   @Override public Optional<CompletionList> completion(TextDocumentPositionParams position) {
-    return Optional.empty();
+    return requests.run("completion", () -> {
+      var source = read(position.textDocument.uri);
+      if (source == null) return Optional.<CompletionList>empty();
+      try {
+        return Optional.of(CompletionMaker.invoke(source, LspRange.pos(position.position), text(source)));
+      } catch (IOException e) {
+        Log.e("Cannot read %s for completion: %s", source.underlyingFile(), e.getMessage());
+        return Optional.<CompletionList>empty();
+      }
+    }, Optional::empty);
   }
 
   @Override public CompletionItem resolveCompletionItem(CompletionItem params) {
@@ -275,24 +363,28 @@ public class AyaLanguageServer implements LanguageServer {
   }
 
   @Override public Optional<List<? extends GenericLocation>> gotoDefinition(TextDocumentPositionParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return Optional.empty();
-    return Optional.of(GotoDefinition.findDefs(source, libraries.view(), LspRange.pos(params.position)).mapNotNull(pos -> {
-      var from = pos.sourcePos();
-      var to = pos.data();
-      var res = LspRange.toLoc(from, to);
-      if (res != null) Log.d("Resolved: %s in %s", to, res.targetUri);
-      return res;
-    }).collect(Collectors.toList()));
+    return requests.run("gotoDefinition", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return Optional.<List<? extends GenericLocation>>empty();
+      return Optional.<List<? extends GenericLocation>>of(GotoDefinition.findDefs(source, snapshot(), LspRange.pos(params.position)).mapNotNull(pos -> {
+        var from = pos.sourcePos();
+        var to = pos.data();
+        var res = LspRange.toLoc(from, to);
+        if (res != null) Log.d("Resolved: %s in %s", to, res.targetUri);
+        return res;
+      }).collect(Collectors.toList()));
+    }, Optional::empty);
   }
 
   @Override public Optional<Hover> hover(TextDocumentPositionParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return Optional.empty();
-    var doc = ComputeSignature.invokeHover(source, LspRange.pos(params.position));
-    if (doc.isEmpty()) return Optional.empty();
-    var marked = new MarkedString(MarkupKind.PlainText, doc.commonRender());
-    return Optional.of(new Hover(List.of(marked)));
+    return requests.run("hover", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return Optional.<Hover>empty();
+      var doc = ComputeSignature.invokeHover(source, LspRange.pos(params.position));
+      if (doc.isEmpty()) return Optional.<Hover>empty();
+      var marked = new MarkedString(MarkupKind.PlainText, doc.commonRender());
+      return Optional.of(new Hover(List.of(marked)));
+    }, Optional::empty);
   }
 
   @Override
@@ -301,21 +393,24 @@ public class AyaLanguageServer implements LanguageServer {
   }
 
   @Override public Optional<List<Location>> findReferences(ReferenceParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return Optional.empty();
-    @NotNull SeqView<LibraryOwner> libraries1 = libraries.view();
-    XY xy = LspRange.pos(params.position);
-    return Optional.of(FindReferences
-      .findRefs(source, libraries1, xy)
-      .map(LspRange::toLoc)
-      .collect(Collectors.toList()));
+    return requests.run("findReferences", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return Optional.<List<Location>>empty();
+      XY xy = LspRange.pos(params.position);
+      return Optional.of(FindReferences
+        .findRefs(source, snapshot(), xy)
+        .map(LspRange::toLoc)
+        .collect(Collectors.toList()));
+    }, Optional::empty);
   }
 
   @Override public WorkspaceEdit rename(RenameParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return null;
-    var renames = Rename.rename(source, params.newName, libraries.view(), LspRange.pos(params.position));
-    return new WorkspaceEdit(renames);
+    return requests.run("rename", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return null;
+      var renames = Rename.rename(source, params.newName, snapshot(), LspRange.pos(params.position));
+      return new WorkspaceEdit(renames);
+    }, () -> null);
   }
 
   @Override public List<TextEdit> formatting(DocumentFormattingParams params) {
@@ -323,46 +418,54 @@ public class AyaLanguageServer implements LanguageServer {
   }
 
   @Override public Optional<RenameResponse> prepareRename(TextDocumentPositionParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return Optional.empty();
-    var begin = Rename.prepare(source, LspRange.pos(params.position));
-    if (begin == null) return Optional.empty();
-    return Optional.of(new RenameResponse(LspRange.toRange(begin.sourcePos()), begin.data()));
+    return requests.run("prepareRename", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return Optional.<RenameResponse>empty();
+      var begin = Rename.prepare(source, LspRange.pos(params.position));
+      if (begin == null) return Optional.<RenameResponse>empty();
+      return Optional.of(new RenameResponse(LspRange.toRange(begin.sourcePos()), begin.data()));
+    }, Optional::empty);
   }
 
   @Override public List<DocumentHighlight> documentHighlight(TextDocumentPositionParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return Collections.emptyList();
-    var currentFile = Option.ofNullable(source.underlyingFile());
-    return FindReferences.findOccurrences(source, SeqView.of(source.owner()), LspRange.pos(params.position))
-      // only highlight references in the current file
-      .filter(pos -> pos.file().underlying().equals(currentFile))
-      .map(pos -> new DocumentHighlight(LspRange.toRange(pos), DocumentHighlightKind.Read))
-      .stream().toList();
+    return requests.run("documentHighlight", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return Collections.<DocumentHighlight>emptyList();
+      var currentFile = Option.ofNullable(source.underlyingFile());
+      return FindReferences.findOccurrences(source, SeqView.of(source.owner()), LspRange.pos(params.position))
+        // only highlight references in the current file
+        .filter(pos -> pos.file().underlying().equals(currentFile))
+        .map(pos -> new DocumentHighlight(LspRange.toRange(pos), DocumentHighlightKind.Read))
+        .stream().toList();
+    }, Collections::emptyList);
   }
 
   @Override public List<CodeLens> codeLens(CodeLensParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return Collections.emptyList();
-    return LensMaker.invoke(source, libraries.view());
+    return requests.run("codeLens", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return Collections.<CodeLens>emptyList();
+      return LensMaker.invoke(source, snapshot());
+    }, Collections::emptyList);
   }
 
   @Override public CodeLens resolveCodeLens(CodeLens codeLens) {
-    return LensMaker.resolve(codeLens);
+    return requests.run("resolveCodeLens", () -> LensMaker.resolve(codeLens), () -> codeLens);
   }
 
   @Override public List<? extends GenericDocumentSymbol> documentSymbol(DocumentSymbolParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return Collections.emptyList();
-    return ProjectSymbol.invoke(source)
-      .map(ProjectSymbol.Symbol::document)
-      .asJava();
+    return requests.run("documentSymbol", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return Collections.<GenericDocumentSymbol>emptyList();
+      return ProjectSymbol.invoke(source)
+        .<GenericDocumentSymbol>map(ProjectSymbol.Symbol::document)
+        .asJava();
+    }, Collections::emptyList);
   }
 
   @Override public List<? extends GenericWorkspaceSymbol> workspaceSymbols(WorkspaceSymbolParams params) {
-    return ProjectSymbol.invoke(libraries.view())
-      .map(ProjectSymbol.Symbol::workspace)
-      .asJava();
+    return requests.run("workspaceSymbols", () -> ProjectSymbol.invoke(snapshot())
+      .<GenericWorkspaceSymbol>map(ProjectSymbol.Symbol::workspace)
+      .asJava(), Collections::emptyList);
   }
 
   @Override
@@ -371,9 +474,11 @@ public class AyaLanguageServer implements LanguageServer {
   }
 
   @Override public List<FoldingRange> foldingRange(FoldingRangeParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return Collections.emptyList();
-    return Folding.invoke(source);
+    return requests.run("foldingRange", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return Collections.<FoldingRange>emptyList();
+      return Folding.invoke(source);
+    }, Collections::emptyList);
   }
 
   @Override public List<DocumentLink> documentLink(DocumentLinkParams params) {
@@ -381,14 +486,20 @@ public class AyaLanguageServer implements LanguageServer {
   }
 
   @Override public List<InlayHint> inlayHint(InlayHintParams params) {
-    var source = find(params.textDocument.uri);
-    if (source == null) return Collections.emptyList();
-    return InlayHintMaker.invoke(source, LspRange.range(params.range));
+    return requests.run("inlayHint", () -> {
+      var source = read(params.textDocument.uri);
+      if (source == null) return Collections.<InlayHint>emptyList();
+      return InlayHintMaker.invoke(source, LspRange.range(params.range));
+    }, Collections::emptyList);
   }
 
+  /**
+   * Waits for the compilation as long as another request, then answers with the highlights of the last one,
+   * while the compilation goes on in the background.
+   */
   @LspRequest("aya/load") @SuppressWarnings("unused")
   public List<HighlightResult> load(Object uri) {
-    return reload().asJava();
+    return requests.await("aya/load", reload(), () -> highlights).asJava();
   }
 
   @LspRequest("aya/computeType") @SuppressWarnings("unused")
@@ -402,16 +513,19 @@ public class AyaLanguageServer implements LanguageServer {
   }
 
   public ComputeTermResult computeTerm(@NotNull ComputeTermResult.Params params, ComputeTerm.Kind type) {
-    var source = find(params.uri);
-    if (source == null) return ComputeTermResult.bad(params);
-    var program = source.program().get();
-    if (program == null) return ComputeTermResult.bad(params);
-    var computer = new ComputeTerm(source, type, primFactory(source.owner()), LspRange.pos(params.position));
-    program.forEach(computer);
-    return computer.result == null ? ComputeTermResult.bad(params) : ComputeTermResult.good(params, computer.result);
-  }
-
-  private @NotNull LspPrimFactory primFactory(@NotNull LibraryOwner owner) {
+    return requests.run("computeTerm", () -> {
+      var source = read(params.uri);
+      if (source == null) return ComputeTermResult.bad(params);
+      var program = source.program().get();
+      if (program == null) return ComputeTermResult.bad(params);
+      var computer = new ComputeTerm(source, type, primFactory(source.owner()), LspRange.pos(params.position));
+      program.forEach(computer);
+      return computer.result == null ? ComputeTermResult.bad(params) : ComputeTermResult.good(params, computer.result);
+    }, () -> ComputeTermResult.bad(params));
+  }
+
+  /** Synchronized, as the libraries are compiled on another thread, see {@link CompileScheduler} */
+  private synchronized @NotNull LspPrimFactory primFactory(@NotNull LibraryOwner owner) {
     return primFactories.getOrPut(owner.underlyingLibrary(), LspPrimFactory::new);
   }
 
@@ -0,0 +1,61 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.server;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs the compilation of the libraries off the request thread, on a virtual thread,
+ * one compilation and one change to the libraries at a time, in the order they are submitted.
+ * <p>
+ * A compilation is debounced: it starts after a delay, which is restarted by every request made before it starts,
+ * so a burst of requests, like the file changes of a checkout, are coalesced into one compilation,
+ * whose result they all get. A request made while a compilation is running waits for the next one,
+ * which sees the changes the request was made for.
+ */
+public final class CompileScheduler<T> {
+  public static final long DEBOUNCE_MILLIS = 200;
+
+  private final @NotNull Supplier<T> compile;
+  private final @NotNull ScheduledExecutorService executor =
+    Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("aya-compile").factory());
+  /** The compilation not started yet, which every request joins */
+  private @Nullable CompletableFuture<T> pending;
+  private @Nullable ScheduledFuture<?> timer;
+
+  public CompileScheduler(@NotNull Supplier<T> compile) {
+    this.compile = compile;
+  }
+
+  /** @return the compilation to be started after the delay, unless it is requested again before */
+  public synchronized @NotNull CompletableFuture<T> schedule(long delayMillis) {
+    if (timer != null) timer.cancel(false);
+    if (pending == null) pending = new CompletableFuture<>();
+    var future = pending;
+    timer = executor.schedule(() -> run(future), delayMillis, TimeUnit.MILLISECONDS);
+    return future;
+  }
+
+  /** Runs a change to the libraries after the compilations and the changes submitted before. */
+  public void execute(@NotNull Runnable change) {
+    executor.execute(change);
+  }
+
+  private void run(@NotNull CompletableFuture<T> future) {
+    synchronized (this) {
+      // Superseded by a restarted timer, or already run by it
+      if (pending != future) return;
+      pending = null;
+      timer = null;
+    }
+    try {
+      future.complete(compile.get());
+    } catch (Throwable e) {
+      future.completeExceptionally(e);
+    }
+  }
+}
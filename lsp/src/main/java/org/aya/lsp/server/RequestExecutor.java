@@ -0,0 +1,59 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.lsp.server;
+
+import org.aya.lsp.utils.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs the requests on virtual threads, one per request.
+ * The protocol layer handles the requests one at a time and drops the ones cancelled before they start,
+ * so a request still running after its deadline is cancelled and answered with a fallback,
+ * instead of holding up the requests after it.
+ */
+public final class RequestExecutor {
+  public static final long TIMEOUT_MILLIS = 5000;
+
+  private final @NotNull ExecutorService executor = Executors.newThreadPerTaskExecutor(
+    Thread.ofVirtual().name("aya-request-", 0).factory());
+  private final long timeoutMillis;
+
+  public RequestExecutor(long timeoutMillis) {
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /** @return the result of the request, or the fallback if it is cancelled by the deadline */
+  public <T> T run(@NotNull String name, @NotNull Supplier<T> request, @NotNull Supplier<T> fallback) {
+    var future = executor.submit(request::get);
+    try {
+      return await(name, future, fallback);
+    } finally {
+      // Interrupts the request if it is still running
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * Waits for a result shared with other requests, like a compilation, which is not cancelled.
+   *
+   * @return the result, or the fallback if it is not ready by the deadline
+   */
+  public <T> T await(@NotNull String name, @NotNull Future<T> future, @NotNull Supplier<T> fallback) {
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      Log.w("Request %s took longer than %d ms, answered without its result", name, timeoutMillis);
+      return fallback.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return fallback.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) throw cause;
+      if (e.getCause() instanceof Error cause) throw cause;
+      throw new CompletionException(e.getCause());
+    }
+  }
+}
@@ -21,6 +21,9 @@ public class LspArgs {
   public String host;
   @Option(names = {"-p", "--port"}, description = "Specify port.", defaultValue = "11451")
   public int port;
+  @Option(names = {"--shared-cache"}, description = "Load unchanged modules from the library caches " +
+    "shared with the command line compiler, instead of type checking them on startup.")
+  public boolean sharedCache;
 
   public enum Mode {
     server,
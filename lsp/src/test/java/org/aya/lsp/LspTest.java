@@ -3,17 +3,29 @@
 package org.aya.lsp;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import org.aya.cli.library.source.LibrarySource;
 import org.aya.concrete.Pattern;
 import org.aya.concrete.stmt.TeleDecl;
 import org.aya.core.term.DataCall;
 import org.aya.core.term.MetaPatTerm;
 import org.aya.generic.Constants;
+import org.aya.ide.Resolver;
+import org.aya.ide.action.Completion;
+import org.aya.ide.util.XY;
+import org.aya.lsp.server.CompileScheduler;
+import org.aya.lsp.server.RequestExecutor;
 import org.aya.lsp.tester.LspTestClient;
 import org.aya.lsp.tester.LspTestCompilerAdvisor;
+import org.aya.ref.LocalVar;
+import org.aya.util.NameIndex;
+import org.aya.util.error.PosIndex;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.aya.lsp.tester.TestCommand.compile;
 import static org.aya.lsp.tester.TestCommand.mutate;
@@ -72,6 +84,136 @@ public class LspTest {
     );
   }
 
+  @Test public void testCoalescedCompile() {
+    var compiled = new AtomicInteger();
+    var scheduler = new CompileScheduler<>(compiled::incrementAndGet);
+    var debounced = scheduler.schedule(CompileScheduler.DEBOUNCE_MILLIS);
+    var now = scheduler.schedule(0);
+    assertSame(debounced, now);
+    assertEquals(1, (int) now.join());
+    assertEquals(2, (int) scheduler.schedule(0).join());
+  }
+
+  @Test public void testPosIndex() {
+    var client = launch(TEST_LIB);
+    client.execute(compile((a, e) -> {}));
+    var owner = client.service.libraries().first();
+    var source = Resolver.resolveModule(owner, ImmutableSeq.of("Vec"));
+    assertTrue(source.isDefined());
+    var program = source.get().program().get();
+    assertNotNull(program);
+    var resolver = new Resolver.XYResolver(pos -> true, MutableList.create());
+    program.forEach(resolver::apply);
+    var positions = resolver.targets().toImmutableSeq();
+    var index = PosIndex.of(positions);
+    var lines = positions.foldLeft(0, (max, pos) -> Math.max(max, pos.sourcePos().endLine()));
+    for (int x = 1; x <= lines + 1; x++) {
+      for (int y = 0; y <= 80; y++) {
+        var line = x;
+        var column = y;
+        assertEquals(positions.filter(pos -> pos.sourcePos().containsVisually(line, column)), index.find(line, column));
+      }
+    }
+    // Found in the definitions of the whole library
+    var suc = Resolver.resolveDef(owner, ImmutableSeq.of("Nat"), "suc");
+    assertTrue(suc.isDefined());
+    assertEquals("suc", suc.get().ref().name());
+  }
+
+  @Test public void testRefIndex() {
+    var client = launch(TEST_LIB);
+    client.execute(compile((a, e) -> {}));
+    var owner = client.service.libraries().first();
+    var vec = Resolver.resolveModule(owner, ImmutableSeq.of("Vec")).get();
+    var nat = Resolver.resolveDef(owner, ImmutableSeq.of("Nat"), "Nat").get().ref();
+    var index = Resolver.refIndex(vec);
+    assertNotNull(index);
+    assertSame(index, vec.refIndex().get());
+    var usages = index.usages(nat).toImmutableSeq();
+    assertFalse(usages.isEmpty());
+    assertTrue(usages.allMatch(pos -> vec.underlyingFile().equals(pos.file().underlying().getOrNull())));
+    // A program parsed but not resolved yet has no references to index
+    var unresolved = new LibrarySource(owner, vec.underlyingFile());
+    unresolved.program().set(vec.program().get());
+    assertNull(Resolver.refIndex(unresolved));
+    assertNull(unresolved.refIndex().get());
+    unresolved.resolveInfo().set(vec.resolveInfo().get());
+    var resolved = Resolver.refIndex(unresolved);
+    assertNotNull(resolved);
+    assertEquals(usages, resolved.usages(nat).toImmutableSeq());
+    // Resolved again, so the index is outdated
+    unresolved.clearIndices();
+    assertNull(unresolved.refIndex().get());
+  }
+
+  @Test public void testNameIndex() {
+    var index = NameIndex.of(ImmutableSeq.of("zero", "suc", "Nat::suc", "Subst", "sucSuc")
+      .map(name -> new NameIndex.Entry<>(name, name)));
+    assertEquals(ImmutableSeq.of("suc", "sucSuc"), index.withPrefix("Suc").map(NameIndex.Entry::data).toImmutableSeq());
+    assertTrue(index.withPrefix("x").isEmpty());
+    // Shares the trigram "suc" with the names containing it
+    var fuzzy = index.fuzzy("sucx").map(NameIndex.Entry::data);
+    assertTrue(ImmutableSeq.of("suc", "Nat::suc", "sucSuc").allMatch(fuzzy::contains));
+    assertFalse(fuzzy.contains("zero"));
+    assertTrue(index.fuzzy("su").isEmpty());
+  }
+
+  @Test public void testCompletion() {
+    var client = launch(TEST_LIB);
+    client.execute(compile((a, e) -> {}));
+    var vec = Resolver.resolveModule(client.service.snapshot(), ImmutableSeq.of("Vec")).get();
+    // | vnil, ys => 0
+    var first = new XY(13, 14);
+    // | x :> xs, ys => 0
+    var second = new XY(14, 17);
+    var firstLocals = Completion.locals(vec, first).map(LocalVar::name);
+    var secondLocals = Completion.locals(vec, second).map(LocalVar::name);
+    assertTrue(firstLocals.contains("xs"));
+    // Bound in the other clause
+    assertFalse(firstLocals.contains("x"));
+    assertTrue(ImmutableSeq.of("x", "xs", "ys").allMatch(secondLocals::contains));
+    var items = Completion.complete(vec, second, "vn");
+    assertTrue(items.anyMatch(item -> item.label().equals("vnil") && item.scope() == Completion.Scope.Module));
+    var locals = Completion.complete(vec, second, "x");
+    assertEquals(Completion.Scope.Local, locals.first().scope());
+    // The text in the editor, not the one on the disk
+    assertEquals("vn", Completion.prefix("| vnil, ys => 0\n| x :> xs, ys => vn", new XY(2, 18)));
+  }
+
+  @Test public void testSnapshot() {
+    var client = launch(TEST_LIB);
+    client.execute(compile((a, e) -> {}));
+    var mod = ImmutableSeq.of("HelloWorld");
+    var live = Resolver.resolveModule(client.service.libraries(), mod).get();
+    var before = Resolver.resolveModule(client.service.snapshot(), mod).get();
+    assertNotSame(live, before);
+    var program = before.program().get();
+    assertNotNull(program);
+    assertSame(live.program().get(), program);
+    client.execute(mutate("HelloWorld"), compile((a, e) -> {}));
+    // Requests still reading the old snapshot see it unchanged
+    assertSame(program, before.program().get());
+    var after = Resolver.resolveModule(client.service.snapshot(), mod).get();
+    assertSame(live.program().get(), after.program().get());
+    assertNotSame(program, after.program().get());
+  }
+
+  @Test public void testRequestDeadline() {
+    var requests = new RequestExecutor(100);
+    assertEquals(1, (int) requests.run("fast", () -> 1, () -> 0));
+    var interrupted = new CompletableFuture<Boolean>();
+    assertEquals(0, (int) requests.run("slow", () -> {
+      try {
+        Thread.sleep(10_000);
+        interrupted.complete(false);
+      } catch (InterruptedException e) {
+        interrupted.complete(true);
+      }
+      return 1;
+    }, () -> 0));
+    assertTrue(interrupted.join());
+  }
+
   private void logTime(long time) {
     System.out.println("Remake changed modules took: " + time + "ms");
   }
@@ -18,4 +18,5 @@ include(
   "parser",
   "ide",
   "lsp",
+  "benchmarks",
 )
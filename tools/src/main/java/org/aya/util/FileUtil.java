@@ -9,7 +9,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Comparator;
@@ -57,10 +56,6 @@ public interface FileUtil {
     }
   }
 
-  static @NotNull ObjectInputStream ois(@NotNull Path corePath) throws IOException {
-    return new ObjectInputStream(Files.newInputStream(corePath));
-  }
-
   static @NotNull Path resolveFile(@NotNull Path basePath, @NotNull Seq<@NotNull String> moduleName, String postfix) {
     var withoutExt = moduleName.foldLeft(basePath, Path::resolve);
     return withoutExt.resolveSibling(withoutExt.getFileName() + postfix);
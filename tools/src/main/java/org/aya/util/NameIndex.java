@@ -0,0 +1,102 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.util;
+
+import kala.collection.SeqView;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import kala.collection.mutable.MutableMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * An immutable index of names for completion, matching names case-insensitively.
+ * The names sorted are a flattened trie, where the names with a prefix are found by binary search,
+ * and the names a misspelled query is close to are found by the trigrams they share.
+ */
+public final class NameIndex<T> {
+  public record Entry<T>(@NotNull String name, T data) {
+  }
+
+  /** Sorted by {@link #keys} */
+  private final @NotNull ImmutableSeq<Entry<T>> entries;
+  private final @NotNull String @NotNull [] keys;
+  /** For each trigram, the indices of the names containing it, in ascending order */
+  private final @NotNull MutableMap<String, int[]> trigrams = MutableMap.create();
+
+  private NameIndex(@NotNull ImmutableSeq<Entry<T>> given) {
+    entries = given.sorted(Comparator.comparing(entry -> key(entry.name)));
+    keys = new String[entries.size()];
+    var postings = MutableMap.<String, MutableList<Integer>>create();
+    for (int i = 0; i < keys.length; i++) {
+      var key = key(entries.get(i).name);
+      keys[i] = key;
+      for (var gram : trigrams(key)) {
+        var posting = postings.getOrPut(gram, MutableList::create);
+        if (posting.isEmpty() || posting.last() != i) posting.append(i);
+      }
+    }
+    postings.forEach((gram, posting) -> {
+      var indices = new int[posting.size()];
+      for (int i = 0; i < indices.length; i++) indices[i] = posting.get(i);
+      trigrams.put(gram, indices);
+    });
+  }
+
+  public static <T> @NotNull NameIndex<T> of(@NotNull ImmutableSeq<Entry<T>> entries) {
+    return new NameIndex<>(entries);
+  }
+
+  private static @NotNull String key(@NotNull String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+
+  private static @NotNull ImmutableSeq<String> trigrams(@NotNull String key) {
+    return ImmutableSeq.fill(Math.max(0, key.length() - 2), i -> key.substring(i, i + 3));
+  }
+
+  /** @return the least index whose key is not less than the given one */
+  private int lowerBound(@NotNull String key) {
+    var found = Arrays.binarySearch(keys, key);
+    if (found >= 0) {
+      // The keys may repeat
+      while (found > 0 && keys[found - 1].equals(key)) found--;
+      return found;
+    }
+    return -found - 1;
+  }
+
+  /** @return the names starting with the prefix, in the lexicographic order */
+  public @NotNull SeqView<Entry<T>> withPrefix(@NotNull String prefix) {
+    var key = key(prefix);
+    return entries.sliceView(lowerBound(key), lowerBound(key + Character.MAX_VALUE));
+  }
+
+  /**
+   * @return the names sharing at least half of the trigrams of the query,
+   * the ones sharing more first, or nothing if the query is shorter than a trigram
+   */
+  public @NotNull ImmutableSeq<Entry<T>> fuzzy(@NotNull String query) {
+    var grams = trigrams(key(query)).view().distinct().toImmutableSeq();
+    if (grams.isEmpty()) return ImmutableSeq.empty();
+    var counts = new int[keys.length];
+    var found = MutableList.<Integer>create();
+    grams.forEach(gram -> {
+      var posting = trigrams.getOrNull(gram);
+      if (posting != null) for (var i : posting) if (counts[i]++ == 0) found.append(i);
+    });
+    var threshold = (grams.size() + 1) / 2;
+    return found.view()
+      .filter(i -> counts[i] >= threshold)
+      .sorted(Comparator.<Integer>comparingInt(i -> -counts[i]).thenComparingInt(i -> i))
+      .map(entries::get)
+      .toImmutableSeq();
+  }
+
+  public int size() {
+    return keys.length;
+  }
+}
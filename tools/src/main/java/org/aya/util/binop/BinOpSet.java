@@ -3,16 +3,34 @@
 package org.aya.util.binop;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableSet;
 import org.aya.util.error.SourcePos;
 import org.aya.util.terck.MutableGraph;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+/**
+ * Besides {@link #tighterGraph}, the transitive closure of it is maintained as the edges are added,
+ * so that {@link #compare} is a lookup in a bitset instead of a search in the graph.
+ */
 public abstract class BinOpSet {
   public final @NotNull MutableGraph<BinOP> tighterGraph = MutableGraph.create();
   public final @NotNull MutableSet<BinOP> ops = MutableSet.of(APP_ELEM);
   public static final @NotNull BinOpSet.BinOP APP_ELEM = BinOP.from(SourcePos.NONE, OpDecl.APPLICATION);
+  /** The operators are compared by identity, see {@link #ensureHasElem(OpDecl, SourcePos)}. */
+  private final @NotNull IdentityHashMap<OpDecl, BinOP> elems = new IdentityHashMap<>();
+  /** Dense ids of the operators in {@link #tighterGraph}, indexing {@link #tighter}. */
+  private final @NotNull IdentityHashMap<BinOP, Integer> ids = new IdentityHashMap<>();
+  /** {@code tighter.get(i).get(j)} iff there is a path from operator i to operator j. */
+  private final @NotNull MutableList<BitSet> tighter = MutableList.create();
+
+  {
+    elems.put(OpDecl.APPLICATION, APP_ELEM);
+  }
 
   public void bind(@NotNull OpDecl op, @NotNull OpDecl.BindPred pred, @NotNull OpDecl target, @NotNull SourcePos sourcePos) {
     var opElem = ensureHasElem(op, sourcePos);
@@ -29,8 +47,11 @@ public abstract class BinOpSet {
     if (lhs == APP_ELEM) return PredCmp.Tighter;
     if (rhs == APP_ELEM) return PredCmp.Looser;
     if (lhs == rhs) return PredCmp.Equal;
-    if (tighterGraph.hasPath(lhs, rhs)) return PredCmp.Tighter;
-    if (tighterGraph.hasPath(rhs, lhs)) return PredCmp.Looser;
+    var lhsId = ids.get(lhs);
+    var rhsId = ids.get(rhs);
+    if (lhsId == null || rhsId == null) return PredCmp.Undefined;
+    if (tighter.get(lhsId).get(rhsId)) return PredCmp.Tighter;
+    if (tighter.get(rhsId).get(lhsId)) return PredCmp.Looser;
     return PredCmp.Undefined;
   }
 
@@ -48,16 +69,37 @@ public abstract class BinOpSet {
   }
 
   public BinOP ensureHasElem(@NotNull OpDecl opDecl, @NotNull SourcePos sourcePos) {
-    var elem = ops.find(e -> e.op == opDecl);
-    if (elem.isDefined()) return elem.get();
+    var elem = elems.get(opDecl);
+    if (elem != null) return elem;
     var newElem = BinOP.from(sourcePos, opDecl);
     ops.add(newElem);
+    elems.put(opDecl, newElem);
     return newElem;
   }
 
+  private int idOf(@NotNull BinOpSet.BinOP op) {
+    return ids.computeIfAbsent(op, __ -> {
+      tighter.append(new BitSet());
+      return tighter.size() - 1;
+    });
+  }
+
+  /**
+   * Every operator reaching {@code from}, and {@code from} itself,
+   * now reaches {@code to} and everything {@code to} reaches.
+   */
   private void addTighter(@NotNull BinOpSet.BinOP from, @NotNull BinOpSet.BinOP to) {
     tighterGraph.sucMut(to);
     tighterGraph.sucMut(from).append(to);
+    var fromId = idOf(from);
+    var toId = idOf(to);
+    var fromReach = tighter.get(fromId);
+    if (fromReach.get(toId)) return;
+    var toReach = (BitSet) tighter.get(toId).clone();
+    toReach.set(toId);
+    for (var reach : tighter) {
+      if (reach == fromReach || reach.get(fromId)) reach.or(toReach);
+    }
   }
 
   public void reportIfCyclic() {
@@ -0,0 +1,100 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.util.error;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An immutable interval tree over the positions of a source file,
+ * finding the positions {@link SourcePos#containsVisually} a cursor in O(log n + k) time,
+ * where k is the number of positions spanning the cursor in the order of (line, column).
+ * <p>
+ * The positions are sorted by their start, and the tree is implicit: the root of a range is its middle,
+ * which knows the largest end in the range.
+ */
+public final class PosIndex<T> {
+  private final @NotNull WithPos<T> @NotNull [] sorted;
+  /** The index of each position in the order they are given, by which the results are ordered */
+  private final int @NotNull [] order;
+  private final long @NotNull [] starts;
+  private final long @NotNull [] ends;
+  private final long @NotNull [] maxEnds;
+
+  @SuppressWarnings("unchecked")
+  private PosIndex(@NotNull ImmutableSeq<WithPos<T>> given) {
+    var size = given.size();
+    var indices = new Integer[size];
+    for (int i = 0; i < size; i++) indices[i] = i;
+    Arrays.sort(indices, Comparator.comparingLong(i -> start(given.get(i).sourcePos())));
+    sorted = new WithPos[size];
+    order = new int[size];
+    starts = new long[size];
+    ends = new long[size];
+    maxEnds = new long[size];
+    for (int i = 0; i < size; i++) {
+      var pos = given.get(indices[i]);
+      sorted[i] = pos;
+      order[i] = indices[i];
+      starts[i] = start(pos.sourcePos());
+      ends[i] = end(pos.sourcePos());
+    }
+    buildMaxEnds(0, size);
+  }
+
+  public static <T> @NotNull PosIndex<T> of(@NotNull ImmutableSeq<WithPos<T>> positions) {
+    return new PosIndex<>(positions);
+  }
+
+  /** Visually, a position spans from the column before its start, see {@link SourcePos#containsVisually}. */
+  private static long start(@NotNull SourcePos pos) {
+    return key(pos.startLine(), pos.startColumn() - 1);
+  }
+
+  private static long end(@NotNull SourcePos pos) {
+    return key(pos.endLine(), pos.endColumn());
+  }
+
+  private static long key(int line, int column) {
+    return ((long) line << 32) + column;
+  }
+
+  private long buildMaxEnds(int lo, int hi) {
+    if (lo >= hi) return Long.MIN_VALUE;
+    var mid = (lo + hi) >>> 1;
+    var max = Math.max(ends[mid], Math.max(buildMaxEnds(lo, mid), buildMaxEnds(mid + 1, hi)));
+    maxEnds[mid] = max;
+    return max;
+  }
+
+  /** @return the positions containing the cursor, in the order they are given */
+  public @NotNull ImmutableSeq<WithPos<T>> find(int line, int column) {
+    var found = MutableList.<Integer>create();
+    find(key(line, column), 0, sorted.length, found);
+    return found.view()
+      .filter(i -> sorted[i].sourcePos().containsVisually(line, column))
+      .sorted(Comparator.comparingInt(i -> order[i]))
+      .map(i -> sorted[i])
+      .toImmutableSeq();
+  }
+
+  private void find(long point, int lo, int hi, @NotNull MutableList<Integer> found) {
+    while (lo < hi) {
+      var mid = (lo + hi) >>> 1;
+      if (maxEnds[mid] < point) return;
+      find(point, lo, mid, found);
+      // The positions on the right start no earlier than the middle one
+      if (starts[mid] > point) return;
+      if (ends[mid] >= point) found.append(mid);
+      lo = mid + 1;
+    }
+  }
+
+  public int size() {
+    return sorted.length;
+  }
+}
@@ -6,8 +6,6 @@ import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableLinkedHashMap;
 import kala.collection.mutable.MutableList;
 import kala.collection.mutable.MutableMap;
-import kala.tuple.Tuple;
-import kala.tuple.Tuple2;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.function.BiConsumer;
@@ -41,57 +39,60 @@ public record CallGraph<C, T, P>(
     return graph.allMatch((k, ts) -> ts.allMatch((x, t) -> t.isEmpty()));
   }
 
-  /** completing a call graph is just finding its transitive closure */
+  /**
+   * Completing a call graph is just finding its transitive closure.
+   * The closure is computed semi-naively: the matrices found in an iteration
+   * are combined with the initial ones in the next one, while the older ones,
+   * which have been combined before, are not.
+   */
   private static <C, T, P> @NotNull CallGraph<C, T, P> complete(@NotNull CallGraph<C, T, P> initial) {
-    var step = initial;
+    var step = CallGraph.<C, T, P>create();
+    initial.graph.forEach((domain, codomains) -> codomains.forEach((codomain, mats) -> mats.forEach(step::put)));
+    var found = initial;
     while (true) {
-      var comb = indirect(initial, step);
-      var tup = merge(comb, step);
-      if (tup._1.isEmpty()) return step; // no better matrices are found, we are complete
-      step = tup._2; // got a partially completed call graph, try complete more
+      var comb = indirect(initial, found);
+      found = merge(comb, step);
+      if (found.isEmpty()) return step; // no better matrices are found, we are complete
     }
   }
 
   /** find all indirect calls and combine them together */
   private static <C, T, P> @NotNull CallGraph<C, T, P> indirect(@NotNull CallGraph<C, T, P> initial, @NotNull CallGraph<C, T, P> step) {
     var comb = CallGraph.<C, T, P>create();
-    initial.graph.forEach((domain, codomains) -> codomains.forEach((codomain, mats) -> mats.forEach(mat -> {
-      var indirect = step.graph.getOrNull(mat.codomain());
-      if (indirect != null) indirect.forEach((indCodomain, indMats) -> indMats.forEach(ind -> {
+    initial.graph.forEach((domain, codomains) -> codomains.forEach((codomain, mats) -> {
+      var indirect = step.graph.getOrNull(codomain);
+      if (indirect != null) mats.forEach(mat -> indirect.forEach((indCodomain, indMats) -> indMats.forEach(ind -> {
         var combine = CallMatrix.combine(mat, ind);
         comb.put(combine);
-      }));
-    })));
+      })));
+    }));
     return comb;
   }
 
   /**
-   * merge newly discovered indirect matrices with old ones.
+   * merge newly discovered indirect matrices with old ones, in place.
    * <a href="https://github.com/agda/agda/blob/e3bf58d8b2e95bc0481035756f44ddd9fe19b40d/src/full/Agda/Termination/CallGraph.hs#L155">CallGraph.hs</a>
+   *
+   * @return the accepted new matrices, used for indicating whether we are done
    */
-  private static <C, T, P> @NotNull Tuple2<CallGraph<C, T, P>, CallGraph<C, T, P>> merge(
+  private static <C, T, P> @NotNull CallGraph<C, T, P> merge(
     @NotNull CallGraph<C, T, P> comb, @NotNull CallGraph<C, T, P> cs
   ) {
-    var newG = CallGraph.<C, T, P>create(); // all accepted new matrices go here, used for indicating whether we are done.
-    var oldG = CallGraph.<C, T, P>create(); // all old matrices and accepted new matrices go here
-    forEachGraph(comb.graph, cs.graph,
-      // If the matrix is really new (no old matrices describing the same call -- we find a new call path), accept it
-      n -> {
-        n.forEach(newG::put);
-        n.forEach(oldG::put);
-      },
-      // If no new matrix is replacing the old one, keep the old one
-      o -> o.forEach(oldG::put),
-      // If `n` is replacing `o`, compare one by one
-      (n, o) -> {
-        // check if there's still old ones better than new ones...
-        // note: the idea of "better" is not the same as "decrease more", see comments on `Selector.select()`
-        var cmp = Selector.select(n.view(), o.view());
-        cmp._1.forEach(newG::put); // filtered really better new ones,
-        cmp._1.forEach(oldG::put); // ... and accept them.
-        cmp._2.forEach(oldG::put); // filtered old ones that still better than new ones.
-      });
-    return Tuple.of(newG, oldG);
+    var newG = CallGraph.<C, T, P>create();
+    comb.graph.forEach((domain, codomains) -> codomains.forEach((codomain, news) -> {
+      var olds = cs.graph.getOrPut(domain, MutableLinkedHashMap::of)
+        .getOrPut(codomain, MutableList::create);
+      // If the matrix is really new (no old matrices describing the same call -- we find a new call path), accept it,
+      // or, if `n` is replacing `o`, check if there's still old ones better than new ones...
+      // note: the idea of "better" is not the same as "decrease more", see comments on `Selector.select()`
+      var cmp = Selector.select(news.view(), olds.view());
+      if (cmp._1.isEmpty()) return; // no new matrix is replacing the old ones, keep them
+      cmp._1.forEach(newG::put); // filtered really better new ones,
+      olds.clear();
+      olds.appendAll(cmp._1); // ... and accept them.
+      olds.appendAll(cmp._2); // filtered old ones that still better than new ones.
+    }));
+    return newG;
   }
 
   public static <K, V> void forEachGraph(
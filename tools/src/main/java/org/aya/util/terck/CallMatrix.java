@@ -5,16 +5,18 @@ package org.aya.util.terck;
 import kala.collection.immutable.ImmutableSeq;
 import org.aya.pretty.doc.Doc;
 import org.aya.pretty.doc.Docile;
-import org.aya.util.ArrayUtil;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.Debug;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Arrays;
+
 /**
  * A call matrix for a call `f --> g` has dimensions `arity(g) * arity(f)`.
  * Each row corresponds to one argument in the call to `g` (the codomain).
  * Each column corresponds to one formal argument of caller `f` (the domain).
  *
+ * @param matrix the relations packed by {@link Relation#pack}, row by row
  * @author kiva
  * @see Relation
  */
@@ -24,7 +26,7 @@ public record CallMatrix<Callable, Def, Param>(
   @NotNull Def domain, @NotNull Def codomain,
   @NotNull ImmutableSeq<Param> domainTele,
   @NotNull ImmutableSeq<Param> codomainTele,
-  @NotNull Relation[][] matrix
+  int @NotNull [] matrix
 ) implements Docile, Selector.Candidate<CallMatrix<Callable, Def, Param>> {
   public CallMatrix(
     @NotNull Callable callable,
@@ -32,10 +34,9 @@ public record CallMatrix<Callable, Def, Param>(
     @NotNull ImmutableSeq<Param> domainTele,
     @NotNull ImmutableSeq<Param> codomainTele
   ) {
-    // TODO: sparse matrix?
     this(callable, domain, codomain, domainTele, codomainTele,
-      new Relation[codomainTele.size()][domainTele.size()]);
-    ArrayUtil.fill(matrix, Relation.unk());
+      new int[codomainTele.size() * domainTele.size()]);
+    Arrays.fill(matrix, Relation.PACKED_UNKNOWN);
   }
 
   public int rows() {
@@ -46,25 +47,24 @@ public record CallMatrix<Callable, Def, Param>(
     return domainTele.size();
   }
 
+  public @NotNull Relation get(int row, int col) {
+    return Relation.unpack(matrix[row * cols() + col]);
+  }
+
   public void set(@NotNull Param domain, @NotNull Param codomain, @NotNull Relation relation) {
     int row = codomainTele.indexOf(codomain);
     int col = domainTele.indexOf(domain);
     assert row != -1;
     assert col != -1;
-    matrix[row][col] = relation;
+    matrix[row * cols() + col] = Relation.pack(relation);
   }
 
   /** Compare two call matrices by their decrease amount. */
   @Override public @NotNull Selector.DecrOrd compare(@NotNull CallMatrix<Callable, Def, Param> other) {
     if (this.domain != other.domain || this.codomain != other.codomain) return Selector.DecrOrd.Unk;
     var rel = Selector.DecrOrd.Eq;
-    for (int i = 0; i < rows(); i++)
-      for (int j = 0; j < cols(); j++) {
-        var m = this.matrix[i][j];
-        var n = other.matrix[i][j];
-        var cmp = m.compare(n);
-        rel = rel.mul(cmp);
-      }
+    for (int i = 0; i < matrix.length && rel != Selector.DecrOrd.Unk; i++)
+      rel = rel.mul(Relation.comparePacked(this.matrix[i], other.matrix[i]));
     return rel;
   }
 
@@ -80,19 +80,23 @@ public record CallMatrix<Callable, Def, Param>(
     if (B.domain != A.codomain) // implies B.cols() != A.rows()
       throw new AssertionError("The combine cannot be applied to these two call matrices");
 
-    var BA = new CallMatrix<>(B.callable, A.domain, B.codomain,
-      A.domainTele, B.codomainTele);
-
-    for (int i = 0; i < BA.rows(); i++)
-      for (int j = 0; j < BA.cols(); j++)
-        for (int k = 0; k < B.cols(); k++)
-          BA.matrix[i][j] = BA.matrix[i][j].add(B.matrix[i][k].mul(A.matrix[k][j]));
-    return BA;
+    var rows = B.rows();
+    var cols = A.cols();
+    var inner = B.cols();
+    var BA = new int[rows * cols];
+    for (int i = 0; i < rows; i++)
+      for (int j = 0; j < cols; j++) {
+        var cell = Relation.PACKED_UNKNOWN;
+        for (int k = 0; k < inner; k++)
+          cell = Relation.addPacked(cell, Relation.mulPacked(B.matrix[i * inner + k], A.matrix[k * cols + j]));
+        BA[i * cols + j] = cell;
+      }
+    return new CallMatrix<>(B.callable, A.domain, B.codomain, A.domainTele, B.codomainTele, BA);
   }
 
   public @NotNull Doc toDoc() {
-    var lines = ImmutableSeq.from(matrix)
-      .map(row -> Doc.stickySep(ImmutableSeq.from(row).map(Relation::toDoc)));
+    var lines = ImmutableSeq.fill(rows(), i ->
+      Doc.stickySep(ImmutableSeq.fill(cols(), j -> get(i, j).toDoc())));
     return Doc.vcat(lines);
   }
 }
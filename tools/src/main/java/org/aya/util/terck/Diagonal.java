@@ -16,7 +16,7 @@ public record Diagonal<C, T, P>(
   public static <C, T, P> @NotNull Diagonal<C, T, P> create(@NotNull CallMatrix<C, T, P> matrix) {
     assert matrix.rows() == matrix.cols();
     var diag = IntStream.range(0, matrix.rows())
-      .mapToObj(i -> matrix.matrix()[i][i])
+      .mapToObj(i -> matrix.get(i, i))
       .collect(ImmutableSeq.factory());
     return new Diagonal<>(matrix, diag);
   }
@@ -12,6 +12,10 @@ import org.jetbrains.annotations.NotNull;
  * Relations between size of formal function parameter and function argument
  * in one recursive call.
  * A semi-ring with zero = {@link #unk()}, one = {@link #eq()}.
+ * <p>
+ * {@link CallMatrix} stores relations packed into ints, see {@link #pack},
+ * and computes with {@link #mulPacked}, {@link #addPacked} and {@link #comparePacked},
+ * which the operations on relations are defined by.
  *
  * @author kiva
  */
@@ -40,23 +44,14 @@ public sealed interface Relation extends Docile, Selector.Candidate<Relation> {
   }
 
   @Contract(pure = true) default @NotNull Relation mul(@NotNull Relation rhs) {
-    if (rhs instanceof Unknown) return rhs;
-    return switch (this) {
-      case Unknown lhs -> lhs;
-      case Decrease l when rhs instanceof Decrease r -> decr(l.usable || r.usable, l.size + r.size);
-      default -> throw new AssertionError("unreachable");
-    };
+    return unpack(mulPacked(pack(this), pack(rhs)));
   }
 
   /** @return the side that decreases more */
   @Contract(pure = true) default @NotNull Relation add(@NotNull Relation rhs) {
-    return switch (this.compare(rhs)) {
-      case Lt -> rhs;   // rhs decreases more
-      case Eq -> this;  // randomly pick one
-      case Gt -> this;  // this decreases more
-      case Unk -> throw new AssertionError("unreachable");
-    };
+    return unpack(addPacked(pack(this), pack(rhs)));
   }
+
   /**
    * Compare two relations by their decrease amount.
    *
@@ -64,16 +59,69 @@ public sealed interface Relation extends Docile, Selector.Candidate<Relation> {
    * {@link Selector.DecrOrd#Gt} if this decreases more.
    */
   @Override default @NotNull Selector.DecrOrd compare(@NotNull Relation other) {
-    if (this.isUnknown() && other.isUnknown()) return Selector.DecrOrd.Eq;
+    return comparePacked(pack(this), pack(other));
+  }
+
+  /** {@link #unk()} packed, which no decrease is packed into. */
+  int PACKED_UNKNOWN = Integer.MIN_VALUE;
+  /**
+   * The largest size of a decrease that can be packed, as the size has one bit less than an int.
+   * The sizes range from {@code -MAX_SIZE} to {@code MAX_SIZE}, leaving {@link #PACKED_UNKNOWN} out.
+   */
+  int MAX_SIZE = (1 << 30) - 1;
+
+  /**
+   * @return the size shifted left by one, with the lowest bit set if usable
+   * @throws IllegalArgumentException if the size is out of range, see {@link #MAX_SIZE}
+   */
+  static int pack(@NotNull Relation relation) {
+    return switch (relation) {
+      case Unknown ignored -> PACKED_UNKNOWN;
+      case Decrease d -> {
+        if (d.size > MAX_SIZE || d.size < -MAX_SIZE)
+          throw new IllegalArgumentException("size of decrease out of range: " + d.size);
+        yield d.size << 1 | (d.usable ? 1 : 0);
+      }
+    };
+  }
+
+  static @NotNull Relation unpack(int packed) {
+    if (packed == PACKED_UNKNOWN) return unk();
+    return decr((packed & 1) != 0, packed >> 1);
+  }
+
+  /**
+   * The sum of the sizes fits in an int, but may be out of range.
+   * A decrease more than {@link #MAX_SIZE} is kept as {@link #MAX_SIZE}, which decreases less,
+   * and an increase more than {@link #MAX_SIZE} is unknown, both of which are sound for termination.
+   */
+  static int mulPacked(int lhs, int rhs) {
+    if (lhs == PACKED_UNKNOWN || rhs == PACKED_UNKNOWN) return PACKED_UNKNOWN;
+    var size = (lhs >> 1) + (rhs >> 1);
+    if (size < -MAX_SIZE) return PACKED_UNKNOWN;
+    return Math.min(size, MAX_SIZE) << 1 | ((lhs | rhs) & 1);
+  }
+
+  static int addPacked(int lhs, int rhs) {
+    return switch (comparePacked(lhs, rhs)) {
+      case Lt -> rhs;   // rhs decreases more
+      case Eq -> lhs;   // randomly pick one
+      case Gt -> lhs;   // lhs decreases more
+      case Unk -> throw new AssertionError("unreachable");
+    };
+  }
+
+  static @NotNull Selector.DecrOrd comparePacked(int lhs, int rhs) {
+    var lunk = lhs == PACKED_UNKNOWN;
+    var runk = rhs == PACKED_UNKNOWN;
+    if (lunk && runk) return Selector.DecrOrd.Eq;
     // Unknown means no decrease, so it's always less than any decrease
-    if (this.isUnknown() && !other.isUnknown()) return Selector.DecrOrd.Lt;
-    if (!this.isUnknown() && other.isUnknown()) return Selector.DecrOrd.Gt;
-    var ldec = (Decrease) this;
-    var rdec = (Decrease) other;
+    if (lunk) return Selector.DecrOrd.Lt;
+    if (runk) return Selector.DecrOrd.Gt;
     // Usable decreases are always greater than unusable ones, or
     // the larger the size is, the more the argument decreases.
-    return Selector.DecrOrd.compareBool(ldec.usable, rdec.usable)
-      .add(Selector.DecrOrd.compareInt(ldec.size, rdec.size));
+    return Selector.DecrOrd.compareBool((lhs & 1) != 0, (rhs & 1) != 0)
+      .add(Selector.DecrOrd.compareInt(lhs >> 1, rhs >> 1));
   }
 
   default boolean isUnknown() {
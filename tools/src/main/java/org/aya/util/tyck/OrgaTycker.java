@@ -26,7 +26,8 @@ public interface OrgaTycker<T, E extends Exception> {
     else skip(sccTycker.tyckSCC(scc.filterNot(skipped::contains)));
   }
 
-  private void skip(@NotNull ImmutableSeq<T> failed) {
+  /** Skip the failed items and everything that uses them. */
+  default void skip(@NotNull ImmutableSeq<T> failed) {
     var skipped = skippedSet();
     failed.forEach(f -> skip(skipped, f));
   }
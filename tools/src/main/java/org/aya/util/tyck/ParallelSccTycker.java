@@ -0,0 +1,91 @@
+// Copyright (c) 2020-2022 Tesla (Yinsen) Zhang.
+// Use of this source code is governed by the MIT license that can be found in the LICENSE.md file.
+package org.aya.util.tyck;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import kala.function.CheckedConsumer;
+import org.aya.util.terck.MutableGraph;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a job for every SCC on a work-stealing pool, where an SCC is submitted
+ * as soon as all the SCCs it depends on are done. Once a job fails, the remaining
+ * jobs are not run, and the failure is rethrown by {@link #run()}.
+ * Used for the modules of a library and for the definitions of a module.
+ *
+ * @param users   for each SCC, the indices of the SCCs that depend on it
+ * @param pending for each SCC, the number of SCCs it depends on that are not done yet
+ */
+public record ParallelSccTycker<T, E extends Exception>(
+  @NotNull ImmutableSeq<ImmutableSeq<T>> SCCs,
+  @NotNull ImmutableSeq<ImmutableSeq<Integer>> users,
+  @NotNull AtomicIntegerArray pending,
+  @NotNull CountDownLatch remaining,
+  @NotNull AtomicReference<Throwable> failure,
+  @NotNull ExecutorService pool,
+  @NotNull CheckedConsumer<ImmutableSeq<T>, E> job
+) {
+  /**
+   * @param SCCs       in topological order, see {@link MutableGraph#topologicalOrder()}
+   * @param usageGraph for each (vertex, w) in the graph, the vertex should be done first
+   * @param job        throws nothing but {@code E} and unchecked exceptions
+   */
+  public static <T, E extends Exception> @NotNull ParallelSccTycker<T, E> create(
+    int jobs,
+    @NotNull ImmutableSeq<ImmutableSeq<T>> SCCs,
+    @NotNull MutableGraph<T> usageGraph,
+    @NotNull CheckedConsumer<ImmutableSeq<T>, E> job
+  ) {
+    var sccOf = MutableMap.<T, Integer>create();
+    SCCs.forEachIndexed((i, scc) -> scc.forEach(t -> sccOf.put(t, i)));
+    var users = SCCs.mapIndexed((i, scc) -> scc.view()
+      .flatMap(usageGraph::suc)
+      .map(sccOf::get)
+      .filter(j -> j != i)
+      .distinct()
+      .toImmutableSeq());
+    var pending = new AtomicIntegerArray(SCCs.size());
+    users.forEach(us -> us.forEach(pending::incrementAndGet));
+    return new ParallelSccTycker<>(SCCs, users, pending, new CountDownLatch(SCCs.size()),
+      new AtomicReference<>(), new ForkJoinPool(jobs), job);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void run() throws E, InterruptedException {
+    try {
+      for (int i = 0; i < SCCs.size(); i++) if (pending.get(i) == 0) submit(i);
+      remaining.await();
+    } finally {
+      pool.shutdownNow();
+    }
+    switch (failure.get()) {
+      case null -> {}
+      case RuntimeException e -> throw e;
+      case Error e -> throw e;
+      // The job throws no other checked exceptions
+      case Throwable e -> throw (E) e;
+    }
+  }
+
+  private void submit(int scc) {
+    pool.execute(() -> {
+      try {
+        if (failure.get() == null) job.acceptChecked(SCCs.get(scc));
+      } catch (Throwable e) {
+        failure.compareAndSet(null, e);
+      } finally {
+        users.get(scc).forEach(user -> {
+          if (pending.decrementAndGet(user) == 0) submit(user);
+        });
+        remaining.countDown();
+      }
+    });
+  }
+}